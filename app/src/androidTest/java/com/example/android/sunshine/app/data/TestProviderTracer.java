@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.List;
+
+/*
+    Checks that WeatherProvider reports its calls to ProviderTracer, and that nothing is
+    collected while tracing is switched off.
+ */
+public class TestProviderTracer extends AndroidTestCase {
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        ProviderTracer.reset();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ProviderTracer.setEnabled(false);
+        ProviderTracer.reset();
+        super.tearDown();
+    }
+
+    public void testDisabledTracerCollectsNothing() {
+        ProviderTracer.setEnabled(false);
+        Cursor cursor = mContext.getContentResolver().query(LocationEntry.CONTENT_URI,
+                null, null, null, null);
+        cursor.close();
+
+        assertNull("Error: The tracer recorded a call while it was disabled",
+                ProviderTracer.getRouteStats(WeatherProvider.LOCATION));
+    }
+
+    public void testRouteStatsAndRowCounts() {
+        ProviderTracer.setEnabled(true);
+
+        long locationRowId = ContentUris.parseId(mContext.getContentResolver().insert(
+                LocationEntry.CONTENT_URI, TestUtilities.createNorthPoleLocationValues()));
+        ContentValues[] bulk = TestProvider.createBulkInsertWeatherValues(locationRowId);
+        int inserted = mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, bulk);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, null);
+        cursor.close();
+
+        ProviderTracer.RouteStats locationStats =
+                ProviderTracer.getRouteStats(WeatherProvider.LOCATION);
+        assertNotNull(locationStats);
+        assertEquals(1, locationStats.getCallCount(ProviderTracer.OP_INSERT));
+
+        ProviderTracer.RouteStats weatherStats =
+                ProviderTracer.getRouteStats(WeatherProvider.WEATHER);
+        assertNotNull(weatherStats);
+        assertEquals(1, weatherStats.getCallCount(ProviderTracer.OP_BULK_INSERT));
+        assertEquals(inserted, weatherStats.getRowCount(ProviderTracer.OP_BULK_INSERT));
+
+        ProviderTracer.RouteStats joinStats =
+                ProviderTracer.getRouteStats(WeatherProvider.WEATHER_WITH_LOCATION);
+        assertNotNull(joinStats);
+        assertEquals(1, joinStats.getCallCount(ProviderTracer.OP_QUERY));
+        assertEquals(inserted, joinStats.getRowCount(ProviderTracer.OP_QUERY));
+
+        long histogramTotal = 0;
+        for (long count : joinStats.getHistogram(ProviderTracer.OP_QUERY)) {
+            histogramTotal += count;
+        }
+        assertEquals(1, histogramTotal);
+    }
+
+    public void testSlowQueryLogCapturesPlan() {
+        ProviderTracer.setEnabled(true);
+        // Every call counts as slow with a zero threshold.
+        ProviderTracer.setSlowQueryThresholdMillis(0);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocationWithStartDate(TestUtilities.TEST_LOCATION,
+                        TestUtilities.TEST_DATE),
+                null, null, null, null);
+        cursor.close();
+
+        List<ProviderTracer.SlowQuery> slowQueries = ProviderTracer.getSlowQueries();
+        assertEquals(1, slowQueries.size());
+        ProviderTracer.SlowQuery slowQuery = slowQueries.get(0);
+        assertEquals(WeatherProvider.WEATHER_WITH_LOCATION, slowQuery.match);
+        assertNotNull("Error: The slow query log should carry the selection", slowQuery.selection);
+        assertNotNull("Error: The slow query log should carry the query plan",
+                slowQuery.queryPlan);
+    }
+}
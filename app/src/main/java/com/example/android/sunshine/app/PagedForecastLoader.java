@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.CursorLoader;
+
+import com.example.android.sunshine.app.data.PagedCursor;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads a location's forecast from a start date on as a {@link PagedCursor}, so however many
+ * days the location has, only a few pages of them are in memory.  Behaves like the CursorLoader
+ * it extends otherwise, including reloading when the location's weather changes.
+ */
+public class PagedForecastLoader extends CursorLoader {
+    static final int PAGE_SIZE = 32;
+
+    private static final String SORT_ORDER = WeatherContract.WeatherEntry.COLUMN_DATE + " ASC";
+    private static final String[] COUNT_PROJECTION = {"COUNT(*)"};
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String mLocationSetting;
+    private final long mStartDate;
+    private final int mDateColumn;
+
+    /**
+     * @param dateColumn index of {@link WeatherContract.WeatherEntry#COLUMN_DATE} in
+     *                   {@code projection}, the key the pages are cut on.
+     */
+    public PagedForecastLoader(Context context, String locationSetting, long startDate,
+                               String[] projection, int dateColumn) {
+        super(context, WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                locationSetting, startDate), projection, null, null, SORT_ORDER);
+        mLocationSetting = locationSetting;
+        mStartDate = WeatherContract.normalizeDate(startDate);
+        mDateColumn = dateColumn;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        PagedCursor cursor = new PagedCursor(new PagedCursor.PageSource() {
+            @Override
+            public Cursor loadPage(long fromKey, int limit) {
+                return getContext().getContentResolver().query(
+                        WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                                mLocationSetting, fromKey, limit),
+                        getProjection(), null, null, SORT_ORDER);
+            }
+
+            @Override
+            public int count() {
+                Cursor count = getContext().getContentResolver().query(getUri(),
+                        COUNT_PROJECTION, null, null, null);
+                try {
+                    return count.moveToFirst() ? count.getInt(0) : 0;
+                } finally {
+                    count.close();
+                }
+            }
+        }, getProjection(), mDateColumn, mStartDate, PAGE_SIZE);
+
+        Uri notificationUri = WeatherContract.WeatherEntry.buildWeatherLocation(mLocationSetting);
+        cursor.setNotificationUri(getContext().getContentResolver(), notificationUri);
+        cursor.registerContentObserver(mObserver);
+        return cursor;
+    }
+}
@@ -1,86 +1,346 @@
 package com.example.android.sunshine.app;
 
+import android.app.AlarmManager;
 import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.example.android.sunshine.app.sync.SyncRequestCoalescer;
+import com.example.android.sunshine.app.wear.GmsNodeTransport;
+import com.example.android.sunshine.app.wear.WearDelivery;
+import com.example.android.sunshine.app.wear.WearOutbox;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.PutDataMapRequest;
 import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
 public class SendDataService extends IntentService {
     public SendDataService() {
         super("GCMService");
     }
 
     public final String LOG_TAG =SendDataService.class.getSimpleName();
-    private static GoogleApiClient mGoogleApiClient;
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
     public static final String WEATHER_PATH = "/weather";
     public static final String KEY_HIGH = "high";
     public static final String KEY_LOW = "low";
     public static final String KEY_WEATHER_ID = "weatherId";
+    // The days after today, as parallel arrays, for the watch's forecast strip.
+    public static final String KEY_DAY_DATES = "dayDates";
+    public static final String KEY_DAY_HIGHS = "dayHighs";
+    public static final String KEY_DAY_LOWS = "dayLows";
+    public static final String KEY_DAY_WEATHER_IDS = "dayWeatherIds";
+    // Debug builds stamp each payload so the watch face profiler can measure delivery.  Release
+    // builds leave it out: a changing stamp would make every send look new to the Data Layer.
+    public static final String KEY_SENT_AT = "sentAt";
+    // When the phone last fetched the forecast, by its clock.  The watch times the age of its
+    // weather from this rather than from when a payload happened to reach it.
+    public static final String KEY_FETCHED_AT = "fetchedAt";
+    // Revision of the payload, echoed back by the watch face; see WearDelivery.
+    public static final String KEY_REVISION = "revision";
+    // The latest weather alert for the user's location and when it stops applying.
+    public static final String KEY_ALERT = "alert";
+    public static final String KEY_ALERT_EXPIRES = "alertExpires";
+
+    /**
+     * Commits what is waiting in the {@link WearOutbox}.
+     */
+    private static final String ACTION_FLUSH =
+            "com.example.android.sunshine.app.action.FLUSH_WEAR_OUTBOX";
+
+    /**
+     * Resends the latest payload to watches that haven't acknowledged it.
+     */
+    private static final String ACTION_CHECK_DELIVERY =
+            "com.example.android.sunshine.app.action.CHECK_WEAR_DELIVERY";
+    // How long watches get to acknowledge before a resend.
+    private static final long ACK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    /**
+     * Answers a watch that asked for the latest weather.
+     */
+    private static final String ACTION_ANSWER_REFRESH =
+            "com.example.android.sunshine.app.action.ANSWER_WEAR_REFRESH";
+    private static final String EXTRA_NODE_ID = "nodeId";
+    // Older than this, the weather we would answer with is worth a sync as well.
+    private static final long SNAPSHOT_MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Today plus the next four days; as many as the watch has room for.
+     */
+    public static final int WATCH_DAYS = 5;
+
+    /**
+     * Sends the forecast to the watch.  Index 0 of each array is today; later entries, up to
+     * {@link #WATCH_DAYS} in all, are the days after it.  Temperatures are in Celsius; they are
+     * formatted in the user's units when they go out.  Routine updates wait in the
+     * {@link WearOutbox} for others to batch with; today turning severe goes out at once.
+     *
+     * @param fetchedAtMillis when the forecast was fetched, or 0 if it is the stored one shown
+     *                        again, e.g. in new units, in which case the last fetch time stands.
+     */
+    public static void send(Context context, long[] dates, double[] highs, double[] lows,
+                            int[] weatherIds, long fetchedAtMillis) {
+        if (dates == null || dates.length == 0) {
+            return;
+        }
+        Bundle changes = new Bundle();
+        changes.putLongArray(KEY_DAY_DATES, dates);
+        changes.putDoubleArray(KEY_DAY_HIGHS, highs);
+        changes.putDoubleArray(KEY_DAY_LOWS, lows);
+        changes.putIntArray(KEY_DAY_WEATHER_IDS, weatherIds);
+        if (fetchedAtMillis > 0) {
+            changes.putLong(KEY_FETCHED_AT, fetchedAtMillis);
+        }
+        WearOutbox outbox = WearOutbox.get(context);
+        outbox.offer(changes, outbox.classify(weatherIds[0]));
+    }
+
+    /**
+     * Sends a weather alert to the watch straight away, along with any pending forecast.
+     *
+     * @param expiresAt when the watch should stop showing it, in milliseconds since the epoch.
+     */
+    public static void sendAlert(Context context, String alert, long expiresAt) {
+        Bundle changes = new Bundle();
+        changes.putString(KEY_ALERT, alert);
+        changes.putLong(KEY_ALERT_EXPIRES, expiresAt);
+        WearOutbox.get(context).offer(changes, WearOutbox.URGENCY_SEVERE);
+    }
+
+    /**
+     * Commits whatever the {@link WearOutbox} holds.
+     */
+    public static void flush(Context context) {
+        context.startService(new Intent(context, SendDataService.class).setAction(ACTION_FLUSH));
+    }
+
+    /**
+     * Commits whatever the {@link WearOutbox} holds once {@code delayMillis} have passed, waking
+     * the device if it has to.  An alarm rather than a Handler, so the flush survives the phone
+     * going to sleep and the process dying in the meantime.  Replaces any flush already set.
+     */
+    public static void scheduleFlush(Context context, long delayMillis) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME_WAKEUP,
+                SystemClock.elapsedRealtime() + delayMillis, flushOperation(context));
+    }
+
+    public static void cancelFlush(Context context) {
+        AlarmManager alarmManager = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        alarmManager.cancel(flushOperation(context));
+    }
+
+    private static PendingIntent flushOperation(Context context) {
+        Intent intent = new Intent(context, SendDataService.class).setAction(ACTION_FLUSH);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
 
-    String high;
-    String low;
-    int weatherId;
+    /**
+     * Sends the last weather we sent to the watch {@code nodeId} again, and syncs if that is
+     * stale too.
+     */
+    public static void answerRefresh(Context context, String nodeId) {
+        context.startService(new Intent(context, SendDataService.class)
+                .setAction(ACTION_ANSWER_REFRESH)
+                .putExtra(EXTRA_NODE_ID, nodeId));
+    }
 
     @Override
     protected void onHandleIntent(Intent intent) {
-        Bundle extras = intent.getExtras();
-        high = Utility.formatTemperature(this, extras.getDouble("high"));
-        low = Utility.formatTemperature(this, extras.getDouble("low"));
-        weatherId = extras.getInt("weatherId");
-
-        Log.d(LOG_TAG, "low " + low + "high  " + high + "id " + weatherId);
+        String action = intent.getAction();
+        WearOutbox outbox = WearOutbox.get(this);
+        // Taken before connecting, so there is nothing to connect for when an earlier flush
+        // already took everything.  A refresh answer takes it too: the watch is waiting.
+        WearOutbox.Batch batch = null;
+        if (ACTION_FLUSH.equals(action) || ACTION_ANSWER_REFRESH.equals(action)) {
+            batch = outbox.drain();
+            if (batch != null && !hasForecast(WearDelivery.get(this), batch.changes)) {
+                // An alert before any forecast; it waits in the outbox for the first one.
+                outbox.onDeferred(batch);
+                batch = null;
+            }
+            if (batch == null && ACTION_FLUSH.equals(action)) {
+                return;
+            }
+        } else if (!ACTION_CHECK_DELIVERY.equals(action)) {
+            return;
+        }
 
-        mGoogleApiClient = new GoogleApiClient.Builder(this)
+        // An IntentService stops as soon as this returns, so the client is used synchronously.
+        GoogleApiClient client = new GoogleApiClient.Builder(this)
                 .addApi(Wearable.API)
-                .addConnectionCallbacks(new GoogleApiClient.ConnectionCallbacks() {
-                    @Override
-                    public void onConnected(Bundle bundle) {
-                        sendData(high, low, weatherId);
-                    }
-
-                    @Override
-                    public void onConnectionSuspended(int i) {
-                        Log.w(LOG_TAG, "connection is suspended " + i);
-                    }
-                })
-                .addOnConnectionFailedListener(new GoogleApiClient.OnConnectionFailedListener() {
-                    @Override
-                    public void onConnectionFailed(ConnectionResult connectionResult) {
-                        Log.w(LOG_TAG, "Fail to connect " + connectionResult);
-                    }
-                })
                 .build();
-                mGoogleApiClient.connect();
+        ConnectionResult connection = client.blockingConnect(CONNECT_TIMEOUT_SECONDS,
+                TimeUnit.SECONDS);
+        if (!connection.isSuccess()) {
+            Log.w(LOG_TAG, "Fail to connect " + connection);
+            if (batch != null) {
+                outbox.onCommitted(batch, false, 0);
+            }
+            return;
+        }
+        try {
+            WearDelivery delivery = WearDelivery.get(this);
+            if (batch != null) {
+                int bytes = sendData(client, delivery, batch.changes, batch.urgent);
+                outbox.onCommitted(batch, bytes >= 0, bytes);
+                Log.d(LOG_TAG, outbox.toString());
+                if (bytes >= 0) {
+                    scheduleDeliveryCheck();
+                }
+            }
+            if (ACTION_CHECK_DELIVERY.equals(action)) {
+                if (delivery.resendToStaleNodes(new GmsNodeTransport(client)) > 0) {
+                    scheduleDeliveryCheck();
+                }
+            } else if (ACTION_ANSWER_REFRESH.equals(action)) {
+                answerRefresh(client, delivery, intent.getStringExtra(EXTRA_NODE_ID));
+            }
+        } finally {
+            client.disconnect();
+        }
     }
 
-    private void sendData(String high, String low, int weatherId) {
-        Log.d(LOG_TAG, "send data");
+    /**
+     * Commits {@code changes} as the weather DataItem.  Anything they don't cover, such as the
+     * forecast when only an alert changed, is carried over from the last payload.
+     *
+     * @param changes changes that carry a forecast, or go on top of a payload that did; see
+     *                {@link #hasForecast}.
+     * @param urgent  whether the Data Layer should sync it right away.
+     * @return the size of the payload that went out, or -1 if it didn't.
+     */
+    private int sendData(GoogleApiClient client, WearDelivery delivery, Bundle changes,
+                         boolean urgent) {
         PutDataMapRequest weatherDataReq = PutDataMapRequest.create(WEATHER_PATH);
         DataMap weatherDataMap = weatherDataReq.getDataMap();
+        byte[] lastPayload = delivery.getLatestPayload();
+        if (lastPayload != null) {
+            weatherDataMap.putAll(DataMap.fromByteArray(lastPayload));
+            weatherDataMap.remove(KEY_REVISION);
+            weatherDataMap.remove(KEY_SENT_AT);
+        }
+        long lastFetchedAt = weatherDataMap.getLong(KEY_FETCHED_AT, 0);
+
+        long[] dates = changes.getLongArray(KEY_DAY_DATES);
+        if (dates != null && dates.length > 0) {
+            putForecast(weatherDataMap, dates, changes.getDoubleArray(KEY_DAY_HIGHS),
+                    changes.getDoubleArray(KEY_DAY_LOWS), changes.getIntArray(KEY_DAY_WEATHER_IDS));
+        }
+        if (changes.containsKey(KEY_ALERT)) {
+            weatherDataMap.putString(KEY_ALERT, changes.getString(KEY_ALERT));
+            weatherDataMap.putLong(KEY_ALERT_EXPIRES, changes.getLong(KEY_ALERT_EXPIRES));
+        }
+
+        // Unchanged weather keeps its revision, so watches that acked it aren't sent it again.
+        // The fetch time is left out of that, but still goes in the DataItem: a fetch that
+        // changed nothing is one small sync, and tells the watch its weather is current.
+        weatherDataMap.remove(KEY_FETCHED_AT);
+        long revision = delivery.getRevisionFor(weatherDataMap.toByteArray());
+        weatherDataMap.putLong(KEY_REVISION, revision);
+        long fetchedAt = changes.getLong(KEY_FETCHED_AT, lastFetchedAt);
+        if (fetchedAt > 0) {
+            weatherDataMap.putLong(KEY_FETCHED_AT, fetchedAt);
+        }
+        if (BuildConfig.DEBUG) {
+            weatherDataMap.putLong(KEY_SENT_AT, System.currentTimeMillis());
+        }
+
+        PutDataRequest request = weatherDataReq.asPutDataRequest();
+        if (urgent) {
+            request.setUrgent();
+        }
+        DataApi.DataItemResult result = Wearable.DataApi.putDataItem(client, request)
+                .await(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        if (!result.getStatus().isSuccess()) {
+            Log.e(LOG_TAG, "fail to put data " + result.getStatus());
+            return -1;
+        }
+        byte[] payload = weatherDataMap.toByteArray();
+        delivery.publish(revision, payload);
+        return payload.length;
+    }
+
+    /**
+     * @return whether {@code changes}, or the last payload they would go out on top of, carry a
+     * forecast.  A payload without one is no use to the watch.
+     */
+    private static boolean hasForecast(WearDelivery delivery, Bundle changes) {
+        long[] dates = changes.getLongArray(KEY_DAY_DATES);
+        if (dates != null && dates.length > 0) {
+            return true;
+        }
+        byte[] lastPayload = delivery.getLatestPayload();
+        return lastPayload != null && DataMap.fromByteArray(lastPayload).containsKey(KEY_HIGH);
+    }
+
+    private void putForecast(DataMap weatherDataMap, long[] dates, double[] highs, double[] lows,
+                             int[] weatherIds) {
+        String high = Utility.formatTemperature(this, highs[0]);
+        String low = Utility.formatTemperature(this, lows[0]);
+        int weatherId = weatherIds[0];
+
+        int dayCount = Math.min(dates.length, WATCH_DAYS) - 1;
+        long[] dayDates = new long[dayCount];
+        String[] dayHighs = new String[dayCount];
+        String[] dayLows = new String[dayCount];
+        ArrayList<Integer> dayWeatherIds = new ArrayList<>(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            dayDates[i] = dates[i + 1];
+            dayHighs[i] = Utility.formatTemperature(this, highs[i + 1]);
+            dayLows[i] = Utility.formatTemperature(this, lows[i + 1]);
+            dayWeatherIds.add(weatherIds[i + 1]);
+        }
+
+        Log.d(LOG_TAG, "low " + low + "high  " + high + "id " + weatherId);
+
         weatherDataMap.putString(KEY_HIGH, high);
         weatherDataMap.putString(KEY_LOW, low);
         weatherDataMap.putInt(KEY_WEATHER_ID, weatherId);
-        PutDataRequest req = weatherDataReq.asPutDataRequest();
-        Wearable.DataApi.putDataItem(mGoogleApiClient, req)
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (!dataItemResult.getStatus().isSuccess()) {
-                            Log.e(LOG_TAG, "fail to get data " + dataItemResult);
-                        } else {
-                            Log.i(LOG_TAG, "succeed to get data");
-                        }
-                    }
-                });
+        weatherDataMap.putLongArray(KEY_DAY_DATES, dayDates);
+        weatherDataMap.putStringArray(KEY_DAY_HIGHS, dayHighs);
+        weatherDataMap.putStringArray(KEY_DAY_LOWS, dayLows);
+        weatherDataMap.putIntegerArrayList(KEY_DAY_WEATHER_IDS, dayWeatherIds);
+    }
+
+    private void answerRefresh(GoogleApiClient client, WearDelivery delivery, String nodeId) {
+        // Answer from what we have straight away; even old weather may be newer than the
+        // watch's.  A sync, if needed, reaches the watch as a DataItem like any other.
+        boolean sent = delivery.sendLatestTo(nodeId, new GmsNodeTransport(client));
+        if (!sent || System.currentTimeMillis() - delivery.getPublishedAt()
+                >= SNAPSHOT_MAX_AGE_MILLIS) {
+            final Context appContext = getApplicationContext();
+            // The coalescer expects its requests on the main thread.
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    SyncRequestCoalescer.get(appContext).requestSync(
+                            Utility.getPreferredLocation(appContext),
+                            SyncRequestCoalescer.REASON_WATCH_REFRESH);
+                }
+            });
+        }
     }
 
+    private void scheduleDeliveryCheck() {
+        Intent intent = new Intent(this, SendDataService.class).setAction(ACTION_CHECK_DELIVERY);
+        PendingIntent operation = PendingIntent.getService(this, 0, intent,
+                PendingIntent.FLAG_UPDATE_CURRENT);
+        AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
+        alarmManager.set(AlarmManager.ELAPSED_REALTIME,
+                SystemClock.elapsedRealtime() + ACK_TIMEOUT_MILLIS, operation);
+    }
 }
@@ -31,6 +31,7 @@ import android.view.View;
 import android.widget.ImageView;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncRequestCoalescer;
 import com.google.android.gms.location.places.Place;
 import com.google.android.gms.location.places.ui.PlacePicker;
 import com.google.android.gms.maps.model.LatLng;
@@ -167,10 +168,14 @@ public class SettingsActivity extends PreferenceActivity
             }
 
             Utility.resetLocationStatus(this);
-            SunshineSyncAdapter.syncImmediately(this);
+            SyncRequestCoalescer.get(this).requestSync(Utility.getPreferredLocation(this),
+                    SyncRequestCoalescer.REASON_LOCATION_CHANGED);
         } else if ( key.equals(getString(R.string.pref_units_key)) ) {
             // units have changed. update lists of weather entries accordingly
             getContentResolver().notifyChange(WeatherContract.WeatherEntry.CONTENT_URI, null);
+            // and everything outside the app that shows temperatures, without a network sync
+            SyncRequestCoalescer.get(this).requestSync(Utility.getPreferredLocation(this),
+                    SyncRequestCoalescer.REASON_UNITS_CHANGED);
         } else if ( key.equals(getString(R.string.pref_location_status_key)) ) {
             // our location status has changed.  Update the summary accordingly
             Preference locationPreference = findPreference(getString(R.string.pref_location_key));
@@ -235,7 +240,8 @@ public class SettingsActivity extends PreferenceActivity
                 }
 
                 Utility.resetLocationStatus(this);
-                SunshineSyncAdapter.syncImmediately(this);
+                SyncRequestCoalescer.get(this).requestSync(address,
+                        SyncRequestCoalescer.REASON_LOCATION_CHANGED);
             }
         } else {
             super.onActivityResult(requestCode, resultCode, data);
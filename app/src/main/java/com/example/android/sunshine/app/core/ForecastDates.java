@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Day arithmetic used for the dates we store in the database.  All dates that go into the
+ * database are the start of a day in the default time zone, the same value that
+ * android.text.format.Time produces for the day's Julian day number.
+ */
+public final class ForecastDates {
+    public static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    private ForecastDates() {
+    }
+
+    /**
+     * Normalizes a time to the start of its day in the default time zone.
+     */
+    public static long normalizeDate(long dateMillis) {
+        return normalizeDate(dateMillis, TimeZone.getDefault());
+    }
+
+    public static long normalizeDate(long dateMillis, TimeZone timeZone) {
+        long offset = timeZone.getOffset(dateMillis);
+        long localDayStart = floorDiv(dateMillis + offset, DAY_IN_MILLIS) * DAY_IN_MILLIS;
+        // Use the offset in effect at the start of the day, not at dateMillis, so that days which
+        // cross a daylight savings change still start at local midnight.
+        return localDayStart - timeZone.getOffset(localDayStart - offset);
+    }
+
+    /**
+     * @return the start of the day that is {@code days} days after the day containing
+     * {@code dayStartMillis}.  Negative values go back in time.
+     */
+    public static long addDays(long dayStartMillis, int days, TimeZone timeZone) {
+        // Aim at noon so a 23 or 25 hour day cannot push us onto the wrong date.
+        return normalizeDate(dayStartMillis + days * DAY_IN_MILLIS + DAY_IN_MILLIS / 2, timeZone);
+    }
+
+    public static long addDays(long dayStartMillis, int days) {
+        return addDays(dayStartMillis, days, TimeZone.getDefault());
+    }
+
+    /**
+     * @return the local day number of the given time, counted from the epoch.  Two times fall on
+     * the same local day exactly when their day numbers match.
+     */
+    public static long getDayNumber(long dateMillis, TimeZone timeZone) {
+        return floorDiv(dateMillis + timeZone.getOffset(dateMillis), DAY_IN_MILLIS);
+    }
+
+    /**
+     * @return how many local days {@code dateMillis} is after {@code nowMillis}; 0 for today, 1
+     * for tomorrow and negative for days in the past.
+     */
+    public static int getDayOffset(long dateMillis, long nowMillis, TimeZone timeZone) {
+        return (int) (getDayNumber(dateMillis, timeZone) - getDayNumber(nowMillis, timeZone));
+    }
+
+    /**
+     * Formats used to present forecast days.  SimpleDateFormat is not thread safe, so callers
+     * that want to reuse one must keep it to a single thread.
+     */
+    public static SimpleDateFormat newDayNameFormat(Locale locale) {
+        return new SimpleDateFormat("EEEE", locale);
+    }
+
+    public static SimpleDateFormat newMonthDayFormat(Locale locale) {
+        return new SimpleDateFormat("MMMM dd", locale);
+    }
+
+    public static SimpleDateFormat newShortDateFormat(Locale locale) {
+        return new SimpleDateFormat("EEE MMM dd", locale);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        if ((x % y != 0) && ((x ^ y) < 0)) {
+            q--;
+        }
+        return q;
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.net.HttpURLConnection;
+import java.util.TimeZone;
+
+/**
+ * Parses the OpenWeatherMap daily forecast response.  The parser knows nothing about the
+ * database; the sync adapter turns the result into rows.
+ */
+public final class ForecastParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    public static final int STATUS_OK = 0;
+    public static final int STATUS_LOCATION_NOT_FOUND = 1;
+    public static final int STATUS_SERVER_ERROR = 2;
+
+    private ForecastParser() {
+    }
+
+    /**
+     * @param forecastJsonStr the complete forecast in JSON Format
+     * @param todayStart      the start of the current local day.  OWM returns daily forecasts
+     *                        in order, with the first day always being the current day, so day
+     *                        {@code i} of the response is stored as {@code todayStart + i} days.
+     */
+    public static Forecast parse(String forecastJsonStr, long todayStart, TimeZone timeZone)
+            throws JSONException {
+        JSONObject forecastJson = new JSONObject(forecastJsonStr);
+
+        // do we have an error?
+        if (forecastJson.has(OWM_MESSAGE_CODE)) {
+            int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
+
+            switch (errorCode) {
+                case HttpURLConnection.HTTP_OK:
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    return new Forecast(STATUS_LOCATION_NOT_FOUND);
+                default:
+                    return new Forecast(STATUS_SERVER_ERROR);
+            }
+        }
+
+        JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
+
+        JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
+        Forecast forecast = new Forecast(STATUS_OK);
+        forecast.cityName = cityJson.getString(OWM_CITY_NAME);
+
+        JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
+        forecast.latitude = cityCoord.getDouble(OWM_LATITUDE);
+        forecast.longitude = cityCoord.getDouble(OWM_LONGITUDE);
+
+        int dayCount = weatherArray.length();
+        forecast.days = new ForecastStore(dayCount);
+        for (int i = 0; i < dayCount; i++) {
+            // Get the JSON object representing the day
+            JSONObject dayForecast = weatherArray.getJSONObject(i);
+
+            // Description is in a child array called "weather", which is 1 element long.
+            // That element also contains a weather code.
+            JSONObject weatherObject = dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
+
+            // Temperatures are in a child object called "temp".  Try not to name variables
+            // "temp" when working with temperature.  It confuses everybody.
+            JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
+
+            forecast.days.add(ForecastDates.addDays(todayStart, i, timeZone),
+                    weatherObject.getInt(OWM_WEATHER_ID),
+                    (float) temperatureObject.getDouble(OWM_MAX),
+                    (float) temperatureObject.getDouble(OWM_MIN),
+                    dayForecast.getInt(OWM_HUMIDITY),
+                    (float) dayForecast.getDouble(OWM_PRESSURE),
+                    (float) dayForecast.getDouble(OWM_WINDSPEED),
+                    (float) dayForecast.getDouble(OWM_WIND_DIRECTION),
+                    weatherObject.getString(OWM_DESCRIPTION));
+        }
+        return forecast;
+    }
+
+    /**
+     * The parsed response.  Only {@link #status} is set unless the status is {@link #STATUS_OK}.
+     */
+    public static final class Forecast {
+        public final int status;
+        public String cityName;
+        public double latitude;
+        public double longitude;
+        public ForecastStore days;
+
+        Forecast(int status) {
+            this.status = status;
+        }
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * A run of forecast days kept column by column in primitive arrays, rather than as one object
+ * (or one ContentValues map of boxed values) per day.  This is what the parser produces and what
+ * the database writer, the change tracking and the watch sender consume, so a sync allocates a
+ * handful of arrays instead of dozens of small objects per day.
+ * <p/>
+ * Temperatures are Celsius.  Values are floats: the API reports one or two decimals, well within
+ * float precision.  Descriptions are interned in a process-wide pool, since OWM only uses a
+ * dozen distinct ones.  Not thread safe.
+ */
+public final class ForecastStore {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private static final HashMap<String, String> sDescriptionPool = new HashMap<String, String>();
+
+    private int mSize;
+    private long[] mDates;
+    private short[] mWeatherIds;
+    private float[] mHighs;
+    private float[] mLows;
+    private float[] mHumidity;
+    private float[] mPressure;
+    private float[] mWindSpeed;
+    private float[] mWindDirection;
+    private String[] mDescriptions;
+
+    public ForecastStore() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public ForecastStore(int capacity) {
+        capacity = Math.max(1, capacity);
+        mDates = new long[capacity];
+        mWeatherIds = new short[capacity];
+        mHighs = new float[capacity];
+        mLows = new float[capacity];
+        mHumidity = new float[capacity];
+        mPressure = new float[capacity];
+        mWindSpeed = new float[capacity];
+        mWindDirection = new float[capacity];
+        mDescriptions = new String[capacity];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Empties the store but keeps its arrays, so it can be refilled without allocating.
+     */
+    public void clear() {
+        Arrays.fill(mDescriptions, 0, mSize, null);
+        mSize = 0;
+    }
+
+    /**
+     * Appends a day.
+     *
+     * @return the index of the new day.
+     */
+    public int add(long date, int weatherId, float high, float low, float humidity,
+                   float pressure, float windSpeed, float windDirection, String description) {
+        if (mSize == mDates.length) {
+            grow();
+        }
+        int i = mSize++;
+        mDates[i] = date;
+        mWeatherIds[i] = (short) weatherId;
+        mHighs[i] = high;
+        mLows[i] = low;
+        mHumidity[i] = humidity;
+        mPressure[i] = pressure;
+        mWindSpeed[i] = windSpeed;
+        mWindDirection[i] = windDirection;
+        mDescriptions[i] = intern(description);
+        return i;
+    }
+
+    public long getDate(int i) {
+        checkIndex(i);
+        return mDates[i];
+    }
+
+    public int getWeatherId(int i) {
+        checkIndex(i);
+        return mWeatherIds[i];
+    }
+
+    public float getHigh(int i) {
+        checkIndex(i);
+        return mHighs[i];
+    }
+
+    public float getLow(int i) {
+        checkIndex(i);
+        return mLows[i];
+    }
+
+    public float getHumidity(int i) {
+        checkIndex(i);
+        return mHumidity[i];
+    }
+
+    public float getPressure(int i) {
+        checkIndex(i);
+        return mPressure[i];
+    }
+
+    public float getWindSpeed(int i) {
+        checkIndex(i);
+        return mWindSpeed[i];
+    }
+
+    public float getWindDirection(int i) {
+        checkIndex(i);
+        return mWindDirection[i];
+    }
+
+    public String getDescription(int i) {
+        checkIndex(i);
+        return mDescriptions[i];
+    }
+
+    /**
+     * @return the index of the day starting at {@code date}, or -1.  Days are normally added in
+     * date order, so this is a binary search when they are.
+     */
+    public int indexOfDate(long date) {
+        int low = 0;
+        int high = mSize - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long midDate = mDates[mid];
+            if (midDate < date) {
+                low = mid + 1;
+            } else if (midDate > date) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        // Out of order data: fall back to a scan.
+        for (int i = 0; i < mSize; i++) {
+            if (mDates[i] == date) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("Index " + i + ", size " + mSize);
+        }
+    }
+
+    private void grow() {
+        int capacity = mDates.length * 2;
+        mDates = Arrays.copyOf(mDates, capacity);
+        mWeatherIds = Arrays.copyOf(mWeatherIds, capacity);
+        mHighs = Arrays.copyOf(mHighs, capacity);
+        mLows = Arrays.copyOf(mLows, capacity);
+        mHumidity = Arrays.copyOf(mHumidity, capacity);
+        mPressure = Arrays.copyOf(mPressure, capacity);
+        mWindSpeed = Arrays.copyOf(mWindSpeed, capacity);
+        mWindDirection = Arrays.copyOf(mWindDirection, capacity);
+        mDescriptions = Arrays.copyOf(mDescriptions, capacity);
+    }
+
+    private static String intern(String description) {
+        if (description == null) {
+            return null;
+        }
+        synchronized (sDescriptionPool) {
+            String pooled = sDescriptionPool.get(description);
+            if (pooled == null) {
+                // Descriptions come from the server; don't let a misbehaving one grow the pool
+                // without bound.
+                if (sDescriptionPool.size() >= 64) {
+                    return description;
+                }
+                sDescriptionPool.put(description, description);
+                pooled = description;
+            }
+            return pooled;
+        }
+    }
+}
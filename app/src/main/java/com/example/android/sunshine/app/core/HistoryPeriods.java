@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Period boundaries for the weather history.  A week is a quarter of a month, starting on the
+ * 1st, 8th, 15th or 22nd, with the last one running to the end of the month.  That keeps weeks
+ * from straddling two months, so a month can be rolled up from its weeks without going back to
+ * the daily rows.  Every boundary is a normalized day start, like the dates in the database.
+ */
+public final class HistoryPeriods {
+    private static final int DAYS_PER_WEEK = 7;
+    private static final int WEEKS_PER_MONTH = 4;
+
+    private HistoryPeriods() {
+    }
+
+    /**
+     * @return the start of the week containing {@code date}.
+     */
+    public static long getWeekStart(long date, TimeZone timeZone) {
+        Calendar calendar = atNoon(date, timeZone);
+        int week = Math.min((calendar.get(Calendar.DAY_OF_MONTH) - 1) / DAYS_PER_WEEK,
+                WEEKS_PER_MONTH - 1);
+        calendar.set(Calendar.DAY_OF_MONTH, week * DAYS_PER_WEEK + 1);
+        return ForecastDates.normalizeDate(calendar.getTimeInMillis(), timeZone);
+    }
+
+    /**
+     * @return the start of the week after the one that starts at {@code weekStart}.
+     */
+    public static long getWeekEnd(long weekStart, TimeZone timeZone) {
+        Calendar calendar = atNoon(weekStart, timeZone);
+        if (calendar.get(Calendar.DAY_OF_MONTH) > (WEEKS_PER_MONTH - 1) * DAYS_PER_WEEK) {
+            return getMonthEnd(weekStart, timeZone);
+        }
+        return ForecastDates.addDays(weekStart, DAYS_PER_WEEK, timeZone);
+    }
+
+    /**
+     * @return the start of the month containing {@code date}.
+     */
+    public static long getMonthStart(long date, TimeZone timeZone) {
+        Calendar calendar = atNoon(date, timeZone);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        return ForecastDates.normalizeDate(calendar.getTimeInMillis(), timeZone);
+    }
+
+    /**
+     * @return the start of the month after the one containing {@code date}.
+     */
+    public static long getMonthEnd(long date, TimeZone timeZone) {
+        Calendar calendar = atNoon(date, timeZone);
+        calendar.set(Calendar.DAY_OF_MONTH, 1);
+        calendar.add(Calendar.MONTH, 1);
+        return ForecastDates.normalizeDate(calendar.getTimeInMillis(), timeZone);
+    }
+
+    // Noon cannot fall into a daylight savings gap, so the calendar never shifts the day.
+    private static Calendar atNoon(long date, TimeZone timeZone) {
+        Calendar calendar = Calendar.getInstance(timeZone);
+        calendar.setTimeInMillis(ForecastDates.normalizeDate(date, timeZone));
+        calendar.set(Calendar.HOUR_OF_DAY, 12);
+        return calendar;
+    }
+}
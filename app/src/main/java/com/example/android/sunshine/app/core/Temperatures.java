@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import java.util.Locale;
+
+/**
+ * Temperature conversion and formatting.  Temperatures are stored in Celsius and converted to
+ * the user's preferred units only when they are displayed.
+ */
+public final class Temperatures {
+
+    private Temperatures() {
+    }
+
+    public static double toDisplayUnits(double celsius, boolean metric) {
+        return metric ? celsius : (celsius * 1.8) + 32;
+    }
+
+    /**
+     * @param format a format with a single float argument, e.g. the format_temperature resource.
+     */
+    public static String format(Locale locale, String format, double celsius, boolean metric) {
+        // For presentation, assume the user doesn't care about tenths of a degree.
+        return String.format(locale, format, toDisplayUnits(celsius, metric));
+    }
+}
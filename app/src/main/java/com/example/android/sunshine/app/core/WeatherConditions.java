@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+/**
+ * Groups OpenWeatherMap weather condition ids into the handful of conditions Sunshine has art
+ * for.  Everything in this package is plain Java so that it can be benchmarked off-device.
+ */
+public final class WeatherConditions {
+    public static final int UNKNOWN = -1;
+    public static final int STORM = 0;
+    public static final int LIGHT_RAIN = 1;
+    public static final int RAIN = 2;
+    public static final int SNOW = 3;
+    public static final int FOG = 4;
+    public static final int CLEAR = 5;
+    public static final int LIGHT_CLOUDS = 6;
+    public static final int CLOUDS = 7;
+
+    // Number of known conditions, handy for sizing lookup tables indexed by condition.
+    public static final int CONDITION_COUNT = 8;
+
+    // Every id the API documents is below 1000, so the whole mapping fits in a small table.
+    private static final int MAX_WEATHER_ID = 1000;
+    private static final byte[] CONDITION_BY_ID = new byte[MAX_WEATHER_ID];
+
+    static {
+        for (int weatherId = 0; weatherId < MAX_WEATHER_ID; weatherId++) {
+            CONDITION_BY_ID[weatherId] = (byte) classify(weatherId);
+        }
+    }
+
+    private WeatherConditions() {
+    }
+
+    /**
+     * @param weatherId from OpenWeatherMap API response
+     * @return one of the condition constants above, {@link #UNKNOWN} if no relation is found.
+     */
+    public static int getCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= MAX_WEATHER_ID) {
+            return UNKNOWN;
+        }
+        return CONDITION_BY_ID[weatherId];
+    }
+
+    private static int classify(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return STORM;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return LIGHT_RAIN;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return RAIN;
+        } else if (weatherId == 511) {
+            return SNOW;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return RAIN;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return SNOW;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return FOG;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return STORM;
+        } else if (weatherId == 800) {
+            return CLEAR;
+        } else if (weatherId == 801) {
+            return LIGHT_CLOUDS;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return CLOUDS;
+        }
+        return UNKNOWN;
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers aggregate results per location until one of that location's rows is written.
+ * Results are immutable row snapshots, so one entry can back any number of cursors.
+ *
+ * A query that was running while its location was written must not cache what it read, so
+ * callers take a stamp with {@link #begin()} before reading and hand it back to
+ * {@link #put(long, String, Object[][], long)}, which drops results older than the last write.
+ */
+class AggregateCache {
+    static final int MAX_ENTRIES = 64;
+
+    private static final long ALL_LOCATIONS = -1;
+
+    private static class Entry {
+        final long locationId;
+        final Object[][] rows;
+
+        Entry(long locationId, Object[][] rows) {
+            this.locationId = locationId;
+            this.rows = rows;
+        }
+    }
+
+    private final LinkedHashMap<String, Entry> mEntries =
+            new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                    return size() > MAX_ENTRIES;
+                }
+            };
+    // When each location, or ALL_LOCATIONS, was last invalidated, on the mClock timeline.
+    private final HashMap<Long, Long> mInvalidatedAt = new HashMap<Long, Long>();
+    private long mClock;
+
+    private int mHitCount;
+    private int mMissCount;
+
+    synchronized long begin() {
+        return mClock;
+    }
+
+    /**
+     * @return the cached rows, or null.
+     */
+    synchronized Object[][] get(String key) {
+        Entry entry = mEntries.get(key);
+        if (entry == null) {
+            mMissCount++;
+            return null;
+        }
+        mHitCount++;
+        return entry.rows;
+    }
+
+    synchronized void put(long locationId, String key, Object[][] rows, long stamp) {
+        if (invalidatedSince(locationId, stamp) || invalidatedSince(ALL_LOCATIONS, stamp)) {
+            return;
+        }
+        mEntries.put(key, new Entry(locationId, rows));
+    }
+
+    synchronized void invalidate(long locationId) {
+        mInvalidatedAt.put(locationId, ++mClock);
+        Iterator<Entry> entries = mEntries.values().iterator();
+        while (entries.hasNext()) {
+            if (entries.next().locationId == locationId) {
+                entries.remove();
+            }
+        }
+    }
+
+    synchronized void invalidateAll() {
+        // Per location marks are subsumed by this one.
+        mInvalidatedAt.clear();
+        mInvalidatedAt.put(ALL_LOCATIONS, ++mClock);
+        mEntries.clear();
+    }
+
+    synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private boolean invalidatedSince(long locationId, long stamp) {
+        Long invalidatedAt = mInvalidatedAt.get(locationId);
+        return invalidatedAt != null && invalidatedAt > stamp;
+    }
+}
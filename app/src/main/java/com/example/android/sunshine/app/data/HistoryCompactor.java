@@ -0,0 +1,249 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.HistoryPeriods;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.TimeZone;
+
+/**
+ * Rolls aged daily rows up into the history table and expires what falls out of the retention
+ * window:
+ * <ul>
+ * <li>the last {@link #RAW_DAYS} days stay in the weather table at full resolution,</li>
+ * <li>older days are rolled into weeks, kept until they are {@link #WEEKLY_DAYS} days old,</li>
+ * <li>older weeks are rolled into months, kept until they are {@link #HISTORY_DAYS} days old.</li>
+ * </ul>
+ * Work is done one period of one location at a time, each in its own transaction, so a slice
+ * can stop at any deadline and the next one picks up where it left off.  Cutoffs are aligned to
+ * period boundaries, so a period is only ever rolled up once all of its days are in.
+ */
+class HistoryCompactor {
+    static final int RAW_DAYS = 14;
+    static final int WEEKLY_DAYS = 91;
+    static final int HISTORY_DAYS = 365;
+
+    private static final String[] OLDEST_DAY_COLUMNS = {
+            WeatherEntry.COLUMN_LOC_KEY, WeatherEntry.COLUMN_DATE};
+    private static final String[] OLDEST_WEEK_COLUMNS = {
+            HistoryEntry.COLUMN_LOC_KEY, HistoryEntry.COLUMN_START_DATE};
+
+    private static final String DAYS_IN_RANGE = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+    private static final String WEEKS_IN_RANGE = HistoryEntry.COLUMN_LOC_KEY + " = ? AND " +
+            HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_WEEK + " AND " +
+            HistoryEntry.COLUMN_START_DATE + " >= ? AND " + HistoryEntry.COLUMN_START_DATE + " < ?";
+
+    private static final String SQL_SUMMARIZE_DAYS = "SELECT" +
+            " MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ")," +
+            " MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ")," +
+            " AVG((" + WeatherEntry.COLUMN_MIN_TEMP + " + " + WeatherEntry.COLUMN_MAX_TEMP + ") / 2)," +
+            " COUNT(*)" +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + DAYS_IN_RANGE;
+    private static final String SQL_DOMINANT_DAY_CONDITION = "SELECT " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", COUNT(*) AS d" +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + DAYS_IN_RANGE +
+            " GROUP BY " + WeatherEntry.COLUMN_WEATHER_ID +
+            " ORDER BY d DESC, " + WeatherEntry.COLUMN_WEATHER_ID + " LIMIT 1";
+
+    // Weeks carry their day count, so the month's mean is weighted rather than a mean of means.
+    private static final String SQL_SUMMARIZE_WEEKS = "SELECT" +
+            " MIN(" + HistoryEntry.COLUMN_MIN_TEMP + ")," +
+            " MAX(" + HistoryEntry.COLUMN_MAX_TEMP + ")," +
+            " SUM(" + HistoryEntry.COLUMN_MEAN_TEMP + " * " + HistoryEntry.COLUMN_DAY_COUNT + ")" +
+            " / SUM(" + HistoryEntry.COLUMN_DAY_COUNT + ")," +
+            " SUM(" + HistoryEntry.COLUMN_DAY_COUNT + ")" +
+            " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + WEEKS_IN_RANGE;
+    // Only each week's dominant condition survives, so the month's is the condition that led
+    // the most days across its weeks.  Close enough for a trend line.
+    private static final String SQL_DOMINANT_WEEK_CONDITION = "SELECT " +
+            HistoryEntry.COLUMN_WEATHER_ID + ", SUM(" + HistoryEntry.COLUMN_WEATHER_DAYS + ") AS d" +
+            " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + WEEKS_IN_RANGE +
+            " GROUP BY " + HistoryEntry.COLUMN_WEATHER_ID +
+            " ORDER BY d DESC, " + HistoryEntry.COLUMN_WEATHER_ID + " LIMIT 1";
+
+    private final SQLiteDatabase mDb;
+    private final TimeZone mTimeZone;
+    private final long mRawCutoff;
+    private final long mWeeklyCutoff;
+    private final long mHistoryStart;
+
+    private int mPeriodsWritten;
+    private int mRowsExpired;
+
+    HistoryCompactor(SQLiteDatabase db, long todayStart, TimeZone timeZone) {
+        mDb = db;
+        mTimeZone = timeZone;
+        mRawCutoff = HistoryPeriods.getWeekStart(
+                ForecastDates.addDays(todayStart, -RAW_DAYS, timeZone), timeZone);
+        mWeeklyCutoff = HistoryPeriods.getMonthStart(
+                ForecastDates.addDays(todayStart, -WEEKLY_DAYS, timeZone), timeZone);
+        mHistoryStart = ForecastDates.addDays(todayStart, -HISTORY_DAYS, timeZone);
+    }
+
+    /**
+     * Expires old rows, then rolls up periods until the history is current or
+     * {@code deadlineNanos} (on the System.nanoTime() clock) has passed.  At least one period is
+     * always rolled up, so every slice makes progress.
+     *
+     * @return true if there is more to do.
+     */
+    boolean runSlice(long deadlineNanos) {
+        expire();
+        do {
+            if (!compactOldestWeek() && !compactOldestMonth()) {
+                return false;
+            }
+            mPeriodsWritten++;
+        } while (System.nanoTime() < deadlineNanos);
+        return true;
+    }
+
+    int getPeriodsWritten() {
+        return mPeriodsWritten;
+    }
+
+    int getRowsExpired() {
+        return mRowsExpired;
+    }
+
+    /**
+     * Drops everything that ends before the retention window, at whatever resolution it is
+     * stored in.  Days and weeks that old would only be rolled up to be thrown away.
+     */
+    private void expire() {
+        String[] historyStart = {Long.toString(mHistoryStart)};
+        mRowsExpired += mDb.delete(HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_END_DATE + " <= ?", historyStart);
+        mRowsExpired += mDb.delete(WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " < ?", historyStart);
+    }
+
+    /**
+     * Rolls the oldest complete week still held as daily rows into one weekly row.
+     *
+     * @return false if there was no such week.
+     */
+    private boolean compactOldestWeek() {
+        Cursor oldest = mDb.query(WeatherEntry.TABLE_NAME, OLDEST_DAY_COLUMNS,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(mRawCutoff)},
+                null, null, WeatherEntry.COLUMN_DATE + " ASC", "1");
+        long locationId;
+        long weekStart;
+        try {
+            if (!oldest.moveToFirst()) {
+                return false;
+            }
+            locationId = oldest.getLong(0);
+            weekStart = HistoryPeriods.getWeekStart(oldest.getLong(1), mTimeZone);
+        } finally {
+            oldest.close();
+        }
+        long weekEnd = HistoryPeriods.getWeekEnd(weekStart, mTimeZone);
+        String[] range = {Long.toString(locationId), Long.toString(weekStart),
+                Long.toString(weekEnd)};
+
+        mDb.beginTransaction();
+        try {
+            ContentValues values = summarize(SQL_SUMMARIZE_DAYS, SQL_DOMINANT_DAY_CONDITION, range);
+            values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+            values.put(HistoryEntry.COLUMN_PERIOD, HistoryEntry.PERIOD_WEEK);
+            values.put(HistoryEntry.COLUMN_START_DATE, weekStart);
+            values.put(HistoryEntry.COLUMN_END_DATE, weekEnd);
+            mDb.insert(HistoryEntry.TABLE_NAME, null, values);
+            mDb.delete(WeatherEntry.TABLE_NAME, DAYS_IN_RANGE, range);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return true;
+    }
+
+    /**
+     * Rolls the weeks of the oldest month that has aged past the weekly window into one monthly
+     * row.
+     *
+     * @return false if there was no such month.
+     */
+    private boolean compactOldestMonth() {
+        Cursor oldest = mDb.query(HistoryEntry.TABLE_NAME, OLDEST_WEEK_COLUMNS,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_WEEK + " AND " +
+                        HistoryEntry.COLUMN_START_DATE + " < ?",
+                new String[]{Long.toString(mWeeklyCutoff)},
+                null, null, HistoryEntry.COLUMN_START_DATE + " ASC", "1");
+        long locationId;
+        long monthStart;
+        try {
+            if (!oldest.moveToFirst()) {
+                return false;
+            }
+            locationId = oldest.getLong(0);
+            monthStart = HistoryPeriods.getMonthStart(oldest.getLong(1), mTimeZone);
+        } finally {
+            oldest.close();
+        }
+        long monthEnd = HistoryPeriods.getMonthEnd(monthStart, mTimeZone);
+        String[] range = {Long.toString(locationId), Long.toString(monthStart),
+                Long.toString(monthEnd)};
+
+        mDb.beginTransaction();
+        try {
+            ContentValues values = summarize(SQL_SUMMARIZE_WEEKS, SQL_DOMINANT_WEEK_CONDITION,
+                    range);
+            // Delete the weeks first; the month row must not be caught by WEEKS_IN_RANGE.
+            mDb.delete(HistoryEntry.TABLE_NAME, WEEKS_IN_RANGE, range);
+            values.put(HistoryEntry.COLUMN_LOC_KEY, locationId);
+            values.put(HistoryEntry.COLUMN_PERIOD, HistoryEntry.PERIOD_MONTH);
+            values.put(HistoryEntry.COLUMN_START_DATE, monthStart);
+            values.put(HistoryEntry.COLUMN_END_DATE, monthEnd);
+            mDb.insert(HistoryEntry.TABLE_NAME, null, values);
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        return true;
+    }
+
+    private ContentValues summarize(String summarySql, String dominantSql, String[] range) {
+        ContentValues values = new ContentValues();
+        Cursor summary = mDb.rawQuery(summarySql, range);
+        try {
+            summary.moveToFirst();
+            values.put(HistoryEntry.COLUMN_MIN_TEMP, summary.getDouble(0));
+            values.put(HistoryEntry.COLUMN_MAX_TEMP, summary.getDouble(1));
+            values.put(HistoryEntry.COLUMN_MEAN_TEMP, summary.getDouble(2));
+            values.put(HistoryEntry.COLUMN_DAY_COUNT, summary.getInt(3));
+        } finally {
+            summary.close();
+        }
+        Cursor dominant = mDb.rawQuery(dominantSql, range);
+        try {
+            dominant.moveToFirst();
+            values.put(HistoryEntry.COLUMN_WEATHER_ID, dominant.getInt(0));
+            values.put(HistoryEntry.COLUMN_WEATHER_DAYS, dominant.getInt(1));
+        } finally {
+            dominant.close();
+        }
+        return values;
+    }
+}
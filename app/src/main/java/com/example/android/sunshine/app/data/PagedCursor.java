@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.annotation.TargetApi;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Build;
+import android.util.SparseArray;
+
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+/**
+ * A cursor over a long, key ordered result that only ever holds a few pages of it.  Pages are
+ * fetched by key rather than by offset: each page starts at the first row after the last key
+ * of the page before it, which an index on the key turns into a seek however deep the page is.
+ *
+ * The list showing the cursor reports what is on screen through
+ * {@link #setViewport(int, int)}; the pages just beyond it are then loaded in the background
+ * and pages far from it are closed.  A row on a page that is not resident is loaded on the
+ * spot, so the cursor is correct even if nobody reports a viewport.
+ */
+public class PagedCursor extends AbstractCursor {
+
+    /**
+     * Where the pages come from.  Both methods may be called from any thread.
+     */
+    public interface PageSource {
+        /**
+         * @return at most {@code limit} rows, in key order, starting with the first row whose
+         * key is at least {@code fromKey}.
+         */
+        Cursor loadPage(long fromKey, int limit);
+
+        /**
+         * @return the number of rows from the first key on.
+         */
+        int count();
+    }
+
+    // Pages this far from the viewport are closed.
+    static final int EVICT_DISTANCE = 2;
+
+    private static final long UNKNOWN_KEY = Long.MIN_VALUE;
+
+    private static final Executor sPrefetchExecutor = Executors.newSingleThreadExecutor();
+
+    private final PageSource mSource;
+    private final String[] mColumns;
+    private final int mKeyColumn;
+    private final int mPageSize;
+    private final int mCount;
+
+    private final Object mLock = new Object();
+    // Guarded by mLock.  Start keys are learnt as pages load; page 0 starts at the first key.
+    private final long[] mPageStartKeys;
+    private final SparseArray<Cursor> mPages = new SparseArray<Cursor>();
+    private int mLoadCount;
+    private int mViewportFirstPage;
+    private int mViewportLastPage;
+
+    private Cursor mCurrentPage;
+
+    /**
+     * Counts the rows and loads the first page, so construct this off the main thread.
+     */
+    public PagedCursor(PageSource source, String[] columns, int keyColumn, long firstKey,
+                       int pageSize) {
+        mSource = source;
+        mColumns = columns;
+        mKeyColumn = keyColumn;
+        mPageSize = pageSize;
+        mCount = source.count();
+        mPageStartKeys = new long[Math.max(1, (mCount + pageSize - 1) / pageSize)];
+        Arrays.fill(mPageStartKeys, UNKNOWN_KEY);
+        mPageStartKeys[0] = firstKey;
+        if (mCount > 0) {
+            getPage(0);
+        }
+    }
+
+    /**
+     * Tells the cursor which rows are on screen.  Loads the page after the last one (or before
+     * the first one) in the background and closes pages more than {@link #EVICT_DISTANCE}
+     * pages away.
+     */
+    public void setViewport(int firstPosition, int lastPosition) {
+        if (mCount == 0 || firstPosition < 0 || lastPosition < firstPosition) {
+            return;
+        }
+        final int firstPage = firstPosition / mPageSize;
+        final int lastPage = Math.min(lastPosition / mPageSize, mPageStartKeys.length - 1);
+
+        synchronized (mLock) {
+            mViewportFirstPage = firstPage;
+            mViewportLastPage = lastPage;
+            for (int i = mPages.size() - 1; i >= 0; i--) {
+                int page = mPages.keyAt(i);
+                if (page < firstPage - EVICT_DISTANCE || page > lastPage + EVICT_DISTANCE) {
+                    Cursor evicted = mPages.valueAt(i);
+                    if (evicted == mCurrentPage) {
+                        // Make the next move reposition even if it is to the same row.
+                        mCurrentPage = null;
+                        mPos = -1;
+                    }
+                    evicted.close();
+                    mPages.removeAt(i);
+                }
+            }
+        }
+
+        prefetch(lastPage + 1);
+        prefetch(firstPage - 1);
+    }
+
+    /**
+     * @return how many pages have been read from the source so far.
+     */
+    public int getLoadCount() {
+        synchronized (mLock) {
+            return mLoadCount;
+        }
+    }
+
+    /**
+     * @return how many pages are held right now.
+     */
+    public int getResidentPageCount() {
+        synchronized (mLock) {
+            return mPages.size();
+        }
+    }
+
+    private void prefetch(final int page) {
+        if (page < 0 || page >= mPageStartKeys.length) {
+            return;
+        }
+        synchronized (mLock) {
+            if (mPages.get(page) != null) {
+                return;
+            }
+        }
+        sPrefetchExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mLock) {
+                    // The list may have moved on while this waited its turn.
+                    if (page < mViewportFirstPage - 1 || page > mViewportLastPage + 1) {
+                        return;
+                    }
+                }
+                if (!isClosed()) {
+                    getPage(page);
+                }
+            }
+        });
+    }
+
+    private Cursor getPage(int page) {
+        long fromKey;
+        synchronized (mLock) {
+            Cursor cursor = mPages.get(page);
+            if (cursor != null) {
+                return cursor;
+            }
+            fromKey = mPageStartKeys[page];
+        }
+        if (fromKey == UNKNOWN_KEY) {
+            fromKey = findStartKey(page);
+            if (fromKey == UNKNOWN_KEY) {
+                // Rows went away since we counted; the reload that follows will fix the count.
+                return null;
+            }
+        }
+
+        // Load without holding the lock so the list is never stuck behind a prefetch.
+        Cursor loaded = load(page, fromKey);
+        synchronized (mLock) {
+            Cursor existing = mPages.get(page);
+            if (existing != null) {
+                // Someone else got there first.
+                loaded.close();
+                return existing;
+            }
+            if (isClosed()) {
+                loaded.close();
+                return null;
+            }
+            mPages.put(page, loaded);
+            return loaded;
+        }
+    }
+
+    /**
+     * Nobody has read the pages before {@code page} yet, so walk forward from the last page
+     * whose start is known, reading each one only for its last key.
+     */
+    private long findStartKey(int page) {
+        int known;
+        synchronized (mLock) {
+            known = page;
+            while (mPageStartKeys[known] == UNKNOWN_KEY) {
+                known--;
+            }
+        }
+        long fromKey;
+        for (int walk = known; walk < page; walk++) {
+            synchronized (mLock) {
+                fromKey = mPageStartKeys[walk];
+            }
+            load(walk, fromKey).close();
+        }
+        synchronized (mLock) {
+            return mPageStartKeys[page];
+        }
+    }
+
+    /**
+     * Reads one page from the source and records where the next one starts.
+     */
+    private Cursor load(int page, long fromKey) {
+        Cursor loaded = mSource.loadPage(fromKey, mPageSize);
+        synchronized (mLock) {
+            mLoadCount++;
+            if (loaded.moveToLast() && page + 1 < mPageStartKeys.length) {
+                mPageStartKeys[page + 1] = loaded.getLong(mKeyColumn) + 1;
+            }
+        }
+        return loaded;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        Cursor page = getPage(newPosition / mPageSize);
+        if (page == null || !page.moveToPosition(newPosition % mPageSize)) {
+            mCurrentPage = null;
+            return false;
+        }
+        mCurrentPage = page;
+        return true;
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    @Override
+    public String getString(int column) {
+        return mCurrentPage.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return mCurrentPage.getShort(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return mCurrentPage.getInt(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return mCurrentPage.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return mCurrentPage.getFloat(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return mCurrentPage.getDouble(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+        return mCurrentPage.getBlob(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return mCurrentPage.isNull(column);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    @Override
+    public int getType(int column) {
+        return mCurrentPage.getType(column);
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        synchronized (mLock) {
+            for (int i = 0; i < mPages.size(); i++) {
+                mPages.valueAt(i).close();
+            }
+            mPages.clear();
+        }
+        mCurrentPage = null;
+    }
+}
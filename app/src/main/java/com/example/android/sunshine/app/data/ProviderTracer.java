@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Records latency histograms, row counts and a slow query log for every {@link WeatherProvider}
+ * route, keyed by the code returned from the provider's UriMatcher.
+ * <p/>
+ * Tracing is off by default.  While it is off the provider only pays for one volatile read per
+ * call, so it is safe to leave the hooks in release builds.  Tests can switch it on with
+ * {@link #setEnabled(boolean)} and read the collected numbers back through
+ * {@link #getRouteStats(int)} and {@link #getSlowQueries()}.
+ */
+public class ProviderTracer {
+    private static final String LOG_TAG = ProviderTracer.class.getSimpleName();
+
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+    public static final int OP_BULK_INSERT = 4;
+    static final int OP_COUNT = 5;
+
+    // Latency buckets are powers of two in microseconds: bucket 0 holds calls under 1us,
+    // bucket n holds [2^(n-1), 2^n) us and the last bucket collects everything slower.
+    public static final int BUCKET_COUNT = 24;
+
+    // Only the most recent slow queries are kept; old ones are dropped first.
+    private static final int MAX_SLOW_QUERIES = 32;
+    private static final long DEFAULT_SLOW_QUERY_THRESHOLD_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private static volatile boolean sEnabled = false;
+    private static volatile long sSlowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD_NANOS;
+
+    private static final Map<Integer, RouteStats> sRouteStats = new HashMap<Integer, RouteStats>();
+    private static final LinkedList<SlowQuery> sSlowQueries = new LinkedList<SlowQuery>();
+
+    private ProviderTracer() {
+    }
+
+    public static void setEnabled(boolean enabled) {
+        sEnabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    public static void setSlowQueryThresholdMillis(long thresholdMillis) {
+        sSlowQueryThresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+    }
+
+    /**
+     * Drops everything collected so far and restores the default slow query threshold.
+     */
+    public static synchronized void reset() {
+        sRouteStats.clear();
+        sSlowQueries.clear();
+        sSlowQueryThresholdNanos = DEFAULT_SLOW_QUERY_THRESHOLD_NANOS;
+    }
+
+    /**
+     * @return a start timestamp for {@link #end}, or 0 when tracing is disabled.
+     */
+    static long begin() {
+        return sEnabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records one provider call that was started with {@link #begin()}.
+     *
+     * @return the elapsed time in nanoseconds, or 0 if the call was not traced.
+     */
+    static long end(int match, int op, long startNanos, int rows) {
+        if (startNanos == 0) {
+            return 0;
+        }
+        long elapsedNanos = System.nanoTime() - startNanos;
+        synchronized (ProviderTracer.class) {
+            RouteStats stats = sRouteStats.get(match);
+            if (stats == null) {
+                stats = new RouteStats(match);
+                sRouteStats.put(match, stats);
+            }
+            stats.record(op, elapsedNanos, rows);
+        }
+        return elapsedNanos;
+    }
+
+    static boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= sSlowQueryThresholdNanos;
+    }
+
+    /**
+     * Adds a call to the slow query log.  When the statement is known its plan is captured with
+     * EXPLAIN QUERY PLAN, which costs an extra round trip and so only happens for slow calls.
+     */
+    static void recordSlowQuery(SQLiteDatabase db, int match, int op, String sql,
+                                String selection, String[] selectionArgs, int rows,
+                                long elapsedNanos) {
+        String queryPlan = sql != null ? explainQueryPlan(db, sql, selectionArgs) : null;
+        SlowQuery slowQuery = new SlowQuery(match, op,
+                TimeUnit.NANOSECONDS.toMillis(elapsedNanos), rows, selection,
+                selectionArgs != null ? Arrays.asList(selectionArgs) : null, queryPlan);
+        Log.w(LOG_TAG, slowQuery.toString());
+        synchronized (ProviderTracer.class) {
+            if (sSlowQueries.size() == MAX_SLOW_QUERIES) {
+                sSlowQueries.removeFirst();
+            }
+            sSlowQueries.addLast(slowQuery);
+        }
+    }
+
+    private static String explainQueryPlan(SQLiteDatabase db, String sql, String[] selectionArgs) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+            int detailIndex = cursor.getColumnIndex("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append("; ");
+                }
+                plan.append(cursor.getString(detailIndex));
+            }
+            return plan.toString();
+        } catch (RuntimeException e) {
+            // The plan is diagnostic only, never let it break the call being traced.
+            Log.w(LOG_TAG, "Unable to explain " + sql, e);
+            return null;
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * @return a snapshot of the statistics for the given UriMatcher code, or null if the route
+     * has not been called while tracing was enabled.
+     */
+    public static synchronized RouteStats getRouteStats(int match) {
+        RouteStats stats = sRouteStats.get(match);
+        return stats != null ? stats.copy() : null;
+    }
+
+    /**
+     * @return the slow query log, oldest first.
+     */
+    public static synchronized List<SlowQuery> getSlowQueries() {
+        return new ArrayList<SlowQuery>(sSlowQueries);
+    }
+
+    /**
+     * Per-route counters, split by provider operation.
+     */
+    public static class RouteStats {
+        public final int match;
+        private final long[] mCalls = new long[OP_COUNT];
+        private final long[] mRows = new long[OP_COUNT];
+        private final long[] mTotalNanos = new long[OP_COUNT];
+        private final long[] mMaxNanos = new long[OP_COUNT];
+        private final long[][] mHistogram = new long[OP_COUNT][BUCKET_COUNT];
+
+        RouteStats(int match) {
+            this.match = match;
+        }
+
+        void record(int op, long elapsedNanos, int rows) {
+            mCalls[op]++;
+            mRows[op] += Math.max(rows, 0);
+            mTotalNanos[op] += elapsedNanos;
+            mMaxNanos[op] = Math.max(mMaxNanos[op], elapsedNanos);
+            mHistogram[op][bucketFor(elapsedNanos)]++;
+        }
+
+        static int bucketFor(long elapsedNanos) {
+            long micros = TimeUnit.NANOSECONDS.toMicros(elapsedNanos);
+            int bucket = 64 - Long.numberOfLeadingZeros(micros);
+            return Math.min(bucket, BUCKET_COUNT - 1);
+        }
+
+        RouteStats copy() {
+            RouteStats copy = new RouteStats(match);
+            for (int op = 0; op < OP_COUNT; op++) {
+                copy.mCalls[op] = mCalls[op];
+                copy.mRows[op] = mRows[op];
+                copy.mTotalNanos[op] = mTotalNanos[op];
+                copy.mMaxNanos[op] = mMaxNanos[op];
+                System.arraycopy(mHistogram[op], 0, copy.mHistogram[op], 0, BUCKET_COUNT);
+            }
+            return copy;
+        }
+
+        public long getCallCount(int op) {
+            return mCalls[op];
+        }
+
+        public long getRowCount(int op) {
+            return mRows[op];
+        }
+
+        public long getTotalNanos(int op) {
+            return mTotalNanos[op];
+        }
+
+        public long getMaxNanos(int op) {
+            return mMaxNanos[op];
+        }
+
+        /**
+         * @return the number of calls that fell into each latency bucket.
+         */
+        public long[] getHistogram(int op) {
+            return mHistogram[op].clone();
+        }
+
+        /**
+         * @return an upper bound in microseconds for the given percentile (0-100) of calls.
+         */
+        public long getPercentileMicros(int op, int percentile) {
+            long calls = mCalls[op];
+            if (calls == 0) {
+                return 0;
+            }
+            long target = (calls * percentile + 99) / 100;
+            long seen = 0;
+            for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+                seen += mHistogram[op][bucket];
+                if (seen >= target) {
+                    return 1L << bucket;
+                }
+            }
+            return 1L << (BUCKET_COUNT - 1);
+        }
+    }
+
+    /**
+     * A single call that took longer than the slow query threshold.
+     */
+    public static class SlowQuery {
+        public final int match;
+        public final int op;
+        public final long elapsedMillis;
+        public final int rows;
+        public final String selection;
+        public final List<String> selectionArgs;
+        public final String queryPlan;
+
+        SlowQuery(int match, int op, long elapsedMillis, int rows, String selection,
+                  List<String> selectionArgs, String queryPlan) {
+            this.match = match;
+            this.op = op;
+            this.elapsedMillis = elapsedMillis;
+            this.rows = rows;
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.queryPlan = queryPlan;
+        }
+
+        @Override
+        public String toString() {
+            return "Slow provider call: route=" + match + " op=" + op + " " + elapsedMillis +
+                    "ms rows=" + rows + " selection=" + selection + " args=" + selectionArgs +
+                    " plan=" + queryPlan;
+        }
+    }
+}
@@ -19,7 +19,8 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
-import android.text.format.Time;
+
+import com.example.android.sunshine.app.core.ForecastDates;
 
 /**
  * Defines table and column names for the weather database.
@@ -43,15 +44,15 @@ public class WeatherContract {
     // At least, let's hope not.  Don't be that dev, reader.  Don't be that dev.
     public static final String PATH_WEATHER = "weather";
     public static final String PATH_LOCATION = "location";
+    public static final String PATH_HOURLY = "hourly";
+    public static final String PATH_HISTORY = "history";
+    public static final String PATH_STATS = "stats";
+    public static final String PATH_ALERT = "alert";
 
     // To make it easy to query for the exact date, we normalize all dates that go into
-    // the database to the start of the the Julian day at UTC.
+    // the database to the start of the local day.
     public static long normalizeDate(long startDate) {
-        // normalize the start date to the beginning of the (UTC) day
-        Time time = new Time();
-        time.set(startDate);
-        int julianDay = Time.getJulianDay(startDate, time.gmtoff);
-        return time.setJulianDay(julianDay);
+        return ForecastDates.normalizeDate(startDate);
     }
 
     /* Inner class that defines the table contents of the location table */
@@ -126,6 +127,8 @@ public class WeatherContract {
         // Degrees are meteorological degrees (e.g, 0 is north, 180 is south).  Stored as floats.
         public static final String COLUMN_DEGREES = "degrees";
 
+        static final String PARAM_LIMIT = "limit";
+
         public static Uri buildWeatherUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +147,18 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * @return at most {@code limit} days from {@code fromDate} on.  Unlike
+         * {@link #buildWeatherLocationWithStartDate} the date is used as is, so a page can start
+         * just after the last date of the page before it.
+         */
+        public static Uri buildWeatherLocationPage(String locationSetting, long fromDate,
+                                                   int limit) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(COLUMN_DATE, Long.toString(fromDate))
+                    .appendQueryParameter(PARAM_LIMIT, Integer.toString(limit)).build();
+        }
+
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
@@ -157,6 +172,13 @@ public class WeatherContract {
             return Long.parseLong(uri.getPathSegments().get(2));
         }
 
+        /**
+         * @return the row limit of a page uri, or null for no limit.
+         */
+        public static String getLimitFromUri(Uri uri) {
+            return uri.getQueryParameter(PARAM_LIMIT);
+        }
+
         public static long getStartDateFromUri(Uri uri) {
             String dateString = uri.getQueryParameter(COLUMN_DATE);
             if (null != dateString && dateString.length() > 0)
@@ -165,4 +187,261 @@ public class WeatherContract {
                 return 0;
         }
     }
+
+    /* Inner class that defines the table contents of the hourly table */
+    public static final class HourlyEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HOURLY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HOURLY;
+
+        public static final String TABLE_NAME = "hourly";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // Start of the 3 hour slot, stored as long in milliseconds since the epoch.  Unlike the
+        // weather table's dates these are not normalized.
+        public static final String COLUMN_TIME = "time";
+        // Weather id as returned by API, to identify the icon to be used
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_SHORT_DESC = "short_desc";
+
+        // Temperature for the slot, Celsius (stored as float)
+        public static final String COLUMN_TEMP = "temp";
+
+        public static final String COLUMN_HUMIDITY = "humidity";
+        public static final String COLUMN_PRESSURE = "pressure";
+        public static final String COLUMN_WIND_SPEED = "wind";
+        public static final String COLUMN_DEGREES = "degrees";
+
+        // Optional query parameters bounding a location's slots: start <= time < end.
+        static final String PARAM_START = "start";
+        static final String PARAM_END = "end";
+
+        public static Uri buildHourlyUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+
+        public static Uri buildHourlyLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static Uri buildHourlyLocationWithRange(String locationSetting, long startTime,
+                                                       long endTime) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendQueryParameter(PARAM_START, Long.toString(startTime))
+                    .appendQueryParameter(PARAM_END, Long.toString(endTime)).build();
+        }
+
+        /**
+         * @return the slots of the local day containing {@code date}.
+         */
+        public static Uri buildHourlyLocationWithDay(String locationSetting, long date) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(Long.toString(normalizeDate(date))).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getDayFromUri(Uri uri) {
+            return Long.parseLong(uri.getPathSegments().get(2));
+        }
+
+        public static long getStartTimeFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_START, 0);
+        }
+
+        public static long getEndTimeFromUri(Uri uri) {
+            return getTimeParameter(uri, PARAM_END, Long.MAX_VALUE);
+        }
+
+        private static long getTimeParameter(Uri uri, String name, long defaultValue) {
+            String value = uri.getQueryParameter(name);
+            if (null != value && value.length() > 0)
+                return Long.parseLong(value);
+            else
+                return defaultValue;
+        }
+    }
+
+    /**
+     * Inner class that defines the table contents of the history table.  Daily rows that have
+     * aged out of the weather table are rolled up here, first into weeks and later into months.
+     * A "week" is a quarter of a month: it starts on the 1st, 8th, 15th or 22nd and the last one
+     * runs to the end of the month, so every month is exactly the sum of its weeks.
+     */
+    public static final class HistoryEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_HISTORY).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_HISTORY;
+
+        public static final String TABLE_NAME = "weather_history";
+
+        // Column with the foreign key into the location table.
+        public static final String COLUMN_LOC_KEY = "location_id";
+        // One of PERIOD_WEEK or PERIOD_MONTH
+        public static final String COLUMN_PERIOD = "period";
+        // Normalized start of the first day in the period, and of the first day after it
+        public static final String COLUMN_START_DATE = "start_date";
+        public static final String COLUMN_END_DATE = "end_date";
+        // How many daily rows went into the period
+        public static final String COLUMN_DAY_COUNT = "days";
+
+        // Lowest low, highest high and the mean of the daily (high + low) / 2, Celsius
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        public static final String COLUMN_MEAN_TEMP = "mean";
+
+        // The most frequent weather id of the period, and on how many days it was reported
+        public static final String COLUMN_WEATHER_ID = "weather_id";
+        public static final String COLUMN_WEATHER_DAYS = "weather_days";
+
+        public static final int PERIOD_WEEK = 1;
+        public static final int PERIOD_MONTH = 2;
+
+        // ContentResolver.call method that runs one bounded slice of compaction.  The result
+        // holds KEY_MORE_WORK, true if the slice ran out of time before the history was current.
+        public static final String METHOD_COMPACT = "compactHistory";
+        public static final String KEY_BUDGET_MILLIS = "budgetMillis";
+        public static final String KEY_MORE_WORK = "moreWork";
+
+        public static Uri buildHistoryLocation(String locationSetting) {
+            return CONTENT_URI.buildUpon().appendPath(locationSetting).build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+    }
+
+    /**
+     * Inner class that defines the table contents of the alert table.  Severe weather alerts
+     * pushed through GCM are kept here until they expire.  The same alert is often pushed more
+     * than once; inserting one whose dedup key is already stored, and not yet expired, does
+     * nothing and returns null.
+     */
+    public static final class AlertEntry implements BaseColumns {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_ALERT).build();
+
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALERT;
+
+        public static final String TABLE_NAME = "alert";
+
+        // Identifies repeats of one alert: the sender's id if it gave one, otherwise what the
+        // alert is about and where.
+        public static final String COLUMN_DEDUP_KEY = "dedup_key";
+        // What the alert is about and where, as sent, e.g. "Hurricane" and "Mountain View"
+        public static final String COLUMN_WEATHER = "weather";
+        public static final String COLUMN_LOCATION = "location";
+        // When it was received and when it stops applying, in milliseconds since the epoch
+        public static final String COLUMN_RECEIVED = "received";
+        public static final String COLUMN_EXPIRES = "expires";
+
+        public static Uri buildAlertUri(long id) {
+            return ContentUris.withAppendedId(CONTENT_URI, id);
+        }
+    }
+
+    /**
+     * Aggregates over a location's days, daily rows and rolled-up history alike, computed by
+     * SQLite and cached by the provider until that location's weather changes.  There is no
+     * table behind these; every route returns the columns listed for it, whatever projection is
+     * asked for.  Ranges cover the normalized dates start <= date < end.
+     */
+    public static final class StatsEntry {
+
+        public static final Uri CONTENT_URI =
+                BASE_CONTENT_URI.buildUpon().appendPath(PATH_STATS).build();
+
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+        public static final String CONTENT_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STATS;
+
+        static final String PATH_CONDITIONS = "conditions";
+        static final String PATH_COMPARE = "compare";
+
+        // Which range a summary row covers: PERIOD_CURRENT, or PERIOD_PREVIOUS for the range of
+        // the same length that ends where the requested one starts.
+        public static final String COLUMN_PERIOD = "period";
+        public static final String COLUMN_DAY_COUNT = "days";
+        // Lowest low and highest high; null when the range holds no days
+        public static final String COLUMN_MIN_TEMP = "min";
+        public static final String COLUMN_MAX_TEMP = "max";
+        // Averages over the days still kept at full resolution; null when there are none
+        public static final String COLUMN_AVG_HIGH = "avg_high";
+        public static final String COLUMN_AVG_LOW = "avg_low";
+        public static final String COLUMN_AVG_HUMIDITY = "avg_humidity";
+        // Days with thunderstorms, drizzle or rain
+        public static final String COLUMN_RAIN_DAYS = "rain_days";
+        // Mean of the daily (high + low) / 2 over every day, including rolled-up history
+        public static final String COLUMN_AVG_TEMP = "avg_temp";
+        // One of the WeatherConditions constants, for the conditions histogram
+        public static final String COLUMN_CONDITION = "condition";
+
+        public static final int PERIOD_CURRENT = 0;
+        public static final int PERIOD_PREVIOUS = 1;
+
+        public static final String[] SUMMARY_COLUMNS = {
+                COLUMN_PERIOD, COLUMN_DAY_COUNT, COLUMN_MIN_TEMP, COLUMN_MAX_TEMP,
+                COLUMN_AVG_HIGH, COLUMN_AVG_LOW, COLUMN_AVG_HUMIDITY, COLUMN_RAIN_DAYS,
+                COLUMN_AVG_TEMP};
+        public static final String[] CONDITION_COLUMNS = {COLUMN_CONDITION, COLUMN_DAY_COUNT};
+
+        static final String PARAM_START = "start";
+        static final String PARAM_END = "end";
+
+        /**
+         * @return one summary row for the range.
+         */
+        public static Uri buildStatsUri(String locationSetting, long startDate, long endDate) {
+            return withRange(CONTENT_URI.buildUpon().appendPath(locationSetting),
+                    startDate, endDate);
+        }
+
+        /**
+         * @return one row per condition seen in the range, most frequent first.
+         */
+        public static Uri buildConditionsUri(String locationSetting, long startDate,
+                                             long endDate) {
+            return withRange(CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_CONDITIONS), startDate, endDate);
+        }
+
+        /**
+         * @return two summary rows, the range and the one just before it.
+         */
+        public static Uri buildCompareUri(String locationSetting, long startDate, long endDate) {
+            return withRange(CONTENT_URI.buildUpon().appendPath(locationSetting)
+                    .appendPath(PATH_COMPARE), startDate, endDate);
+        }
+
+        private static Uri withRange(Uri.Builder builder, long startDate, long endDate) {
+            return builder.appendQueryParameter(PARAM_START, Long.toString(normalizeDate(startDate)))
+                    .appendQueryParameter(PARAM_END, Long.toString(normalizeDate(endDate)))
+                    .build();
+        }
+
+        public static String getLocationSettingFromUri(Uri uri) {
+            return uri.getPathSegments().get(1);
+        }
+
+        public static long getStartDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getQueryParameter(PARAM_START));
+        }
+
+        public static long getEndDateFromUri(Uri uri) {
+            return Long.parseLong(uri.getQueryParameter(PARAM_END));
+        }
+    }
 }
@@ -19,6 +19,9 @@ import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
+import com.example.android.sunshine.app.data.WeatherContract.AlertEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.HourlyEntry;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
@@ -28,7 +31,9 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
     // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 5;
+    // The version that added the history table.  Upgrades from here on keep it.
+    private static final int FIRST_HISTORY_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
@@ -38,6 +43,15 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
     @Override
     public void onCreate(SQLiteDatabase sqLiteDatabase) {
+        createLocationAndHistoryTables(sqLiteDatabase);
+        createCacheTables(sqLiteDatabase);
+    }
+
+    /**
+     * Locations and the history that refers to them.  History can't be fetched again, so these
+     * survive upgrades.
+     */
+    private static void createLocationAndHistoryTables(SQLiteDatabase sqLiteDatabase) {
         // Create a table to hold locations.  A location consists of the string supplied in the
         // location setting, the city name, and the latitude and longitude
         final String SQL_CREATE_LOCATION_TABLE = "CREATE TABLE " + LocationEntry.TABLE_NAME + " (" +
@@ -48,8 +62,46 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
                 " );";
 
+        final String SQL_CREATE_HISTORY_TABLE = "CREATE TABLE " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                HistoryEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_PERIOD + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_START_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_END_DATE + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_DAY_COUNT + " INTEGER NOT NULL, " +
+
+                HistoryEntry.COLUMN_MIN_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MAX_TEMP + " REAL NOT NULL, " +
+                HistoryEntry.COLUMN_MEAN_TEMP + " REAL NOT NULL, " +
+
+                HistoryEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL, " +
+                HistoryEntry.COLUMN_WEATHER_DAYS + " INTEGER NOT NULL, " +
+
+                " FOREIGN KEY (" + HistoryEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One row per period per location, in the order a location's trend is read.
+                " UNIQUE (" + HistoryEntry.COLUMN_LOC_KEY + ", " +
+                HistoryEntry.COLUMN_PERIOD + ", " +
+                HistoryEntry.COLUMN_START_DATE + ") ON CONFLICT REPLACE);";
+
+        // Compaction looks for the oldest period of a kind across all locations.
+        final String SQL_CREATE_HISTORY_PERIOD_INDEX = "CREATE INDEX " +
+                HistoryEntry.TABLE_NAME + "_period_start ON " + HistoryEntry.TABLE_NAME + " (" +
+                HistoryEntry.COLUMN_PERIOD + ", " + HistoryEntry.COLUMN_START_DATE + ");";
+
+        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HISTORY_PERIOD_INDEX);
+    }
+
+    /**
+     * Tables that only cache what the server can send again.
+     */
+    private static void createCacheTables(SQLiteDatabase sqLiteDatabase) {
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
-                // Why AutoIncrement here, and not above?
+                // Why AutoIncrement here, and not in the location table?
                 // Unique keys will be auto-generated in either case.  But for weather
                 // forecasting, it's reasonable to assume the user will want information
                 // for a certain date and all dates *following*, so the forecast data
@@ -79,20 +131,67 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 " UNIQUE (" + WeatherEntry.COLUMN_DATE + ", " +
                 WeatherEntry.COLUMN_LOC_KEY + ") ON CONFLICT REPLACE);";
 
-        sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
+        final String SQL_CREATE_HOURLY_TABLE = "CREATE TABLE " + HourlyEntry.TABLE_NAME + " (" +
+                HourlyEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                HourlyEntry.COLUMN_LOC_KEY + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_TIME + " INTEGER NOT NULL, " +
+                HourlyEntry.COLUMN_SHORT_DESC + " TEXT NOT NULL, " +
+                HourlyEntry.COLUMN_WEATHER_ID + " INTEGER NOT NULL," +
+
+                HourlyEntry.COLUMN_TEMP + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_HUMIDITY + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_PRESSURE + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_WIND_SPEED + " REAL NOT NULL, " +
+                HourlyEntry.COLUMN_DEGREES + " REAL NOT NULL, " +
+
+                " FOREIGN KEY (" + HourlyEntry.COLUMN_LOC_KEY + ") REFERENCES " +
+                LocationEntry.TABLE_NAME + " (" + LocationEntry._ID + "), " +
+
+                // One entry per slot per location.  The location comes first so that the
+                // constraint's index also serves "this location, between these times" as a
+                // single range seek.
+                " UNIQUE (" + HourlyEntry.COLUMN_LOC_KEY + ", " +
+                HourlyEntry.COLUMN_TIME + ") ON CONFLICT REPLACE);";
+
+        final String SQL_CREATE_ALERT_TABLE = "CREATE TABLE " + AlertEntry.TABLE_NAME + " (" +
+                AlertEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+
+                // The constraint's index makes spotting a repeat a single seek.
+                AlertEntry.COLUMN_DEDUP_KEY + " TEXT UNIQUE NOT NULL, " +
+                AlertEntry.COLUMN_WEATHER + " TEXT NOT NULL, " +
+                AlertEntry.COLUMN_LOCATION + " TEXT NOT NULL, " +
+                AlertEntry.COLUMN_RECEIVED + " INTEGER NOT NULL, " +
+                AlertEntry.COLUMN_EXPIRES + " INTEGER NOT NULL);";
+
+        // Expired alerts are purged, and active ones listed, by expiry.
+        final String SQL_CREATE_ALERT_EXPIRES_INDEX = "CREATE INDEX " +
+                AlertEntry.TABLE_NAME + "_expires ON " + AlertEntry.TABLE_NAME + " (" +
+                AlertEntry.COLUMN_EXPIRES + ");";
+
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_HOURLY_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ALERT_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_ALERT_EXPIRES_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // The forecast tables are only a cache for online data, so their upgrade policy is
+        // to simply to discard the data and start over.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
-        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
-        onCreate(sqLiteDatabase);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HourlyEntry.TABLE_NAME);
+        sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + AlertEntry.TABLE_NAME);
+        if (oldVersion < FIRST_HISTORY_VERSION) {
+            // Nothing worth keeping yet.
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
+            sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + HistoryEntry.TABLE_NAME);
+            createLocationAndHistoryTables(sqLiteDatabase);
+        }
+        // History and the locations its rows point at are kept as they are.  A change to
+        // either schema must migrate them here, with ALTER TABLE or a copy, never a drop.
+        createCacheTables(sqLiteDatabase);
     }
 }
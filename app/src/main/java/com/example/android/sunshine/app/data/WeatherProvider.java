@@ -17,25 +17,54 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TimeZone;
 
 public class WeatherProvider extends ContentProvider {
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
+    private final AggregateCache mAggregateCache = new AggregateCache();
+    // The URIs changed by the batch running on this thread, notified once it commits.
+    private final ThreadLocal<Set<Uri>> mBatchChanges = new ThreadLocal<>();
 
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
+    static final int HOURLY = 200;
+    static final int HOURLY_WITH_LOCATION = 201;
+    static final int HOURLY_WITH_LOCATION_AND_DAY = 202;
     static final int LOCATION = 300;
+    static final int HISTORY = 400;
+    static final int HISTORY_WITH_LOCATION = 401;
+    static final int STATS = 500;
+    static final int STATS_CONDITIONS = 501;
+    static final int STATS_COMPARE = 502;
+    static final int ALERT = 600;
+
+    // How long one compaction slice may hold the database when the caller does not say.
+    private static final long DEFAULT_COMPACT_BUDGET_MILLIS = 50;
 
     private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHourlyByLocationSettingQueryBuilder;
+    private static final SQLiteQueryBuilder sHistoryByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -49,6 +78,26 @@ public class WeatherProvider extends ContentProvider {
                         "." + WeatherContract.WeatherEntry.COLUMN_LOC_KEY +
                         " = " + WeatherContract.LocationEntry.TABLE_NAME +
                         "." + WeatherContract.LocationEntry._ID);
+
+        //hourly INNER JOIN location ON hourly.location_id = location._id
+        sHourlyByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHourlyByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HourlyEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HourlyEntry.TABLE_NAME +
+                        "." + WeatherContract.HourlyEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
+
+        //weather_history INNER JOIN location ON weather_history.location_id = location._id
+        sHistoryByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
+        sHistoryByLocationSettingQueryBuilder.setTables(
+                WeatherContract.HistoryEntry.TABLE_NAME + " INNER JOIN " +
+                        WeatherContract.LocationEntry.TABLE_NAME +
+                        " ON " + WeatherContract.HistoryEntry.TABLE_NAME +
+                        "." + WeatherContract.HistoryEntry.COLUMN_LOC_KEY +
+                        " = " + WeatherContract.LocationEntry.TABLE_NAME +
+                        "." + WeatherContract.LocationEntry._ID);
     }
 
     //location.location_setting = ?
@@ -68,6 +117,121 @@ public class WeatherProvider extends ContentProvider {
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
 
+    //location.location_setting = ? AND time >= ? AND time < ?
+    //The location is found through its unique index, then the slots are one range seek on the
+    //(location_id, time) index.
+    private static final String sLocationSettingWithTimeRangeSelection =
+            WeatherContract.LocationEntry.TABLE_NAME +
+                    "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
+                    WeatherContract.HourlyEntry.TABLE_NAME +
+                    "." + WeatherContract.HourlyEntry.COLUMN_TIME + " >= ? AND " +
+                    WeatherContract.HourlyEntry.TABLE_NAME +
+                    "." + WeatherContract.HourlyEntry.COLUMN_TIME + " < ? ";
+
+    private static final String sHourlyDefaultSortOrder =
+            WeatherContract.HourlyEntry.TABLE_NAME + "." +
+                    WeatherContract.HourlyEntry.COLUMN_TIME + " ASC";
+
+    /**
+     * @return location setting, start and end time for the hourly routes, in the order
+     * sLocationSettingWithTimeRangeSelection expects them.
+     */
+    private static String[] getHourlyRangeArgs(Uri uri, int match) {
+        String locationSetting = WeatherContract.HourlyEntry.getLocationSettingFromUri(uri);
+        long start;
+        long end;
+        if (match == HOURLY_WITH_LOCATION_AND_DAY) {
+            start = WeatherContract.HourlyEntry.getDayFromUri(uri);
+            end = ForecastDates.addDays(start, 1);
+        } else {
+            start = WeatherContract.HourlyEntry.getStartTimeFromUri(uri);
+            end = WeatherContract.HourlyEntry.getEndTimeFromUri(uri);
+        }
+        return new String[]{locationSetting, Long.toString(start), Long.toString(end)};
+    }
+
+    private Cursor getHourlyByLocationSetting(Uri uri, int match, String[] projection,
+                                              String sortOrder) {
+        return sHourlyByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingWithTimeRangeSelection,
+                getHourlyRangeArgs(uri, match),
+                null,
+                null,
+                sortOrder != null ? sortOrder : sHourlyDefaultSortOrder
+        );
+    }
+
+    private static final String sHistoryDefaultSortOrder =
+            WeatherContract.HistoryEntry.TABLE_NAME + "." +
+                    WeatherContract.HistoryEntry.COLUMN_START_DATE + " ASC";
+
+    private Cursor getHistoryByLocationSetting(Uri uri, String[] projection, String sortOrder) {
+        return sHistoryByLocationSettingQueryBuilder.query(mOpenHelper.getReadableDatabase(),
+                projection,
+                sLocationSettingSelection,
+                new String[]{WeatherContract.HistoryEntry.getLocationSettingFromUri(uri)},
+                null,
+                null,
+                sortOrder != null ? sortOrder : sHistoryDefaultSortOrder
+        );
+    }
+
+    private static final String[] LOCATION_ID_PROJECTION = {WeatherContract.LocationEntry._ID};
+
+    /**
+     * Answers the stats routes from the aggregate cache, computing and caching on a miss.
+     */
+    private Cursor getStats(Uri uri, int match) {
+        String[] columns = match == STATS_CONDITIONS ?
+                WeatherContract.StatsEntry.CONDITION_COLUMNS :
+                WeatherContract.StatsEntry.SUMMARY_COLUMNS;
+        MatrixCursor cursor = new MatrixCursor(columns);
+
+        String key = uri.toString();
+        Object[][] rows = mAggregateCache.get(key);
+        if (rows == null) {
+            long stamp = mAggregateCache.begin();
+            SQLiteDatabase db = mOpenHelper.getReadableDatabase();
+            Cursor location = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                    LOCATION_ID_PROJECTION, sLocationSettingSelection,
+                    new String[]{WeatherContract.StatsEntry.getLocationSettingFromUri(uri)},
+                    null, null, null);
+            long locationId;
+            try {
+                if (!location.moveToFirst()) {
+                    return cursor;
+                }
+                locationId = location.getLong(0);
+            } finally {
+                location.close();
+            }
+
+            long startDate = WeatherContract.StatsEntry.getStartDateFromUri(uri);
+            long endDate = WeatherContract.StatsEntry.getEndDateFromUri(uri);
+            switch (match) {
+                case STATS_CONDITIONS:
+                    rows = WeatherStats.countConditions(db, locationId, startDate, endDate);
+                    break;
+                case STATS_COMPARE:
+                    rows = WeatherStats.compare(db, locationId, startDate, endDate);
+                    break;
+                default:
+                    rows = WeatherStats.summarize(db, locationId, startDate, endDate);
+                    break;
+            }
+            mAggregateCache.put(locationId, key, rows, stamp);
+        }
+        for (Object[] row : rows) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    AggregateCache getAggregateCache() {
+        return mAggregateCache;
+    }
+
     private Cursor getWeatherByLocationSetting(Uri uri, String[] projection, String sortOrder) {
         String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
         long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
@@ -89,7 +253,8 @@ public class WeatherProvider extends ContentProvider {
                 selectionArgs,
                 null,
                 null,
-                sortOrder
+                sortOrder,
+                WeatherContract.WeatherEntry.getLimitFromUri(uri)
         );
     }
 
@@ -129,7 +294,22 @@ public class WeatherProvider extends ContentProvider {
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*", WEATHER_WITH_LOCATION);
         matcher.addURI(authority, WeatherContract.PATH_WEATHER + "/*/#", WEATHER_WITH_LOCATION_AND_DATE);
 
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY, HOURLY);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*", HOURLY_WITH_LOCATION);
+        matcher.addURI(authority, WeatherContract.PATH_HOURLY + "/*/#", HOURLY_WITH_LOCATION_AND_DAY);
+
         matcher.addURI(authority, WeatherContract.PATH_LOCATION, LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY, HISTORY);
+        matcher.addURI(authority, WeatherContract.PATH_HISTORY + "/*", HISTORY_WITH_LOCATION);
+
+        matcher.addURI(authority, WeatherContract.PATH_STATS + "/*", STATS);
+        matcher.addURI(authority, WeatherContract.PATH_STATS + "/*/" +
+                WeatherContract.StatsEntry.PATH_CONDITIONS, STATS_CONDITIONS);
+        matcher.addURI(authority, WeatherContract.PATH_STATS + "/*/" +
+                WeatherContract.StatsEntry.PATH_COMPARE, STATS_COMPARE);
+
+        matcher.addURI(authority, WeatherContract.PATH_ALERT, ALERT);
         return matcher;
     }
 
@@ -162,8 +342,22 @@ public class WeatherProvider extends ContentProvider {
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
             case WEATHER:
                 return WeatherContract.WeatherEntry.CONTENT_TYPE;
+            case HOURLY:
+            case HOURLY_WITH_LOCATION:
+            case HOURLY_WITH_LOCATION_AND_DAY:
+                return WeatherContract.HourlyEntry.CONTENT_TYPE;
+            case HISTORY:
+            case HISTORY_WITH_LOCATION:
+                return WeatherContract.HistoryEntry.CONTENT_TYPE;
+            case STATS:
+                return WeatherContract.StatsEntry.CONTENT_ITEM_TYPE;
+            case STATS_CONDITIONS:
+            case STATS_COMPARE:
+                return WeatherContract.StatsEntry.CONTENT_TYPE;
             case LOCATION:
                 return WeatherContract.LocationEntry.CONTENT_TYPE;
+            case ALERT:
+                return WeatherContract.AlertEntry.CONTENT_TYPE;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
@@ -174,8 +368,10 @@ public class WeatherProvider extends ContentProvider {
                         String sortOrder) {
         // Here's the switch statement that, given a URI, will determine what kind of request it is,
         // and query the database accordingly.
+        final long traceStart = ProviderTracer.begin();
+        final int match = sUriMatcher.match(uri);
         Cursor retCursor;
-        switch (sUriMatcher.match(uri)) {
+        switch (match) {
             // "weather/*/*"
             case WEATHER_WITH_LOCATION_AND_DATE:
             {
@@ -200,6 +396,25 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "hourly/*/#" and "hourly/*"
+            case HOURLY_WITH_LOCATION_AND_DAY:
+            case HOURLY_WITH_LOCATION: {
+                retCursor = getHourlyByLocationSetting(uri, match, projection, sortOrder);
+                break;
+            }
+            // "hourly"
+            case HOURLY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HourlyEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
             // "location"
             case LOCATION: {
                 retCursor = mOpenHelper.getReadableDatabase().query(
@@ -213,19 +428,167 @@ public class WeatherProvider extends ContentProvider {
                 );
                 break;
             }
+            // "history/*"
+            case HISTORY_WITH_LOCATION: {
+                retCursor = getHistoryByLocationSetting(uri, projection, sortOrder);
+                break;
+            }
+            // "history"
+            case HISTORY: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.HistoryEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
+
+            // "stats/*", "stats/*/conditions" and "stats/*/compare"
+            case STATS:
+            case STATS_CONDITIONS:
+            case STATS_COMPARE: {
+                retCursor = getStats(uri, match);
+                break;
+            }
+            // "alert"
+            case ALERT: {
+                retCursor = mOpenHelper.getReadableDatabase().query(
+                        WeatherContract.AlertEntry.TABLE_NAME,
+                        projection,
+                        selection,
+                        selectionArgs,
+                        null,
+                        null,
+                        sortOrder
+                );
+                break;
+            }
 
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+        switch (match) {
+            case STATS:
+            case STATS_CONDITIONS:
+            case STATS_COMPARE:
+                // Stats change whenever the location's weather does.
+                retCursor.setNotificationUri(getContext().getContentResolver(),
+                        WeatherContract.WeatherEntry.buildWeatherLocation(
+                                WeatherContract.StatsEntry.getLocationSettingFromUri(uri)));
+                break;
+            default:
+                retCursor.setNotificationUri(getContext().getContentResolver(), uri);
+                break;
+        }
+        if (traceStart != 0) {
+            traceQuery(match, uri, traceStart, retCursor, projection, selection, selectionArgs,
+                    sortOrder);
+        }
         return retCursor;
     }
 
+    /*
+        Only reached while ProviderTracer is enabled.  Counting the rows fills the cursor window
+        now instead of on first access, which is what we want to measure anyway.
+     */
+    private void traceQuery(int match, Uri uri, long traceStart, Cursor cursor,
+                            String[] projection, String selection, String[] selectionArgs,
+                            String sortOrder) {
+        int rows = cursor.getCount();
+        long elapsed = ProviderTracer.end(match, ProviderTracer.OP_QUERY, traceStart, rows);
+        if (!ProviderTracer.isSlow(elapsed)) {
+            return;
+        }
+
+        String tables;
+        switch (match) {
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                tables = sWeatherByLocationSettingQueryBuilder.getTables();
+                selection = sLocationSettingAndDaySelection;
+                selectionArgs = new String[]{
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri),
+                        Long.toString(WeatherContract.WeatherEntry.getDateFromUri(uri))};
+                break;
+            case WEATHER_WITH_LOCATION: {
+                tables = sWeatherByLocationSettingQueryBuilder.getTables();
+                String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+                long startDate = WeatherContract.WeatherEntry.getStartDateFromUri(uri);
+                if (startDate == 0) {
+                    selection = sLocationSettingSelection;
+                    selectionArgs = new String[]{locationSetting};
+                } else {
+                    selection = sLocationSettingWithStartDateSelection;
+                    selectionArgs = new String[]{locationSetting, Long.toString(startDate)};
+                }
+                break;
+            }
+            case HOURLY_WITH_LOCATION_AND_DAY:
+            case HOURLY_WITH_LOCATION:
+                tables = sHourlyByLocationSettingQueryBuilder.getTables();
+                selection = sLocationSettingWithTimeRangeSelection;
+                selectionArgs = getHourlyRangeArgs(uri, match);
+                if (sortOrder == null) {
+                    sortOrder = sHourlyDefaultSortOrder;
+                }
+                break;
+            case WEATHER:
+                tables = WeatherContract.WeatherEntry.TABLE_NAME;
+                break;
+            case HOURLY:
+                tables = WeatherContract.HourlyEntry.TABLE_NAME;
+                break;
+            case HISTORY_WITH_LOCATION:
+                tables = sHistoryByLocationSettingQueryBuilder.getTables();
+                selection = sLocationSettingSelection;
+                selectionArgs = new String[]{
+                        WeatherContract.HistoryEntry.getLocationSettingFromUri(uri)};
+                if (sortOrder == null) {
+                    sortOrder = sHistoryDefaultSortOrder;
+                }
+                break;
+            case HISTORY:
+                tables = WeatherContract.HistoryEntry.TABLE_NAME;
+                break;
+            case ALERT:
+                tables = WeatherContract.AlertEntry.TABLE_NAME;
+                break;
+            case STATS:
+            case STATS_CONDITIONS:
+            case STATS_COMPARE:
+                // Served from the aggregate cache or several statements; nothing to explain.
+                return;
+            default:
+                tables = WeatherContract.LocationEntry.TABLE_NAME;
+                break;
+        }
+        String sql = SQLiteQueryBuilder.buildQueryString(false, tables, projection, selection,
+                null, null, sortOrder, null);
+        ProviderTracer.recordSlowQuery(mOpenHelper.getReadableDatabase(), match,
+                ProviderTracer.OP_QUERY, sql, selection, selectionArgs, rows, elapsed);
+    }
+
+    private void traceWrite(int match, int op, long traceStart, int rows, String table,
+                            String selection, String[] selectionArgs) {
+        long elapsed = ProviderTracer.end(match, op, traceStart, rows);
+        if (ProviderTracer.isSlow(elapsed)) {
+            // Deletes are the only writes with a selection worth explaining.
+            String sql = op == ProviderTracer.OP_DELETE ?
+                    "DELETE FROM " + table + " WHERE " + selection : null;
+            ProviderTracer.recordSlowQuery(mOpenHelper.getWritableDatabase(), match, op, sql,
+                    selection, selectionArgs, rows, elapsed);
+        }
+    }
+
     /*
         Student: Add the ability to insert Locations to the implementation of this function.
      */
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        final long traceStart = ProviderTracer.begin();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         Uri returnUri;
@@ -238,6 +601,15 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                invalidateAggregates(values);
+                break;
+            }
+            case HOURLY: {
+                long _id = db.insert(WeatherContract.HourlyEntry.TABLE_NAME, null, values);
+                if ( _id > 0 )
+                    returnUri = WeatherContract.HourlyEntry.buildHourlyUri(_id);
+                else
+                    throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
             case LOCATION: {
@@ -248,39 +620,115 @@ public class WeatherProvider extends ContentProvider {
                     throw new android.database.SQLException("Failed to insert row into " + uri);
                 break;
             }
+            case ALERT: {
+                long _id = insertAlert(db, values);
+                if (_id == -1) {
+                    // A repeat of an alert we already have.
+                    if (traceStart != 0) {
+                        traceWrite(match, ProviderTracer.OP_INSERT, traceStart, 0, null, null,
+                                null);
+                    }
+                    return null;
+                }
+                returnUri = WeatherContract.AlertEntry.buildAlertUri(_id);
+                break;
+            }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
+        if (traceStart != 0) {
+            traceWrite(match, ProviderTracer.OP_INSERT, traceStart, 1, null, null, null);
+        }
         return returnUri;
     }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        final long traceStart = ProviderTracer.begin();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsDeleted;
+        String table;
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
             case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                table = WeatherContract.WeatherEntry.TABLE_NAME;
+                break;
+            case HOURLY:
+                table = WeatherContract.HourlyEntry.TABLE_NAME;
+                break;
+            case HISTORY:
+                table = WeatherContract.HistoryEntry.TABLE_NAME;
                 break;
             case LOCATION:
-                rowsDeleted = db.delete(
-                        WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                table = WeatherContract.LocationEntry.TABLE_NAME;
+                break;
+            case ALERT:
+                table = WeatherContract.AlertEntry.TABLE_NAME;
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
+        rowsDeleted = db.delete(table, selection, selectionArgs);
+        if (rowsDeleted != 0 && match != HOURLY && match != ALERT) {
+            // The selection could cover any location.
+            mAggregateCache.invalidateAll();
+        }
         // Because a null deletes all rows
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
+            if (match == HISTORY) {
+                // Stats are observed on their location's weather; history is part of them.
+                notifyChange(WeatherContract.WeatherEntry.CONTENT_URI);
+            }
+        }
+        if (traceStart != 0) {
+            traceWrite(match, ProviderTracer.OP_DELETE, traceStart, rowsDeleted, table,
+                    selection, selectionArgs);
         }
         return rowsDeleted;
     }
 
+    /**
+     * Inserts an alert unless an unexpired one with the same dedup key is stored.  Both steps
+     * are seeks on the dedup key's index, so a burst of repeats costs the same per alert however
+     * many alerts are stored.
+     *
+     * @return the new row id, or -1 for a repeat.
+     */
+    private long insertAlert(SQLiteDatabase db, ContentValues values) {
+        String dedupKey = values.getAsString(WeatherContract.AlertEntry.COLUMN_DEDUP_KEY);
+        Long received = values.getAsLong(WeatherContract.AlertEntry.COLUMN_RECEIVED);
+        if (dedupKey == null || received == null) {
+            throw new IllegalArgumentException("An alert needs a dedup key and a received time");
+        }
+        db.beginTransaction();
+        try {
+            // An expired alert doesn't count as a repeat; the new one replaces it.
+            db.delete(WeatherContract.AlertEntry.TABLE_NAME,
+                    WeatherContract.AlertEntry.COLUMN_DEDUP_KEY + " = ? AND " +
+                            WeatherContract.AlertEntry.COLUMN_EXPIRES + " <= ?",
+                    new String[]{dedupKey, Long.toString(received)});
+            long _id = db.insertWithOnConflict(WeatherContract.AlertEntry.TABLE_NAME, null,
+                    values, SQLiteDatabase.CONFLICT_IGNORE);
+            db.setTransactionSuccessful();
+            return _id;
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void invalidateAggregates(ContentValues weatherValues) {
+        Long locationId = weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+        if (locationId != null) {
+            mAggregateCache.invalidate(locationId);
+        } else {
+            mAggregateCache.invalidateAll();
+        }
+    }
+
     private void normalizeDate(ContentValues values) {
         // normalize the date value
         if (values.containsKey(WeatherContract.WeatherEntry.COLUMN_DATE)) {
@@ -292,6 +740,7 @@ public class WeatherProvider extends ContentProvider {
     @Override
     public int update(
             Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        final long traceStart = ProviderTracer.begin();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         int rowsUpdated;
@@ -302,6 +751,10 @@ public class WeatherProvider extends ContentProvider {
                 rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
                         selectionArgs);
                 break;
+            case HOURLY:
+                rowsUpdated = db.update(WeatherContract.HourlyEntry.TABLE_NAME, values, selection,
+                        selectionArgs);
+                break;
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
@@ -310,23 +763,36 @@ public class WeatherProvider extends ContentProvider {
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            if (match != HOURLY) {
+                mAggregateCache.invalidateAll();
+            }
+            notifyChange(uri);
+        }
+        if (traceStart != 0) {
+            traceWrite(match, ProviderTracer.OP_UPDATE, traceStart, rowsUpdated, null,
+                    selection, selectionArgs);
         }
         return rowsUpdated;
     }
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        final long traceStart = ProviderTracer.begin();
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
+            case HOURLY:
+                String table = match == WEATHER ? WeatherContract.WeatherEntry.TABLE_NAME
+                        : WeatherContract.HourlyEntry.TABLE_NAME;
                 db.beginTransaction();
                 int returnCount = 0;
                 try {
                     for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
+                        if (match == WEATHER) {
+                            normalizeDate(value);
+                        }
+                        long _id = db.insert(table, null, value);
                         if (_id != -1) {
                             returnCount++;
                         }
@@ -335,13 +801,94 @@ public class WeatherProvider extends ContentProvider {
                 } finally {
                     db.endTransaction();
                 }
-                getContext().getContentResolver().notifyChange(uri, null);
+                if (match == WEATHER) {
+                    // Batches are nearly always a single location's forecast.
+                    long lastLocationId = Long.MIN_VALUE;
+                    for (ContentValues value : values) {
+                        Long locationId = value.getAsLong(
+                                WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                        if (locationId == null || locationId != lastLocationId) {
+                            invalidateAggregates(value);
+                            lastLocationId = locationId != null ? locationId : Long.MIN_VALUE;
+                        }
+                    }
+                }
+                notifyChange(uri);
+                if (traceStart != 0) {
+                    traceWrite(match, ProviderTracer.OP_BULK_INSERT, traceStart, returnCount,
+                            null, null, null);
+                }
                 return returnCount;
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Applies the operations in one transaction, so either all of them are stored or, when one
+     * fails, none are.  Observers are told once per changed URI after the commit rather than
+     * once per operation.
+     */
+    @Override
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Set<Uri> changes = new LinkedHashSet<>();
+        mBatchChanges.set(changes);
+        ContentProviderResult[] results;
+        db.beginTransaction();
+        try {
+            results = super.applyBatch(operations);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            mBatchChanges.remove();
+        }
+        for (Uri uri : changes) {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+        return results;
+    }
+
+    private void notifyChange(Uri uri) {
+        Set<Uri> batchChanges = mBatchChanges.get();
+        if (batchChanges != null) {
+            batchChanges.add(uri);
+        } else {
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
+    /**
+     * Runs one slice of history compaction, see {@link HistoryCompactor}.  Exposed through call()
+     * rather than a URI because it is neither a read nor a write of any one table.
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (!WeatherContract.HistoryEntry.METHOD_COMPACT.equals(method)) {
+            return super.call(method, arg, extras);
+        }
+        long budgetMillis = extras != null ? extras.getLong(
+                WeatherContract.HistoryEntry.KEY_BUDGET_MILLIS, DEFAULT_COMPACT_BUDGET_MILLIS)
+                : DEFAULT_COMPACT_BUDGET_MILLIS;
+        long deadline = System.nanoTime() + budgetMillis * 1000000;
+
+        HistoryCompactor compactor = new HistoryCompactor(mOpenHelper.getWritableDatabase(),
+                ForecastDates.normalizeDate(System.currentTimeMillis()), TimeZone.getDefault());
+        boolean moreWork = compactor.runSlice(deadline);
+        if (compactor.getPeriodsWritten() > 0 || compactor.getRowsExpired() > 0) {
+            mAggregateCache.invalidateAll();
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.HistoryEntry.CONTENT_URI, null);
+            getContext().getContentResolver().notifyChange(
+                    WeatherContract.WeatherEntry.CONTENT_URI, null);
+        }
+
+        Bundle result = new Bundle();
+        result.putBoolean(WeatherContract.HistoryEntry.KEY_MORE_WORK, moreWork);
+        return result;
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
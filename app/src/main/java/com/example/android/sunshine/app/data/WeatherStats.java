@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.WeatherConditions;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * The aggregate queries behind the stats routes.  Each one is a single pass over one location's
+ * days in a range, which the weather table's (date, location_id) index narrows to the range,
+ * plus the weeks and months in the history table that overlap it, for days old enough to have
+ * been rolled up.  Results come back as row arrays laid out like
+ * {@link StatsEntry#SUMMARY_COLUMNS} or {@link StatsEntry#CONDITION_COLUMNS}, ready for a
+ * MatrixCursor and for caching.
+ * <p/>
+ * A rolled-up period only keeps its extremes, its mean and its dominant condition.  A period
+ * that straddles the range counts for the share of its days inside it, but brings its whole
+ * extremes; its days only count towards the histogram and the rain days through the dominant
+ * condition.
+ */
+final class WeatherStats {
+
+    private static final String DAYS_IN_RANGE = WeatherEntry.COLUMN_LOC_KEY + " = ? AND " +
+            WeatherEntry.COLUMN_DATE + " >= ? AND " + WeatherEntry.COLUMN_DATE + " < ?";
+
+    // Thunderstorms (2xx), drizzle (3xx) and rain (5xx) all count as a wet day.
+    private static final String IS_RAIN = WeatherEntry.COLUMN_WEATHER_ID + " BETWEEN 200 AND 531";
+
+    private static final String SQL_SUMMARY = "SELECT" +
+            " COUNT(*)," +
+            " MIN(" + WeatherEntry.COLUMN_MIN_TEMP + ")," +
+            " MAX(" + WeatherEntry.COLUMN_MAX_TEMP + ")," +
+            " AVG(" + WeatherEntry.COLUMN_MAX_TEMP + ")," +
+            " AVG(" + WeatherEntry.COLUMN_MIN_TEMP + ")," +
+            " AVG(" + WeatherEntry.COLUMN_HUMIDITY + ")," +
+            " SUM(CASE WHEN " + IS_RAIN + " THEN 1 ELSE 0 END)," +
+            " SUM((" + WeatherEntry.COLUMN_MIN_TEMP + " + " +
+            WeatherEntry.COLUMN_MAX_TEMP + ") / 2)" +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + DAYS_IN_RANGE;
+
+    // Periods are disjoint from each other and from the daily rows, so overlap is all we need.
+    private static final String SQL_HISTORY = "SELECT " +
+            HistoryEntry.COLUMN_START_DATE + ", " + HistoryEntry.COLUMN_END_DATE + ", " +
+            HistoryEntry.COLUMN_DAY_COUNT + ", " + HistoryEntry.COLUMN_MIN_TEMP + ", " +
+            HistoryEntry.COLUMN_MAX_TEMP + ", " + HistoryEntry.COLUMN_MEAN_TEMP + ", " +
+            HistoryEntry.COLUMN_WEATHER_ID + ", " + HistoryEntry.COLUMN_WEATHER_DAYS +
+            " FROM " + HistoryEntry.TABLE_NAME + " WHERE " + HistoryEntry.COLUMN_LOC_KEY +
+            " = ? AND " + HistoryEntry.COLUMN_START_DATE + " < ? AND " +
+            HistoryEntry.COLUMN_END_DATE + " > ?";
+
+    // these indices must match SQL_HISTORY
+    private static final int HISTORY_START = 0;
+    private static final int HISTORY_END = 1;
+    private static final int HISTORY_DAYS = 2;
+    private static final int HISTORY_MIN = 3;
+    private static final int HISTORY_MAX = 4;
+    private static final int HISTORY_MEAN = 5;
+    private static final int HISTORY_WEATHER_ID = 6;
+    private static final int HISTORY_WEATHER_DAYS = 7;
+
+    // Grouping by id in SQLite leaves only a few dozen rows to fold into conditions here.
+    private static final String SQL_WEATHER_IDS = "SELECT " +
+            WeatherEntry.COLUMN_WEATHER_ID + ", COUNT(*)" +
+            " FROM " + WeatherEntry.TABLE_NAME + " WHERE " + DAYS_IN_RANGE +
+            " GROUP BY " + WeatherEntry.COLUMN_WEATHER_ID;
+
+    private WeatherStats() {
+    }
+
+    static Object[][] summarize(SQLiteDatabase db, long locationId, long startDate,
+                                long endDate) {
+        return new Object[][]{
+                summarizeRange(db, locationId, startDate, endDate, StatsEntry.PERIOD_CURRENT)};
+    }
+
+    /**
+     * Summarizes the range and the range of the same length just before it.
+     */
+    static Object[][] compare(SQLiteDatabase db, long locationId, long startDate, long endDate) {
+        int days = ForecastDates.getDayOffset(endDate, startDate, TimeZone.getDefault());
+        long previousStart = ForecastDates.addDays(startDate, -days);
+        return new Object[][]{
+                summarizeRange(db, locationId, startDate, endDate, StatsEntry.PERIOD_CURRENT),
+                summarizeRange(db, locationId, previousStart, startDate,
+                        StatsEntry.PERIOD_PREVIOUS)};
+    }
+
+    /**
+     * @return a row per condition with at least one day, most days first.
+     */
+    static Object[][] countConditions(SQLiteDatabase db, long locationId, long startDate,
+                                      long endDate) {
+        // Slot 0 is UNKNOWN, the rest are shifted by one.
+        int[] days = new int[WeatherConditions.CONDITION_COUNT + 1];
+        Cursor cursor = db.rawQuery(SQL_WEATHER_IDS, rangeArgs(locationId, startDate, endDate));
+        try {
+            while (cursor.moveToNext()) {
+                days[WeatherConditions.getCondition(cursor.getInt(0)) + 1] += cursor.getInt(1);
+            }
+        } finally {
+            cursor.close();
+        }
+        cursor = queryHistory(db, locationId, startDate, endDate);
+        try {
+            while (cursor.moveToNext()) {
+                int weatherDays = scaleToRange(cursor, HISTORY_WEATHER_DAYS, startDate, endDate);
+                days[WeatherConditions.getCondition(cursor.getInt(HISTORY_WEATHER_ID)) + 1] +=
+                        weatherDays;
+            }
+        } finally {
+            cursor.close();
+        }
+
+        ArrayList<Object[]> rows = new ArrayList<Object[]>();
+        for (int slot = 0; slot < days.length; slot++) {
+            if (days[slot] == 0) {
+                continue;
+            }
+            Object[] row = {slot - 1, days[slot]};
+            int at = rows.size();
+            while (at > 0 && (Integer) rows.get(at - 1)[1] < days[slot]) {
+                at--;
+            }
+            rows.add(at, row);
+        }
+        return rows.toArray(new Object[rows.size()][]);
+    }
+
+    private static Object[] summarizeRange(SQLiteDatabase db, long locationId, long startDate,
+                                           long endDate, int period) {
+        Object[] row = new Object[StatsEntry.SUMMARY_COLUMNS.length];
+        row[0] = period;
+        int dayCount;
+        Double min;
+        Double max;
+        int rainDays;
+        double meanSum;
+        Cursor cursor = db.rawQuery(SQL_SUMMARY, rangeArgs(locationId, startDate, endDate));
+        try {
+            cursor.moveToFirst();
+            dayCount = cursor.getInt(0);
+            // Aggregates over no rows are NULL in SQLite; keep them null rather than 0 degrees.
+            min = cursor.isNull(1) ? null : cursor.getDouble(1);
+            max = cursor.isNull(2) ? null : cursor.getDouble(2);
+            for (int column = 3; column <= 5; column++) {
+                row[column + 1] = cursor.isNull(column) ? null : cursor.getDouble(column);
+            }
+            rainDays = cursor.isNull(6) ? 0 : cursor.getInt(6);
+            meanSum = cursor.isNull(7) ? 0 : cursor.getDouble(7);
+        } finally {
+            cursor.close();
+        }
+
+        cursor = queryHistory(db, locationId, startDate, endDate);
+        try {
+            while (cursor.moveToNext()) {
+                int days = scaleToRange(cursor, HISTORY_DAYS, startDate, endDate);
+                if (days == 0) {
+                    continue;
+                }
+                dayCount += days;
+                meanSum += cursor.getDouble(HISTORY_MEAN) * days;
+                double periodMin = cursor.getDouble(HISTORY_MIN);
+                double periodMax = cursor.getDouble(HISTORY_MAX);
+                min = min == null ? periodMin : Math.min(min, periodMin);
+                max = max == null ? periodMax : Math.max(max, periodMax);
+                if (isRain(cursor.getInt(HISTORY_WEATHER_ID))) {
+                    rainDays += scaleToRange(cursor, HISTORY_WEATHER_DAYS, startDate, endDate);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        row[1] = dayCount;
+        row[2] = min;
+        row[3] = max;
+        row[7] = rainDays;
+        row[8] = dayCount == 0 ? null : meanSum / dayCount;
+        return row;
+    }
+
+    private static Cursor queryHistory(SQLiteDatabase db, long locationId, long startDate,
+                                       long endDate) {
+        return db.rawQuery(SQL_HISTORY, new String[]{Long.toString(locationId),
+                Long.toString(endDate), Long.toString(startDate)});
+    }
+
+    /**
+     * @return the count in {@code column} of the current history row, cut down to the share of
+     * the period that lies inside the range.
+     */
+    private static int scaleToRange(Cursor history, int column, long startDate, long endDate) {
+        long periodStart = history.getLong(HISTORY_START);
+        long periodEnd = history.getLong(HISTORY_END);
+        int count = history.getInt(column);
+        if (periodStart >= startDate && periodEnd <= endDate) {
+            return count;
+        }
+        long inside = Math.min(periodEnd, endDate) - Math.max(periodStart, startDate);
+        return (int) Math.round((double) count * inside / (periodEnd - periodStart));
+    }
+
+    // Same ranges as IS_RAIN.
+    private static boolean isRain(int weatherId) {
+        return weatherId >= 200 && weatherId <= 531;
+    }
+
+    private static String[] rangeArgs(long locationId, long startDate, long endDate) {
+        return new String[]{Long.toString(locationId), Long.toString(startDate),
+                Long.toString(endDate)};
+    }
+}
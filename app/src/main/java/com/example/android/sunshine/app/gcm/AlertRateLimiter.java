@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket for alert notifications: a short burst goes through, then one every
+ * {@link #REFILL_MILLIS}.  Alerts that are held back are counted so the next notification can
+ * say how many it stands for, and {@link #getNextTokenAt()} says when that notification may be
+ * posted.  Plain Java so it can be tested on the JVM.
+ */
+final class AlertRateLimiter {
+    static final int BURST = 3;
+    static final long REFILL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private int mTokens = BURST;
+    private long mLastRefill = -1;
+    private int mSuppressed;
+
+    /**
+     * @return true if a notification may be posted now.
+     */
+    synchronized boolean tryAcquire(long nowMillis) {
+        if (take(nowMillis)) {
+            return true;
+        }
+        mSuppressed++;
+        return false;
+    }
+
+    /**
+     * Like {@link #tryAcquire}, for a notification summing up alerts already held back, so
+     * nothing more is counted if it has to wait.
+     */
+    synchronized boolean tryAcquireForSummary(long nowMillis) {
+        return take(nowMillis);
+    }
+
+    private boolean take(long nowMillis) {
+        if (mLastRefill < 0 || nowMillis < mLastRefill || mTokens == BURST) {
+            // First call, a clock that went backwards, or a full bucket earning nothing.
+            mLastRefill = nowMillis;
+        } else {
+            long earned = (nowMillis - mLastRefill) / REFILL_MILLIS;
+            if (earned > 0) {
+                mTokens = (int) Math.min(BURST, mTokens + earned);
+                mLastRefill += earned * REFILL_MILLIS;
+            }
+        }
+        if (mTokens > 0) {
+            mTokens--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return when the bucket earns its next token, or -1 if it is full.
+     */
+    synchronized long getNextTokenAt() {
+        return mLastRefill < 0 || mTokens == BURST ? -1 : mLastRefill + REFILL_MILLIS;
+    }
+
+    /**
+     * @return how many alerts were held back since the last call.
+     */
+    synchronized int takeSuppressed() {
+        int suppressed = mSuppressed;
+        mSuppressed = 0;
+        return suppressed;
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import android.app.IntentService;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+
+/**
+ * Posts the notification owed for weather alerts the rate limit held back, once it lets one
+ * through.  {@link WeatherAlerts} sets an alarm for it, so it comes even if no later alert
+ * arrives to carry the count, and even if the process died in between.
+ */
+public class AlertSummaryService extends IntentService {
+    private static final String EXTRA_SINCE = "since";
+
+    public AlertSummaryService() {
+        super("AlertSummaryService");
+    }
+
+    /**
+     * @param sinceMillis when the first alert was held back.
+     */
+    static PendingIntent getOperation(Context context, long sinceMillis) {
+        Intent intent = new Intent(context, AlertSummaryService.class)
+                .putExtra(EXTRA_SINCE, sinceMillis);
+        return PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        long since = intent.getLongExtra(EXTRA_SINCE, 0);
+        if (since > 0) {
+            WeatherAlerts.get(this).postSummary(since, System.currentTimeMillis());
+        }
+    }
+}
@@ -0,0 +1,411 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.OperationApplicationException;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.preference.PreferenceManager;
+import android.util.Log;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.sync.SunshineSyncAdapter;
+import com.example.android.sunshine.app.sync.SyncRequestCoalescer;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles the "forecast changed" pushes sent through GCM.  A push names the location it is
+ * about and the server's data version for it.  A push for a location we don't show, or for a
+ * version we already have, is dropped.  A push that carries a delta against the version we
+ * hold is written straight into the database; any other push asks the
+ * {@link SyncRequestCoalescer} for a sync of that location, so a burst of pushes still makes
+ * one fetch.
+ * <p/>
+ * While pushes keep arriving the periodic sync only has to catch the ones that got lost, so
+ * the sync adapter stretches it; see {@link #isChannelHealthy(long)}.
+ * <p/>
+ * Forecast messages hold "location", "version" and optionally "base", the version the delta
+ * applies to, and "delta", a JSON object with a "days" array of {"date" in seconds since the
+ * epoch, "max", "min", "id", "main"}; any field but the date may be left out.  The decisions go
+ * through {@link Store} and {@link SyncTarget} so they can be driven by a fake message source
+ * on the JVM.
+ */
+public class ForecastPushHandler {
+    private static final String LOG_TAG = ForecastPushHandler.class.getSimpleName();
+
+    public static final String EXTRA_LOCATION = "location";
+    public static final String EXTRA_VERSION = "version";
+    public static final String EXTRA_BASE = "base";
+    public static final String EXTRA_DELTA = "delta";
+
+    public static final int RESULT_IGNORED = 0;
+    public static final int RESULT_STALE = 1;
+    public static final int RESULT_APPLIED = 2;
+    public static final int RESULT_SYNC_REQUESTED = 3;
+
+    /**
+     * How long after the last push we still trust the channel enough to poll less often.
+     */
+    static final long CHANNEL_HEALTHY_MILLIS = TimeUnit.DAYS.toMillis(2);
+
+    public interface Store {
+        String getPreferredLocation();
+
+        /**
+         * @return the data version we hold for {@code location}, or 0 if we don't know it.
+         */
+        long getVersion(String location);
+
+        void setVersion(String location, long version);
+
+        long getLastPushMillis();
+
+        void setLastPushMillis(long millis);
+
+        /**
+         * Writes the delta into the stored forecast.
+         *
+         * @return false if it could not be applied, e.g. it names days we don't have.
+         */
+        boolean applyDelta(String location, String delta);
+    }
+
+    public interface SyncTarget {
+        void requestSync(String location);
+    }
+
+    private static ForecastPushHandler sInstance;
+
+    private final Store mStore;
+    private final SyncTarget mSyncTarget;
+
+    private int mPushCount;
+    private int mIgnoredCount;
+    private int mStaleCount;
+    private int mAppliedCount;
+    private int mSyncCount;
+
+    public ForecastPushHandler(Store store, SyncTarget syncTarget) {
+        mStore = store;
+        mSyncTarget = syncTarget;
+    }
+
+    /**
+     * @return the process-wide handler, backed by the preferences and the weather provider.
+     */
+    public static synchronized ForecastPushHandler get(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sInstance = new ForecastPushHandler(new PreferenceStore(appContext), new SyncTarget() {
+                @Override
+                public void requestSync(final String location) {
+                    // The coalescer expects its requests on the main thread.
+                    handler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            SyncRequestCoalescer.get(appContext).requestSync(location,
+                                    SyncRequestCoalescer.REASON_PUSH);
+                        }
+                    });
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return true if {@code data} is a forecast push rather than an alert.
+     */
+    public static boolean isForecastPush(Bundle data) {
+        return data.containsKey(EXTRA_LOCATION) && data.containsKey(EXTRA_VERSION);
+    }
+
+    /**
+     * Handles a forecast push as GCM delivers it, with every value a string.
+     */
+    public int onMessage(Bundle data, long nowMillis) {
+        try {
+            String base = data.getString(EXTRA_BASE);
+            return onPush(data.getString(EXTRA_LOCATION),
+                    Long.parseLong(data.getString(EXTRA_VERSION)),
+                    base == null ? 0 : Long.parseLong(base),
+                    data.getString(EXTRA_DELTA), nowMillis);
+        } catch (NumberFormatException e) {
+            Log.w(LOG_TAG, "Ignoring malformed forecast push", e);
+            return RESULT_IGNORED;
+        }
+    }
+
+    /**
+     * @param baseVersion the version {@code delta} applies to; ignored without a delta.
+     * @param delta       the change to apply inline, or null to sync instead.
+     */
+    public synchronized int onPush(String location, long version, long baseVersion,
+                                   String delta, long nowMillis) {
+        mPushCount++;
+        // Any push, even one we drop, shows the channel is alive.
+        mStore.setLastPushMillis(nowMillis);
+
+        if (location == null || !location.equals(mStore.getPreferredLocation())) {
+            mIgnoredCount++;
+            return RESULT_IGNORED;
+        }
+        long current = mStore.getVersion(location);
+        if (version <= current) {
+            mStaleCount++;
+            return RESULT_STALE;
+        }
+        if (delta != null && current != 0 && baseVersion == current
+                && mStore.applyDelta(location, delta)) {
+            mStore.setVersion(location, version);
+            mAppliedCount++;
+            return RESULT_APPLIED;
+        }
+        // Recorded before the fetch: a repeat of this push is dropped, and if the fetch fails
+        // the next push or the periodic sync catches up.
+        mStore.setVersion(location, version);
+        mSyncCount++;
+        mSyncTarget.requestSync(location);
+        return RESULT_SYNC_REQUESTED;
+    }
+
+    /**
+     * @return true if a push arrived recently enough that we can rely on them for changes.
+     */
+    public boolean isChannelHealthy(long nowMillis) {
+        long lastPush = mStore.getLastPushMillis();
+        return lastPush > 0 && nowMillis - lastPush < CHANNEL_HEALTHY_MILLIS;
+    }
+
+    public synchronized int getPushCount() {
+        return mPushCount;
+    }
+
+    /**
+     * @return pushes about a location other than the preferred one.
+     */
+    public synchronized int getIgnoredCount() {
+        return mIgnoredCount;
+    }
+
+    /**
+     * @return pushes for a version we already had.
+     */
+    public synchronized int getStaleCount() {
+        return mStaleCount;
+    }
+
+    /**
+     * @return pushes whose delta was written without a fetch.
+     */
+    public synchronized int getAppliedCount() {
+        return mAppliedCount;
+    }
+
+    /**
+     * @return pushes that asked for a sync.
+     */
+    public synchronized int getSyncCount() {
+        return mSyncCount;
+    }
+
+    /**
+     * Keeps the versions in the default preferences and applies deltas through the weather
+     * provider.
+     */
+    static class PreferenceStore implements Store {
+        private static final String JSON_DAYS = "days";
+        private static final String JSON_DATE = "date";
+        private static final String JSON_MAX = "max";
+        private static final String JSON_MIN = "min";
+        private static final String JSON_WEATHER_ID = "id";
+        private static final String JSON_DESCRIPTION = "main";
+
+        private static final String DAY_SELECTION =
+                WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                        + WeatherContract.WeatherEntry.COLUMN_DATE + " = ?";
+
+        private final Context mContext;
+        private final SharedPreferences mPrefs;
+
+        PreferenceStore(Context context) {
+            mContext = context;
+            mPrefs = PreferenceManager.getDefaultSharedPreferences(context);
+        }
+
+        @Override
+        public String getPreferredLocation() {
+            return Utility.getPreferredLocation(mContext);
+        }
+
+        @Override
+        public long getVersion(String location) {
+            // Only the preferred location is stored, so one version is all we keep.
+            if (!location.equals(mPrefs.getString(
+                    mContext.getString(R.string.pref_push_location_key), null))) {
+                return 0;
+            }
+            return mPrefs.getLong(mContext.getString(R.string.pref_push_version_key), 0);
+        }
+
+        @Override
+        public void setVersion(String location, long version) {
+            mPrefs.edit()
+                    .putString(mContext.getString(R.string.pref_push_location_key), location)
+                    .putLong(mContext.getString(R.string.pref_push_version_key), version)
+                    .apply();
+        }
+
+        @Override
+        public long getLastPushMillis() {
+            return mPrefs.getLong(mContext.getString(R.string.pref_last_push_key), 0);
+        }
+
+        @Override
+        public void setLastPushMillis(long millis) {
+            mPrefs.edit().putLong(mContext.getString(R.string.pref_last_push_key), millis).apply();
+        }
+
+        @Override
+        public boolean applyDelta(String location, String delta) {
+            long locationId = getLocationId(location);
+            if (locationId < 0) {
+                return false;
+            }
+            ArrayList<ContentProviderOperation> operations = new ArrayList<>();
+            Set<Long> dates = new HashSet<>();
+            try {
+                JSONArray days = new JSONObject(delta).getJSONArray(JSON_DAYS);
+                for (int i = 0; i < days.length(); i++) {
+                    JSONObject day = days.getJSONObject(i);
+                    long date = ForecastDates.normalizeDate(
+                            TimeUnit.SECONDS.toMillis(day.getLong(JSON_DATE)));
+                    ContentValues values = new ContentValues(4);
+                    if (day.has(JSON_MAX)) {
+                        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+                                day.getDouble(JSON_MAX));
+                    }
+                    if (day.has(JSON_MIN)) {
+                        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+                                day.getDouble(JSON_MIN));
+                    }
+                    if (day.has(JSON_WEATHER_ID)) {
+                        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                                day.getInt(JSON_WEATHER_ID));
+                    }
+                    if (day.has(JSON_DESCRIPTION)) {
+                        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+                                day.getString(JSON_DESCRIPTION));
+                    }
+                    if (values.size() == 0) {
+                        continue;
+                    }
+                    dates.add(date);
+                    operations.add(ContentProviderOperation
+                            .newUpdate(WeatherContract.WeatherEntry.CONTENT_URI)
+                            .withSelection(DAY_SELECTION,
+                                    new String[]{Long.toString(locationId), Long.toString(date)})
+                            .withValues(values)
+                            .withExpectedCount(1)
+                            .build());
+                }
+            } catch (JSONException e) {
+                Log.w(LOG_TAG, "Ignoring malformed forecast delta", e);
+                return false;
+            }
+            if (operations.isEmpty()) {
+                return true;
+            }
+            if (countStoredDays(locationId, dates) != dates.size()) {
+                // A day we don't have; the sync that follows fetches it whole.
+                return false;
+            }
+            try {
+                // One transaction: a day removed since the check rolls back the others too.
+                mContext.getContentResolver().applyBatch(
+                        WeatherContract.CONTENT_AUTHORITY, operations);
+            } catch (RemoteException | OperationApplicationException e) {
+                Log.w(LOG_TAG, "Forecast delta no longer applies", e);
+                return false;
+            }
+            // Same as a change of units: the watch and widgets re-render from the database.
+            SunshineSyncAdapter.refreshFromDatabase(mContext);
+            return true;
+        }
+
+        private int countStoredDays(long locationId, Set<Long> dates) {
+            StringBuilder selection = new StringBuilder(
+                    WeatherContract.WeatherEntry.COLUMN_LOC_KEY + " = ? AND "
+                            + WeatherContract.WeatherEntry.COLUMN_DATE + " IN (");
+            String[] selectionArgs = new String[dates.size() + 1];
+            selectionArgs[0] = Long.toString(locationId);
+            int i = 1;
+            for (long date : dates) {
+                selection.append(i == 1 ? "?" : ", ?");
+                selectionArgs[i++] = Long.toString(date);
+            }
+            selection.append(')');
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.WeatherEntry.CONTENT_URI,
+                    new String[]{WeatherContract.WeatherEntry.COLUMN_DATE},
+                    selection.toString(), selectionArgs, null);
+            if (cursor == null) {
+                return 0;
+            }
+            try {
+                return cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+
+        private long getLocationId(String location) {
+            Cursor cursor = mContext.getContentResolver().query(
+                    WeatherContract.LocationEntry.CONTENT_URI,
+                    new String[]{WeatherContract.LocationEntry._ID},
+                    WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                    new String[]{location}, null);
+            if (cursor == null) {
+                return -1;
+            }
+            try {
+                return cursor.moveToFirst() ? cursor.getLong(0) : -1;
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import android.annotation.SuppressLint;
+import android.app.AlarmManager;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.database.Cursor;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.SendDataService;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Takes in the weather alerts pushed through GCM.  Each alert is stored in the alert table,
+ * where a repeat of one we already have is dropped on its dedup key, then announced in a
+ * notification and, if it is about the user's location, sent on to the watch.  Notifications
+ * are rate limited and their icon is decoded once, so a storm of alerts costs a parse, an
+ * indexed insert and at most one notification update per alert, however many came before.
+ * Alerts the rate limit holds back aren't dropped: an alarm posts a notification summing them up
+ * as soon as it allows one.
+ * <p/>
+ * Alert messages hold a JSON object with "weather" and "location", and optionally "id", the
+ * sender's identifier, and "expires", in seconds since the epoch.
+ */
+public class WeatherAlerts {
+    private static final String LOG_TAG = WeatherAlerts.class.getSimpleName();
+
+    static final int NOTIFICATION_ID = 1;
+
+    private static final String JSON_WEATHER = "weather";
+    private static final String JSON_LOCATION = "location";
+    private static final String JSON_ID = "id";
+    private static final String JSON_EXPIRES = "expires";
+
+    /**
+     * How long an alert applies when the sender doesn't say.
+     */
+    static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(6);
+    // Expired alerts are swept at most this often; a dedup insert replaces its own expired row.
+    private static final long PURGE_INTERVAL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private static final String[] CITY_PROJECTION =
+            {WeatherContract.LocationEntry.COLUMN_CITY_NAME};
+
+    private static final String[] SUMMARY_PROJECTION = {
+            WeatherContract.AlertEntry.COLUMN_WEATHER,
+            WeatherContract.AlertEntry.COLUMN_LOCATION
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER = 0;
+    private static final int INDEX_LOCATION = 1;
+
+    private static WeatherAlerts sInstance;
+
+    private final Context mContext;
+    private final AlertRateLimiter mRateLimiter = new AlertRateLimiter();
+    private long mNextPurge;
+    // When the first alert still waiting for a summary was held back, 0 if none is.
+    private long mHeldBackSince;
+    // Decoded on first use at the notification's large icon size, then reused.
+    private Bitmap mLargeIcon;
+
+    private int mReceived;
+    private int mDuplicates;
+    private int mNotified;
+
+    WeatherAlerts(Context context) {
+        mContext = context;
+    }
+
+    public static synchronized WeatherAlerts get(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherAlerts(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Handles one alert message.  Call from a background thread.
+     *
+     * @return true if it was a new alert.
+     */
+    public synchronized boolean ingest(String json, long nowMillis) {
+        mReceived++;
+        ContentValues values = new ContentValues();
+        try {
+            JSONObject alert = new JSONObject(json);
+            String weather = alert.getString(JSON_WEATHER);
+            String location = alert.getString(JSON_LOCATION);
+            long expires = alert.has(JSON_EXPIRES)
+                    ? TimeUnit.SECONDS.toMillis(alert.getLong(JSON_EXPIRES))
+                    : nowMillis + DEFAULT_TTL_MILLIS;
+            if (expires <= nowMillis) {
+                return false;
+            }
+            values.put(WeatherContract.AlertEntry.COLUMN_DEDUP_KEY,
+                    getDedupKey(alert.optString(JSON_ID, null), weather, location));
+            values.put(WeatherContract.AlertEntry.COLUMN_WEATHER, weather);
+            values.put(WeatherContract.AlertEntry.COLUMN_LOCATION, location);
+            values.put(WeatherContract.AlertEntry.COLUMN_RECEIVED, nowMillis);
+            values.put(WeatherContract.AlertEntry.COLUMN_EXPIRES, expires);
+        } catch (JSONException e) {
+            // JSON parsing failed, so we just let this message go, since GCM is not one
+            // of our critical features.
+            Log.w(LOG_TAG, "Ignoring malformed alert", e);
+            return false;
+        }
+
+        Uri inserted = mContext.getContentResolver().insert(
+                WeatherContract.AlertEntry.CONTENT_URI, values);
+        if (inserted == null) {
+            mDuplicates++;
+            return false;
+        }
+        purgeExpired(nowMillis);
+
+        String weather = values.getAsString(WeatherContract.AlertEntry.COLUMN_WEATHER);
+        String location = values.getAsString(WeatherContract.AlertEntry.COLUMN_LOCATION);
+        if (mRateLimiter.tryAcquire(nowMillis)) {
+            notify(weather, location, 1 + mRateLimiter.takeSuppressed());
+            mNotified++;
+            if (mHeldBackSince > 0) {
+                // This one counts those held back; no summary is owed.
+                mHeldBackSince = 0;
+                getAlarmManager().cancel(AlertSummaryService.getOperation(mContext, 0));
+            }
+        } else if (mHeldBackSince == 0) {
+            // No token is spent until the summary, so the next one stays due when it was.
+            mHeldBackSince = nowMillis;
+            scheduleSummary();
+        }
+        if (isPreferredLocation(location)) {
+            SendDataService.sendAlert(mContext, weather,
+                    values.getAsLong(WeatherContract.AlertEntry.COLUMN_EXPIRES));
+        }
+        return true;
+    }
+
+    /**
+     * Posts the notification owed for the alerts held back since {@code sinceMillis}: the latest
+     * that still applies, numbered with how many still do.  Nothing is posted if they have all
+     * expired; if the rate limit still says no, it is tried again when it next allows one.
+     */
+    public synchronized void postSummary(long sinceMillis, long nowMillis) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.AlertEntry.CONTENT_URI, SUMMARY_PROJECTION,
+                WeatherContract.AlertEntry.COLUMN_RECEIVED + " >= ? AND "
+                        + WeatherContract.AlertEntry.COLUMN_EXPIRES + " > ?",
+                new String[]{Long.toString(sinceMillis), Long.toString(nowMillis)},
+                WeatherContract.AlertEntry.COLUMN_RECEIVED + " DESC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst()) {
+                mHeldBackSince = 0;
+                mRateLimiter.takeSuppressed();
+                return;
+            }
+            if (!mRateLimiter.tryAcquireForSummary(nowMillis)) {
+                mHeldBackSince = sinceMillis;
+                scheduleSummary();
+                return;
+            }
+            mHeldBackSince = 0;
+            mRateLimiter.takeSuppressed();
+            notify(cursor.getString(INDEX_WEATHER), cursor.getString(INDEX_LOCATION),
+                    cursor.getCount());
+            mNotified++;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Sets the alarm for the summary of the alerts held back since {@link #mHeldBackSince} at
+     * the time the rate limit next allows a notification, replacing any set before.
+     */
+    private void scheduleSummary() {
+        getAlarmManager().set(AlarmManager.RTC_WAKEUP, mRateLimiter.getNextTokenAt(),
+                AlertSummaryService.getOperation(mContext, mHeldBackSince));
+    }
+
+    private AlarmManager getAlarmManager() {
+        return (AlarmManager) mContext.getSystemService(Context.ALARM_SERVICE);
+    }
+
+    static String getDedupKey(String id, String weather, String location) {
+        if (id != null && id.length() > 0) {
+            return "id:" + id;
+        }
+        return (weather + "|" + location).toLowerCase(Locale.US);
+    }
+
+    private void purgeExpired(long nowMillis) {
+        if (nowMillis < mNextPurge) {
+            return;
+        }
+        mNextPurge = nowMillis + PURGE_INTERVAL_MILLIS;
+        mContext.getContentResolver().delete(WeatherContract.AlertEntry.CONTENT_URI,
+                WeatherContract.AlertEntry.COLUMN_EXPIRES + " <= ?",
+                new String[]{Long.toString(nowMillis)});
+    }
+
+    /**
+     * @return true if {@code location} names the city the user follows, or we don't know
+     * that city yet.
+     */
+    private boolean isPreferredLocation(String location) {
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI, CITY_PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{Utility.getPreferredLocation(mContext)}, null);
+        if (cursor == null) {
+            return true;
+        }
+        try {
+            return !cursor.moveToFirst() || location.equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Puts the alert into a notification and posts it.
+     *
+     * @param count how many alerts the notification stands for, including held back ones.
+     */
+    private void notify(String weather, String location, int count) {
+        String message = String.format(mContext.getString(R.string.gcm_weather_alert),
+                weather, location);
+        PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0,
+                new Intent(mContext, MainActivity.class), 0);
+
+        // Notifications using both a large and a small icon (which yours should!) need the large
+        // icon as a bitmap. Generally, you want to use the app icon as the small icon, so that
+        // users understand what app is triggering this notification.
+        NotificationCompat.Builder builder =
+                new NotificationCompat.Builder(mContext)
+                        .setSmallIcon(R.drawable.art_clear)
+                        .setLargeIcon(getLargeIcon())
+                        .setContentTitle("Weather Alert!")
+                        .setStyle(new NotificationCompat.BigTextStyle().bigText(message))
+                        .setContentText(message)
+                        .setPriority(NotificationCompat.PRIORITY_HIGH)
+                        .setContentIntent(contentIntent);
+        if (count > 1) {
+            builder.setNumber(count);
+        }
+        NotificationManager notificationManager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+        notificationManager.notify(NOTIFICATION_ID, builder.build());
+    }
+
+    private Bitmap getLargeIcon() {
+        if (mLargeIcon != null) {
+            return mLargeIcon;
+        }
+        Resources resources = mContext.getResources();
+        @SuppressLint("InlinedApi")
+        int size = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        // The art is far larger than the icon; subsample while decoding rather than after.
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, R.drawable.art_storm, options);
+        options.inSampleSize = 1;
+        while (options.outHeight / (options.inSampleSize * 2) >= size) {
+            options.inSampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        mLargeIcon = BitmapFactory.decodeResource(resources, R.drawable.art_storm, options);
+        return mLargeIcon;
+    }
+
+    public synchronized int getReceivedCount() {
+        return mReceived;
+    }
+
+    /**
+     * @return alerts dropped as repeats of a stored one.
+     */
+    public synchronized int getDuplicateCount() {
+        return mDuplicates;
+    }
+
+    public synchronized int getNotifiedCount() {
+        return mNotified;
+    }
+}
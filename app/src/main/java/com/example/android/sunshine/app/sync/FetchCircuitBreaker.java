@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.Random;
+
+/**
+ * Keeps the sync from hammering OpenWeatherMap while it is down.  After
+ * {@code failureThreshold} consecutive failed fetches the breaker opens and refuses fetches for
+ * an exponentially growing, jittered delay.  Once the delay is up a single probe fetch is let
+ * through (half open): success closes the breaker, failure opens it again for longer.
+ * <p/>
+ * The breaker has no clock and no storage of its own.  Callers pass in the time, and persist
+ * it with the getters and {@link #restore(int, int, long)} so that the backoff survives the
+ * sync process being killed.  Plain Java so the state machine can be tested on the JVM.
+ */
+public class FetchCircuitBreaker {
+    public static final int STATE_CLOSED = 0;
+    public static final int STATE_OPEN = 1;
+    public static final int STATE_HALF_OPEN = 2;
+
+    // How long a probe may take before we assume it died with its process and allow another.
+    static final long PROBE_TIMEOUT_MILLIS = 2 * 60 * 1000;
+
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final int mFailureThreshold;
+    private final Random mRandom;
+
+    private int mState = STATE_CLOSED;
+    private int mFailureCount;
+    private long mRetryAtMillis;
+
+    public FetchCircuitBreaker(long baseDelayMillis, long maxDelayMillis, int failureThreshold,
+                               Random random) {
+        if (failureThreshold < 1 || baseDelayMillis <= 0 || maxDelayMillis < baseDelayMillis) {
+            throw new IllegalArgumentException("Invalid breaker configuration");
+        }
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mFailureThreshold = failureThreshold;
+        mRandom = random;
+    }
+
+    /**
+     * Reloads persisted state.  Unknown states are treated as closed.
+     */
+    public synchronized void restore(int state, int failureCount, long retryAtMillis) {
+        if (state != STATE_OPEN && state != STATE_HALF_OPEN) {
+            state = STATE_CLOSED;
+        }
+        mState = state;
+        mFailureCount = Math.max(0, failureCount);
+        mRetryAtMillis = retryAtMillis;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    public synchronized int getFailureCount() {
+        return mFailureCount;
+    }
+
+    /**
+     * @return while open, when the next probe is allowed; while half open, when the current
+     * probe is given up on.  0 when closed.
+     */
+    public synchronized long getRetryAtMillis() {
+        return mRetryAtMillis;
+    }
+
+    /**
+     * Asks to fetch.  A true return while the breaker is open or half open means the caller is
+     * the probe, and must report back with {@link #onSuccess()} or {@link #onFailure(long)}.
+     */
+    public synchronized boolean allowRequest(long nowMillis) {
+        if (mState == STATE_CLOSED) {
+            return true;
+        }
+        if (nowMillis < mRetryAtMillis) {
+            return false;
+        }
+        mState = STATE_HALF_OPEN;
+        mRetryAtMillis = nowMillis + PROBE_TIMEOUT_MILLIS;
+        return true;
+    }
+
+    public synchronized void onSuccess() {
+        mState = STATE_CLOSED;
+        mFailureCount = 0;
+        mRetryAtMillis = 0;
+    }
+
+    public synchronized void onFailure(long nowMillis) {
+        mFailureCount++;
+        if (mState == STATE_HALF_OPEN || mFailureCount >= mFailureThreshold) {
+            mState = STATE_OPEN;
+            mRetryAtMillis = nowMillis + getJitteredDelay();
+        }
+    }
+
+    /**
+     * Doubles the base delay for every failure past the threshold, caps it, then picks
+     * uniformly from its upper half so that devices which failed together do not all retry
+     * together.
+     */
+    private long getJitteredDelay() {
+        int doublings = Math.min(Math.max(0, mFailureCount - mFailureThreshold), 30);
+        long delay = Math.min(mMaxDelayMillis, mBaseDelayMillis << doublings);
+        long half = delay / 2;
+        return delay - half + (long) (mRandom.nextDouble() * half);
+    }
+}
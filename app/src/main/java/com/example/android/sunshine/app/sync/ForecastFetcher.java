@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.Utility;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+/**
+ * Downloads the raw daily and 3-hourly forecasts from OpenWeatherMap.  The endpoints come from
+ * BuildConfig.FORECAST_BASE_URL and BuildConfig.HOURLY_FORECAST_BASE_URL and can be replaced at
+ * runtime with {@link #setBaseUrl(String)} and {@link #setHourlyBaseUrl(String)}, which is how
+ * the JVM tests point the sync at a local stand-in server.
+ */
+public class ForecastFetcher {
+    private static final String LOG_TAG = ForecastFetcher.class.getSimpleName();
+
+    // Without timeouts a server that stops sending mid-body would hold the sync thread forever.
+    private static final int CONNECT_TIMEOUT_MILLIS = 15 * 1000;
+    private static final int READ_TIMEOUT_MILLIS = 15 * 1000;
+
+    private static final String QUERY_PARAM = "q";
+    private static final String LAT_PARAM = "lat";
+    private static final String LON_PARAM = "lon";
+    private static final String FORMAT_PARAM = "mode";
+    private static final String UNITS_PARAM = "units";
+    private static final String DAYS_PARAM = "cnt";
+    private static final String APPID_PARAM = "APPID";
+
+    private static final String FORMAT = "json";
+    private static final String UNITS = "metric";
+    private static final int NUM_DAYS = 14;
+    // Today and tomorrow in 3 hour slots, plus the slots still ahead of us today.
+    private static final int NUM_HOURLY_SLOTS = 16;
+
+    private static volatile String sBaseUrl = BuildConfig.FORECAST_BASE_URL;
+    private static volatile String sHourlyBaseUrl = BuildConfig.HOURLY_FORECAST_BASE_URL;
+
+    /**
+     * Consumes a response body as it arrives, see {@link #fetchStream(Uri, StreamHandler)}.
+     */
+    public interface StreamHandler {
+        void onResponse(Reader body) throws IOException;
+    }
+
+    private ForecastFetcher() {
+    }
+
+    /**
+     * @param baseUrl the forecast endpoint to use from now on, or null to go back to the one the
+     *                app was built with.
+     */
+    public static void setBaseUrl(String baseUrl) {
+        sBaseUrl = baseUrl != null ? baseUrl : BuildConfig.FORECAST_BASE_URL;
+    }
+
+    public static String getBaseUrl() {
+        return sBaseUrl;
+    }
+
+    /**
+     * @param baseUrl the 3-hourly forecast endpoint to use from now on, or null to go back to the
+     *                one the app was built with.
+     */
+    public static void setHourlyBaseUrl(String baseUrl) {
+        sHourlyBaseUrl = baseUrl != null ? baseUrl : BuildConfig.HOURLY_FORECAST_BASE_URL;
+    }
+
+    /**
+     * Builds the query for the preferred location.  Possible parameters are available at OWM's
+     * forecast API page, at http://openweathermap.org/API#forecast
+     */
+    public static Uri buildForecastUri(Context context) {
+        return buildUri(context, sBaseUrl, NUM_DAYS);
+    }
+
+    /**
+     * Builds the 3-hourly query for the preferred location, covering today and tomorrow.
+     */
+    public static Uri buildHourlyForecastUri(Context context) {
+        return buildUri(context, sHourlyBaseUrl, NUM_HOURLY_SLOTS);
+    }
+
+    private static Uri buildUri(Context context, String baseUrl, int count) {
+        Uri.Builder uriBuilder = Uri.parse(baseUrl).buildUpon();
+
+        // Instead of always building the query based off of the location string, we want to
+        // potentially build a query using a lat/lon value. This will be the case when we are
+        // syncing based off of a new location from the Place Picker API. So we need to check
+        // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
+        // service may not understand the location address provided by the Place Picker API
+        // and the user could end up with no weather! The horror!
+        if (Utility.isLocationLatLonAvailable(context)) {
+            uriBuilder.appendQueryParameter(LAT_PARAM,
+                    String.valueOf(Utility.getLocationLatitude(context)))
+                    .appendQueryParameter(LON_PARAM,
+                            String.valueOf(Utility.getLocationLongitude(context)));
+        } else {
+            uriBuilder.appendQueryParameter(QUERY_PARAM, Utility.getPreferredLocation(context));
+        }
+
+        return uriBuilder.appendQueryParameter(FORMAT_PARAM, FORMAT)
+                .appendQueryParameter(UNITS_PARAM, UNITS)
+                .appendQueryParameter(DAYS_PARAM, Integer.toString(count))
+                .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
+                .build();
+    }
+
+    /**
+     * Performs the request on the calling thread.
+     *
+     * @return the response body, or null if the server sent nothing.
+     */
+    public static String fetch(Uri uri) throws IOException {
+        // These two need to be declared outside the try/catch
+        // so that they can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+        BufferedReader reader = null;
+
+        try {
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = connect(uri);
+
+            // Read the input stream into a String
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return null;
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+
+            StringBuilder buffer = new StringBuilder();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
+                // But it does make debugging a *lot* easier if you print out the completed
+                // buffer for debugging.
+                buffer.append(line).append('\n');
+            }
+
+            if (buffer.length() == 0) {
+                // Stream was empty.  No point in parsing.
+                return null;
+            }
+            return buffer.toString();
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Performs the request on the calling thread and hands the body to {@code handler} while it
+     * is still being received, so a large response is never held in memory as one String.
+     *
+     * @return false if the server sent no body, in which case the handler is not called.
+     */
+    public static boolean fetchStream(Uri uri, StreamHandler handler) throws IOException {
+        HttpURLConnection urlConnection = null;
+        Reader reader = null;
+
+        try {
+            urlConnection = connect(uri);
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                return false;
+            }
+            reader = new BufferedReader(new InputStreamReader(inputStream, "UTF-8"));
+            handler.onResponse(reader);
+            return true;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (final IOException e) {
+                    Log.e(LOG_TAG, "Error closing stream", e);
+                }
+            }
+        }
+    }
+
+    private static HttpURLConnection connect(Uri uri) throws IOException {
+        URL url = new URL(uri.toString());
+        HttpURLConnection urlConnection = (HttpURLConnection) url.openConnection();
+        urlConnection.setRequestMethod("GET");
+        urlConnection.setConnectTimeout(CONNECT_TIMEOUT_MILLIS);
+        urlConnection.setReadTimeout(READ_TIMEOUT_MILLIS);
+        urlConnection.connect();
+        return urlConnection;
+    }
+}
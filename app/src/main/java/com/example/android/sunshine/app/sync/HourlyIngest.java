@@ -0,0 +1,279 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.TargetApi;
+import android.content.ContentValues;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Build;
+import android.util.JsonReader;
+import android.util.JsonToken;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.TimeZone;
+
+/**
+ * Downloads the 3-hourly forecast for today and tomorrow and stores it in the hourly table.
+ * The response is read token by token as it arrives, so only the slots we keep are ever
+ * materialized.  Slots before the start of today are pruned on every ingest.
+ */
+public final class HourlyIngest {
+
+    // Names of the JSON fields in the 3-hourly response.  Each slot is an element of "list".
+    private static final String OWM_MESSAGE_CODE = "cod";
+    private static final String OWM_LIST = "list";
+    private static final String OWM_TIME = "dt";
+    private static final String OWM_MAIN = "main";
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_WEATHER_ID = "id";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WIND = "wind";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    private static final String OK_CODE = "200";
+
+    // How many days of slots we keep, starting with today.
+    static final int DAYS_KEPT = 2;
+
+    private HourlyIngest() {
+    }
+
+    /**
+     * Fetches and stores the hourly forecast for {@code locationId}.
+     *
+     * @return the number of slots stored.
+     */
+    public static int ingest(final Context context, Uri hourlyUri, final long locationId,
+                             final long todayStart, final TimeZone timeZone) throws IOException {
+        final int[] stored = new int[1];
+        ForecastFetcher.fetchStream(hourlyUri, new ForecastFetcher.StreamHandler() {
+            @Override
+            public void onResponse(Reader body) throws IOException {
+                stored[0] = store(context, body, locationId, todayStart, timeZone);
+            }
+        });
+        return stored[0];
+    }
+
+    /**
+     * Reads a 3-hourly response, inserts the slots that fall on today or tomorrow and prunes
+     * everything before today.
+     *
+     * @return the number of slots stored; 0 if the response reported an error.
+     * @throws IOException if the response can't be read, or isn't the forecast we expect.
+     */
+    static int store(Context context, Reader body, long locationId, long todayStart,
+                     TimeZone timeZone) throws IOException {
+        long endTime = ForecastDates.addDays(todayStart, DAYS_KEPT, timeZone);
+        ArrayList<ContentValues> slots = new ArrayList<ContentValues>();
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                readStreaming(body, locationId, todayStart, endTime, slots);
+            } else {
+                readWhole(body, locationId, todayStart, endTime, slots);
+            }
+        } catch (IllegalStateException | NumberFormatException e) {
+            // JsonReader's way of saying the document has an unexpected shape or value.
+            throw new IOException("Malformed hourly forecast: " + e.getMessage());
+        }
+
+        if (!slots.isEmpty()) {
+            // The table replaces on (location, time), so a newer run simply overwrites a slot.
+            context.getContentResolver().bulkInsert(WeatherContract.HourlyEntry.CONTENT_URI,
+                    slots.toArray(new ContentValues[slots.size()]));
+        }
+        context.getContentResolver().delete(WeatherContract.HourlyEntry.CONTENT_URI,
+                WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                new String[]{Long.toString(todayStart)});
+        return slots.size();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readStreaming(Reader body, long locationId, long startTime, long endTime,
+                                      ArrayList<ContentValues> slots) throws IOException {
+        JsonReader reader = new JsonReader(body);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                // OWM sends the code as a string here but as a number elsewhere; either reads.
+                if (!OK_CODE.equals(reader.nextString())) {
+                    slots.clear();
+                    return;
+                }
+            } else if (OWM_LIST.equals(name)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    readSlot(reader, locationId, startTime, endTime, slots);
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static void readSlot(JsonReader reader, long locationId, long startTime, long endTime,
+                                 ArrayList<ContentValues> slots) throws IOException {
+        long time = 0;
+        int weatherId = 0;
+        String description = "";
+        double temperature = 0;
+        int humidity = 0;
+        double pressure = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_TIME.equals(name)) {
+                time = reader.nextLong() * 1000;
+            } else if (OWM_MAIN.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (OWM_TEMPERATURE.equals(field)) {
+                        temperature = reader.nextDouble();
+                    } else if (OWM_PRESSURE.equals(field)) {
+                        pressure = reader.nextDouble();
+                    } else if (OWM_HUMIDITY.equals(field)) {
+                        humidity = reader.nextInt();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // A 1 element array, like the daily forecast.
+                reader.beginArray();
+                if (reader.hasNext() && reader.peek() == JsonToken.BEGIN_OBJECT) {
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String field = reader.nextName();
+                        if (OWM_WEATHER_ID.equals(field)) {
+                            weatherId = reader.nextInt();
+                        } else if (OWM_DESCRIPTION.equals(field)) {
+                            description = reader.nextString();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                while (reader.hasNext()) {
+                    reader.skipValue();
+                }
+                reader.endArray();
+            } else if (OWM_WIND.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String field = reader.nextName();
+                    if (OWM_WINDSPEED.equals(field)) {
+                        windSpeed = reader.nextDouble();
+                    } else if (OWM_WIND_DIRECTION.equals(field)) {
+                        windDirection = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (time >= startTime && time < endTime) {
+            slots.add(toContentValues(locationId, time, weatherId, description, temperature,
+                    humidity, pressure, windSpeed, windDirection));
+        }
+    }
+
+    /**
+     * Gingerbread has no JsonReader, so there the body is read whole and handed to org.json.
+     */
+    private static void readWhole(Reader body, long locationId, long startTime, long endTime,
+                                  ArrayList<ContentValues> slots) throws IOException {
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[4096];
+        int read;
+        while ((read = body.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+        }
+
+        try {
+            JSONObject json = new JSONObject(buffer.toString());
+            if (json.has(OWM_MESSAGE_CODE) && !OK_CODE.equals(json.getString(OWM_MESSAGE_CODE))) {
+                return;
+            }
+            JSONArray list = json.getJSONArray(OWM_LIST);
+            for (int i = 0; i < list.length(); i++) {
+                JSONObject slot = list.getJSONObject(i);
+                long time = slot.getLong(OWM_TIME) * 1000;
+                if (time < startTime || time >= endTime) {
+                    continue;
+                }
+                JSONObject main = slot.getJSONObject(OWM_MAIN);
+                JSONObject weather = slot.getJSONArray(OWM_WEATHER).getJSONObject(0);
+                JSONObject wind = slot.getJSONObject(OWM_WIND);
+                slots.add(toContentValues(locationId, time,
+                        weather.getInt(OWM_WEATHER_ID),
+                        weather.getString(OWM_DESCRIPTION),
+                        main.getDouble(OWM_TEMPERATURE),
+                        main.getInt(OWM_HUMIDITY),
+                        main.getDouble(OWM_PRESSURE),
+                        wind.getDouble(OWM_WINDSPEED),
+                        wind.getDouble(OWM_WIND_DIRECTION)));
+            }
+        } catch (JSONException e) {
+            throw new IOException("Malformed hourly forecast: " + e.getMessage());
+        }
+    }
+
+    private static ContentValues toContentValues(long locationId, long time, int weatherId,
+                                                 String description, double temperature,
+                                                 int humidity, double pressure, double windSpeed,
+                                                 double windDirection) {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TIME, time);
+        values.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, weatherId);
+        values.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, description);
+        values.put(WeatherContract.HourlyEntry.COLUMN_TEMP, temperature);
+        values.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, humidity);
+        values.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, pressure);
+        values.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, windSpeed);
+        values.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, windDirection);
+        return values;
+    }
+}
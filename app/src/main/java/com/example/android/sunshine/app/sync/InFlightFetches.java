@@ -0,0 +1,86 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.util.HashMap;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Makes concurrent fetches of the same location share one network request.  The first caller
+ * for a key runs the fetch; anyone asking for the same key before it finishes waits and gets
+ * the same result.
+ */
+public class InFlightFetches {
+
+    public interface Fetch {
+        /**
+         * @return the {@link SunshineSyncAdapter.LocationStatus} the fetch ended with.
+         */
+        int run();
+    }
+
+    private static class Call {
+        final CountDownLatch done = new CountDownLatch(1);
+        int result = SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    }
+
+    private final HashMap<String, Call> mCalls = new HashMap<String, Call>();
+    private int mCoalescedCount;
+
+    public int runOrJoin(String key, Fetch fetch) {
+        Call call;
+        boolean leader = false;
+        synchronized (mCalls) {
+            call = mCalls.get(key);
+            if (call == null) {
+                call = new Call();
+                mCalls.put(key, call);
+                leader = true;
+            } else {
+                mCoalescedCount++;
+            }
+        }
+
+        if (!leader) {
+            try {
+                call.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+            }
+            return call.result;
+        }
+
+        try {
+            call.result = fetch.run();
+        } finally {
+            synchronized (mCalls) {
+                mCalls.remove(key);
+            }
+            call.done.countDown();
+        }
+        return call.result;
+    }
+
+    /**
+     * @return how many callers have joined a fetch that was already running.
+     */
+    public int getCoalescedCount() {
+        synchronized (mCalls) {
+            return mCoalescedCount;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.util.Log;
+
+import com.example.android.sunshine.app.SendDataService;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Re-renders everything outside the app's own screens that shows formatted weather (the watch
+ * face, the widgets and the forecast notification) from the Celsius values already in the
+ * weather table.  Used when only the presentation changed, such as the units, so that no
+ * network round trip is needed.
+ */
+public class LocalRenderService extends IntentService {
+    private static final String LOG_TAG = LocalRenderService.class.getSimpleName();
+
+    private static final String[] DAYS_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_DATE
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_WEATHER_ID = 0;
+    private static final int INDEX_MAX_TEMP = 1;
+    private static final int INDEX_MIN_TEMP = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_DATE = 4;
+
+    public LocalRenderService() {
+        super("LocalRenderService");
+    }
+
+    public static void start(Context context) {
+        context.startService(new Intent(context, LocalRenderService.class));
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // The widgets read the database themselves; they only need to be told.
+        sendBroadcast(new Intent(SunshineSyncAdapter.ACTION_DATA_UPDATED)
+                .setPackage(getPackageName()));
+
+        // The watch gets today and the next few days, the notification just today; one query.
+        long todayStart = ForecastDates.normalizeDate(System.currentTimeMillis());
+        Cursor cursor = getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationPage(
+                        Utility.getPreferredLocation(this), todayStart,
+                        SendDataService.WATCH_DAYS),
+                DAYS_PROJECTION, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            if (!cursor.moveToFirst() || cursor.getLong(INDEX_DATE) != todayStart) {
+                Log.d(LOG_TAG, "Nothing stored for today");
+                return;
+            }
+            int count = cursor.getCount();
+            long[] dates = new long[count];
+            double[] highs = new double[count];
+            double[] lows = new double[count];
+            int[] weatherIds = new int[count];
+            int i = 0;
+            do {
+                dates[i] = cursor.getLong(INDEX_DATE);
+                highs[i] = cursor.getDouble(INDEX_MAX_TEMP);
+                lows[i] = cursor.getDouble(INDEX_MIN_TEMP);
+                weatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                i++;
+            } while (i < count && cursor.moveToNext());
+
+            // Nothing was fetched, so the watch keeps timing its weather from the last fetch.
+            SendDataService.send(this, dates, highs, lows, weatherIds, 0);
+
+            if (WeatherNotifications.isShowing(this)) {
+                cursor.moveToFirst();
+                WeatherNotifications.show(this, weatherIds[0], highs[0], lows[0],
+                        cursor.getString(INDEX_SHORT_DESC));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -2,9 +2,6 @@ package com.example.android.sunshine.app.sync;
 
 import android.accounts.Account;
 import android.accounts.AccountManager;
-import android.annotation.SuppressLint;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
 import android.content.ContentResolver;
@@ -15,46 +12,35 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
-import android.content.res.Resources;
 import android.database.Cursor;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
-import android.support.v4.app.NotificationCompat;
-import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.BuildConfig;
 import com.example.android.sunshine.app.SendDataService;
-import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.ForecastParser;
+import com.example.android.sunshine.app.core.ForecastStore;
 import com.example.android.sunshine.app.data.WeatherContract;
+import com.example.android.sunshine.app.gcm.ForecastPushHandler;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
 import com.google.android.gms.wearable.Wearable;
 
-import org.json.JSONArray;
 import org.json.JSONException;
-import org.json.JSONObject;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.Vector;
-import java.util.concurrent.ExecutionException;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
 
 public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
@@ -64,8 +50,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     // 60 seconds (1 minute) * 180 = 3 hours
     public static final int SYNC_INTERVAL = 60 * 180;
     public static final int SYNC_FLEXTIME = SYNC_INTERVAL / 3;
+    // The adaptive schedule never syncs more often than hourly or less often than daily.
+    private static final SyncPolicy SYNC_POLICY = new SyncPolicy(SYNC_INTERVAL,
+            SyncPolicy.HOUR_IN_SECONDS, 24 * SyncPolicy.HOUR_IN_SECONDS);
+    // While forecast pushes are arriving, polling only has to catch the ones that got lost.
+    private static final SyncPolicy PUSH_SYNC_POLICY = new SyncPolicy(4 * SYNC_INTERVAL,
+            3 * SyncPolicy.HOUR_IN_SECONDS, 72 * SyncPolicy.HOUR_IN_SECONDS);
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
-    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    // Two failed fetches in a row open the breaker for 5 minutes, doubling up to 12 hours.
+    private static final long BACKOFF_BASE_MILLIS = 5 * 60 * 1000;
+    private static final long BACKOFF_MAX_MILLIS = 12 * 60 * 60 * 1000;
+    private static final int BACKOFF_FAILURE_THRESHOLD = 2;
+    private static final Random sBackoffRandom = new Random();
+    private static final InFlightFetches sInFlightFetches = new InFlightFetches();
+
+    // Time each sync may spend rolling old days into the history table.
+    private static final long HISTORY_COMPACT_BUDGET_MILLIS = 50;
 
     private GoogleApiClient mGoogleApiClient;
 
@@ -82,6 +83,19 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     private static final int INDEX_MIN_TEMP = 2;
     private static final int INDEX_SHORT_DESC = 3;
 
+    private static final String[] PREVIOUS_FORECAST_PROJECTION = new String[]{
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID
+    };
+
+    // these indices must match the projection
+    private static final int INDEX_PREVIOUS_DATE = 0;
+    private static final int INDEX_PREVIOUS_MAX_TEMP = 1;
+    private static final int INDEX_PREVIOUS_MIN_TEMP = 2;
+    private static final int INDEX_PREVIOUS_WEATHER_ID = 3;
+
     @Override
     public void onConnected(Bundle bundle) {
         Log.d(LOG_TAG, "GoogleApiClient is connected");
@@ -117,123 +131,82 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
 
-        // We no longer need just the location String, but also potentially the latitude and
-        // longitude, in case we are syncing based on a new Place Picker API result.
-        Context context = getContext();
-        String locationQuery = Utility.getPreferredLocation(context);
-        String locationLatitude = String.valueOf(Utility.getLocationLatitude(context));
-        String locationLongitude = String.valueOf(Utility.getLocationLongitude(context));
+        performSync();
 
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
+        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+        if(mGoogleApiClient != null) {
+            mGoogleApiClient.connect();
+        }
 
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr = null;
+        return;
+    }
 
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
+    /**
+     * Fetches, parses and stores the forecast for the preferred location.  Kept apart from
+     * onPerformSync so the whole fetch/parse/persist path can be driven without a sync
+     * framework or a Wear connection.
+     */
+    void performSync() {
+        final Context context = getContext();
+        final String locationQuery = Utility.getPreferredLocation(context);
+        final Uri forecastUri = ForecastFetcher.buildForecastUri(context);
+
+        // A second request for the same location while one is on the wire waits for that one
+        // rather than fetching again.
+        int status = sInFlightFetches.runOrJoin(forecastUri.toString(),
+                new InFlightFetches.Fetch() {
+                    @Override
+                    public int run() {
+                        return fetchThroughBreaker(context, forecastUri, locationQuery);
+                    }
+                });
+        if (status != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(context, status);
+        }
+    }
 
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String LAT_PARAM = "lat";
-            final String LON_PARAM = "lon";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-            final String APPID_PARAM = "APPID";
-
-            Uri.Builder uriBuilder = Uri.parse(FORECAST_BASE_URL).buildUpon();
-
-            // Instead of always building the query based off of the location string, we want to
-            // potentially build a query using a lat/lon value. This will be the case when we are
-            // syncing based off of a new location from the Place Picker API. So we need to check
-            // if we have a lat/lon to work with, and use those when we do. Otherwise, the weather
-            // service may not understand the location address provided by the Place Picker API
-            // and the user could end up with no weather! The horror!
-            if (Utility.isLocationLatLonAvailable(context)) {
-                uriBuilder.appendQueryParameter(LAT_PARAM, locationLatitude)
-                        .appendQueryParameter(LON_PARAM, locationLongitude);
-            } else {
-                uriBuilder.appendQueryParameter(QUERY_PARAM, locationQuery);
-            }
+    /**
+     * @return the new location status, or LOCATION_STATUS_UNKNOWN if the breaker is open and
+     * the status should stay as it is.
+     */
+    @LocationStatus
+    private int fetchThroughBreaker(Context context, Uri forecastUri, String locationQuery) {
+        FetchCircuitBreaker breaker = loadFetchCircuitBreaker(context);
+        if (!breaker.allowRequest(System.currentTimeMillis())) {
+            Log.d(LOG_TAG, "Backing off until " + breaker.getRetryAtMillis());
+            return LOCATION_STATUS_UNKNOWN;
+        }
+        // Save before fetching so that a probe is remembered even if we die mid-fetch.
+        saveFetchCircuitBreaker(context, breaker);
 
-            Uri builtUri = uriBuilder.appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(APPID_PARAM, BuildConfig.OPEN_WEATHER_MAP_API_KEY)
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
-
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuffer buffer = new StringBuffer();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line + "\n");
-            }
+        int status = fetchAndStore(forecastUri, locationQuery);
+        if (status == LOCATION_STATUS_SERVER_DOWN || status == LOCATION_STATUS_SERVER_INVALID) {
+            breaker.onFailure(System.currentTimeMillis());
+        } else {
+            breaker.onSuccess();
+        }
+        saveFetchCircuitBreaker(context, breaker);
+        return status;
+    }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
+    @LocationStatus
+    private int fetchAndStore(Uri forecastUri, String locationQuery) {
+        try {
+            String forecastJsonStr = ForecastFetcher.fetch(forecastUri);
+            if (forecastJsonStr == null) {
+                return LOCATION_STATUS_SERVER_DOWN;
             }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
+            return getWeatherDataFromJson(forecastJsonStr, locationQuery);
         } catch (IOException e) {
             Log.e(LOG_TAG, "Error ", e);
             // If the code didn't successfully get the weather data, there's no point in attempting
             // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
-        }
-
-        mGoogleApiClient = new GoogleApiClient.Builder(getContext())
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
-        if(mGoogleApiClient != null) {
-            mGoogleApiClient.connect();
+            return LOCATION_STATUS_SERVER_DOWN;
         }
-
-        return;
     }
 
     /**
@@ -243,187 +216,210 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
      * Fortunately parsing is easy:  constructor takes the JSON string and converts it
      * into an Object hierarchy for us.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
+    @LocationStatus
+    private int getWeatherDataFromJson(String forecastJsonStr, String locationSetting) {
 
         // Now we have a String representing the complete forecast in JSON Format.
         // Fortunately parsing is easy:  constructor takes the JSON string and converts it
         // into an Object hierarchy for us.
+        try {
+            // OWM returns daily forecasts based upon the local time of the city that is being
+            // asked for, which means that we need to know the GMT offset to translate this data
+            // properly.
 
-        // These are the names of the JSON objects that need to be extracted.
+            // Since this data is also sent in-order and the first day is always the
+            // current day, we're going to take advantage of that to get a nice
+            // normalized date for all of our weather.
+            TimeZone timeZone = TimeZone.getDefault();
+            long todayStart = ForecastDates.normalizeDate(System.currentTimeMillis(), timeZone);
+
+            ForecastParser.Forecast forecast =
+                    ForecastParser.parse(forecastJsonStr, todayStart, timeZone);
+
+            switch (forecast.status) {
+                case ForecastParser.STATUS_OK:
+                    break;
+                case ForecastParser.STATUS_LOCATION_NOT_FOUND:
+                    return LOCATION_STATUS_INVALID;
+                default:
+                    return LOCATION_STATUS_SERVER_DOWN;
+            }
 
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
+            long locationId = addLocation(locationSetting, forecast.cityName,
+                    forecast.latitude, forecast.longitude);
 
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
+            ForecastStore days = forecast.days;
 
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
+            // Compare against what we had before it gets replaced; that decides the next sync.
+            SyncPolicy.ChangeTracker changes = measureChanges(locationSetting, todayStart, days);
 
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
+            if (days.size() > 0) {
+                sendToWatch(days);
 
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
+                // Insert the new weather information into the database
+                getContext().getContentResolver().bulkInsert(
+                        WeatherContract.WeatherEntry.CONTENT_URI, toContentValues(days, locationId));
 
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
+                compactHistory(todayStart, timeZone);
 
-        final String OWM_MESSAGE_CODE = "cod";
+                storeHourly(locationId, todayStart, timeZone);
 
-        try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-            Context context = getContext();
+                updateWidgets();
+                updateMuzei();
+                notifyWeather();
 
-            // do we have an error?
-            if (forecastJson.has(OWM_MESSAGE_CODE)) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+                int[] weatherIds = new int[days.size()];
+                for (int i = 0; i < weatherIds.length; i++) {
+                    weatherIds[i] = days.getWeatherId(i);
                 }
+                scheduleNextSync(changes.getScore(), weatherIds);
             }
+            Log.d(LOG_TAG, "Sync Complete. " + days.size() + " Inserted");
+            return LOCATION_STATUS_OK;
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            e.printStackTrace();
+            return LOCATION_STATUS_SERVER_INVALID;
+        }
+    }
 
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
+    /**
+     * Rolls past days up into the history table a slice at a time, so history stays bounded
+     * without any one sync paying for a large backlog.
+     */
+    private void compactHistory(long todayStart, TimeZone timeZone) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            Bundle extras = new Bundle();
+            extras.putLong(WeatherContract.HistoryEntry.KEY_BUDGET_MILLIS,
+                    HISTORY_COMPACT_BUDGET_MILLIS);
+            getContext().getContentResolver().call(WeatherContract.HistoryEntry.CONTENT_URI,
+                    WeatherContract.HistoryEntry.METHOD_COMPACT, null, extras);
+        } else {
+            // ContentResolver.call() arrived in Honeycomb; before that, keep no history at all
+            // so we don't build up an endless one.
+            getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
+                    WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                    new String[]{Long.toString(ForecastDates.addDays(todayStart, -1, timeZone))});
+        }
+    }
 
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
+    /**
+     * Refreshes the 3-hourly slots for today and tomorrow.  The daily forecast is already stored
+     * by the time we get here, so a failure only costs the hourly strip, never the sync.
+     */
+    private void storeHourly(long locationId, long todayStart, TimeZone timeZone) {
+        try {
+            int stored = HourlyIngest.ingest(getContext(),
+                    ForecastFetcher.buildHourlyForecastUri(getContext()),
+                    locationId, todayStart, timeZone);
+            Log.d(LOG_TAG, "Hourly forecast: " + stored + " slots stored");
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Hourly forecast unavailable", e);
+        }
+    }
 
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
+    /**
+     * Builds the rows for a bulk insert straight from the store.  ContentValues is what the
+     * provider takes, so this is the one place a day gets boxed.
+     */
+    private static ContentValues[] toContentValues(ForecastStore days, long locationId) {
+        ContentValues[] values = new ContentValues[days.size()];
+        for (int i = 0; i < values.length; i++) {
+            ContentValues weatherValues = new ContentValues(10);
+
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, days.getDate(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, days.getHumidity(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, days.getPressure(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, days.getWindSpeed(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, days.getWindDirection(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, days.getHigh(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, days.getLow(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, days.getDescription(i));
+            weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, days.getWeatherId(i));
+
+            values[i] = weatherValues;
+        }
+        return values;
+    }
 
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for (int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay + i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-
-                 if(i == 0) {
-                     sendToWatch(low, high, weatherId);
-                 }
+    /**
+     * Walks the stored forecast for the first few days alongside the new one, matching days by
+     * date.
+     */
+    private SyncPolicy.ChangeTracker measureChanges(String locationSetting, long todayStart,
+                                                    ForecastStore days) {
+        SyncPolicy.ChangeTracker changes = new SyncPolicy.ChangeTracker();
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        locationSetting, todayStart),
+                PREVIOUS_FORECAST_PROJECTION, null, null,
+                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC");
+        try {
+            boolean hasPrevious = cursor != null && cursor.moveToFirst();
+            int dayCount = Math.min(SyncPolicy.NEAR_DAYS, days.size());
+            for (int i = 0; i < dayCount; i++) {
+                long date = days.getDate(i);
+                while (hasPrevious && cursor.getLong(INDEX_PREVIOUS_DATE) < date) {
+                    hasPrevious = cursor.moveToNext();
+                }
+                if (hasPrevious && cursor.getLong(INDEX_PREVIOUS_DATE) == date) {
+                    changes.addDay(cursor.getDouble(INDEX_PREVIOUS_MAX_TEMP),
+                            cursor.getDouble(INDEX_PREVIOUS_MIN_TEMP),
+                            cursor.getInt(INDEX_PREVIOUS_WEATHER_ID),
+                            days.getHigh(i), days.getLow(i), days.getWeatherId(i));
+                } else {
+                    changes.addNewDay();
+                }
             }
-
-            int inserted = 0;
-            // add to database
-            if (cVVector.size() > 0) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[]{Long.toString(dayTime.setJulianDay(julianStartDay - 1))});
-
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
+        }
+        return changes;
+    }
 
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
+    /**
+     * Moves the periodic sync to whatever the policy asks for after this fetch.
+     */
+    private void scheduleNextSync(float changeScore, int[] weatherIds) {
+        Context context = getContext();
+        long lastForeground = Utility.getLastForegroundTime(context);
+        long sinceForeground = lastForeground < 0
+                ? -1 : Math.max(0, System.currentTimeMillis() - lastForeground);
+        int hourOfDay = Calendar.getInstance().get(Calendar.HOUR_OF_DAY);
+        SyncPolicy policy = ForecastPushHandler.get(context)
+                .isChannelHealthy(System.currentTimeMillis()) ? PUSH_SYNC_POLICY : SYNC_POLICY;
+        int interval = policy.getNextIntervalSeconds(changeScore, weatherIds, hourOfDay,
+                sinceForeground);
+
+        // Replacing the periodic sync is not free, so only do it when the interval moves.
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+        String intervalKey = context.getString(R.string.pref_sync_interval_key);
+        if (prefs.getInt(intervalKey, SYNC_INTERVAL) != interval) {
+            Log.d(LOG_TAG, "Next sync in " + interval + "s, change " + changeScore);
+            configurePeriodicSync(context, interval, interval / 3);
         }
     }
 
-    private void sendToWatch(double low, double high, int weatherId) {
-        Log.d(LOG_TAG, "sendtowatch low" + low + "high  " + high + "id " + weatherId);
+    private void sendToWatch(ForecastStore days) {
+        int count = Math.min(days.size(), SendDataService.WATCH_DAYS);
+        long[] dates = new long[count];
+        double[] highs = new double[count];
+        double[] lows = new double[count];
+        int[] weatherIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            dates[i] = days.getDate(i);
+            highs[i] = days.getHigh(i);
+            lows[i] = days.getLow(i);
+            weatherIds[i] = days.getWeatherId(i);
+        }
+        Log.d(LOG_TAG, "sendtowatch low" + lows[0] + "high  " + highs[0] + "id " + weatherIds[0]);
 
-        Intent intent = new Intent(getContext(), SendDataService.class);
-        intent.putExtra(SendDataService.KEY_HIGH, high);
-        intent.putExtra(SendDataService.KEY_LOW, low);
-        intent.putExtra(SendDataService.KEY_WEATHER_ID, weatherId);
-        getContext().startService(intent);
+        SendDataService.send(getContext(), dates, highs, lows, weatherIds,
+                System.currentTimeMillis());
     }
 
 
@@ -473,74 +469,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     double low = cursor.getDouble(INDEX_MIN_TEMP);
                     String desc = cursor.getString(INDEX_SHORT_DESC);
 
-                    int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
-                    Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                    // On Honeycomb and higher devices, we can retrieve the size of the large icon
-                    // Prior to that, we use a fixed size
-                    @SuppressLint("InlinedApi")
-                    int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-                    @SuppressLint("InlinedApi")
-                    int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
-                            ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
-                            : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
-
-                    // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
-                    String title = context.getString(R.string.app_name);
-
-                    // Define the text of the forecast.
-                    String contentText = String.format(context.getString(R.string.format_notification),
-                            desc,
-                            Utility.formatTemperature(context, high),
-                            Utility.formatTemperature(context, low));
-
-                    // NotificationCompatBuilder is a very convenient way to build backward-compatible
-                    // notifications.  Just throw in some data.
-                    NotificationCompat.Builder mBuilder =
-                            new NotificationCompat.Builder(getContext())
-                                    .setColor(resources.getColor(R.color.primary_light))
-                                    .setSmallIcon(iconId)
-                                    .setLargeIcon(largeIcon)
-                                    .setContentTitle(title)
-                                    .setContentText(contentText);
-
-                    // Make something interesting happen when the user clicks on the notification.
-                    // In this case, opening the app is sufficient.
-                    Intent resultIntent = new Intent(context, MainActivity.class);
-
-                    // The stack builder object will contain an artificial back stack for the
-                    // started Activity.
-                    // This ensures that navigating backward from the Activity leads out of
-                    // your application to the Home screen.
-                    TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
-                    stackBuilder.addNextIntent(resultIntent);
-                    PendingIntent resultPendingIntent =
-                            stackBuilder.getPendingIntent(
-                                    0,
-                                    PendingIntent.FLAG_UPDATE_CURRENT
-                            );
-                    mBuilder.setContentIntent(resultPendingIntent);
-
-                    NotificationManager mNotificationManager =
-                            (NotificationManager) getContext().getSystemService(Context.NOTIFICATION_SERVICE);
-                    // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
-                    mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+                    WeatherNotifications.show(context, weatherId, high, low, desc);
 
                     //refreshing last sync
                     SharedPreferences.Editor editor = prefs.edit();
@@ -604,9 +533,13 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution.  The interval is also
+     * remembered, so the policy only replaces the periodic sync when it actually moves.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
+        PreferenceManager.getDefaultSharedPreferences(context).edit()
+                .putInt(context.getString(R.string.pref_sync_interval_key), syncInterval)
+                .apply();
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
@@ -635,6 +568,16 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 context.getString(R.string.content_authority), bundle);
     }
 
+    /**
+     * Re-renders the watch face and the widgets from the stored forecast, for changes such as
+     * units that do not need new data from the server.
+     *
+     * @param context The context used to reach the widgets and the watch
+     */
+    public static void refreshFromDatabase(Context context) {
+        LocalRenderService.start(context);
+    }
+
     /**
      * Helper method to get the fake account to be used with SyncAdapter, or make a new one
      * if the fake account doesn't exist yet.  If we make a new account, we call the
@@ -688,13 +631,36 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         /*
          * Finally, let's do a sync to get things started
          */
-        syncImmediately(context);
+        SyncRequestCoalescer.get(context).requestSync(Utility.getPreferredLocation(context),
+                SyncRequestCoalescer.REASON_STARTUP);
     }
 
     public static void initializeSyncAdapter(Context context) {
         getSyncAccount(context);
     }
 
+    private static FetchCircuitBreaker loadFetchCircuitBreaker(Context c) {
+        FetchCircuitBreaker breaker = new FetchCircuitBreaker(BACKOFF_BASE_MILLIS,
+                BACKOFF_MAX_MILLIS, BACKOFF_FAILURE_THRESHOLD, sBackoffRandom);
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        breaker.restore(sp.getInt(c.getString(R.string.pref_fetch_breaker_state_key),
+                        FetchCircuitBreaker.STATE_CLOSED),
+                sp.getInt(c.getString(R.string.pref_fetch_breaker_failures_key), 0),
+                sp.getLong(c.getString(R.string.pref_fetch_breaker_retry_at_key), 0));
+        return breaker;
+    }
+
+    private static void saveFetchCircuitBreaker(Context c, FetchCircuitBreaker breaker) {
+        SharedPreferences sp = PreferenceManager.getDefaultSharedPreferences(c);
+        SharedPreferences.Editor spe = sp.edit();
+        spe.putInt(c.getString(R.string.pref_fetch_breaker_state_key), breaker.getState());
+        spe.putInt(c.getString(R.string.pref_fetch_breaker_failures_key),
+                breaker.getFailureCount());
+        spe.putLong(c.getString(R.string.pref_fetch_breaker_retry_at_key),
+                breaker.getRetryAtMillis());
+        spe.commit();
+    }
+
     /**
      * Sets the location status into shared preference.  This function should not be called from
      * the UI thread because it uses commit to write to the shared preferences.
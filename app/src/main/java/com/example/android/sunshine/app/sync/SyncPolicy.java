@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import com.example.android.sunshine.app.core.WeatherConditions;
+
+/**
+ * Decides how long to wait before the next periodic sync.  Calm, unchanged forecasts, the middle
+ * of the night and an app nobody has opened in days all stretch the interval; a forecast that
+ * moved a lot or has storms coming shortens it.  The result is always clamped to the policy's
+ * bounds.
+ * <p/>
+ * Plain Java with no clock or randomness of its own, so the same inputs always give the same
+ * interval.
+ */
+public class SyncPolicy {
+    public static final int HOUR_IN_SECONDS = 60 * 60;
+
+    // Only the next few days decide how fresh the forecast needs to be.
+    static final int NEAR_DAYS = 3;
+
+    // A change of this many degrees Celsius, summed over high and low, counts as a full change.
+    private static final double FULL_CHANGE_DEGREES = 10;
+
+    private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
+
+    // How much each condition wants fresh data, 0 to 1, indexed by WeatherConditions constant.
+    private static final float[] SEVERITY_BY_CONDITION = new float[WeatherConditions.CONDITION_COUNT];
+
+    static {
+        SEVERITY_BY_CONDITION[WeatherConditions.STORM] = 1f;
+        SEVERITY_BY_CONDITION[WeatherConditions.SNOW] = 0.8f;
+        SEVERITY_BY_CONDITION[WeatherConditions.RAIN] = 0.6f;
+        SEVERITY_BY_CONDITION[WeatherConditions.LIGHT_RAIN] = 0.4f;
+        SEVERITY_BY_CONDITION[WeatherConditions.FOG] = 0.3f;
+        SEVERITY_BY_CONDITION[WeatherConditions.CLOUDS] = 0.1f;
+        SEVERITY_BY_CONDITION[WeatherConditions.LIGHT_CLOUDS] = 0.05f;
+        SEVERITY_BY_CONDITION[WeatherConditions.CLEAR] = 0f;
+    }
+
+    private static final float UNKNOWN_SEVERITY = 0.2f;
+
+    private final int mBaseIntervalSeconds;
+    private final int mMinIntervalSeconds;
+    private final int mMaxIntervalSeconds;
+
+    /**
+     * @param baseIntervalSeconds the interval for an ordinary day, before any adjustment.
+     */
+    public SyncPolicy(int baseIntervalSeconds, int minIntervalSeconds, int maxIntervalSeconds) {
+        if (minIntervalSeconds <= 0 || minIntervalSeconds > maxIntervalSeconds) {
+            throw new IllegalArgumentException("Invalid bounds: " + minIntervalSeconds + " to "
+                    + maxIntervalSeconds);
+        }
+        mBaseIntervalSeconds = baseIntervalSeconds;
+        mMinIntervalSeconds = minIntervalSeconds;
+        mMaxIntervalSeconds = maxIntervalSeconds;
+    }
+
+    public int getMinIntervalSeconds() {
+        return mMinIntervalSeconds;
+    }
+
+    public int getMaxIntervalSeconds() {
+        return mMaxIntervalSeconds;
+    }
+
+    /**
+     * @param changeScore          how much the last fetch changed the forecast, from
+     *                             {@link ChangeTracker#getScore()}.
+     * @param weatherIds           the new forecast's weather ids, today first.
+     * @param hourOfDay            local hour, 0-23.
+     * @param millisSinceForeground time since the app was last in the foreground, or -1 if it
+     *                             never has been.
+     * @return seconds until the next sync.
+     */
+    public int getNextIntervalSeconds(float changeScore, int[] weatherIds, int hourOfDay,
+                                      long millisSinceForeground) {
+        // Volatility of 0 doubles the base interval, 1 cuts it to a quarter.
+        float volatility = Math.max(clamp(changeScore), getSeverity(weatherIds));
+        double interval = mBaseIntervalSeconds * (2.0 - 1.75 * volatility);
+
+        // Nobody is looking at a forecast between midnight and 6am, unless it is stormy.
+        if (hourOfDay < 6 && volatility < 1f) {
+            interval *= 2;
+        }
+
+        if (millisSinceForeground < 0 || millisSinceForeground > 7 * DAY_IN_MILLIS) {
+            interval *= 4;
+        } else if (millisSinceForeground > 3 * DAY_IN_MILLIS) {
+            interval *= 2;
+        }
+
+        return (int) Math.max(mMinIntervalSeconds,
+                Math.min(mMaxIntervalSeconds, Math.round(interval)));
+    }
+
+    /**
+     * @return the highest severity among the first {@link #NEAR_DAYS} days, 0 to 1.
+     */
+    static float getSeverity(int[] weatherIds) {
+        float severity = 0;
+        int days = Math.min(NEAR_DAYS, weatherIds.length);
+        for (int i = 0; i < days; i++) {
+            int condition = WeatherConditions.getCondition(weatherIds[i]);
+            float daySeverity = condition == WeatherConditions.UNKNOWN
+                    ? UNKNOWN_SEVERITY : SEVERITY_BY_CONDITION[condition];
+            severity = Math.max(severity, daySeverity);
+        }
+        return severity;
+    }
+
+    private static float clamp(float score) {
+        return Math.max(0f, Math.min(1f, score));
+    }
+
+    /**
+     * Compares a freshly fetched forecast with the one it replaces, day by day, and boils the
+     * difference down to a score between 0 (nothing changed) and 1.
+     */
+    public static class ChangeTracker {
+        private float mTotal;
+        private int mDays;
+
+        /**
+         * Records one of the first {@link #NEAR_DAYS} days; later days are ignored.
+         */
+        public void addDay(double oldHigh, double oldLow, int oldWeatherId,
+                           double newHigh, double newLow, int newWeatherId) {
+            if (mDays >= NEAR_DAYS) {
+                return;
+            }
+            float change;
+            if (WeatherConditions.getCondition(oldWeatherId)
+                    != WeatherConditions.getCondition(newWeatherId)) {
+                change = 1f;
+            } else {
+                double degrees = Math.abs(newHigh - oldHigh) + Math.abs(newLow - oldLow);
+                change = (float) Math.min(1.0, degrees / FULL_CHANGE_DEGREES);
+            }
+            mTotal += change;
+            mDays++;
+        }
+
+        /**
+         * Records a day we had no previous forecast for, which counts as a full change.
+         */
+        public void addNewDay() {
+            if (mDays >= NEAR_DAYS) {
+                return;
+            }
+            mTotal += 1f;
+            mDays++;
+        }
+
+        public float getScore() {
+            return mDays == 0 ? 1f : mTotal / mDays;
+        }
+    }
+}
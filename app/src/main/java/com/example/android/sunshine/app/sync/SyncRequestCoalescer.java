@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Sits in front of {@link SunshineSyncAdapter#syncImmediately(Context)}.  A burst of requests
+ * (a location typed in, then picked again from the PlacePicker, or app start racing a settings
+ * change) collapses into one expedited sync issued a short window after the last request.  A
+ * request for a new location cancels the pending one for the old location, which would only
+ * fetch data nobody looks at.  A change of units needs no network at all: everything is stored
+ * in Celsius, so it is served by re-rendering from the database.
+ * <p/>
+ * Requests are expected on the main thread.  The scheduling and the sync itself go through
+ * {@link Scheduler} and {@link Target} so the logic can be tested on the JVM.
+ */
+public class SyncRequestCoalescer {
+    public static final int REASON_STARTUP = 0;
+    public static final int REASON_LOCATION_CHANGED = 1;
+    public static final int REASON_UNITS_CHANGED = 2;
+    /**
+     * A watch asked for weather and ours is stale.  Several watches asking at once, or the app
+     * starting at the same time, still make one sync.
+     */
+    public static final int REASON_WATCH_REFRESH = 3;
+    /**
+     * The server pushed a newer version of the location's forecast without a delta we could
+     * apply.  Pushes racing each other still make one sync.
+     */
+    public static final int REASON_PUSH = 4;
+
+    static final long WINDOW_MILLIS = 1500;
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public interface Target {
+        /**
+         * Starts a network sync.  The sync adapter always fetches the preferred location, so
+         * the location is only informational.
+         */
+        void syncNow(String location);
+
+        /**
+         * Re-renders everything that shows formatted weather from what is already stored.
+         */
+        void refreshFromDatabase();
+    }
+
+    private static SyncRequestCoalescer sInstance;
+
+    private final Scheduler mScheduler;
+    private final Target mTarget;
+
+    private String mPendingLocation;
+    private final Runnable mIssuePending = new Runnable() {
+        @Override
+        public void run() {
+            String location;
+            synchronized (SyncRequestCoalescer.this) {
+                location = mPendingLocation;
+                mPendingLocation = null;
+                if (location == null) {
+                    return;
+                }
+                mIssuedCount++;
+            }
+            mTarget.syncNow(location);
+        }
+    };
+
+    private int mRequestCount;
+    private int mIssuedCount;
+    private int mCoalescedCount;
+    private int mCancelledCount;
+    private int mServedLocallyCount;
+
+    public SyncRequestCoalescer(Scheduler scheduler, Target target) {
+        mScheduler = scheduler;
+        mTarget = target;
+    }
+
+    /**
+     * @return the process-wide coalescer, issuing syncs on the main thread.
+     */
+    public static synchronized SyncRequestCoalescer get(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            final Handler handler = new Handler(Looper.getMainLooper());
+            sInstance = new SyncRequestCoalescer(new Scheduler() {
+                @Override
+                public void schedule(Runnable task, long delayMillis) {
+                    handler.postDelayed(task, delayMillis);
+                }
+
+                @Override
+                public void cancel(Runnable task) {
+                    handler.removeCallbacks(task);
+                }
+            }, new Target() {
+                @Override
+                public void syncNow(String location) {
+                    SunshineSyncAdapter.syncImmediately(appContext);
+                }
+
+                @Override
+                public void refreshFromDatabase() {
+                    SunshineSyncAdapter.refreshFromDatabase(appContext);
+                }
+            });
+        }
+        return sInstance;
+    }
+
+    public void requestSync(String location, int reason) {
+        boolean refreshLocally = false;
+        synchronized (this) {
+            mRequestCount++;
+            if (reason == REASON_UNITS_CHANGED) {
+                if (mPendingLocation != null) {
+                    // The pending sync re-renders everything anyway.
+                    mCoalescedCount++;
+                } else {
+                    mServedLocallyCount++;
+                    refreshLocally = true;
+                }
+            } else {
+                if (mPendingLocation == null) {
+                    // Nothing to merge with.
+                } else if (mPendingLocation.equals(location)) {
+                    mCoalescedCount++;
+                } else {
+                    mCancelledCount++;
+                }
+                mPendingLocation = location;
+                // Restart the window so that a burst of edits only syncs once it settles.
+                mScheduler.cancel(mIssuePending);
+                mScheduler.schedule(mIssuePending, WINDOW_MILLIS);
+            }
+        }
+        if (refreshLocally) {
+            mTarget.refreshFromDatabase();
+        }
+    }
+
+    public synchronized int getRequestCount() {
+        return mRequestCount;
+    }
+
+    /**
+     * @return how many network syncs were actually started.
+     */
+    public synchronized int getIssuedCount() {
+        return mIssuedCount;
+    }
+
+    /**
+     * @return requests merged into a pending sync for the same location.
+     */
+    public synchronized int getCoalescedCount() {
+        return mCoalescedCount;
+    }
+
+    /**
+     * @return pending syncs dropped because a different location was requested.
+     */
+    public synchronized int getCancelledCount() {
+        return mCancelledCount;
+    }
+
+    /**
+     * @return requests answered from the database without a sync.
+     */
+    public synchronized int getServedLocallyCount() {
+        return mServedLocallyCount;
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.annotation.SuppressLint;
+import android.annotation.TargetApi;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.service.notification.StatusBarNotification;
+import android.support.v4.app.NotificationCompat;
+import android.support.v4.app.TaskStackBuilder;
+import android.util.Log;
+
+import com.bumptech.glide.Glide;
+import com.example.android.sunshine.app.MainActivity;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Builds and posts the daily forecast notification.  Shared by the sync, which posts it once a
+ * day, and the local re-render, which rewrites it when the units change.  Both must call from a
+ * background thread: the large icon is loaded synchronously.
+ */
+public class WeatherNotifications {
+    private static final String LOG_TAG = WeatherNotifications.class.getSimpleName();
+    private static final int WEATHER_NOTIFICATION_ID = 3004;
+
+    private WeatherNotifications() {
+    }
+
+    /**
+     * Posts the notification, replacing the one already showing if there is one.
+     */
+    public static void show(Context context, int weatherId, double high, double low,
+                            String desc) {
+        int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
+        Resources resources = context.getResources();
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
+
+        // On Honeycomb and higher devices, we can retrieve the size of the large icon
+        // Prior to that, we use a fixed size
+        @SuppressLint("InlinedApi")
+        int largeIconWidth = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_width)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+        @SuppressLint("InlinedApi")
+        int largeIconHeight = Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+                ? resources.getDimensionPixelSize(android.R.dimen.notification_large_icon_height)
+                : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
+
+        // Retrieve the large icon
+        Bitmap largeIcon;
+        try {
+            largeIcon = Glide.with(context)
+                    .load(artUrl)
+                    .asBitmap()
+                    .error(artResourceId)
+                    .fitCenter()
+                    .into(largeIconWidth, largeIconHeight).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
+            largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
+        }
+        String title = context.getString(R.string.app_name);
+
+        // Define the text of the forecast.
+        String contentText = String.format(context.getString(R.string.format_notification),
+                desc,
+                Utility.formatTemperature(context, high),
+                Utility.formatTemperature(context, low));
+
+        // NotificationCompatBuilder is a very convenient way to build backward-compatible
+        // notifications.  Just throw in some data.
+        NotificationCompat.Builder mBuilder =
+                new NotificationCompat.Builder(context)
+                        .setColor(resources.getColor(R.color.primary_light))
+                        .setSmallIcon(iconId)
+                        .setLargeIcon(largeIcon)
+                        .setContentTitle(title)
+                        .setContentText(contentText);
+
+        // Make something interesting happen when the user clicks on the notification.
+        // In this case, opening the app is sufficient.
+        Intent resultIntent = new Intent(context, MainActivity.class);
+
+        // The stack builder object will contain an artificial back stack for the
+        // started Activity.
+        // This ensures that navigating backward from the Activity leads out of
+        // your application to the Home screen.
+        TaskStackBuilder stackBuilder = TaskStackBuilder.create(context);
+        stackBuilder.addNextIntent(resultIntent);
+        PendingIntent resultPendingIntent =
+                stackBuilder.getPendingIntent(
+                        0,
+                        PendingIntent.FLAG_UPDATE_CURRENT
+                );
+        mBuilder.setContentIntent(resultPendingIntent);
+
+        NotificationManager mNotificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        // WEATHER_NOTIFICATION_ID allows you to update the notification later on.
+        mNotificationManager.notify(WEATHER_NOTIFICATION_ID, mBuilder.build());
+    }
+
+    /**
+     * @return true if the forecast notification is still in the shade.  Before Marshmallow there
+     * is no way to ask, so this returns false rather than risk bringing back a notification the
+     * user dismissed.
+     */
+    public static boolean isShowing(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            return isShowingM(context);
+        }
+        return false;
+    }
+
+    @TargetApi(Build.VERSION_CODES.M)
+    private static boolean isShowingM(Context context) {
+        NotificationManager notificationManager =
+                (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        for (StatusBarNotification notification : notificationManager.getActiveNotifications()) {
+            if (notification.getId() == WEATHER_NOTIFICATION_ID) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
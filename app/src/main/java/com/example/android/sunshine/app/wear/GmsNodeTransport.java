@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link NodeTransport} over a connected GoogleApiClient.
+ */
+public class GmsNodeTransport implements NodeTransport {
+    private static final long TIMEOUT_SECONDS = 15;
+
+    private final GoogleApiClient mClient;
+
+    public GmsNodeTransport(GoogleApiClient client) {
+        mClient = client;
+    }
+
+    @Override
+    public List<String> getConnectedNodes() {
+        NodeApi.GetConnectedNodesResult result = Wearable.NodeApi.getConnectedNodes(mClient)
+                .await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        List<String> nodeIds = new ArrayList<>();
+        if (result.getStatus().isSuccess()) {
+            for (Node node : result.getNodes()) {
+                nodeIds.add(node.getId());
+            }
+        }
+        return nodeIds;
+    }
+
+    @Override
+    public boolean sendMessage(String nodeId, String path, byte[] data) {
+        MessageApi.SendMessageResult result = Wearable.MessageApi
+                .sendMessage(mClient, nodeId, path, data)
+                .await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        return result.getStatus().isSuccess();
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import java.util.List;
+
+/**
+ * The little of the Wearable API that {@link WearDelivery} needs, so delivery can be tested
+ * against fake nodes.  Calls block; only make them off the main thread.
+ */
+public interface NodeTransport {
+    /**
+     * @return ids of the nodes connected right now; empty if there are none or they can't be
+     * listed.
+     */
+    List<String> getConnectedNodes();
+
+    /**
+     * @return whether the message was handed to the node.  That is not an acknowledgement; only
+     * the node's reply is.
+     */
+    boolean sendMessage(String nodeId, String path, byte[] data);
+}
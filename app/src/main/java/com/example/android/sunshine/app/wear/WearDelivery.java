@@ -0,0 +1,206 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tracks which revision of the weather payload each watch has acknowledged.  Every payload goes
+ * out as a DataItem, which the Data Layer syncs to all nodes; a watch face that has applied it
+ * answers with a message on {@link #PATH_ACK}.  Nodes that haven't answered get the payload
+ * again as a direct message on {@link #PATH_PUSH}, at most {@link #MAX_ATTEMPTS} times per
+ * revision.  State lives in its own SharedPreferences file so it survives the short lived
+ * services that drive it.
+ */
+public class WearDelivery {
+    private static final String LOG_TAG = WearDelivery.class.getSimpleName();
+
+    public static final String PATH_ACK = "/weather/ack";
+    public static final String PATH_PUSH = "/weather/push";
+    public static final String PATH_REFRESH = "/weather/refresh";
+
+    /**
+     * Direct resends per node per revision, on top of the DataItem itself.
+     */
+    public static final int MAX_ATTEMPTS = 3;
+
+    static final String PREFS_NAME = "wear_delivery";
+    private static final String KEY_REVISION = "revision";
+    private static final String KEY_CONTENT_HASH = "content_hash";
+    private static final String KEY_PAYLOAD = "payload";
+    private static final String KEY_PUBLISHED = "published";
+    private static final String KEY_PUBLISHED_AT = "published_at";
+    private static final String PREFIX_ACKED = "acked_";
+    private static final String PREFIX_ATTEMPTS = "attempts_";
+
+    private static WearDelivery sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    public static synchronized WearDelivery get(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearDelivery(context.getApplicationContext()
+                    .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    WearDelivery(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /**
+     * @param content the payload without its revision stamp.
+     * @return the revision to stamp on it: the current one if the content hasn't changed since
+     * the last call, otherwise a new, higher one.
+     */
+    public synchronized long getRevisionFor(byte[] content) {
+        int hash = Arrays.hashCode(content);
+        long revision = mPrefs.getLong(KEY_REVISION, 0);
+        if (revision > 0 && mPrefs.contains(KEY_CONTENT_HASH)
+                && mPrefs.getInt(KEY_CONTENT_HASH, 0) == hash) {
+            return revision;
+        }
+        revision++;
+        mPrefs.edit().putLong(KEY_REVISION, revision).putInt(KEY_CONTENT_HASH, hash).apply();
+        return revision;
+    }
+
+    /**
+     * @return the revision of the last published payload, 0 if none.
+     */
+    public synchronized long getRevision() {
+        return mPrefs.getLong(KEY_PUBLISHED, 0);
+    }
+
+    /**
+     * Records the payload sent as {@code revision}, which must be the latest from
+     * {@link #getRevisionFor}, so stale nodes can be sent it again.  Republishing the current
+     * revision keeps the nodes' attempt counts.
+     */
+    public synchronized void publish(long revision, byte[] payload) {
+        boolean newRevision = revision != mPrefs.getLong(KEY_PUBLISHED, 0);
+        SharedPreferences.Editor editor = mPrefs.edit()
+                .putLong(KEY_PUBLISHED, revision)
+                .putLong(KEY_PUBLISHED_AT, System.currentTimeMillis())
+                .putString(KEY_PAYLOAD, Base64.encodeToString(payload, Base64.NO_WRAP));
+        // A new revision starts every node's attempts over.
+        if (newRevision) {
+            for (String key : mPrefs.getAll().keySet()) {
+                if (key.startsWith(PREFIX_ATTEMPTS)) {
+                    editor.remove(key);
+                }
+            }
+        }
+        editor.apply();
+    }
+
+    /**
+     * @return when a payload was last published, 0 if never.  Every sync publishes one, changed
+     * or not, so this is also how old the phone's own weather is.
+     */
+    public synchronized long getPublishedAt() {
+        return mPrefs.getLong(KEY_PUBLISHED_AT, 0);
+    }
+
+    /**
+     * @return the last published payload, or null if there is none.
+     */
+    public synchronized byte[] getLatestPayload() {
+        String encoded = mPrefs.getString(KEY_PAYLOAD, null);
+        return encoded != null ? Base64.decode(encoded, Base64.NO_WRAP) : null;
+    }
+
+    /**
+     * Sends the latest payload straight to {@code nodeId}, outside the resend budget, because
+     * the node asked for it.  Blocks on the transport.
+     *
+     * @return false if there is no payload yet or it couldn't be sent.
+     */
+    public boolean sendLatestTo(String nodeId, NodeTransport transport) {
+        byte[] payload = getLatestPayload();
+        return payload != null && transport.sendMessage(nodeId, PATH_PUSH, payload);
+    }
+
+    public synchronized void onAck(String nodeId, long revision) {
+        if (revision > getAckedRevision(nodeId)) {
+            mPrefs.edit().putLong(PREFIX_ACKED + nodeId, revision).apply();
+        }
+    }
+
+    /**
+     * @return the newest revision {@code nodeId} has acknowledged, 0 if none.
+     */
+    public synchronized long getAckedRevision(String nodeId) {
+        return mPrefs.getLong(PREFIX_ACKED + nodeId, 0);
+    }
+
+    /**
+     * Sends the latest payload to every connected node that hasn't acknowledged it and still
+     * has attempts left.  Blocks on the transport.
+     *
+     * @return how many nodes are still stale and may be retried later.
+     */
+    public int resendToStaleNodes(NodeTransport transport) {
+        long revision;
+        byte[] payload;
+        synchronized (this) {
+            revision = getRevision();
+            String encoded = mPrefs.getString(KEY_PAYLOAD, null);
+            if (encoded == null) {
+                return 0;
+            }
+            payload = Base64.decode(encoded, Base64.NO_WRAP);
+        }
+
+        int retryLater = 0;
+        List<String> nodes = transport.getConnectedNodes();
+        for (String nodeId : nodes) {
+            int attempts;
+            synchronized (this) {
+                if (getAckedRevision(nodeId) >= revision) {
+                    continue;
+                }
+                attempts = mPrefs.getInt(PREFIX_ATTEMPTS + nodeId, 0);
+                if (attempts >= MAX_ATTEMPTS) {
+                    continue;
+                }
+                mPrefs.edit().putInt(PREFIX_ATTEMPTS + nodeId, ++attempts).apply();
+            }
+            if (!transport.sendMessage(nodeId, PATH_PUSH, payload)) {
+                Log.w(LOG_TAG, "Couldn't resend revision " + revision + " to " + nodeId);
+            }
+            if (attempts < MAX_ATTEMPTS) {
+                retryLater++;
+            }
+        }
+        return retryLater;
+    }
+
+    /**
+     * @return the revision in an ack message, -1 if it isn't one.
+     */
+    public static long decodeRevision(byte[] data) {
+        return data != null && data.length == 8 ? ByteBuffer.wrap(data).getLong() : -1;
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import com.example.android.sunshine.app.SendDataService;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.WearableListenerService;
+
+/**
+ * Receives the watch face's messages: acknowledgements of weather payloads, and requests for
+ * the latest weather from a watch whose own has gone stale.
+ */
+public class WearListenerService extends WearableListenerService {
+
+    @Override
+    public void onMessageReceived(MessageEvent messageEvent) {
+        String path = messageEvent.getPath();
+        if (WearDelivery.PATH_ACK.equals(path)) {
+            long revision = WearDelivery.decodeRevision(messageEvent.getData());
+            if (revision > 0) {
+                WearDelivery.get(this).onAck(messageEvent.getSourceNodeId(), revision);
+            }
+        } else if (WearDelivery.PATH_REFRESH.equals(path)) {
+            SendDataService.answerRefresh(this, messageEvent.getSourceNodeId());
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.SendDataService;
+import com.example.android.sunshine.app.core.WeatherConditions;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Batches what the phone sends to the watch.  A sync, a change of units and a change of
+ * location each used to start the send service and commit a DataItem of their own; now they
+ * are merged into one pending set of changes, newest value per key, and committed once per
+ * {@link #BATCH_WINDOW_MILLIS}.  Every commit wakes the Bluetooth link and every watch in
+ * range, so fewer commits is most of the battery win.
+ * <p/>
+ * A change that matters right away, today's weather turning severe or clearing up again,
+ * skips the window: it is committed immediately, together with whatever was pending, and marked
+ * urgent so the Data Layer doesn't hold it back either.
+ * <p/>
+ * The window is timed by an alarm and the changes are saved through a {@link Store} until they
+ * are committed, so a phone that sleeps through the window or a process that dies during it
+ * still gets them to the watch.  Scheduling, saving and the commit itself go through
+ * {@link Scheduler}, {@link Store} and {@link Target} so the logic can be tested on the JVM.
+ */
+public class WearOutbox {
+    public static final int URGENCY_ROUTINE = 0;
+    public static final int URGENCY_SEVERE = 1;
+    static final int URGENCY_COUNT = 2;
+
+    static final long BATCH_WINDOW_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+    public interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+
+        void cancel(Runnable task);
+    }
+
+    public interface Store {
+        /**
+         * Replaces what was saved.
+         *
+         * @param changes the changes not yet committed, or null once there are none.
+         */
+        void save(Bundle changes, boolean urgent);
+
+        /**
+         * @return the changes last saved, or null if there are none.
+         */
+        Bundle load();
+
+        boolean loadUrgent();
+
+        /**
+         * Keeps whether the last weather offered was severe.  Not touched by {@link #save}.
+         */
+        void saveLastSevere(boolean severe);
+
+        /**
+         * @return what {@link #saveLastSevere} last saved, or null if it never has.
+         */
+        Boolean loadLastSevere();
+    }
+
+    public interface Target {
+        /**
+         * Commits the pending changes; {@link #drain()} hands them over.
+         */
+        void flush();
+    }
+
+    /**
+     * Changes taken out of the outbox to be committed as one DataItem.
+     */
+    public static final class Batch {
+        public final Bundle changes;
+        public final boolean urgent;
+        // When the oldest change of each urgency was offered, -1 if none was.
+        final long[] firstOfferNanos;
+
+        Batch(Bundle changes, boolean urgent, long[] firstOfferNanos) {
+            this.changes = changes;
+            this.urgent = urgent;
+            this.firstOfferNanos = firstOfferNanos;
+        }
+    }
+
+    private static WearOutbox sInstance;
+
+    private final Scheduler mScheduler;
+    private final Target mTarget;
+    private final Store mStore;
+
+    private Bundle mPending;
+    private boolean mPendingUrgent;
+    private final long[] mFirstOfferNanos = new long[URGENCY_COUNT];
+    private boolean mFlushScheduled;
+    // Drained but not yet reported on; saved along with the pending changes.
+    private Batch mInFlight;
+    // Whether the last weather offered was severe, null before the first.
+    private Boolean mLastSevere;
+
+    private final Runnable mFlushPending = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearOutbox.this) {
+                mFlushScheduled = false;
+                if (mPending == null) {
+                    return;
+                }
+            }
+            mTarget.flush();
+        }
+    };
+
+    private final long[] mOffers = new long[URGENCY_COUNT];
+    private final long[] mCommittedOffers = new long[URGENCY_COUNT];
+    private final long[] mTotalLatencyNanos = new long[URGENCY_COUNT];
+    private final long[] mMaxLatencyNanos = new long[URGENCY_COUNT];
+    private int mCommits;
+    private int mUrgentCommits;
+    private int mFailedCommits;
+    private int mDeferredCommits;
+    private long mCommittedBytes;
+
+    /**
+     * Picks up any changes {@code store} saved before the process died, and schedules their
+     * flush.  Their latency is counted from now.
+     */
+    public WearOutbox(Scheduler scheduler, Target target, Store store) {
+        mScheduler = scheduler;
+        mTarget = target;
+        mStore = store;
+        resetFirstOffers();
+        mLastSevere = store.loadLastSevere();
+        mPending = store.load();
+        if (mPending != null) {
+            mPendingUrgent = store.loadUrgent();
+            mFirstOfferNanos[mPendingUrgent ? URGENCY_SEVERE : URGENCY_ROUTINE] =
+                    System.nanoTime();
+            mScheduler.schedule(mFlushPending, BATCH_WINDOW_MILLIS);
+            mFlushScheduled = true;
+        }
+    }
+
+    /**
+     * @return the process-wide outbox, flushing through {@link SendDataService}.
+     */
+    public static synchronized WearOutbox get(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            // The alarm starts the same flush the task would, even in a process started for it.
+            sInstance = new WearOutbox(new Scheduler() {
+                @Override
+                public void schedule(Runnable task, long delayMillis) {
+                    SendDataService.scheduleFlush(appContext, delayMillis);
+                }
+
+                @Override
+                public void cancel(Runnable task) {
+                    SendDataService.cancelFlush(appContext);
+                }
+            }, new Target() {
+                @Override
+                public void flush() {
+                    SendDataService.flush(appContext);
+                }
+            }, new WearOutboxStore(appContext.getSharedPreferences(WearOutboxStore.PREFS_NAME,
+                    Context.MODE_PRIVATE)));
+        }
+        return sInstance;
+    }
+
+    /**
+     * @param weatherId today's weather
+     * @return {@link #URGENCY_SEVERE} if today's weather is turning severe or stops being so,
+     * otherwise {@link #URGENCY_ROUTINE}.
+     */
+    public synchronized int classify(int weatherId) {
+        int condition = WeatherConditions.getCondition(weatherId);
+        boolean severe = condition == WeatherConditions.STORM
+                || condition == WeatherConditions.SNOW;
+        boolean wasSevere = mLastSevere != null && mLastSevere;
+        if (mLastSevere == null || severe != mLastSevere) {
+            // Saved so a restarted process still knows a storm is clearing up.
+            mStore.saveLastSevere(severe);
+        }
+        mLastSevere = severe;
+        return severe != wasSevere ? URGENCY_SEVERE : URGENCY_ROUTINE;
+    }
+
+    /**
+     * Queues changes for the watch.  Keys already pending are overwritten.
+     */
+    public void offer(Bundle changes, int urgency) {
+        boolean flushNow;
+        synchronized (this) {
+            mOffers[urgency]++;
+            if (mPending == null) {
+                mPending = new Bundle();
+            }
+            mPending.putAll(changes);
+            save();
+            if (mFirstOfferNanos[urgency] < 0) {
+                mFirstOfferNanos[urgency] = System.nanoTime();
+            }
+            flushNow = urgency == URGENCY_SEVERE;
+            if (flushNow) {
+                mPendingUrgent = true;
+                if (mFlushScheduled) {
+                    mScheduler.cancel(mFlushPending);
+                    mFlushScheduled = false;
+                }
+            } else if (!mFlushScheduled) {
+                // The window isn't restarted by later changes, so nothing waits longer than
+                // one window.
+                mScheduler.schedule(mFlushPending, BATCH_WINDOW_MILLIS);
+                mFlushScheduled = true;
+            }
+        }
+        if (flushNow) {
+            mTarget.flush();
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        return mPending != null;
+    }
+
+    /**
+     * Takes everything pending, or returns null if there is nothing.  The batch stays saved until
+     * {@link #onCommitted} reports on it.
+     */
+    public synchronized Batch drain() {
+        if (mPending == null) {
+            return null;
+        }
+        Batch batch = new Batch(mPending, mPendingUrgent, mFirstOfferNanos.clone());
+        mInFlight = batch;
+        mPending = null;
+        mPendingUrgent = false;
+        resetFirstOffers();
+        if (mFlushScheduled) {
+            mScheduler.cancel(mFlushPending);
+            mFlushScheduled = false;
+        }
+        return batch;
+    }
+
+    /**
+     * Records how a drained batch went.  A batch that failed goes back in the outbox under
+     * anything offered since, to go out with the next flush.
+     *
+     * @param bytes size of the committed DataItem.
+     */
+    public void onCommitted(Batch batch, boolean success, int bytes) {
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (!success) {
+                mFailedCommits++;
+                putBack(batch);
+                if (!mFlushScheduled) {
+                    mScheduler.schedule(mFlushPending, BATCH_WINDOW_MILLIS);
+                    mFlushScheduled = true;
+                }
+                return;
+            }
+            if (mInFlight == batch) {
+                mInFlight = null;
+            }
+            save();
+            mCommits++;
+            if (batch.urgent) {
+                mUrgentCommits++;
+            }
+            mCommittedBytes += bytes;
+            for (int i = 0; i < URGENCY_COUNT; i++) {
+                if (batch.firstOfferNanos[i] < 0) {
+                    continue;
+                }
+                long latency = now - batch.firstOfferNanos[i];
+                mCommittedOffers[i]++;
+                mTotalLatencyNanos[i] += latency;
+                mMaxLatencyNanos[i] = Math.max(mMaxLatencyNanos[i], latency);
+            }
+        }
+    }
+
+    /**
+     * Puts back a drained batch that can't go out yet, an alert before there is any forecast to
+     * carry it.  Unlike a failed commit it isn't retried: the next offer flushes it along.
+     */
+    public synchronized void onDeferred(Batch batch) {
+        mDeferredCommits++;
+        putBack(batch);
+    }
+
+    /**
+     * Returns a drained batch to the outbox under anything offered since.
+     */
+    private void putBack(Batch batch) {
+        if (mInFlight == batch) {
+            mInFlight = null;
+        }
+        Bundle merged = new Bundle(batch.changes);
+        if (mPending != null) {
+            merged.putAll(mPending);
+        }
+        mPending = merged;
+        mPendingUrgent |= batch.urgent;
+        for (int i = 0; i < URGENCY_COUNT; i++) {
+            if (batch.firstOfferNanos[i] >= 0 && (mFirstOfferNanos[i] < 0
+                    || batch.firstOfferNanos[i] < mFirstOfferNanos[i])) {
+                mFirstOfferNanos[i] = batch.firstOfferNanos[i];
+            }
+        }
+        save();
+    }
+
+    /**
+     * Saves what is pending together with the batch being committed, so neither is lost if the
+     * process dies before the commit is reported.
+     */
+    private void save() {
+        Bundle unsent = mInFlight == null ? null : new Bundle(mInFlight.changes);
+        if (mPending != null) {
+            if (unsent == null) {
+                unsent = new Bundle();
+            }
+            unsent.putAll(mPending);
+        }
+        mStore.save(unsent, mPendingUrgent || mInFlight != null && mInFlight.urgent);
+    }
+
+    private void resetFirstOffers() {
+        for (int i = 0; i < URGENCY_COUNT; i++) {
+            mFirstOfferNanos[i] = -1;
+        }
+    }
+
+    /**
+     * @return changes offered with the given urgency.
+     */
+    public synchronized long getOfferCount(int urgency) {
+        return mOffers[urgency];
+    }
+
+    /**
+     * @return DataItem commits, each of which wakes the link to the watches.
+     */
+    public synchronized int getCommitCount() {
+        return mCommits;
+    }
+
+    public synchronized int getUrgentCommitCount() {
+        return mUrgentCommits;
+    }
+
+    public synchronized int getFailedCommitCount() {
+        return mFailedCommits;
+    }
+
+    /**
+     * @return batches put back to wait for a forecast; these aren't failures.
+     */
+    public synchronized int getDeferredCommitCount() {
+        return mDeferredCommits;
+    }
+
+    public synchronized long getCommittedBytes() {
+        return mCommittedBytes;
+    }
+
+    /**
+     * @return the average time the oldest change of this urgency waited in a committed batch.
+     */
+    public synchronized long getAverageLatencyNanos(int urgency) {
+        return mCommittedOffers[urgency] == 0
+                ? 0 : mTotalLatencyNanos[urgency] / mCommittedOffers[urgency];
+    }
+
+    public synchronized long getMaxLatencyNanos(int urgency) {
+        return mMaxLatencyNanos[urgency];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "WearOutbox{offers routine=" + mOffers[URGENCY_ROUTINE]
+                + " severe=" + mOffers[URGENCY_SEVERE]
+                + ", commits=" + mCommits + " (urgent " + mUrgentCommits
+                + ", failed " + mFailedCommits + ", deferred " + mDeferredCommits
+                + "), bytes=" + mCommittedBytes
+                + ", avg latency routine="
+                + TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos(URGENCY_ROUTINE))
+                + "ms severe="
+                + TimeUnit.NANOSECONDS.toMillis(getAverageLatencyNanos(URGENCY_SEVERE)) + "ms}";
+    }
+}
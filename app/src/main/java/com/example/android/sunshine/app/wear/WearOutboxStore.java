@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.text.TextUtils;
+import android.util.Log;
+
+/**
+ * Keeps the {@link WearOutbox}'s changes in their own SharedPreferences file, so they outlive the
+ * process between being offered and being committed.  Each change is stored under its key with
+ * a prefix naming its type; arrays are stored as comma separated text.  Only the types the send
+ * service offers are supported.  Whether the last weather offered was severe is kept alongside,
+ * apart from the changes.
+ */
+class WearOutboxStore implements WearOutbox.Store {
+    private static final String LOG_TAG = WearOutboxStore.class.getSimpleName();
+
+    static final String PREFS_NAME = "wear_outbox";
+    private static final String KEY_URGENT = "urgent";
+    private static final String KEY_LAST_SEVERE = "last_severe";
+    private static final String PREFIX_LONG = "long_";
+    private static final String PREFIX_STRING = "string_";
+    private static final String PREFIX_LONGS = "longs_";
+    private static final String PREFIX_DOUBLES = "doubles_";
+    private static final String PREFIX_INTS = "ints_";
+
+    private final SharedPreferences mPrefs;
+
+    WearOutboxStore(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    @Override
+    public void save(Bundle changes, boolean urgent) {
+        SharedPreferences.Editor editor = mPrefs.edit();
+        for (String stored : mPrefs.getAll().keySet()) {
+            if (!KEY_LAST_SEVERE.equals(stored)) {
+                editor.remove(stored);
+            }
+        }
+        if (changes != null) {
+            editor.putBoolean(KEY_URGENT, urgent);
+            for (String key : changes.keySet()) {
+                Object value = changes.get(key);
+                if (value instanceof Long) {
+                    editor.putLong(PREFIX_LONG + key, (Long) value);
+                } else if (value instanceof String) {
+                    editor.putString(PREFIX_STRING + key, (String) value);
+                } else if (value instanceof long[]) {
+                    editor.putString(PREFIX_LONGS + key, join((long[]) value));
+                } else if (value instanceof double[]) {
+                    editor.putString(PREFIX_DOUBLES + key, join((double[]) value));
+                } else if (value instanceof int[]) {
+                    editor.putString(PREFIX_INTS + key, join((int[]) value));
+                } else {
+                    Log.w(LOG_TAG, "Not saving " + key + ", unsupported type");
+                }
+            }
+        }
+        editor.apply();
+    }
+
+    @Override
+    public Bundle load() {
+        if (!mPrefs.contains(KEY_URGENT)) {
+            return null;
+        }
+        Bundle changes = new Bundle();
+        for (String stored : mPrefs.getAll().keySet()) {
+            if (stored.startsWith(PREFIX_LONG)) {
+                changes.putLong(stored.substring(PREFIX_LONG.length()), mPrefs.getLong(stored, 0));
+            } else if (stored.startsWith(PREFIX_STRING)) {
+                changes.putString(stored.substring(PREFIX_STRING.length()),
+                        mPrefs.getString(stored, null));
+            } else if (stored.startsWith(PREFIX_LONGS)) {
+                String[] parts = split(mPrefs.getString(stored, ""));
+                long[] values = new long[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    values[i] = Long.parseLong(parts[i]);
+                }
+                changes.putLongArray(stored.substring(PREFIX_LONGS.length()), values);
+            } else if (stored.startsWith(PREFIX_DOUBLES)) {
+                String[] parts = split(mPrefs.getString(stored, ""));
+                double[] values = new double[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    values[i] = Double.parseDouble(parts[i]);
+                }
+                changes.putDoubleArray(stored.substring(PREFIX_DOUBLES.length()), values);
+            } else if (stored.startsWith(PREFIX_INTS)) {
+                String[] parts = split(mPrefs.getString(stored, ""));
+                int[] values = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    values[i] = Integer.parseInt(parts[i]);
+                }
+                changes.putIntArray(stored.substring(PREFIX_INTS.length()), values);
+            }
+        }
+        return changes;
+    }
+
+    @Override
+    public boolean loadUrgent() {
+        return mPrefs.getBoolean(KEY_URGENT, false);
+    }
+
+    @Override
+    public void saveLastSevere(boolean severe) {
+        mPrefs.edit().putBoolean(KEY_LAST_SEVERE, severe).apply();
+    }
+
+    @Override
+    public Boolean loadLastSevere() {
+        return mPrefs.contains(KEY_LAST_SEVERE) ? mPrefs.getBoolean(KEY_LAST_SEVERE, false) : null;
+    }
+
+    private static String join(long[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (long value : values) {
+            joined.append(joined.length() == 0 ? "" : ",").append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String join(double[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (double value : values) {
+            joined.append(joined.length() == 0 ? "" : ",").append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String join(int[] values) {
+        StringBuilder joined = new StringBuilder();
+        for (int value : values) {
+            joined.append(joined.length() == 0 ? "" : ",").append(value);
+        }
+        return joined.toString();
+    }
+
+    private static String[] split(String joined) {
+        return joined.isEmpty() ? new String[0] : TextUtils.split(joined, ",");
+    }
+}
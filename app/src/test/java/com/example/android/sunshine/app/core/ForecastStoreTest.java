@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.core;
+
+import org.junit.Test;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class ForecastStoreTest {
+
+    @Test
+    public void growsAndKeepsColumnsAligned() {
+        ForecastStore store = new ForecastStore(2);
+        for (int i = 0; i < 20; i++) {
+            store.add(1000L * i, 800 + (i % 5), 20 + i, 10 + i, 50, 1013, 3.5f, 270,
+                    i % 2 == 0 ? "Clear" : "Clouds");
+        }
+        assertEquals(20, store.size());
+        assertEquals(17000L, store.getDate(17));
+        assertEquals(802, store.getWeatherId(17));
+        assertEquals(37f, store.getHigh(17), 0f);
+        assertEquals(27f, store.getLow(17), 0f);
+        assertEquals("Clouds", store.getDescription(17));
+    }
+
+    @Test
+    public void descriptionsAreInterned() {
+        ForecastStore first = new ForecastStore();
+        ForecastStore second = new ForecastStore();
+        first.add(0, 800, 0, 0, 0, 0, 0, 0, new String("Rain"));
+        second.add(0, 800, 0, 0, 0, 0, 0, 0, new String("Rain"));
+        assertSame(first.getDescription(0), second.getDescription(0));
+    }
+
+    @Test
+    public void indexOfDate() {
+        ForecastStore store = new ForecastStore();
+        for (int i = 0; i < 14; i++) {
+            store.add(ForecastDates.DAY_IN_MILLIS * i, 800, 0, 0, 0, 0, 0, 0, "Clear");
+        }
+        assertEquals(9, store.indexOfDate(ForecastDates.DAY_IN_MILLIS * 9));
+        assertEquals(-1, store.indexOfDate(1));
+
+        store.clear();
+        assertEquals(0, store.size());
+        assertEquals(-1, store.indexOfDate(0));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void readPastSizeFails() {
+        ForecastStore store = new ForecastStore(4);
+        store.add(0, 800, 0, 0, 0, 0, 0, 0, "Clear");
+        store.getHigh(1);
+    }
+
+    @Test
+    public void parserFillsStore() throws Exception {
+        TimeZone timeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        long todayStart = ForecastDates.normalizeDate(1445716800000L, timeZone);
+        String json = "{\"city\":{\"name\":\"Mountain View\",\"coord\":{\"lat\":37.4,\"lon\":-122.1}},"
+                + "\"list\":[{\"pressure\":1015.5,\"humidity\":60,\"speed\":2.5,\"deg\":300,"
+                + "\"temp\":{\"max\":21.4,\"min\":9.8},\"weather\":[{\"id\":500,\"main\":\"Rain\"}]}]}";
+
+        ForecastParser.Forecast forecast = ForecastParser.parse(json, todayStart, timeZone);
+        assertEquals(ForecastParser.STATUS_OK, forecast.status);
+        assertEquals(1, forecast.days.size());
+        assertEquals(todayStart, forecast.days.getDate(0));
+        assertEquals(500, forecast.days.getWeatherId(0));
+        assertEquals(21.4f, forecast.days.getHigh(0), 0f);
+        assertEquals(60f, forecast.days.getHumidity(0), 0f);
+        assertEquals("Rain", forecast.days.getDescription(0));
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.data.WeatherContract.AlertEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AlertStoreTest {
+    private static final long NOW = 1450000000000L;
+    private static final long HOUR = 60 * 60 * 1000;
+
+    private ContentResolver mResolver;
+
+    @Before
+    public void setUp() {
+        ProviderFixtures.registerWeatherProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+    }
+
+    private Uri insert(String dedupKey, long received, long expires) {
+        ContentValues values = new ContentValues();
+        values.put(AlertEntry.COLUMN_DEDUP_KEY, dedupKey);
+        values.put(AlertEntry.COLUMN_WEATHER, "Hurricane");
+        values.put(AlertEntry.COLUMN_LOCATION, "Mountain View");
+        values.put(AlertEntry.COLUMN_RECEIVED, received);
+        values.put(AlertEntry.COLUMN_EXPIRES, expires);
+        return mResolver.insert(AlertEntry.CONTENT_URI, values);
+    }
+
+    private int count() {
+        Cursor cursor = mResolver.query(AlertEntry.CONTENT_URI, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void repeatsAreDropped() {
+        assertNotNull(insert("hurricane|mountain view", NOW, NOW + HOUR));
+        assertNull(insert("hurricane|mountain view", NOW + 1000, NOW + HOUR));
+        assertNotNull(insert("flood|mountain view", NOW + 1000, NOW + HOUR));
+        assertEquals(2, count());
+    }
+
+    @Test
+    public void expiredAlertIsReplacedByItsRepeat() {
+        insert("hurricane|mountain view", NOW, NOW + HOUR);
+
+        assertNotNull(insert("hurricane|mountain view", NOW + 2 * HOUR, NOW + 3 * HOUR));
+
+        Cursor cursor = mResolver.query(AlertEntry.CONTENT_URI,
+                new String[]{AlertEntry.COLUMN_EXPIRES}, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(NOW + 3 * HOUR, cursor.getLong(0));
+        } finally {
+            cursor.close();
+        }
+    }
+}
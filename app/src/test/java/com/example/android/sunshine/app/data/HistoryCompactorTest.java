@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.HistoryPeriods;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class HistoryCompactorTest {
+    private static final int PAST_DAYS = 420;
+    private static final int FUTURE_DAYS = 14;
+
+    private TimeZone mTimeZone;
+    private long mTodayStart;
+    private long mHistoryStart;
+    private long[] mLocationIds;
+    private SQLiteDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mTimeZone = TimeZone.getDefault();
+        mTodayStart = ForecastDates.normalizeDate(System.currentTimeMillis(), mTimeZone);
+        mHistoryStart = ForecastDates.addDays(mTodayStart, -HistoryCompactor.HISTORY_DAYS,
+                mTimeZone);
+        mLocationIds = ProviderFixtures.seed(2, PAST_DAYS + FUTURE_DAYS, FUTURE_DAYS,
+                mTodayStart);
+        mDb = new WeatherDbHelper(RuntimeEnvironment.application).getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void compactsEverythingOutsideTheRawWindow() {
+        long retainedDays = countDays(mHistoryStart);
+
+        HistoryCompactor compactor = new HistoryCompactor(mDb, mTodayStart, mTimeZone);
+        assertFalse(compactor.runSlice(Long.MAX_VALUE));
+
+        long rawCutoff = HistoryPeriods.getWeekStart(
+                ForecastDates.addDays(mTodayStart, -HistoryCompactor.RAW_DAYS, mTimeZone),
+                mTimeZone);
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " < ?", new String[]{Long.toString(rawCutoff)}));
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_END_DATE + " <= ?",
+                new String[]{Long.toString(mHistoryStart)}));
+        assertTrue(DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_MONTH, null) > 0);
+        assertTrue(DatabaseUtils.queryNumEntries(mDb, HistoryEntry.TABLE_NAME,
+                HistoryEntry.COLUMN_PERIOD + " = " + HistoryEntry.PERIOD_WEEK, null) > 0);
+
+        // Every retained day is accounted for exactly once, either raw or in one period.
+        assertEquals(retainedDays, countDays(mHistoryStart) + sumHistoryDays());
+    }
+
+    @Test
+    public void monthMatchesItsDays() {
+        // A month well inside the monthly window, for the first location.
+        long monthStart = HistoryPeriods.getMonthStart(
+                ForecastDates.addDays(mTodayStart, -200, mTimeZone), mTimeZone);
+        long monthEnd = HistoryPeriods.getMonthEnd(monthStart, mTimeZone);
+        String[] range = {Long.toString(mLocationIds[0]), Long.toString(monthStart),
+                Long.toString(monthEnd)};
+        double[] expected = new double[3];
+        Cursor days = mDb.rawQuery("SELECT MIN(min), MAX(max), AVG((min + max) / 2) FROM " +
+                WeatherEntry.TABLE_NAME + " WHERE location_id = ? AND date >= ? AND date < ?",
+                range);
+        try {
+            days.moveToFirst();
+            for (int i = 0; i < expected.length; i++) {
+                expected[i] = days.getDouble(i);
+            }
+        } finally {
+            days.close();
+        }
+
+        new HistoryCompactor(mDb, mTodayStart, mTimeZone).runSlice(Long.MAX_VALUE);
+
+        Cursor month = mDb.query(HistoryEntry.TABLE_NAME, new String[]{
+                        HistoryEntry.COLUMN_MIN_TEMP, HistoryEntry.COLUMN_MAX_TEMP,
+                        HistoryEntry.COLUMN_MEAN_TEMP, HistoryEntry.COLUMN_END_DATE},
+                "location_id = ? AND period = " + HistoryEntry.PERIOD_MONTH +
+                        " AND start_date = ?", new String[]{range[0], range[1]},
+                null, null, null);
+        try {
+            assertTrue(month.moveToFirst());
+            assertEquals(expected[0], month.getDouble(0), 1e-9);
+            assertEquals(expected[1], month.getDouble(1), 1e-9);
+            assertEquals(expected[2], month.getDouble(2), 1e-6);
+            assertEquals(monthEnd, month.getLong(3));
+        } finally {
+            month.close();
+        }
+    }
+
+    @Test
+    public void expiredDeadlineStillMakesProgress() {
+        long retainedDays = countDays(mHistoryStart);
+
+        // A deadline that has already passed still rolls up exactly one period per slice.
+        HistoryCompactor compactor = new HistoryCompactor(mDb, mTodayStart, mTimeZone);
+        while (compactor.runSlice(0)) {
+            assertEquals(1, compactor.getPeriodsWritten());
+            compactor = new HistoryCompactor(mDb, mTodayStart, mTimeZone);
+        }
+        assertEquals(0, compactor.getPeriodsWritten());
+        assertEquals(retainedDays, countDays(mHistoryStart) + sumHistoryDays());
+    }
+
+    @Test
+    public void providerCallReportsRemainingWork() {
+        WeatherProvider provider = ProviderFixtures.registerWeatherProvider();
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.KEY_BUDGET_MILLIS, 0);
+        Bundle result = provider.call(HistoryEntry.METHOD_COMPACT, null, extras);
+        assertTrue(result.getBoolean(HistoryEntry.KEY_MORE_WORK));
+
+        extras.putLong(HistoryEntry.KEY_BUDGET_MILLIS, 60 * 1000);
+        result = provider.call(HistoryEntry.METHOD_COMPACT, null, extras);
+        assertFalse(result.getBoolean(HistoryEntry.KEY_MORE_WORK));
+    }
+
+    @Test
+    public void upgradeKeepsHistory() {
+        new HistoryCompactor(mDb, mTodayStart, mTimeZone).runSlice(Long.MAX_VALUE);
+        long historyDays = sumHistoryDays();
+        assertTrue(historyDays > 0);
+
+        WeatherDbHelper helper = new WeatherDbHelper(RuntimeEnvironment.application);
+        helper.onUpgrade(mDb, 4, 5);
+
+        // The forecast is only a cache and goes; the history can't be fetched again.
+        assertEquals(0, DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME));
+        assertEquals(historyDays, sumHistoryDays());
+        assertEquals(mLocationIds.length,
+                DatabaseUtils.queryNumEntries(mDb, WeatherContract.LocationEntry.TABLE_NAME));
+    }
+
+    private long countDays(long fromDate) {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME,
+                WeatherEntry.COLUMN_DATE + " >= ?", new String[]{Long.toString(fromDate)});
+    }
+
+    private long sumHistoryDays() {
+        return DatabaseUtils.longForQuery(mDb, "SELECT IFNULL(SUM(" +
+                HistoryEntry.COLUMN_DAY_COUNT + "), 0) FROM " + HistoryEntry.TABLE_NAME, null);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class PagedCursorTest {
+    private static final String[] COLUMNS = {"key", "value"};
+    private static final int ROWS = 1000;
+    private static final int PAGE_SIZE = 20;
+    // Keys are spread out so a page has to start "after" a key, not at a row number.
+    private static final int KEY_STEP = 7;
+
+    /**
+     * Serves rows whose keys are multiples of KEY_STEP, like a table with an index on the key.
+     */
+    private static class FakeSource implements PagedCursor.PageSource {
+        int rowsServed;
+
+        @Override
+        public synchronized Cursor loadPage(long fromKey, int limit) {
+            MatrixCursor page = new MatrixCursor(COLUMNS);
+            long first = (fromKey + KEY_STEP - 1) / KEY_STEP;
+            for (long row = first; row < ROWS && row < first + limit; row++) {
+                page.addRow(new Object[]{row * KEY_STEP, "row " + row});
+                rowsServed++;
+            }
+            return page;
+        }
+
+        @Override
+        public int count() {
+            return ROWS;
+        }
+    }
+
+    @Test
+    public void readsEveryRowInOrder() {
+        FakeSource source = new FakeSource();
+        PagedCursor cursor = new PagedCursor(source, COLUMNS, 0, 0, PAGE_SIZE);
+        assertEquals(ROWS, cursor.getCount());
+        int position = 0;
+        while (cursor.moveToNext()) {
+            assertEquals(position * KEY_STEP, cursor.getLong(0));
+            assertEquals("row " + position, cursor.getString(1));
+            position++;
+        }
+        assertEquals(ROWS, position);
+        cursor.close();
+    }
+
+    @Test
+    public void viewportBoundsResidentPages() {
+        PagedCursor cursor = new PagedCursor(new FakeSource(), COLUMNS, 0, 0, PAGE_SIZE);
+        for (int first = 0; first < ROWS; first += 5) {
+            int last = Math.min(first + 10, ROWS - 1);
+            for (int position = first; position <= last; position++) {
+                assertTrue(cursor.moveToPosition(position));
+                assertEquals(position * KEY_STEP, cursor.getLong(0));
+            }
+            cursor.setViewport(first, last);
+            // The viewport's pages, up to EVICT_DISTANCE on each side, and a prefetch or two.
+            assertTrue(cursor.getResidentPageCount() <= 2 * PagedCursor.EVICT_DISTANCE + 3);
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void jumpFarAheadWalksTheKeys() {
+        FakeSource source = new FakeSource();
+        PagedCursor cursor = new PagedCursor(source, COLUMNS, 0, 0, PAGE_SIZE);
+        assertTrue(cursor.moveToPosition(ROWS - 1));
+        assertEquals((ROWS - 1) * KEY_STEP, cursor.getLong(0));
+        // Every page was read once on the way; none was read twice.
+        assertEquals(ROWS / PAGE_SIZE, cursor.getLoadCount());
+        // Only the first page and the one we jumped to were kept.
+        assertEquals(2, cursor.getResidentPageCount());
+        cursor.close();
+    }
+
+    @Test
+    public void evictedRowCanBeReadAgain() {
+        PagedCursor cursor = new PagedCursor(new FakeSource(), COLUMNS, 0, 0, PAGE_SIZE);
+        assertTrue(cursor.moveToPosition(3));
+        cursor.setViewport(ROWS - 10, ROWS - 1);
+        assertTrue(cursor.moveToPosition(3));
+        assertEquals(3 * KEY_STEP, cursor.getLong(0));
+        cursor.close();
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs an operation repeatedly and fails if its median time or its average allocation exceeds
+ * a budget.  Budgets are deliberately loose: they exist to catch order of magnitude regressions
+ * (a lost index, a query per row), not to benchmark.
+ */
+public final class PerformanceBudget {
+    private static final int WARMUP_RUNS = 3;
+
+    private final String mName;
+    private final long mTimeBudgetMicros;
+    private final long mAllocationBudgetBytes;
+
+    public PerformanceBudget(String name, long timeBudgetMicros, long allocationBudgetBytes) {
+        mName = name;
+        mTimeBudgetMicros = timeBudgetMicros;
+        mAllocationBudgetBytes = allocationBudgetBytes;
+    }
+
+    public interface Operation {
+        void run(int iteration);
+    }
+
+    /**
+     * @return the measured median time in microseconds.
+     */
+    public long check(int runs, Operation operation) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            operation.run(i);
+        }
+
+        long[] micros = new long[runs];
+        long allocatedBefore = allocatedBytes();
+        for (int i = 0; i < runs; i++) {
+            long start = System.nanoTime();
+            operation.run(i);
+            micros[i] = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+        }
+        long allocatedAfter = allocatedBytes();
+
+        Arrays.sort(micros);
+        long median = micros[runs / 2];
+        assertTrue(mName + ": median " + median + "us exceeds the budget of " +
+                mTimeBudgetMicros + "us", median <= mTimeBudgetMicros);
+
+        if (allocatedBefore >= 0 && allocatedAfter >= 0) {
+            long perRun = (allocatedAfter - allocatedBefore) / runs;
+            assertTrue(mName + ": " + perRun + " bytes allocated per run exceeds the budget of " +
+                    mAllocationBudgetBytes, perRun <= mAllocationBudgetBytes);
+        }
+        return median;
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if the JVM cannot tell us.
+     */
+    private static long allocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported()
+                    && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.sqlite.SQLiteDatabase;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.shadows.ShadowContentResolver;
+
+/**
+ * Helpers for the JVM tests that need a real WeatherProvider behind the ContentResolver, and a
+ * database seeded with realistic volumes of data.
+ */
+public final class ProviderFixtures {
+
+    private ProviderFixtures() {
+    }
+
+    /**
+     * Creates a WeatherProvider attached to the Robolectric application and registers it for
+     * the Sunshine authority.
+     */
+    public static WeatherProvider registerWeatherProvider() {
+        WeatherProvider provider = new WeatherProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = WeatherContract.CONTENT_AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        ShadowContentResolver.registerProvider(WeatherContract.CONTENT_AUTHORITY, provider);
+        return provider;
+    }
+
+    public static String locationSetting(int index) {
+        return "loc-" + index;
+    }
+
+    /**
+     * Seeds {@code locationCount} locations with {@code dayCount} consecutive daily rows each,
+     * ending {@code futureDays} days after {@code todayStart}.  Rows are written straight to the
+     * database so that seeding does not show up in the provider's numbers.
+     *
+     * @return the row id of every location, indexed like {@link #locationSetting(int)}.
+     */
+    public static long[] seed(int locationCount, int dayCount, int futureDays, long todayStart) {
+        SQLiteDatabase db = new WeatherDbHelper(RuntimeEnvironment.application)
+                .getWritableDatabase();
+        long[] locationIds = new long[locationCount];
+        long firstDay = ForecastDates.addDays(todayStart, futureDays - dayCount);
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            for (int i = 0; i < locationCount; i++) {
+                values.clear();
+                values.put(WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+                        locationSetting(i));
+                values.put(WeatherContract.LocationEntry.COLUMN_CITY_NAME, "City " + i);
+                values.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, -60 + (i % 120));
+                values.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, -170 + (i % 340));
+                locationIds[i] = db.insert(WeatherContract.LocationEntry.TABLE_NAME, null,
+                        values);
+
+                long date = firstDay;
+                for (int day = 0; day < dayCount; day++) {
+                    fillWeatherValues(values, locationIds[i], date, day);
+                    db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                    date = ForecastDates.addDays(date, 1);
+                }
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        db.close();
+        return locationIds;
+    }
+
+    public static ContentValues[] createForecast(long locationId, long firstDay, int dayCount) {
+        ContentValues[] forecast = new ContentValues[dayCount];
+        long date = firstDay;
+        for (int day = 0; day < dayCount; day++) {
+            forecast[day] = new ContentValues();
+            fillWeatherValues(forecast[day], locationId, date, day);
+            date = ForecastDates.addDays(date, 1);
+        }
+        return forecast;
+    }
+
+    private static void fillWeatherValues(ContentValues values, long locationId, long date,
+                                          int day) {
+        // A mix of conditions and a yearly temperature swing, so aggregates are not trivial.
+        int[] weatherIds = {800, 801, 500, 803, 600, 211, 741};
+        double seasonal = 12 * Math.sin(day * 2 * Math.PI / 365);
+        values.clear();
+        values.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DATE, date);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+                weatherIds[day % weatherIds.length]);
+        values.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, "Clear");
+        values.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, 8 + seasonal);
+        values.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, 17 + seasonal);
+        values.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, 40 + day % 50);
+        values.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, 1000 + day % 30);
+        values.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, day % 13);
+        values.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, day % 360);
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.core.ForecastDates;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Performance regression suite for WeatherProvider, run on the JVM against Robolectric's SQLite
+ * with about two years of history for a couple of hundred locations.  Each route gets a time and
+ * an allocation budget; the budgets are an order of magnitude above what a healthy provider
+ * needs, so a failure here means something structural changed (an index went missing, a query
+ * stopped using its selection, a cursor is being copied).
+ *
+ * Run with ./gradlew :app:testDebugUnitTest
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class WeatherProviderPerformanceTest {
+    private static final int LOCATION_COUNT = 200;
+    private static final int DAY_COUNT = 730;
+    private static final int FUTURE_DAYS = 14;
+    private static final int RUNS = 30;
+
+    private static final String[] FORECAST_COLUMNS = {
+            WeatherContract.WeatherEntry.TABLE_NAME + "." + WeatherContract.WeatherEntry._ID,
+            WeatherContract.WeatherEntry.COLUMN_DATE,
+            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING,
+            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherContract.LocationEntry.COLUMN_COORD_LAT,
+            WeatherContract.LocationEntry.COLUMN_COORD_LONG
+    };
+
+    private ContentResolver mResolver;
+    private long mTodayStart;
+    private long[] mLocationIds;
+
+    @Before
+    public void setUp() {
+        ProviderTracer.reset();
+        ProviderFixtures.registerWeatherProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mTodayStart = ForecastDates.normalizeDate(System.currentTimeMillis());
+        mLocationIds = ProviderFixtures.seed(LOCATION_COUNT, DAY_COUNT, FUTURE_DAYS, mTodayStart);
+    }
+
+    @After
+    public void tearDown() {
+        ProviderTracer.setEnabled(false);
+        ProviderTracer.reset();
+    }
+
+    @Test
+    public void forecastForLocationWithStartDate() {
+        // The main list: today onwards for one location, joined with its location row.
+        new PerformanceBudget("weather/location?date", 20000, 512 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        String location = ProviderFixtures.locationSetting(
+                                iteration % LOCATION_COUNT);
+                        assertEquals(FUTURE_DAYS, drain(mResolver.query(
+                                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                                        location, mTodayStart),
+                                FORECAST_COLUMNS, null, null,
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " ASC")));
+                    }
+                });
+    }
+
+    @Test
+    public void forecastForLocationAndDate() {
+        // The detail screen: a single day.
+        new PerformanceBudget("weather/location/date", 10000, 256 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        String location = ProviderFixtures.locationSetting(
+                                iteration % LOCATION_COUNT);
+                        long date = ForecastDates.addDays(mTodayStart, iteration % FUTURE_DAYS);
+                        assertEquals(1, drain(mResolver.query(
+                                WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                        location, date),
+                                FORECAST_COLUMNS, null, null, null)));
+                    }
+                });
+    }
+
+    @Test
+    public void forecastForLocation() {
+        // Without a start date the whole history of the location comes back.
+        new PerformanceBudget("weather/location", 100000, 4 * 1024 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        String location = ProviderFixtures.locationSetting(
+                                iteration % LOCATION_COUNT);
+                        assertEquals(DAY_COUNT, drain(mResolver.query(
+                                WeatherContract.WeatherEntry.buildWeatherLocation(location),
+                                FORECAST_COLUMNS, null, null, null)));
+                    }
+                });
+    }
+
+    @Test
+    public void weatherByRowId() {
+        new PerformanceBudget("weather?_id", 10000, 256 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        assertEquals(1, drain(mResolver.query(
+                                WeatherContract.WeatherEntry.CONTENT_URI, null,
+                                WeatherContract.WeatherEntry._ID + " = ?",
+                                new String[]{Integer.toString(1 + iteration * 97)}, null)));
+                    }
+                });
+    }
+
+    @Test
+    public void locationBySetting() {
+        new PerformanceBudget("location?setting", 10000, 256 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        assertEquals(1, drain(mResolver.query(
+                                WeatherContract.LocationEntry.CONTENT_URI, null,
+                                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                                new String[]{ProviderFixtures.locationSetting(
+                                        iteration % LOCATION_COUNT)}, null)));
+                    }
+                });
+    }
+
+    @Test
+    public void bulkInsertForecast() {
+        // What a sync writes: 14 new days for one location, in a single transaction.
+        final long firstDay = ForecastDates.addDays(mTodayStart, FUTURE_DAYS);
+        new PerformanceBudget("bulkInsert weather", 50000, 1024 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        long start = ForecastDates.addDays(firstDay, iteration * FUTURE_DAYS);
+                        ContentValues[] forecast = ProviderFixtures.createForecast(
+                                mLocationIds[iteration % LOCATION_COUNT], start, FUTURE_DAYS);
+                        assertEquals(FUTURE_DAYS, mResolver.bulkInsert(
+                                WeatherContract.WeatherEntry.CONTENT_URI, forecast));
+                    }
+                });
+    }
+
+    @Test
+    public void deleteOldDays() {
+        // What a sync deletes: one old day, which lands on every location's history.
+        final long oldestDay = ForecastDates.addDays(mTodayStart, FUTURE_DAYS - DAY_COUNT);
+        new PerformanceBudget("delete weather<date", 100000, 256 * 1024)
+                .check(RUNS, new PerformanceBudget.Operation() {
+                    @Override
+                    public void run(int iteration) {
+                        long cutoff = ForecastDates.addDays(oldestDay, iteration);
+                        assertEquals(LOCATION_COUNT, mResolver.delete(
+                                WeatherContract.WeatherEntry.CONTENT_URI,
+                                WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                                new String[]{Long.toString(cutoff)}));
+                    }
+                });
+    }
+
+    @Test
+    public void tracerAgreesWithTheSuite() {
+        // The tracer should see the same routes and row counts, and must not itself blow the
+        // budget of the route it is measuring.
+        ProviderTracer.setEnabled(true);
+        forecastForLocationWithStartDate();
+
+        ProviderTracer.RouteStats stats =
+                ProviderTracer.getRouteStats(WeatherProvider.WEATHER_WITH_LOCATION);
+        long calls = stats.getCallCount(ProviderTracer.OP_QUERY);
+        assertTrue("expected at least " + RUNS + " traced queries, got " + calls, calls >= RUNS);
+        assertEquals(calls * FUTURE_DAYS, stats.getRowCount(ProviderTracer.OP_QUERY));
+    }
+
+    private static int drain(Cursor cursor) {
+        assertTrue(cursor != null);
+        try {
+            // Force the window to fill, which is where SQLite actually does the work.
+            int count = 0;
+            while (cursor.moveToNext()) {
+                cursor.getLong(1);
+                count++;
+            }
+            return count;
+        } finally {
+            cursor.close();
+        }
+    }
+}
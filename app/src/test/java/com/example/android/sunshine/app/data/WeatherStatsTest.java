@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.WeatherConditions;
+import com.example.android.sunshine.app.data.WeatherContract.HistoryEntry;
+import com.example.android.sunshine.app.data.WeatherContract.StatsEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class WeatherStatsTest {
+    // Two weeks from today; the fixture cycles through 7 weather ids, two of them wet.
+    private static final int DAYS = 14;
+
+    private WeatherProvider mProvider;
+    private ContentResolver mResolver;
+    private long mTodayStart;
+    private long[] mLocationIds;
+
+    @Before
+    public void setUp() {
+        mProvider = ProviderFixtures.registerWeatherProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mTodayStart = ForecastDates.normalizeDate(System.currentTimeMillis());
+        mLocationIds = ProviderFixtures.seed(2, DAYS, DAYS, mTodayStart);
+    }
+
+    @Test
+    public void summary() {
+        Cursor cursor = mResolver.query(StatsEntry.buildStatsUri(
+                ProviderFixtures.locationSetting(0), mTodayStart,
+                ForecastDates.addDays(mTodayStart, DAYS)), null, null, null, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(DAYS, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+            assertEquals(4, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_RAIN_DAYS)));
+            assertEquals(46.5, cursor.getDouble(
+                    cursor.getColumnIndex(StatsEntry.COLUMN_AVG_HUMIDITY)), 1e-9);
+            assertTrue(cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MIN_TEMP))
+                    < cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MAX_TEMP)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void emptyRangeHasNoTemperatures() {
+        Cursor cursor = mResolver.query(StatsEntry.buildStatsUri(
+                ProviderFixtures.locationSetting(0), ForecastDates.addDays(mTodayStart, -30),
+                ForecastDates.addDays(mTodayStart, -20)), null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+            assertTrue(cursor.isNull(cursor.getColumnIndex(StatsEntry.COLUMN_MIN_TEMP)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void conditionHistogram() {
+        Cursor cursor = mResolver.query(StatsEntry.buildConditionsUri(
+                ProviderFixtures.locationSetting(0), mTodayStart,
+                ForecastDates.addDays(mTodayStart, DAYS)), null, null, null, null);
+        try {
+            int total = 0;
+            int previous = Integer.MAX_VALUE;
+            while (cursor.moveToNext()) {
+                int condition = cursor.getInt(0);
+                int days = cursor.getInt(1);
+                assertTrue(condition >= WeatherConditions.UNKNOWN
+                        && condition < WeatherConditions.CONDITION_COUNT);
+                assertTrue("most frequent first", days <= previous);
+                previous = days;
+                total += days;
+            }
+            assertEquals(7, cursor.getCount());
+            assertEquals(DAYS, total);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void compareWithPreviousPeriod() {
+        long weekStart = ForecastDates.addDays(mTodayStart, 7);
+        Cursor cursor = mResolver.query(StatsEntry.buildCompareUri(
+                ProviderFixtures.locationSetting(0), weekStart,
+                ForecastDates.addDays(weekStart, 7)), null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            cursor.moveToFirst();
+            assertEquals(StatsEntry.PERIOD_CURRENT, cursor.getInt(0));
+            assertEquals(7, cursor.getInt(1));
+            cursor.moveToNext();
+            assertEquals(StatsEntry.PERIOD_PREVIOUS, cursor.getInt(0));
+            assertEquals(7, cursor.getInt(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void pastRangeIncludesCompactedHistory() {
+        int pastDays = 120;
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                ProviderFixtures.createForecast(mLocationIds[0],
+                        ForecastDates.addDays(mTodayStart, -pastDays), pastDays));
+        // A month that doesn't line up with the weeks it gets rolled into.
+        Uri statsUri = StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(0),
+                ForecastDates.addDays(mTodayStart, -60), ForecastDates.addDays(mTodayStart, -30));
+        Object[] raw = summaryRow(statsUri);
+        assertEquals(30, raw[0]);
+
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.KEY_BUDGET_MILLIS, 60 * 1000);
+        mProvider.call(HistoryEntry.METHOD_COMPACT, null, extras);
+
+        Object[] compacted = summaryRow(statsUri);
+        assertEquals(30, compacted[0]);
+        // Weeks straddling the range bring their whole extremes.
+        assertTrue((Double) compacted[1] <= (Double) raw[1]);
+        assertTrue((Double) compacted[2] >= (Double) raw[2]);
+        assertEquals((Double) raw[3], (Double) compacted[3], 0.5);
+
+        Cursor cursor = mResolver.query(StatsEntry.buildConditionsUri(
+                ProviderFixtures.locationSetting(0), ForecastDates.addDays(mTodayStart, -60),
+                ForecastDates.addDays(mTodayStart, -30)), null, null, null, null);
+        try {
+            int total = 0;
+            while (cursor.moveToNext()) {
+                total += cursor.getInt(1);
+            }
+            // Only each week's dominant condition survives the roll-up.
+            assertTrue(total > 0 && total <= 30);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void deletingHistoryChangesTheStats() {
+        int pastDays = 120;
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                ProviderFixtures.createForecast(mLocationIds[0],
+                        ForecastDates.addDays(mTodayStart, -pastDays), pastDays));
+        Bundle extras = new Bundle();
+        extras.putLong(HistoryEntry.KEY_BUDGET_MILLIS, 60 * 1000);
+        mProvider.call(HistoryEntry.METHOD_COMPACT, null, extras);
+        Uri statsUri = StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(0),
+                ForecastDates.addDays(mTodayStart, -60), ForecastDates.addDays(mTodayStart, -30));
+        assertEquals(30, summaryRow(statsUri)[0]);
+
+        ShadowContentResolver shadowResolver = Shadows.shadowOf(mResolver);
+        int notified = shadowResolver.getNotifiedUris().size();
+        mResolver.delete(HistoryEntry.CONTENT_URI, null, null);
+
+        // The cached aggregate is gone, and stats observers hear about it.
+        assertEquals(0, summaryRow(statsUri)[0]);
+        boolean statsNotified = false;
+        for (ShadowContentResolver.NotifiedUri change : shadowResolver.getNotifiedUris()
+                .subList(notified, shadowResolver.getNotifiedUris().size())) {
+            statsNotified |= change.uri.equals(WeatherContract.WeatherEntry.CONTENT_URI);
+        }
+        assertTrue(statsNotified);
+    }
+
+    @Test
+    public void writesInvalidateOnlyTheirLocation() {
+        long end = ForecastDates.addDays(mTodayStart, DAYS);
+        AggregateCache cache = mProvider.getAggregateCache();
+        query(StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(0), mTodayStart, end));
+        query(StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(1), mTodayStart, end));
+        assertEquals(2, cache.getMissCount());
+
+        // A new forecast for the second location leaves the first one's stats cached.
+        mResolver.bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI,
+                ProviderFixtures.createForecast(mLocationIds[1], mTodayStart, DAYS));
+        query(StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(0), mTodayStart, end));
+        assertEquals(1, cache.getHitCount());
+        query(StatsEntry.buildStatsUri(ProviderFixtures.locationSetting(1), mTodayStart, end));
+        assertEquals(3, cache.getMissCount());
+
+        mResolver.delete(WeatherContract.WeatherEntry.CONTENT_URI, null, null);
+        Cursor cursor = mResolver.query(StatsEntry.buildStatsUri(
+                ProviderFixtures.locationSetting(0), mTodayStart, end), null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            assertEquals(0, cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the day count, min, max and mean temperature of a summary.
+     */
+    private Object[] summaryRow(Uri uri) {
+        Cursor cursor = mResolver.query(uri, null, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return new Object[]{
+                    cursor.getInt(cursor.getColumnIndex(StatsEntry.COLUMN_DAY_COUNT)),
+                    cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MIN_TEMP)),
+                    cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_MAX_TEMP)),
+                    cursor.getDouble(cursor.getColumnIndex(StatsEntry.COLUMN_AVG_TEMP))};
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void query(Uri uri) {
+        mResolver.query(uri, null, null, null, null).close();
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AlertRateLimiterTest {
+    private static final long NOW = 1450000000000L;
+
+    @Test
+    public void letsABurstThroughThenHoldsBack() {
+        AlertRateLimiter limiter = new AlertRateLimiter();
+        for (int i = 0; i < AlertRateLimiter.BURST; i++) {
+            assertTrue(limiter.tryAcquire(NOW + i));
+        }
+        assertFalse(limiter.tryAcquire(NOW + 10));
+        assertFalse(limiter.tryAcquire(NOW + 20));
+        assertEquals(2, limiter.takeSuppressed());
+        assertEquals(0, limiter.takeSuppressed());
+    }
+
+    @Test
+    public void refillsOneTokenPerInterval() {
+        AlertRateLimiter limiter = new AlertRateLimiter();
+        for (int i = 0; i < AlertRateLimiter.BURST; i++) {
+            limiter.tryAcquire(NOW);
+        }
+
+        assertTrue(limiter.tryAcquire(NOW + AlertRateLimiter.REFILL_MILLIS));
+        assertFalse(limiter.tryAcquire(NOW + AlertRateLimiter.REFILL_MILLIS + 1));
+    }
+
+    @Test
+    public void idleTimeDoesNotBuildUpMoreThanABurst() {
+        AlertRateLimiter limiter = new AlertRateLimiter();
+        limiter.tryAcquire(NOW);
+
+        long later = NOW + 100 * AlertRateLimiter.REFILL_MILLIS;
+        for (int i = 0; i < AlertRateLimiter.BURST; i++) {
+            assertTrue(limiter.tryAcquire(later));
+        }
+        assertFalse(limiter.tryAcquire(later));
+    }
+
+    @Test
+    public void nextTokenIsDueOneIntervalAfterTheBurst() {
+        AlertRateLimiter limiter = new AlertRateLimiter();
+        assertEquals(-1, limiter.getNextTokenAt());
+        for (int i = 0; i < AlertRateLimiter.BURST; i++) {
+            limiter.tryAcquire(NOW);
+        }
+        assertFalse(limiter.tryAcquire(NOW + 1));
+
+        long due = limiter.getNextTokenAt();
+        assertEquals(NOW + AlertRateLimiter.REFILL_MILLIS, due);
+        // Waiting on the summary doesn't count as another alert held back.
+        assertFalse(limiter.tryAcquireForSummary(due - 1));
+        assertTrue(limiter.tryAcquireForSummary(due));
+        assertEquals(1, limiter.takeSuppressed());
+    }
+}
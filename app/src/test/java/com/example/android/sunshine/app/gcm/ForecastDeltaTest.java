@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import android.content.ContentResolver;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.ProviderFixtures;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Applies deltas through {@link ForecastPushHandler.PreferenceStore} against a real provider.
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ForecastDeltaTest {
+    private static final int DAYS = 5;
+
+    private ContentResolver mResolver;
+    private ForecastPushHandler.PreferenceStore mStore;
+    private long mTodayStart;
+    private long mLocationId;
+
+    @Before
+    public void setUp() {
+        ProviderFixtures.registerWeatherProvider();
+        mResolver = RuntimeEnvironment.application.getContentResolver();
+        mStore = new ForecastPushHandler.PreferenceStore(RuntimeEnvironment.application);
+        mTodayStart = ForecastDates.normalizeDate(System.currentTimeMillis());
+        mLocationId = ProviderFixtures.seed(1, DAYS, DAYS, mTodayStart)[0];
+    }
+
+    @Test
+    public void deltaRewritesEveryDayAndNotifiesOnce() {
+        ShadowContentResolver shadowResolver = Shadows.shadowOf(mResolver);
+        int notified = shadowResolver.getNotifiedUris().size();
+
+        assertTrue(mStore.applyDelta(ProviderFixtures.locationSetting(0),
+                delta(day(0, 30), day(2, 31))));
+
+        assertEquals(30, maxTemp(0), 1e-9);
+        assertEquals(31, maxTemp(2), 1e-9);
+        assertEquals(1, shadowResolver.getNotifiedUris().size() - notified);
+    }
+
+    @Test
+    public void deltaWithAMissingDayChangesNothing() {
+        double[] before = new double[DAYS];
+        for (int day = 0; day < DAYS; day++) {
+            before[day] = maxTemp(day);
+        }
+        ShadowContentResolver shadowResolver = Shadows.shadowOf(mResolver);
+        int notified = shadowResolver.getNotifiedUris().size();
+
+        // The middle day is past the stored forecast.
+        assertFalse(mStore.applyDelta(ProviderFixtures.locationSetting(0),
+                delta(day(0, 30), day(DAYS + 3, 31), day(2, 32))));
+
+        for (int day = 0; day < DAYS; day++) {
+            assertEquals(before[day], maxTemp(day), 1e-9);
+        }
+        assertEquals(notified, shadowResolver.getNotifiedUris().size());
+    }
+
+    private String day(int offset, double max) {
+        long date = ForecastDates.addDays(mTodayStart, offset);
+        return "{\"date\":" + TimeUnit.MILLISECONDS.toSeconds(date) + ",\"max\":" + max + "}";
+    }
+
+    private static String delta(String... days) {
+        StringBuilder delta = new StringBuilder("{\"days\":[");
+        for (int i = 0; i < days.length; i++) {
+            delta.append(i == 0 ? "" : ",").append(days[i]);
+        }
+        return delta.append("]}").toString();
+    }
+
+    private double maxTemp(int offset) {
+        Cursor cursor = mResolver.query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                new String[]{Long.toString(mLocationId),
+                        Long.toString(ForecastDates.addDays(mTodayStart, offset))}, null);
+        try {
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
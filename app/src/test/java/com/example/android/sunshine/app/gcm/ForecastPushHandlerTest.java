@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app.gcm;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ForecastPushHandlerTest {
+    private static final long NOW = 1450000000000L;
+    private static final String HOME = "94043";
+    private static final String DELTA = "{\"days\":[{\"date\":1450000000,\"max\":21}]}";
+
+    /**
+     * Stands in for the preferences and the weather provider.
+     */
+    private static class FakeStore implements ForecastPushHandler.Store {
+        final Map<String, Long> versions = new HashMap<String, Long>();
+        final List<String> appliedDeltas = new ArrayList<String>();
+        boolean deltasApply = true;
+        long lastPush;
+
+        @Override
+        public String getPreferredLocation() {
+            return HOME;
+        }
+
+        @Override
+        public long getVersion(String location) {
+            Long version = versions.get(location);
+            return version == null ? 0 : version;
+        }
+
+        @Override
+        public void setVersion(String location, long version) {
+            versions.put(location, version);
+        }
+
+        @Override
+        public long getLastPushMillis() {
+            return lastPush;
+        }
+
+        @Override
+        public void setLastPushMillis(long millis) {
+            lastPush = millis;
+        }
+
+        @Override
+        public boolean applyDelta(String location, String delta) {
+            if (deltasApply) {
+                appliedDeltas.add(delta);
+            }
+            return deltasApply;
+        }
+    }
+
+    /**
+     * A local message source: delivers pushes the way the server would, one clock tick apart.
+     */
+    private class FakePushSource {
+        long now = NOW;
+
+        int push(String location, long version) {
+            return push(location, version, 0, null);
+        }
+
+        int push(String location, long version, long base, String delta) {
+            now += 1000;
+            return mHandler.onPush(location, version, base, delta, now);
+        }
+    }
+
+    private final List<String> mSyncs = new ArrayList<String>();
+    private FakeStore mStore;
+    private FakePushSource mSource;
+    private ForecastPushHandler mHandler;
+
+    @Before
+    public void setUp() {
+        mStore = new FakeStore();
+        mSource = new FakePushSource();
+        mHandler = new ForecastPushHandler(mStore, new ForecastPushHandler.SyncTarget() {
+            @Override
+            public void requestSync(String location) {
+                mSyncs.add(location);
+            }
+        });
+    }
+
+    @Test
+    public void newVersionRequestsSyncOfThatLocation() {
+        assertEquals(ForecastPushHandler.RESULT_SYNC_REQUESTED, mSource.push(HOME, 5));
+        assertEquals(1, mSyncs.size());
+        assertEquals(HOME, mSyncs.get(0));
+        assertEquals(5, mStore.getVersion(HOME));
+    }
+
+    @Test
+    public void repeatedAndOlderVersionsAreDropped() {
+        mSource.push(HOME, 5);
+        assertEquals(ForecastPushHandler.RESULT_STALE, mSource.push(HOME, 5));
+        assertEquals(ForecastPushHandler.RESULT_STALE, mSource.push(HOME, 4));
+        assertEquals(1, mSyncs.size());
+        assertEquals(2, mHandler.getStaleCount());
+    }
+
+    @Test
+    public void otherLocationsAreIgnored() {
+        assertEquals(ForecastPushHandler.RESULT_IGNORED, mSource.push("London", 9));
+        assertEquals(ForecastPushHandler.RESULT_IGNORED, mSource.push(null, 9));
+        assertEquals(0, mSyncs.size());
+        assertEquals(0, mStore.getVersion(HOME));
+    }
+
+    @Test
+    public void deltaOnOurVersionIsAppliedWithoutSync() {
+        mSource.push(HOME, 5);
+        assertEquals(ForecastPushHandler.RESULT_APPLIED, mSource.push(HOME, 6, 5, DELTA));
+        assertEquals(1, mSyncs.size());
+        assertEquals(1, mStore.appliedDeltas.size());
+        assertEquals(6, mStore.getVersion(HOME));
+    }
+
+    @Test
+    public void deltaOnAnotherVersionFallsBackToSync() {
+        mSource.push(HOME, 5);
+        // We missed version 6, so a delta from 6 to 7 would leave us inconsistent.
+        assertEquals(ForecastPushHandler.RESULT_SYNC_REQUESTED, mSource.push(HOME, 7, 6, DELTA));
+        assertEquals(0, mStore.appliedDeltas.size());
+        assertEquals(2, mSyncs.size());
+    }
+
+    @Test
+    public void deltaWithoutABaseFallsBackToSync() {
+        assertEquals(ForecastPushHandler.RESULT_SYNC_REQUESTED, mSource.push(HOME, 1, 0, DELTA));
+        mStore.deltasApply = false;
+        assertEquals(ForecastPushHandler.RESULT_SYNC_REQUESTED, mSource.push(HOME, 2, 1, DELTA));
+        assertEquals(2, mSyncs.size());
+        assertEquals(2, mStore.getVersion(HOME));
+    }
+
+    @Test
+    public void channelIsHealthyOnlyWhilePushesArrive() {
+        assertFalse(mHandler.isChannelHealthy(NOW));
+        mSource.push("London", 1);
+        assertTrue(mHandler.isChannelHealthy(mSource.now));
+        assertFalse(mHandler.isChannelHealthy(
+                mSource.now + ForecastPushHandler.CHANNEL_HEALTHY_MILLIS));
+    }
+}
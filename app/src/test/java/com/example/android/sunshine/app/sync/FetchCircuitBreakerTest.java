@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FetchCircuitBreakerTest {
+    private static final long BASE = 1000;
+    private static final long MAX = 16000;
+
+    private final FetchCircuitBreaker mBreaker =
+            new FetchCircuitBreaker(BASE, MAX, 2, new Random(42));
+
+    @Test
+    public void opensAfterThresholdFailures() {
+        assertTrue(mBreaker.allowRequest(0));
+        mBreaker.onFailure(0);
+        assertEquals(FetchCircuitBreaker.STATE_CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest(0));
+
+        mBreaker.onFailure(0);
+        assertEquals(FetchCircuitBreaker.STATE_OPEN, mBreaker.getState());
+        assertFalse(mBreaker.allowRequest(1));
+    }
+
+    @Test
+    public void successResetsFailureCount() {
+        mBreaker.onFailure(0);
+        mBreaker.onSuccess();
+        mBreaker.onFailure(0);
+        assertEquals(FetchCircuitBreaker.STATE_CLOSED, mBreaker.getState());
+        assertEquals(1, mBreaker.getFailureCount());
+    }
+
+    @Test
+    public void halfOpenAllowsOneProbe() {
+        open(0);
+        long retryAt = mBreaker.getRetryAtMillis();
+
+        assertTrue(mBreaker.allowRequest(retryAt));
+        assertEquals(FetchCircuitBreaker.STATE_HALF_OPEN, mBreaker.getState());
+        assertFalse("only one probe at a time", mBreaker.allowRequest(retryAt + 1));
+
+        mBreaker.onSuccess();
+        assertEquals(FetchCircuitBreaker.STATE_CLOSED, mBreaker.getState());
+        assertTrue(mBreaker.allowRequest(retryAt + 2));
+    }
+
+    @Test
+    public void lostProbeIsReplaced() {
+        open(0);
+        long retryAt = mBreaker.getRetryAtMillis();
+        assertTrue(mBreaker.allowRequest(retryAt));
+        assertTrue(mBreaker.allowRequest(retryAt + FetchCircuitBreaker.PROBE_TIMEOUT_MILLIS));
+    }
+
+    @Test
+    public void delaysGrowWithJitterUpToTheCap() {
+        long now = 0;
+        long previousMax = 0;
+        for (int failures = 2; failures < 12; failures++) {
+            if (failures == 2) {
+                open(now);
+            } else {
+                // Failed probe.
+                assertTrue(mBreaker.allowRequest(now));
+                mBreaker.onFailure(now);
+            }
+            long delay = mBreaker.getRetryAtMillis() - now;
+            long nominal = Math.min(MAX, BASE << (failures - 2));
+            assertTrue("delay " + delay + " below half of " + nominal, delay >= nominal / 2);
+            assertTrue("delay " + delay + " above " + nominal, delay <= nominal);
+            assertTrue(nominal >= previousMax);
+            previousMax = nominal;
+            now = mBreaker.getRetryAtMillis();
+        }
+        assertEquals(MAX, previousMax);
+    }
+
+    @Test
+    public void restoreRoundTrips() {
+        open(0);
+        FetchCircuitBreaker restored = new FetchCircuitBreaker(BASE, MAX, 2, new Random(1));
+        restored.restore(mBreaker.getState(), mBreaker.getFailureCount(),
+                mBreaker.getRetryAtMillis());
+        assertEquals(FetchCircuitBreaker.STATE_OPEN, restored.getState());
+        assertFalse(restored.allowRequest(mBreaker.getRetryAtMillis() - 1));
+
+        restored.restore(-7, 3, 0);
+        assertEquals(FetchCircuitBreaker.STATE_CLOSED, restored.getState());
+    }
+
+    @Test
+    public void concurrentFetchesForOneLocationAreCoalesced() throws Exception {
+        final InFlightFetches fetches = new InFlightFetches();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final int[] runs = new int[1];
+
+        Thread leader = new Thread() {
+            @Override
+            public void run() {
+                fetches.runOrJoin("94043", new InFlightFetches.Fetch() {
+                    @Override
+                    public int run() {
+                        runs[0]++;
+                        started.countDown();
+                        awaitQuietly(release);
+                        return SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    }
+                });
+            }
+        };
+        leader.start();
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        final int[] joinedResult = new int[1];
+        Thread joiner = new Thread() {
+            @Override
+            public void run() {
+                joinedResult[0] = fetches.runOrJoin("94043", new InFlightFetches.Fetch() {
+                    @Override
+                    public int run() {
+                        runs[0]++;
+                        return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    }
+                });
+            }
+        };
+        joiner.start();
+        while (fetches.getCoalescedCount() == 0) {
+            Thread.sleep(1);
+        }
+        release.countDown();
+        leader.join();
+        joiner.join();
+
+        assertEquals(1, runs[0]);
+        assertEquals(SunshineSyncAdapter.LOCATION_STATUS_OK, joinedResult[0]);
+    }
+
+    private void open(long now) {
+        mBreaker.onFailure(now);
+        mBreaker.onFailure(now);
+        assertEquals(FetchCircuitBreaker.STATE_OPEN, mBreaker.getState());
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.ProviderFixtures;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class HourlyIngestTest {
+    // The first slot of the recorded response.
+    private static final long FIRST_SLOT_MILLIS = 1445716800L * 1000;
+
+    private static final String[] HOURLY_COLUMNS = {
+            WeatherContract.HourlyEntry.COLUMN_TIME,
+            WeatherContract.HourlyEntry.COLUMN_WEATHER_ID,
+            WeatherContract.HourlyEntry.COLUMN_TEMP
+    };
+
+    private Context mContext;
+    private TimeZone mTimeZone;
+    private long mTodayStart;
+    private long mLocationId;
+    private String mHourly;
+
+    @Before
+    public void setUp() {
+        mContext = RuntimeEnvironment.application;
+        ProviderFixtures.registerWeatherProvider();
+        mTimeZone = TimeZone.getDefault();
+        mTodayStart = ForecastDates.normalizeDate(FIRST_SLOT_MILLIS, mTimeZone);
+        mLocationId = ProviderFixtures.seed(1, 1, 0, mTodayStart)[0];
+        mHourly = MockForecastServer.loadFixture("forecast_hourly_94043.json");
+    }
+
+    @Test
+    public void storesTodayAndTomorrowOnly() throws Exception {
+        int stored = HourlyIngest.store(mContext, new StringReader(mHourly), mLocationId,
+                mTodayStart, mTimeZone);
+        assertTrue(stored > 0);
+
+        long end = ForecastDates.addDays(mTodayStart, HourlyIngest.DAYS_KEPT, mTimeZone);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocation(
+                        ProviderFixtures.locationSetting(0)),
+                HOURLY_COLUMNS, null, null, null);
+        try {
+            assertEquals(stored, cursor.getCount());
+            long previous = Long.MIN_VALUE;
+            while (cursor.moveToNext()) {
+                long time = cursor.getLong(0);
+                assertTrue(time >= mTodayStart && time < end);
+                assertTrue("slots come back in time order", time > previous);
+                previous = time;
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void dayRouteReturnsOneDay() throws Exception {
+        HourlyIngest.store(mContext, new StringReader(mHourly), mLocationId, mTodayStart,
+                mTimeZone);
+
+        long tomorrow = ForecastDates.addDays(mTodayStart, 1, mTimeZone);
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.buildHourlyLocationWithDay(
+                        ProviderFixtures.locationSetting(0), tomorrow),
+                HOURLY_COLUMNS, null, null, null);
+        try {
+            // 3 hour slots, and the recording covers all of tomorrow.
+            assertEquals(8, cursor.getCount());
+            while (cursor.moveToNext()) {
+                long time = cursor.getLong(0);
+                assertTrue(time >= tomorrow
+                        && time < ForecastDates.addDays(tomorrow, 1, mTimeZone));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void prunesSlotsBeforeToday() throws Exception {
+        ContentValues stale = new ContentValues();
+        stale.put(WeatherContract.HourlyEntry.COLUMN_LOC_KEY, mLocationId);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_TIME, mTodayStart - 3 * 60 * 60 * 1000);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_WEATHER_ID, 800);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_SHORT_DESC, "Clear");
+        stale.put(WeatherContract.HourlyEntry.COLUMN_TEMP, 10);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_HUMIDITY, 50);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_PRESSURE, 1010);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_WIND_SPEED, 2);
+        stale.put(WeatherContract.HourlyEntry.COLUMN_DEGREES, 90);
+        mContext.getContentResolver().insert(WeatherContract.HourlyEntry.CONTENT_URI, stale);
+
+        HourlyIngest.store(mContext, new StringReader(mHourly), mLocationId, mTodayStart,
+                mTimeZone);
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.HourlyEntry.CONTENT_URI, HOURLY_COLUMNS,
+                WeatherContract.HourlyEntry.COLUMN_TIME + " < ?",
+                new String[]{Long.toString(mTodayStart)}, null);
+        try {
+            assertEquals(0, cursor.getCount());
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void errorResponseStoresNothing() throws Exception {
+        int stored = HourlyIngest.store(mContext,
+                new StringReader(MockForecastServer.loadFixture("forecast_not_found.json")),
+                mLocationId, mTodayStart, mTimeZone);
+        assertEquals(0, stored);
+    }
+
+    @Test
+    public void malformedNumberIsAnIOException() throws Exception {
+        String body = "{\"cod\":\"200\",\"list\":[{\"dt\":" + FIRST_SLOT_MILLIS / 1000
+                + ",\"main\":{\"temp\":10.5,\"pressure\":1010,\"humidity\":45.5},"
+                + "\"weather\":[{\"id\":800,\"main\":\"Clear\"}],"
+                + "\"wind\":{\"speed\":2,\"deg\":90}}]}";
+        try {
+            HourlyIngest.store(mContext, new StringReader(body), mLocationId, mTodayStart,
+                    mTimeZone);
+            fail("A non-integer humidity should be rejected");
+        } catch (IOException expected) {
+            // The sync catches this and carries on without the hourly strip.
+        }
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A minimal local stand-in for the OpenWeatherMap forecast endpoint.  Every request is answered
+ * with whatever the {@link Dispatcher} returns, optionally after a delay and optionally drip-fed
+ * a few bytes at a time, so the sync can be exercised against outages and slow networks without
+ * leaving the machine.  Only what HttpURLConnection needs of HTTP/1.1 is implemented: one request
+ * per connection, no request bodies.
+ */
+public class MockForecastServer {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String PATH = "/data/2.5/forecast/daily";
+
+    public interface Dispatcher {
+        /**
+         * @param requestNumber 0 for the first request the server sees, then 1, 2...
+         * @param requestLine   e.g. "GET /data/2.5/forecast/daily?q=94043&... HTTP/1.1"
+         */
+        Response dispatch(int requestNumber, String requestLine);
+    }
+
+    public static class Response {
+        final int status;
+        final byte[] body;
+        long latencyMillis;
+        int dripChunkBytes;
+        long dripDelayMillis;
+
+        public Response(int status, String body) {
+            this.status = status;
+            this.body = body.getBytes(UTF_8);
+        }
+
+        public static Response ok(String body) {
+            return new Response(200, body);
+        }
+
+        /**
+         * An HTTP level failure with an OWM style error body.
+         */
+        public static Response error(int status) {
+            return new Response(status,
+                    "{\"cod\":\"" + status + "\",\"message\":\"mock error\"}");
+        }
+
+        /**
+         * Waits before sending anything, including the status line.
+         */
+        public Response withLatency(long millis) {
+            latencyMillis = millis;
+            return this;
+        }
+
+        /**
+         * Sends the body {@code chunkBytes} at a time with a pause after each chunk.
+         */
+        public Response withDrip(int chunkBytes, long delayMillis) {
+            dripChunkBytes = chunkBytes;
+            dripDelayMillis = delayMillis;
+            return this;
+        }
+    }
+
+    private final Dispatcher mDispatcher;
+    private final AtomicInteger mRequestCount = new AtomicInteger();
+    private final ExecutorService mWorkers = Executors.newCachedThreadPool();
+    private ServerSocket mServerSocket;
+    private Thread mAcceptThread;
+
+    public MockForecastServer(Dispatcher dispatcher) {
+        mDispatcher = dispatcher;
+    }
+
+    public void start() throws IOException {
+        mServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+        mAcceptThread = new Thread("MockForecastServer") {
+            @Override
+            public void run() {
+                while (!mServerSocket.isClosed()) {
+                    final Socket socket;
+                    try {
+                        socket = mServerSocket.accept();
+                    } catch (IOException e) {
+                        // Closed by shutdown().
+                        return;
+                    }
+                    mWorkers.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            serve(socket);
+                        }
+                    });
+                }
+            }
+        };
+        mAcceptThread.start();
+    }
+
+    /**
+     * @return the URL to hand to {@link ForecastFetcher#setBaseUrl(String)}.
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + mServerSocket.getLocalPort() + PATH;
+    }
+
+    public int getRequestCount() {
+        return mRequestCount.get();
+    }
+
+    public void shutdown() throws IOException, InterruptedException {
+        mServerSocket.close();
+        mAcceptThread.join();
+        mWorkers.shutdownNow();
+        mWorkers.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private void serve(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), UTF_8));
+            String requestLine = reader.readLine();
+            if (requestLine == null) {
+                return;
+            }
+            // Skip the headers; nothing in them changes the answer.
+            String header;
+            while ((header = reader.readLine()) != null && header.length() > 0) {
+            }
+
+            Response response = mDispatcher.dispatch(mRequestCount.getAndIncrement(), requestLine);
+            if (response.latencyMillis > 0) {
+                Thread.sleep(response.latencyMillis);
+            }
+
+            OutputStream out = socket.getOutputStream();
+            String head = "HTTP/1.1 " + response.status + " " + reason(response.status) + "\r\n"
+                    + "Content-Type: application/json; charset=utf-8\r\n"
+                    + "Content-Length: " + response.body.length + "\r\n"
+                    + "Connection: close\r\n"
+                    + "\r\n";
+            out.write(head.getBytes(UTF_8));
+            if (response.dripChunkBytes > 0) {
+                for (int offset = 0; offset < response.body.length;
+                     offset += response.dripChunkBytes) {
+                    int count = Math.min(response.dripChunkBytes, response.body.length - offset);
+                    out.write(response.body, offset, count);
+                    out.flush();
+                    Thread.sleep(response.dripDelayMillis);
+                }
+            } else {
+                out.write(response.body);
+            }
+            out.flush();
+        } catch (IOException e) {
+            // The client went away; nothing to report.
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 404:
+                return "Not Found";
+            case 500:
+                return "Internal Server Error";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Status";
+        }
+    }
+
+    /**
+     * Reads a recorded response from the fixtures shared with the benchmark module.
+     */
+    public static String loadFixture(String name) {
+        InputStream in = MockForecastServer.class.getResourceAsStream("/fixtures/" + name);
+        if (in == null) {
+            throw new IllegalArgumentException("Missing fixture " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read fixture " + name, e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.preference.PreferenceManager;
+
+import com.example.android.sunshine.app.BuildConfig;
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.data.ProviderFixtures;
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Load harness for the sync: drives thousands of fetch/parse/persist cycles through
+ * {@link SunshineSyncAdapter#performSync()} against {@link MockForecastServer}, mixing in
+ * outages, OWM "not found" payloads, garbage, latency and slow-drip bodies.  Every cycle's
+ * location status is checked, and throughput and tail latency are printed at the end.
+ *
+ * Run with ./gradlew :app:testDebugUnitTest
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class SyncLoadTest {
+    private static final int CYCLES = 2000;
+    private static final int DAYS_IN_FIXTURE = 14;
+
+    // One slot in every 50 requests gets each kind of bad response; the rest are good.  Failures
+    // are never back to back, so the fetch circuit breaker stays closed and every cycle really
+    // reaches the server.
+    private static final int SCENARIO_PERIOD = 50;
+    private static final int SCENARIO_HTTP_500 = 0;
+    private static final int SCENARIO_COD_404 = 1;
+    private static final int SCENARIO_HTTP_404 = 2;
+    private static final int SCENARIO_SLOW_DRIP = 3;
+    private static final int SCENARIO_TRUNCATED = 4;
+    private static final int SCENARIO_LATENCY = 5;
+
+    private Context mContext;
+    private MockForecastServer mServer;
+    private MockForecastServer mHourlyServer;
+    private SunshineSyncAdapter mSyncAdapter;
+
+    @Before
+    public void setUp() throws Exception {
+        mContext = RuntimeEnvironment.application;
+        ProviderFixtures.registerWeatherProvider();
+
+        // Notifications would go out to Glide for the large icon; they are not under test.
+        PreferenceManager.getDefaultSharedPreferences(mContext).edit()
+                .putBoolean(mContext.getString(R.string.pref_enable_notifications_key), false)
+                .commit();
+
+        final String forecast = MockForecastServer.loadFixture("forecast_daily_94043.json");
+        final String notFound = MockForecastServer.loadFixture("forecast_not_found.json");
+        mServer = new MockForecastServer(new MockForecastServer.Dispatcher() {
+            @Override
+            public MockForecastServer.Response dispatch(int requestNumber, String requestLine) {
+                switch (requestNumber % SCENARIO_PERIOD) {
+                    case SCENARIO_HTTP_500:
+                        return MockForecastServer.Response.error(500);
+                    case SCENARIO_HTTP_404:
+                        return MockForecastServer.Response.error(404);
+                    case SCENARIO_COD_404:
+                        return MockForecastServer.Response.ok(notFound);
+                    case SCENARIO_TRUNCATED:
+                        return MockForecastServer.Response.ok(
+                                forecast.substring(0, forecast.length() / 2));
+                    case SCENARIO_SLOW_DRIP:
+                        return MockForecastServer.Response.ok(forecast).withDrip(512, 1);
+                    case SCENARIO_LATENCY:
+                        return MockForecastServer.Response.ok(forecast).withLatency(20);
+                    default:
+                        return MockForecastServer.Response.ok(forecast);
+                }
+            }
+        });
+        mServer.start();
+        ForecastFetcher.setBaseUrl(mServer.getBaseUrl());
+
+        // Every successful daily sync follows up with the hourly request; it always succeeds so
+        // the daily scenarios above stay the only thing deciding the status.
+        final String hourly = MockForecastServer.loadFixture("forecast_hourly_94043.json");
+        mHourlyServer = new MockForecastServer(new MockForecastServer.Dispatcher() {
+            @Override
+            public MockForecastServer.Response dispatch(int requestNumber, String requestLine) {
+                return MockForecastServer.Response.ok(hourly);
+            }
+        });
+        mHourlyServer.start();
+        ForecastFetcher.setHourlyBaseUrl(mHourlyServer.getBaseUrl());
+
+        mSyncAdapter = new SunshineSyncAdapter(mContext, false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ForecastFetcher.setBaseUrl(null);
+        ForecastFetcher.setHourlyBaseUrl(null);
+        mServer.shutdown();
+        mHourlyServer.shutdown();
+    }
+
+    @Test
+    public void syncCycles() {
+        long[] cycleNanos = new long[CYCLES];
+        long start = System.nanoTime();
+        for (int i = 0; i < CYCLES; i++) {
+            Utility.resetLocationStatus(mContext);
+
+            long cycleStart = System.nanoTime();
+            mSyncAdapter.performSync();
+            cycleNanos[i] = System.nanoTime() - cycleStart;
+
+            assertEquals("cycle " + i, expectedStatus(i % SCENARIO_PERIOD),
+                    Utility.getLocationStatus(mContext));
+        }
+        long elapsed = System.nanoTime() - start;
+        assertEquals(CYCLES, mServer.getRequestCount());
+
+        // However many cycles ran, only the latest forecast should be left for today onwards.
+        long todayStart = ForecastDates.normalizeDate(System.currentTimeMillis());
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherContract.WeatherEntry.buildWeatherLocationWithStartDate(
+                        Utility.getPreferredLocation(mContext), todayStart),
+                null, null, null, null);
+        assertEquals(DAYS_IN_FIXTURE, cursor.getCount());
+        cursor.close();
+
+        report(cycleNanos, elapsed);
+    }
+
+    private static int expectedStatus(int scenario) {
+        switch (scenario) {
+            case SCENARIO_HTTP_500:
+            case SCENARIO_HTTP_404:
+                // HttpURLConnection turns any error status into an IOException.
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+            case SCENARIO_COD_404:
+                return SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+            case SCENARIO_TRUNCATED:
+                return SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+            default:
+                return SunshineSyncAdapter.LOCATION_STATUS_OK;
+        }
+    }
+
+    private static void report(long[] cycleNanos, long elapsedNanos) {
+        long[] sorted = cycleNanos.clone();
+        Arrays.sort(sorted);
+        double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        System.out.println(String.format(Locale.US,
+                "sync load: %d cycles in %.1fs, %.1f cycles/s, p50 %.2fms, p90 %.2fms, " +
+                        "p99 %.2fms, max %.2fms",
+                sorted.length, seconds, sorted.length / seconds,
+                percentileMillis(sorted, 50), percentileMillis(sorted, 90),
+                percentileMillis(sorted, 99), percentileMillis(sorted, 100)));
+    }
+
+    private static double percentileMillis(long[] sorted, int percentile) {
+        int index = Math.min(sorted.length - 1, sorted.length * percentile / 100);
+        return sorted[index] / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SyncPolicyTest {
+    private static final int HOUR = SyncPolicy.HOUR_IN_SECONDS;
+    private static final long DAY_IN_MILLIS = 24L * 60 * 60 * 1000;
+
+    private static final int[] CLEAR_DAYS = {800, 800, 800, 800};
+    private static final int[] STORM_TOMORROW = {800, 211, 800, 800};
+    private static final int[] STORM_NEXT_WEEK = {800, 800, 800, 800, 800, 800, 211};
+
+    private final SyncPolicy mPolicy = new SyncPolicy(3 * HOUR, HOUR, 24 * HOUR);
+
+    @Test
+    public void calmDayWaitsLongerThanBase() {
+        assertEquals(6 * HOUR, mPolicy.getNextIntervalSeconds(0f, CLEAR_DAYS, 14, 0));
+    }
+
+    @Test
+    public void stormSyncsAtTheMinimum() {
+        assertEquals(HOUR, mPolicy.getNextIntervalSeconds(0f, STORM_TOMORROW, 14, 0));
+        // Even at night: storms are not put off until morning.
+        assertEquals(HOUR, mPolicy.getNextIntervalSeconds(0f, STORM_TOMORROW, 3, 0));
+    }
+
+    @Test
+    public void onlyNearDaysCount() {
+        assertEquals(mPolicy.getNextIntervalSeconds(0f, CLEAR_DAYS, 14, 0),
+                mPolicy.getNextIntervalSeconds(0f, STORM_NEXT_WEEK, 14, 0));
+    }
+
+    @Test
+    public void bigChangeShortensInterval() {
+        int calm = mPolicy.getNextIntervalSeconds(0f, CLEAR_DAYS, 14, 0);
+        int changed = mPolicy.getNextIntervalSeconds(0.5f, CLEAR_DAYS, 14, 0);
+        assertTrue(changed < calm);
+    }
+
+    @Test
+    public void nightAndDisuseStretchInterval() {
+        int day = mPolicy.getNextIntervalSeconds(0.8f, CLEAR_DAYS, 14, 0);
+        assertEquals(2 * day, mPolicy.getNextIntervalSeconds(0.8f, CLEAR_DAYS, 2, 0));
+        assertEquals(2 * day,
+                mPolicy.getNextIntervalSeconds(0.8f, CLEAR_DAYS, 14, 4 * DAY_IN_MILLIS));
+        assertEquals(4 * day,
+                mPolicy.getNextIntervalSeconds(0.8f, CLEAR_DAYS, 14, 8 * DAY_IN_MILLIS));
+        assertEquals(4 * day, mPolicy.getNextIntervalSeconds(0.8f, CLEAR_DAYS, 14, -1));
+    }
+
+    @Test
+    public void boundsAlwaysHold() {
+        for (int hour = 0; hour < 24; hour++) {
+            for (float change = -1f; change <= 2f; change += 0.25f) {
+                int interval = mPolicy.getNextIntervalSeconds(change, CLEAR_DAYS, hour, -1);
+                assertTrue(interval >= HOUR && interval <= 24 * HOUR);
+            }
+        }
+        assertEquals(24 * HOUR, mPolicy.getNextIntervalSeconds(0f, CLEAR_DAYS, 2, -1));
+    }
+
+    @Test
+    public void changeTracker() {
+        SyncPolicy.ChangeTracker unchanged = new SyncPolicy.ChangeTracker();
+        for (int i = 0; i < 5; i++) {
+            unchanged.addDay(20, 10, 800, 20, 10, 800);
+        }
+        assertEquals(0f, unchanged.getScore(), 0f);
+
+        SyncPolicy.ChangeTracker drift = new SyncPolicy.ChangeTracker();
+        drift.addDay(20, 10, 800, 22.5, 7.5, 800);
+        assertEquals(0.5f, drift.getScore(), 0.001f);
+
+        // A different condition is a full change however close the temperatures are.
+        SyncPolicy.ChangeTracker condition = new SyncPolicy.ChangeTracker();
+        condition.addDay(20, 10, 800, 20, 10, 500);
+        condition.addNewDay();
+        assertEquals(1f, condition.getScore(), 0f);
+
+        // Nothing to compare, e.g. the first sync for a location.
+        assertEquals(1f, new SyncPolicy.ChangeTracker().getScore(), 0f);
+    }
+}
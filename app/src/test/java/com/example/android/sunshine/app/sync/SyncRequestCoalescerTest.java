@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SyncRequestCoalescerTest {
+
+    /**
+     * Runs tasks when the test advances the clock, like a Handler on a paused Looper.
+     */
+    private static class FakeScheduler implements SyncRequestCoalescer.Scheduler {
+        long now;
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+        final List<Long> dueTimes = new ArrayList<Long>();
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            tasks.add(task);
+            dueTimes.add(now + delayMillis);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            for (int i = tasks.size() - 1; i >= 0; i--) {
+                if (tasks.get(i) == task) {
+                    tasks.remove(i);
+                    dueTimes.remove(i);
+                }
+            }
+        }
+
+        void advance(long millis) {
+            now += millis;
+            for (int i = 0; i < tasks.size(); ) {
+                if (dueTimes.get(i) <= now) {
+                    Runnable task = tasks.remove(i);
+                    dueTimes.remove(i);
+                    task.run();
+                } else {
+                    i++;
+                }
+            }
+        }
+    }
+
+    private final List<String> mSyncs = new ArrayList<String>();
+    private int mLocalRefreshes;
+    private FakeScheduler mScheduler;
+    private SyncRequestCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        mScheduler = new FakeScheduler();
+        mCoalescer = new SyncRequestCoalescer(mScheduler, new SyncRequestCoalescer.Target() {
+            @Override
+            public void syncNow(String location) {
+                mSyncs.add(location);
+            }
+
+            @Override
+            public void refreshFromDatabase() {
+                mLocalRefreshes++;
+            }
+        });
+    }
+
+    @Test
+    public void burstForOneLocationSyncsOnce() {
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_STARTUP);
+        mScheduler.advance(500);
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mScheduler.advance(500);
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        assertEquals(0, mSyncs.size());
+
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+        assertEquals(1, mSyncs.size());
+        assertEquals(3, mCoalescer.getRequestCount());
+        assertEquals(2, mCoalescer.getCoalescedCount());
+        assertEquals(1, mCoalescer.getIssuedCount());
+    }
+
+    @Test
+    public void newLocationCancelsPendingOne() {
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mCoalescer.requestSync("London", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+
+        assertEquals(1, mSyncs.size());
+        assertEquals("London", mSyncs.get(0));
+        assertEquals(1, mCoalescer.getCancelledCount());
+    }
+
+    @Test
+    public void requestsOutsideTheWindowEachSync() {
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+
+        assertEquals(2, mCoalescer.getIssuedCount());
+        assertEquals(0, mCoalescer.getCoalescedCount());
+    }
+
+    @Test
+    public void unitsChangeIsServedLocally() {
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_UNITS_CHANGED);
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+
+        assertEquals(0, mSyncs.size());
+        assertEquals(1, mLocalRefreshes);
+        assertEquals(1, mCoalescer.getServedLocallyCount());
+    }
+
+    @Test
+    public void unitsChangeRidesOnPendingSync() {
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_LOCATION_CHANGED);
+        mCoalescer.requestSync("94043", SyncRequestCoalescer.REASON_UNITS_CHANGED);
+        mScheduler.advance(SyncRequestCoalescer.WINDOW_MILLIS);
+
+        assertEquals(1, mSyncs.size());
+        assertEquals(0, mLocalRefreshes);
+        assertEquals(1, mCoalescer.getCoalescedCount());
+    }
+}
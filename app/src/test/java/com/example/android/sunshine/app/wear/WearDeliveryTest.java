@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class WearDeliveryTest {
+
+    /**
+     * Records what would have gone over the Message API.
+     */
+    private static class FakeTransport implements NodeTransport {
+        final List<String> nodes = new ArrayList<String>();
+        final List<String> sentTo = new ArrayList<String>();
+        byte[] lastData;
+
+        @Override
+        public List<String> getConnectedNodes() {
+            return nodes;
+        }
+
+        @Override
+        public boolean sendMessage(String nodeId, String path, byte[] data) {
+            assertEquals(WearDelivery.PATH_PUSH, path);
+            sentTo.add(nodeId);
+            lastData = data;
+            return true;
+        }
+    }
+
+    private static final byte[] PAYLOAD = {1, 2, 3};
+
+    private WearDelivery mDelivery;
+    private FakeTransport mTransport;
+
+    @Before
+    public void setUp() {
+        mDelivery = new WearDelivery(RuntimeEnvironment.application
+                .getSharedPreferences(WearDelivery.PREFS_NAME, Context.MODE_PRIVATE));
+        mTransport = new FakeTransport();
+        mTransport.nodes.add("watch-a");
+        mTransport.nodes.add("watch-b");
+    }
+
+    @Test
+    public void resendsOnlyToNodesThatHaveNotAcked() {
+        long revision = mDelivery.getRevisionFor(PAYLOAD);
+        mDelivery.publish(revision, PAYLOAD);
+        mDelivery.onAck("watch-a", revision);
+
+        mDelivery.resendToStaleNodes(mTransport);
+
+        assertEquals(Arrays.asList("watch-b"), mTransport.sentTo);
+        assertArrayEquals(PAYLOAD, mTransport.lastData);
+    }
+
+    @Test
+    public void stopsAfterMaxAttempts() {
+        long revision = mDelivery.getRevisionFor(PAYLOAD);
+        mDelivery.publish(revision, PAYLOAD);
+        mTransport.nodes.remove("watch-b");
+
+        int lastPending = -1;
+        for (int i = 0; i < WearDelivery.MAX_ATTEMPTS + 2; i++) {
+            lastPending = mDelivery.resendToStaleNodes(mTransport);
+        }
+
+        assertEquals(WearDelivery.MAX_ATTEMPTS, mTransport.sentTo.size());
+        assertEquals(0, lastPending);
+    }
+
+    @Test
+    public void unchangedContentKeepsItsRevisionAndAttempts() {
+        long revision = mDelivery.getRevisionFor(PAYLOAD);
+        mDelivery.publish(revision, PAYLOAD);
+        mTransport.nodes.remove("watch-b");
+        for (int i = 0; i < WearDelivery.MAX_ATTEMPTS; i++) {
+            mDelivery.resendToStaleNodes(mTransport);
+        }
+
+        assertEquals(revision, mDelivery.getRevisionFor(PAYLOAD.clone()));
+        mDelivery.publish(revision, PAYLOAD);
+        mDelivery.resendToStaleNodes(mTransport);
+
+        assertEquals(WearDelivery.MAX_ATTEMPTS, mTransport.sentTo.size());
+    }
+
+    @Test
+    public void newRevisionReachesNodesThatAckedTheOldOne() {
+        long first = mDelivery.getRevisionFor(PAYLOAD);
+        mDelivery.publish(first, PAYLOAD);
+        mDelivery.onAck("watch-a", first);
+        mDelivery.onAck("watch-b", first);
+
+        byte[] changed = {4, 5, 6};
+        long second = mDelivery.getRevisionFor(changed);
+        mDelivery.publish(second, changed);
+        mDelivery.resendToStaleNodes(mTransport);
+
+        assertNotEquals(first, second);
+        assertEquals(Arrays.asList("watch-a", "watch-b"), mTransport.sentTo);
+        assertArrayEquals(changed, mTransport.lastData);
+    }
+
+    @Test
+    public void answersARefreshOutsideTheResendBudget() {
+        assertFalse(mDelivery.sendLatestTo("watch-a", mTransport));
+
+        long revision = mDelivery.getRevisionFor(PAYLOAD);
+        mDelivery.publish(revision, PAYLOAD);
+        mDelivery.onAck("watch-a", revision);
+
+        assertTrue(mDelivery.sendLatestTo("watch-a", mTransport));
+        assertEquals(Arrays.asList("watch-a"), mTransport.sentTo);
+        assertTrue(mDelivery.getPublishedAt() > 0);
+    }
+
+    @Test
+    public void ignoresOutOfOrderAcks() {
+        mDelivery.onAck("watch-a", 5);
+        mDelivery.onAck("watch-a", 3);
+
+        assertEquals(5, mDelivery.getAckedRevision("watch-a"));
+        assertEquals(-1, WearDelivery.decodeRevision(new byte[3]));
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.wear;
+
+import android.os.Bundle;
+
+import com.example.android.sunshine.app.BuildConfig;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class WearOutboxTest {
+    private static final int CLEAR = 800;
+    private static final int CLOUDS = 803;
+    private static final int STORM = 211;
+
+    /**
+     * Holds scheduled tasks until the test runs them, like a Handler on a paused Looper.
+     */
+    private static class FakeScheduler implements WearOutbox.Scheduler {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void schedule(Runnable task, long delayMillis) {
+            assertEquals(WearOutbox.BATCH_WINDOW_MILLIS, delayMillis);
+            tasks.add(task);
+        }
+
+        @Override
+        public void cancel(Runnable task) {
+            tasks.remove(task);
+        }
+
+        void runAll() {
+            List<Runnable> due = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : due) {
+                task.run();
+            }
+        }
+    }
+
+    /**
+     * Keeps what is saved in memory, standing in for storage that outlives the process.
+     */
+    private static class FakeStore implements WearOutbox.Store {
+        Bundle changes;
+        boolean urgent;
+        Boolean lastSevere;
+
+        @Override
+        public void save(Bundle changes, boolean urgent) {
+            this.changes = changes == null ? null : new Bundle(changes);
+            this.urgent = urgent;
+        }
+
+        @Override
+        public Bundle load() {
+            return changes == null ? null : new Bundle(changes);
+        }
+
+        @Override
+        public boolean loadUrgent() {
+            return urgent;
+        }
+
+        @Override
+        public void saveLastSevere(boolean severe) {
+            lastSevere = severe;
+        }
+
+        @Override
+        public Boolean loadLastSevere() {
+            return lastSevere;
+        }
+    }
+
+    private FakeScheduler mScheduler;
+    private FakeStore mStore;
+    private int mFlushes;
+    private WearOutbox mOutbox;
+
+    @Before
+    public void setUp() {
+        mStore = new FakeStore();
+        mOutbox = newOutbox();
+    }
+
+    private WearOutbox newOutbox() {
+        mScheduler = new FakeScheduler();
+        return new WearOutbox(mScheduler, new WearOutbox.Target() {
+            @Override
+            public void flush() {
+                mFlushes++;
+            }
+        }, mStore);
+    }
+
+    private void offer(String key, int value, int weatherId) {
+        Bundle changes = new Bundle();
+        changes.putInt(key, value);
+        mOutbox.offer(changes, mOutbox.classify(weatherId));
+    }
+
+    @Test
+    public void batchesRoutineChangesIntoOneFlush() {
+        offer("units", 1, CLEAR);
+        offer("units", 2, CLOUDS);
+        offer("location", 3, CLOUDS);
+
+        assertEquals(0, mFlushes);
+        assertEquals(1, mScheduler.tasks.size());
+        mScheduler.runAll();
+        assertEquals(1, mFlushes);
+
+        WearOutbox.Batch batch = mOutbox.drain();
+        assertFalse(batch.urgent);
+        assertEquals(2, batch.changes.getInt("units"));
+        assertEquals(3, batch.changes.getInt("location"));
+        assertNull(mOutbox.drain());
+
+        mOutbox.onCommitted(batch, true, 100);
+        assertEquals(1, mOutbox.getCommitCount());
+        assertEquals(3, mOutbox.getOfferCount(WearOutbox.URGENCY_ROUTINE));
+        assertEquals(100, mOutbox.getCommittedBytes());
+    }
+
+    @Test
+    public void severeTransitionsFlushAtOnceWithWhateverIsPending() {
+        offer("units", 1, CLEAR);
+        offer("weather", 2, STORM);
+
+        assertEquals(1, mFlushes);
+        assertTrue(mScheduler.tasks.isEmpty());
+        WearOutbox.Batch batch = mOutbox.drain();
+        assertTrue(batch.urgent);
+        assertEquals(1, batch.changes.getInt("units"));
+        mOutbox.onCommitted(batch, true, 100);
+        assertEquals(1, mOutbox.getUrgentCommitCount());
+
+        // Still stormy: nothing new to warn about.
+        offer("weather", 3, STORM);
+        assertEquals(1, mFlushes);
+        mOutbox.drain();
+
+        // Clearing up is a transition too.
+        offer("weather", 4, CLEAR);
+        assertEquals(2, mFlushes);
+    }
+
+    @Test
+    public void failedBatchGoesBackUnderNewerChanges() {
+        offer("units", 1, CLEAR);
+        offer("location", 2, CLEAR);
+        WearOutbox.Batch batch = mOutbox.drain();
+        offer("units", 3, CLEAR);
+
+        mOutbox.onCommitted(batch, false, 0);
+
+        assertEquals(1, mOutbox.getFailedCommitCount());
+        assertEquals(1, mScheduler.tasks.size());
+        WearOutbox.Batch retry = mOutbox.drain();
+        assertEquals(3, retry.changes.getInt("units"));
+        assertEquals(2, retry.changes.getInt("location"));
+    }
+
+    @Test
+    public void severityOutlivesTheProcess() {
+        assertEquals(WearOutbox.URGENCY_SEVERE, mOutbox.classify(STORM));
+
+        mOutbox = newOutbox();
+        assertEquals(WearOutbox.URGENCY_ROUTINE, mOutbox.classify(STORM));
+
+        mOutbox = newOutbox();
+        assertEquals(WearOutbox.URGENCY_SEVERE, mOutbox.classify(CLEAR));
+    }
+
+    @Test
+    public void deferredBatchWaitsForTheNextOfferWithoutRetrying() {
+        offer("alert", 1, STORM);
+        WearOutbox.Batch batch = mOutbox.drain();
+
+        mOutbox.onDeferred(batch);
+
+        assertEquals(0, mOutbox.getFailedCommitCount());
+        assertEquals(1, mOutbox.getDeferredCommitCount());
+        assertTrue(mScheduler.tasks.isEmpty());
+        assertTrue(mOutbox.hasPending());
+
+        offer("forecast", 2, STORM);
+        WearOutbox.Batch withForecast = mOutbox.drain();
+        assertTrue(withForecast.urgent);
+        assertEquals(1, withForecast.changes.getInt("alert"));
+        assertEquals(2, withForecast.changes.getInt("forecast"));
+    }
+
+    @Test
+    public void unsentChangesOutliveTheProcess() {
+        offer("units", 1, CLEAR);
+        offer("location", 2, CLEAR);
+        mOutbox.drain();
+        offer("units", 3, CLEAR);
+
+        // The process dies before the drained batch is reported on.
+        mOutbox = newOutbox();
+
+        assertEquals(1, mScheduler.tasks.size());
+        WearOutbox.Batch batch = mOutbox.drain();
+        assertEquals(3, batch.changes.getInt("units"));
+        assertEquals(2, batch.changes.getInt("location"));
+        mOutbox.onCommitted(batch, true, 100);
+        assertNull(mStore.load());
+        assertNull(newOutbox().drain());
+    }
+}
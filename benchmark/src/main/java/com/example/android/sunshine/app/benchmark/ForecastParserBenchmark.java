@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.ForecastParser;
+
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of a recorded 14 day forecast, the work the sync adapter does on every sync.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class ForecastParserBenchmark {
+    private String mForecastJson;
+    private String mNotFoundJson;
+    private TimeZone mTimeZone;
+    private long mTodayStart;
+
+    @Setup
+    public void setUp() {
+        mForecastJson = Fixtures.load(Fixtures.FORECAST_DAILY);
+        mNotFoundJson = Fixtures.load(Fixtures.FORECAST_NOT_FOUND);
+        mTimeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        // Fixed so that day arithmetic is identical on every run.
+        mTodayStart = ForecastDates.normalizeDate(1445716800000L, mTimeZone);
+    }
+
+    @Benchmark
+    public ForecastParser.Forecast parseDailyForecast() throws JSONException {
+        return ForecastParser.parse(mForecastJson, mTodayStart, mTimeZone);
+    }
+
+    @Benchmark
+    public ForecastParser.Forecast parseNotFound() throws JSONException {
+        return ForecastParser.parse(mNotFoundJson, mTodayStart, mTimeZone);
+    }
+}
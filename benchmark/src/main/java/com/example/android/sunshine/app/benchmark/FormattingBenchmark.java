@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.benchmark;
+
+import com.example.android.sunshine.app.TimeFormatter;
+import com.example.android.sunshine.app.core.ForecastDates;
+import com.example.android.sunshine.app.core.Temperatures;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Temperature, date and watch face time formatting, which run once per list row, widget or
+ * watch face frame.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Thread)
+public class FormattingBenchmark {
+    // Same pattern as the format_temperature resource.
+    private static final String TEMPERATURE_FORMAT = "%1.0f°";
+
+    private final char[] mTimeBuffer = new char[TimeFormatter.MAX_LENGTH];
+    private TimeZone mTimeZone;
+    private SimpleDateFormat mDayNameFormat;
+    private long mNow;
+    private long mDate;
+    private double mTemperature;
+    private int mMinute;
+
+    @Setup
+    public void setUp() {
+        mTimeZone = TimeZone.getTimeZone("America/Los_Angeles");
+        mDayNameFormat = ForecastDates.newDayNameFormat(Locale.US);
+        mNow = 1445716800000L;
+        mDate = mNow + 3 * ForecastDates.DAY_IN_MILLIS + 12345L;
+        mTemperature = 21.6;
+        mMinute = 7;
+    }
+
+    @Benchmark
+    public String formatTemperatureMetric() {
+        return Temperatures.format(Locale.US, TEMPERATURE_FORMAT, mTemperature, true);
+    }
+
+    @Benchmark
+    public String formatTemperatureImperial() {
+        return Temperatures.format(Locale.US, TEMPERATURE_FORMAT, mTemperature, false);
+    }
+
+    @Benchmark
+    public long normalizeDate() {
+        return ForecastDates.normalizeDate(mDate, mTimeZone);
+    }
+
+    @Benchmark
+    public int dayOffset() {
+        return ForecastDates.getDayOffset(mDate, mNow, mTimeZone);
+    }
+
+    @Benchmark
+    public String formatDayNameReused() {
+        return mDayNameFormat.format(mDate);
+    }
+
+    @Benchmark
+    public String formatDayNameFresh() {
+        // What Utility does today: a new SimpleDateFormat per call.
+        return ForecastDates.newDayNameFormat(Locale.US).format(mDate);
+    }
+
+    @Benchmark
+    public int formatWatchTime24Hour() {
+        return TimeFormatter.formatTime(mTimeBuffer, 21, mMinute, true);
+    }
+
+    @Benchmark
+    public String formatWatchTime12Hour() {
+        return TimeFormatter.formatTime(21, mMinute, false);
+    }
+
+    @Benchmark
+    public String formatWatchTimeStringFormat() {
+        // The watch face's previous implementation, kept as a baseline.
+        return String.format("%d:%02d %s", 9, mMinute, "pm");
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Draws the ambient face.  Ambient mode only changes once a minute, usually by one digit, so the
+ * face is kept in an off-screen frame and only the parts whose content changed are redrawn into
+ * it.  The digits come from a {@link GlyphAtlas}, so a tick costs a couple of bitmap copies
+ * rather than shaping and measuring text.  Drawing the frame onto the screen is then a single
+ * blit, optionally shifted a few pixels each minute for displays that need burn-in protection.
+ */
+class AmbientRenderer {
+    // Offsets cycled through, one per minute, when burn-in protection is on.  Multiplied by the
+    // shift distance, they keep the face within a small square around its normal position.
+    private static final int[] BURN_IN_DX = {0, 1, 1, 0, -1, -1, -1, 0, 1};
+    private static final int[] BURN_IN_DY = {0, 0, 1, 1, 1, 0, -1, -1, -1};
+
+    private final Paint mTimePaint;
+    private final Paint mDatePaint;
+    private final Paint mHighPaint;
+    private final Paint mLowPaint;
+    private final Paint mDividerPaint;
+    private final Paint mClearPaint;
+    private final int mBurnInShift;
+
+    private float mTimeY;
+    private float mDateY;
+    private float mDividerY;
+    private float mWeatherY;
+
+    private boolean mLowBitAmbient;
+    private boolean mBurnInProtection;
+
+    // Built lazily from mTimePaint; null until needed or after the paint changes.
+    private GlyphAtlas mGlyphs;
+
+    private Bitmap mFrame;
+    private Canvas mFrameCanvas;
+    private boolean mFrameValid;
+
+    // What the frame currently shows.
+    private final char[] mTime = new char[TimeFormatter.MAX_LENGTH];
+    private int mTimeLength;
+    private float mTimeLeft;
+    private String mDate;
+    private WeatherRenderModel mWeather;
+
+    private final Rect mScratch = new Rect();
+    private int mLastDirtyRegions;
+
+    /**
+     * @param burnInShift how far, in pixels, the face may move from its normal position.
+     */
+    AmbientRenderer(int burnInShift) {
+        mBurnInShift = burnInShift;
+        mTimePaint = new Paint();
+        mDatePaint = new Paint();
+        mHighPaint = new Paint();
+        mLowPaint = new Paint();
+        mDividerPaint = new Paint();
+        mClearPaint = new Paint();
+        mClearPaint.setColor(Color.BLACK);
+    }
+
+    /**
+     * Copies the ambient paints.  Called whenever their sizes change; forces a full redraw.
+     */
+    void setPaints(Paint time, Paint date, Paint high, Paint low) {
+        mTimePaint.set(time);
+        mDatePaint.set(date);
+        mHighPaint.set(high);
+        mLowPaint.set(low);
+        mDividerPaint.set(date);
+        applyAntiAlias();
+        releaseGlyphs();
+        mFrameValid = false;
+    }
+
+    void setOffsets(float timeY, float dateY, float dividerY, float weatherY) {
+        mTimeY = timeY;
+        mDateY = dateY;
+        mDividerY = dividerY;
+        mWeatherY = weatherY;
+        mFrameValid = false;
+    }
+
+    /**
+     * On low-bit displays ambient mode is drawn without anti-aliasing, glyphs included.
+     */
+    void setLowBitAmbient(boolean lowBitAmbient) {
+        if (mLowBitAmbient != lowBitAmbient) {
+            mLowBitAmbient = lowBitAmbient;
+            applyAntiAlias();
+            releaseGlyphs();
+            mFrameValid = false;
+        }
+    }
+
+    void setBurnInProtection(boolean burnInProtection) {
+        mBurnInProtection = burnInProtection;
+    }
+
+    /**
+     * Frees the off-screen frame and glyphs.  Call when leaving ambient mode; the next draw
+     * rebuilds them.
+     */
+    void release() {
+        releaseGlyphs();
+        releaseFrame();
+    }
+
+    private void releaseGlyphs() {
+        if (mGlyphs != null) {
+            mGlyphs.recycle();
+            mGlyphs = null;
+        }
+        mFrameValid = false;
+    }
+
+    private void releaseFrame() {
+        if (mFrame != null) {
+            mFrame.recycle();
+            mFrame = null;
+            mFrameCanvas = null;
+        }
+        mFrameValid = false;
+    }
+
+    /**
+     * @return memory held by the frame and glyphs, for profiling.
+     */
+    long getBitmapBytes() {
+        long bytes = mFrame != null ? mFrame.getByteCount() : 0;
+        if (mGlyphs != null) {
+            bytes += mGlyphs.getByteCount();
+        }
+        return bytes;
+    }
+
+    /**
+     * @return how many regions of the frame the last draw had to repaint, 0 if nothing changed.
+     */
+    int getLastDirtyRegions() {
+        return mLastDirtyRegions;
+    }
+
+    /**
+     * @param time        the time as written by {@link TimeFormatter#formatTime(char[], int, int,
+     *                    boolean)}; only read.
+     * @param minuteOfDay used to pick the burn-in offset.
+     */
+    void draw(Canvas canvas, Rect bounds, char[] time, int timeLength, String date,
+              WeatherRenderModel weather, int minuteOfDay) {
+        mLastDirtyRegions = 0;
+        ensureFrame(bounds.width(), bounds.height());
+        if (mGlyphs == null) {
+            mGlyphs = new GlyphAtlas(mTimePaint);
+        }
+        float centerX = bounds.width() / 2f;
+        if (!mFrameValid) {
+            mFrameCanvas.drawColor(Color.BLACK);
+            mFrameCanvas.drawLine(centerX - 20, mDividerY, centerX + 20, mDividerY, mDividerPaint);
+            mTimeLength = 0;
+            mDate = null;
+            mWeather = null;
+            mLastDirtyRegions++;
+            mFrameValid = true;
+        }
+        updateTime(centerX, time, timeLength);
+        if (!date.equals(mDate)) {
+            updateDate(centerX, date);
+        }
+        if (weather != mWeather) {
+            updateWeather(centerX, weather);
+        }
+
+        canvas.drawColor(Color.BLACK);
+        int dx = 0;
+        int dy = 0;
+        if (mBurnInProtection) {
+            int step = minuteOfDay % BURN_IN_DX.length;
+            dx = BURN_IN_DX[step] * mBurnInShift;
+            dy = BURN_IN_DY[step] * mBurnInShift;
+        }
+        canvas.drawBitmap(mFrame, bounds.left + dx, bounds.top + dy, null);
+    }
+
+    private void ensureFrame(int width, int height) {
+        if (mFrame != null && mFrame.getWidth() == width && mFrame.getHeight() == height) {
+            return;
+        }
+        releaseFrame();
+        mFrame = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        mFrameCanvas = new Canvas(mFrame);
+    }
+
+    private void updateTime(float centerX, char[] time, int length) {
+        float left = centerX - mGlyphs.measure(time, length) / 2;
+
+        if (length != mTimeLength || left != mTimeLeft) {
+            // The layout moved, e.g. 9:59 to 10:00; repaint the whole line.
+            if (mTimeLength > 0) {
+                // The atlas snaps glyphs to whole pixels, so allow one either side.
+                setRect(mScratch, mTimeLeft - 1, mTimeY + mGlyphs.getTop(),
+                        mGlyphs.measure(mTime, mTimeLength) + 2, mGlyphs.getHeight());
+                mFrameCanvas.drawRect(mScratch, mClearPaint);
+            }
+            mGlyphs.draw(mFrameCanvas, time, length, left, mTimeY, mTimePaint);
+            mLastDirtyRegions++;
+        } else {
+            float x = left;
+            for (int i = 0; i < length; i++) {
+                if (time[i] != mTime[i]) {
+                    mGlyphs.getGlyphBounds(mTime[i], x, mTimeY, mScratch);
+                    mFrameCanvas.drawRect(mScratch, mClearPaint);
+                    mGlyphs.drawGlyph(mFrameCanvas, time[i], x, mTimeY, mTimePaint);
+                    mLastDirtyRegions++;
+                }
+                x += mGlyphs.getAdvance(time[i]);
+            }
+        }
+        System.arraycopy(time, 0, mTime, 0, length);
+        mTimeLength = length;
+        mTimeLeft = left;
+    }
+
+    private void updateDate(float centerX, String date) {
+        Paint.FontMetricsInt metrics = mDatePaint.getFontMetricsInt();
+        if (mDate != null) {
+            float oldWidth = mDatePaint.measureText(mDate);
+            setRect(mScratch, centerX - oldWidth / 2, mDateY + metrics.top, oldWidth,
+                    metrics.bottom - metrics.top);
+            mFrameCanvas.drawRect(mScratch, mClearPaint);
+        }
+        float width = mDatePaint.measureText(date);
+        mFrameCanvas.drawText(date, centerX - width / 2, mDateY, mDatePaint);
+        mDate = date;
+        mLastDirtyRegions++;
+    }
+
+    private void updateWeather(float centerX, WeatherRenderModel weather) {
+        Paint.FontMetricsInt metrics = mHighPaint.getFontMetricsInt();
+        if (mWeather != null) {
+            float right = mWeather.ambientLowLeft + mLowPaint.measureText(mWeather.low);
+            setRect(mScratch, centerX + mWeather.ambientHighLeft, mWeatherY + metrics.top,
+                    right - mWeather.ambientHighLeft, metrics.bottom - metrics.top);
+            mFrameCanvas.drawRect(mScratch, mClearPaint);
+        }
+        if (weather != null) {
+            mFrameCanvas.drawText(weather.high, centerX + weather.ambientHighLeft, mWeatherY,
+                    mHighPaint);
+            mFrameCanvas.drawText(weather.low, centerX + weather.ambientLowLeft, mWeatherY,
+                    mLowPaint);
+        }
+        mWeather = weather;
+        mLastDirtyRegions++;
+    }
+
+    private void applyAntiAlias() {
+        boolean antiAlias = !mLowBitAmbient;
+        mTimePaint.setAntiAlias(antiAlias);
+        mDatePaint.setAntiAlias(antiAlias);
+        mHighPaint.setAntiAlias(antiAlias);
+        mLowPaint.setAntiAlias(antiAlias);
+        mDividerPaint.setAntiAlias(antiAlias);
+    }
+
+    private static void setRect(Rect rect, float left, float top, float width, float height) {
+        rect.set((int) Math.floor(left), (int) Math.floor(top),
+                (int) Math.ceil(left + width), (int) Math.ceil(top + height));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * A row of small cells for the days after today: the day's name, its icon and "high/low".
+ * Everything is measured once, when the forecast arrives; drawing is a fixed sequence of text
+ * and atlas copies.  Immutable, so it can be built off the drawing thread and swapped in with
+ * the rest of the {@link WeatherRenderModel}.
+ */
+final class ForecastStrip {
+    static final int MAX_DAYS = 4;
+
+    // Horizontal space between cells and vertical space between a cell's rows.
+    private static final float CELL_GAP = 8;
+    private static final float ROW_GAP = 2;
+
+    private final String[] mLabels;
+    private final String[] mTemperatures;
+    // Relative to the center of the face.
+    private final float[] mLabelLefts;
+    private final float[] mTemperatureLefts;
+    private final int[] mIconLefts;
+    private final Rect[] mIconSources;
+
+    private final Bitmap mIcons;
+    private final int mIconSize;
+    // Relative to the top of the strip.
+    private final float mLabelBaseline;
+    private final int mIconTop;
+    private final float mTemperatureBaseline;
+    private final float mHeight;
+
+    private final Rect mDst = new Rect();
+
+    private ForecastStrip(String[] labels, String[] temperatures, float[] labelLefts,
+                          float[] temperatureLefts, int[] iconLefts, Rect[] iconSources,
+                          IconAtlas icons, Paint paint) {
+        mLabels = labels;
+        mTemperatures = temperatures;
+        mLabelLefts = labelLefts;
+        mTemperatureLefts = temperatureLefts;
+        mIconLefts = iconLefts;
+        mIconSources = iconSources;
+        mIcons = icons.getBitmap();
+        mIconSize = icons.getSize();
+
+        Paint.FontMetrics metrics = paint.getFontMetrics();
+        float lineHeight = metrics.descent - metrics.ascent;
+        mLabelBaseline = -metrics.ascent;
+        mIconTop = Math.round(lineHeight + ROW_GAP);
+        mTemperatureBaseline = mIconTop + mIconSize + ROW_GAP - metrics.ascent;
+        mHeight = mTemperatureBaseline + metrics.descent;
+    }
+
+    /**
+     * Lays out up to {@link #MAX_DAYS} of the forecast's upcoming days, or returns null if it has
+     * none.
+     *
+     * @param paint used to measure now and must match the paint passed to {@link #draw}.
+     */
+    static ForecastStrip layout(WatchForecast forecast, IconAtlas icons, Paint paint,
+                                Locale locale) {
+        int count = Math.min(MAX_DAYS, forecast.getDayCount());
+        if (count == 0) {
+            return null;
+        }
+        SimpleDateFormat dayFormat = new SimpleDateFormat("EEE", locale);
+        String[] labels = new String[count];
+        String[] temperatures = new String[count];
+        float[] cellWidths = new float[count];
+        float totalWidth = 0;
+        for (int i = 0; i < count; i++) {
+            labels[i] = dayFormat.format(new Date(forecast.dayDates[i])).toUpperCase(locale);
+            temperatures[i] = forecast.dayHighs[i] + "/" + forecast.dayLows[i];
+            cellWidths[i] = Math.max(icons.getSize(),
+                    Math.max(paint.measureText(labels[i]), paint.measureText(temperatures[i])));
+            totalWidth += cellWidths[i];
+        }
+        totalWidth += CELL_GAP * (count - 1);
+
+        float[] labelLefts = new float[count];
+        float[] temperatureLefts = new float[count];
+        int[] iconLefts = new int[count];
+        Rect[] iconSources = new Rect[count];
+        float left = -totalWidth / 2;
+        for (int i = 0; i < count; i++) {
+            float center = left + cellWidths[i] / 2;
+            labelLefts[i] = center - paint.measureText(labels[i]) / 2;
+            temperatureLefts[i] = center - paint.measureText(temperatures[i]) / 2;
+            iconLefts[i] = Math.round(center - icons.getSize() / 2f);
+            Rect source = new Rect();
+            iconSources[i] = icons.getIconBounds(forecast.dayWeatherIds[i], source) ? source : null;
+            left += cellWidths[i] + CELL_GAP;
+        }
+        return new ForecastStrip(labels, temperatures, labelLefts, temperatureLefts, iconLefts,
+                iconSources, icons, paint);
+    }
+
+    int getDayCount() {
+        return mLabels.length;
+    }
+
+    /**
+     * @return memory held by the shared icon atlas, for profiling.
+     */
+    long getBitmapBytes() {
+        return mIcons.getByteCount();
+    }
+
+    float getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Draws the strip with its top at {@code top}.  Only call from the drawing thread; the strip
+     * reuses a scratch rect.
+     */
+    void draw(Canvas canvas, float centerX, float top, Paint paint) {
+        int iconTop = Math.round(top) + mIconTop;
+        int iconCenter = Math.round(centerX);
+        for (int i = 0; i < mLabels.length; i++) {
+            canvas.drawText(mLabels[i], centerX + mLabelLefts[i], top + mLabelBaseline, paint);
+            if (mIconSources[i] != null) {
+                int iconLeft = iconCenter + mIconLefts[i];
+                mDst.set(iconLeft, iconTop, iconLeft + mIconSize, iconTop + mIconSize);
+                canvas.drawBitmap(mIcons, mIconSources[i], mDst, null);
+            }
+            canvas.drawText(mTemperatures[i], centerX + mTemperatureLefts[i],
+                    top + mTemperatureBaseline, paint);
+        }
+    }
+}
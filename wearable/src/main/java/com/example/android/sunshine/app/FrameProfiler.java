@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Opt-in instrumentation for the watch face: draw time histograms for ambient and interactive
+ * frames, what caused each redraw, and how long weather takes to reach the face.  Disabled it
+ * costs one volatile read per call, so the engine can leave the calls in place.  Written to from
+ * the drawing thread and the data pipeline thread.  Plain Java so it can be tested off the
+ * watch.
+ */
+final class FrameProfiler {
+    static final int SOURCE_TICK = 0;
+    static final int SOURCE_DATA = 1;
+    static final int SOURCE_TIMEZONE = 2;
+    static final int SOURCE_MODE_CHANGE = 3;
+    static final int SOURCE_COUNT = 4;
+
+    private static final String[] SOURCE_NAMES = {"tick", "data", "timezone", "mode change"};
+
+    /**
+     * Upper bounds of the draw time buckets; one more bucket holds everything slower.
+     */
+    static final long[] BUCKET_MICROS = {500, 1000, 2000, 4000, 8000, 16000, 33000};
+
+    private volatile boolean mEnabled;
+
+    private final long[] mInteractiveFrames = new long[BUCKET_MICROS.length + 1];
+    private final long[] mAmbientFrames = new long[BUCKET_MICROS.length + 1];
+    private final long[] mInvalidates = new long[SOURCE_COUNT];
+
+    private long mDataItems;
+    private long mTotalDeliveryMillis;
+    private long mMaxDeliveryMillis;
+    private long mTotalDecodeNanos;
+    private long mRefreshes;
+    private long mTotalRefreshNanos;
+    private long mMaxRefreshNanos;
+
+    void setEnabled(boolean enabled) {
+        if (enabled && !mEnabled) {
+            reset();
+        }
+        mEnabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return mEnabled;
+    }
+
+    synchronized void reset() {
+        Arrays.fill(mInteractiveFrames, 0);
+        Arrays.fill(mAmbientFrames, 0);
+        Arrays.fill(mInvalidates, 0);
+        mDataItems = 0;
+        mTotalDeliveryMillis = 0;
+        mMaxDeliveryMillis = 0;
+        mTotalDecodeNanos = 0;
+        mRefreshes = 0;
+        mTotalRefreshNanos = 0;
+        mMaxRefreshNanos = 0;
+    }
+
+    void recordFrame(boolean ambient, long frameNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        long micros = TimeUnit.NANOSECONDS.toMicros(frameNanos);
+        int bucket = 0;
+        while (bucket < BUCKET_MICROS.length && micros >= BUCKET_MICROS[bucket]) {
+            bucket++;
+        }
+        synchronized (this) {
+            (ambient ? mAmbientFrames : mInteractiveFrames)[bucket]++;
+        }
+    }
+
+    void recordInvalidate(int source) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (this) {
+            mInvalidates[source]++;
+        }
+    }
+
+    /**
+     * @param deliveryMillis time from the phone sending the weather to the pipeline picking it
+     *                       up, by the two devices' clocks; negative if the phone didn't say
+     *                       when it sent it.
+     * @param decodeNanos    time the pipeline spent turning it into a render model.
+     */
+    void recordDataItem(long deliveryMillis, long decodeNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (this) {
+            mDataItems++;
+            mTotalDecodeNanos += decodeNanos;
+            if (deliveryMillis >= 0) {
+                mTotalDeliveryMillis += deliveryMillis;
+                mMaxDeliveryMillis = Math.max(mMaxDeliveryMillis, deliveryMillis);
+            }
+        }
+    }
+
+    /**
+     * @param latencyNanos time from asking the phone for weather to its answer being laid out
+     *                     and the redraw posted.
+     */
+    void recordRefresh(long latencyNanos) {
+        if (!mEnabled) {
+            return;
+        }
+        synchronized (this) {
+            mRefreshes++;
+            mTotalRefreshNanos += latencyNanos;
+            mMaxRefreshNanos = Math.max(mMaxRefreshNanos, latencyNanos);
+        }
+    }
+
+    synchronized long getFrameCount(boolean ambient, int bucket) {
+        return (ambient ? mAmbientFrames : mInteractiveFrames)[bucket];
+    }
+
+    synchronized long getInvalidateCount(int source) {
+        return mInvalidates[source];
+    }
+
+    /**
+     * @param bitmapBytes memory currently held in the face's bitmaps, reported alongside.
+     */
+    synchronized String dump(long bitmapBytes) {
+        StringBuilder out = new StringBuilder("Watch face profile");
+        appendHistogram(out, "\n  interactive frames:", mInteractiveFrames);
+        appendHistogram(out, "\n  ambient frames:", mAmbientFrames);
+        out.append("\n  invalidates:");
+        for (int i = 0; i < SOURCE_COUNT; i++) {
+            out.append(' ').append(SOURCE_NAMES[i]).append('=').append(mInvalidates[i]);
+        }
+        out.append("\n  weather updates: ").append(mDataItems);
+        if (mDataItems > 0) {
+            out.append(", avg delivery ").append(mTotalDeliveryMillis / mDataItems)
+                    .append("ms, max delivery ").append(mMaxDeliveryMillis)
+                    .append("ms, avg decode ")
+                    .append(TimeUnit.NANOSECONDS.toMicros(mTotalDecodeNanos / mDataItems))
+                    .append("us");
+        }
+        out.append("\n  refresh requests answered: ").append(mRefreshes);
+        if (mRefreshes > 0) {
+            out.append(", avg ")
+                    .append(TimeUnit.NANOSECONDS.toMillis(mTotalRefreshNanos / mRefreshes))
+                    .append("ms, max ").append(TimeUnit.NANOSECONDS.toMillis(mMaxRefreshNanos))
+                    .append("ms");
+        }
+        out.append("\n  bitmaps: ").append(bitmapBytes / 1024).append("KB");
+        return out.toString();
+    }
+
+    private static void appendHistogram(StringBuilder out, String title, long[] buckets) {
+        out.append(title);
+        for (int i = 0; i < buckets.length; i++) {
+            out.append(' ');
+            if (i < BUCKET_MICROS.length) {
+                out.append('<').append(BUCKET_MICROS[i]);
+            } else {
+                out.append(">=").append(BUCKET_MICROS[BUCKET_MICROS.length - 1]);
+            }
+            out.append("us=").append(buckets[i]);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the interactive face draws its next frame and keeps frame time statistics for
+ * each refresh mode.  Delays are always computed from the wall clock to the next boundary of the
+ * mode's period, so a late frame never pushes the following ones later.  Plain Java so it can be
+ * tested off the watch.
+ */
+final class FrameScheduler {
+    /**
+     * Battery saver: redraw only when the minute changes.
+     */
+    static final int MODE_MINUTE = 0;
+    /**
+     * Redraw every second, the face's original behaviour.
+     */
+    static final int MODE_SECOND = 1;
+    /**
+     * Redraw several times a second so the seconds indicator can sweep.
+     */
+    static final int MODE_SMOOTH = 2;
+    static final int MODE_COUNT = 3;
+
+    static final int SMOOTH_FPS_MIN = 15;
+    static final int SMOOTH_FPS_MAX = 30;
+
+    /**
+     * However rarely a mode draws, a frame should still be finished within one display refresh.
+     */
+    static final long VSYNC_NANOS = TimeUnit.SECONDS.toNanos(1) / 60;
+
+    private static final long SECOND_MILLIS = TimeUnit.SECONDS.toMillis(1);
+    private static final long MINUTE_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Frame times for one mode.
+     */
+    static final class Stats {
+        long frames;
+        long totalNanos;
+        long maxNanos;
+        long overBudget;
+
+        long getAverageNanos() {
+            return frames == 0 ? 0 : totalNanos / frames;
+        }
+
+        @Override
+        public String toString() {
+            return frames + " frames, avg " + TimeUnit.NANOSECONDS.toMicros(getAverageNanos())
+                    + "us, max " + TimeUnit.NANOSECONDS.toMicros(maxNanos) + "us, "
+                    + overBudget + " over budget";
+        }
+    }
+
+    private final Stats[] mStats = new Stats[MODE_COUNT];
+    private int mMode;
+    private int mSmoothFps;
+
+    FrameScheduler(int mode, int smoothFps) {
+        for (int i = 0; i < MODE_COUNT; i++) {
+            mStats[i] = new Stats();
+        }
+        setMode(mode);
+        setSmoothFps(smoothFps);
+    }
+
+    void setMode(int mode) {
+        if (mode < 0 || mode >= MODE_COUNT) {
+            throw new IllegalArgumentException("Unknown refresh mode " + mode);
+        }
+        mMode = mode;
+    }
+
+    int getMode() {
+        return mMode;
+    }
+
+    /**
+     * @param fps clamped to [{@link #SMOOTH_FPS_MIN}, {@link #SMOOTH_FPS_MAX}].
+     */
+    void setSmoothFps(int fps) {
+        mSmoothFps = Math.max(SMOOTH_FPS_MIN, Math.min(SMOOTH_FPS_MAX, fps));
+    }
+
+    int getSmoothFps() {
+        return mSmoothFps;
+    }
+
+    /**
+     * @return how long to wait from {@code nowMillis} until the next frame boundary; always at
+     * least 1 so a frame drawn exactly on a boundary doesn't schedule itself again.
+     */
+    long getDelayMillis(long nowMillis) {
+        switch (mMode) {
+            case MODE_MINUTE:
+                return MINUTE_MILLIS - floorMod(nowMillis, MINUTE_MILLIS);
+            case MODE_SECOND:
+                return SECOND_MILLIS - floorMod(nowMillis, SECOND_MILLIS);
+            default:
+                // Frames sit at fixed fractions of each second, so 1000 / fps needn't be whole.
+                long intoSecond = floorMod(nowMillis, SECOND_MILLIS);
+                long nextFrame = intoSecond * mSmoothFps / SECOND_MILLIS + 1;
+                long nextFrameMillis = (nextFrame * SECOND_MILLIS + mSmoothFps - 1) / mSmoothFps;
+                return nextFrameMillis - intoSecond;
+        }
+    }
+
+    /**
+     * @return the longest a frame may take in the current mode.
+     */
+    long getFrameBudgetNanos() {
+        return getFrameBudgetNanos(mMode);
+    }
+
+    long getFrameBudgetNanos(int mode) {
+        if (mode == MODE_SMOOTH) {
+            return Math.min(VSYNC_NANOS, TimeUnit.SECONDS.toNanos(1) / mSmoothFps);
+        }
+        return VSYNC_NANOS;
+    }
+
+    /**
+     * Adds a frame drawn in the current mode to its statistics.
+     */
+    void recordFrame(long frameNanos) {
+        Stats stats = mStats[mMode];
+        stats.frames++;
+        stats.totalNanos += frameNanos;
+        stats.maxNanos = Math.max(stats.maxNanos, frameNanos);
+        if (frameNanos > getFrameBudgetNanos(mMode)) {
+            stats.overBudget++;
+        }
+    }
+
+    Stats getStats(int mode) {
+        return mStats[mode];
+    }
+
+    private static long floorMod(long x, long y) {
+        long mod = x % y;
+        return mod < 0 ? mod + y : mod;
+    }
+}
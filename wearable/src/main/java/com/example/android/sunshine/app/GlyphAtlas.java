@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Arrays;
+
+/**
+ * The characters of the time, rasterized once into a single strip so the face can compose the
+ * time from bitmap copies instead of shaping and measuring text every frame.  An atlas belongs to
+ * one paint configuration (typeface, size, anti-aliasing); build a new one when that changes.
+ * Glyphs are alpha masks, so the paint passed when drawing supplies the color.
+ */
+final class GlyphAtlas {
+    /**
+     * Every char {@link TimeFormatter} can produce; the only ones an atlas can draw.
+     */
+    static final String CHARS = "0123456789: apm";
+
+    private static final byte[] INDEX = new byte[128];
+
+    static {
+        Arrays.fill(INDEX, (byte) -1);
+        for (int i = 0; i < CHARS.length(); i++) {
+            INDEX[CHARS.charAt(i)] = (byte) i;
+        }
+    }
+
+    private final Bitmap mBitmap;
+    private final int[] mLefts = new int[CHARS.length()];
+    private final int[] mWidths = new int[CHARS.length()];
+    private final float[] mAdvances = new float[CHARS.length()];
+    private final int mTop;
+    private final int mHeight;
+
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    GlyphAtlas(Paint paint) {
+        // Glyphs are drawn in white and used as masks; color comes from the paint at draw time.
+        Paint maskPaint = new Paint(paint);
+        maskPaint.setColor(Color.WHITE);
+        Paint.FontMetricsInt metrics = maskPaint.getFontMetricsInt();
+        mTop = metrics.top;
+        mHeight = Math.max(1, metrics.bottom - metrics.top);
+
+        char[] text = new char[1];
+        int stripWidth = 0;
+        for (int i = 0; i < CHARS.length(); i++) {
+            text[0] = CHARS.charAt(i);
+            mAdvances[i] = maskPaint.measureText(text, 0, 1);
+            mLefts[i] = stripWidth;
+            mWidths[i] = Math.max(1, (int) Math.ceil(mAdvances[i]));
+            // A pixel of padding keeps filtering from bleeding neighbours into each other.
+            stripWidth += mWidths[i] + 1;
+        }
+
+        mBitmap = Bitmap.createBitmap(stripWidth, mHeight, Bitmap.Config.ALPHA_8);
+        Canvas canvas = new Canvas(mBitmap);
+        for (int i = 0; i < CHARS.length(); i++) {
+            text[0] = CHARS.charAt(i);
+            canvas.drawText(text, 0, 1, mLefts[i], -mTop, maskPaint);
+        }
+    }
+
+    /**
+     * @return the distance from the baseline to the top of the glyphs; negative, like
+     * {@link Paint.FontMetricsInt#top}.
+     */
+    int getTop() {
+        return mTop;
+    }
+
+    int getHeight() {
+        return mHeight;
+    }
+
+    float getAdvance(char c) {
+        return mAdvances[INDEX[c]];
+    }
+
+    float measure(char[] text, int length) {
+        float width = 0;
+        for (int i = 0; i < length; i++) {
+            width += mAdvances[INDEX[text[i]]];
+        }
+        return width;
+    }
+
+    /**
+     * Sets {@code out} to the pixels {@link #drawGlyph} would touch for these arguments.
+     */
+    void getGlyphBounds(char c, float x, float baseline, Rect out) {
+        int left = Math.round(x);
+        int top = Math.round(baseline) + mTop;
+        out.set(left, top, left + mWidths[INDEX[c]], top + mHeight);
+    }
+
+    /**
+     * Draws one glyph with its baseline at {@code baseline}.
+     *
+     * @return the glyph's advance.
+     */
+    float drawGlyph(Canvas canvas, char c, float x, float baseline, Paint paint) {
+        int glyph = INDEX[c];
+        mSrc.set(mLefts[glyph], 0, mLefts[glyph] + mWidths[glyph], mHeight);
+        getGlyphBounds(c, x, baseline, mDst);
+        canvas.drawBitmap(mBitmap, mSrc, mDst, paint);
+        return mAdvances[glyph];
+    }
+
+    /**
+     * Draws {@code text} starting at {@code x}, the way drawText would with the atlas's paint.
+     *
+     * @return the x just past the last glyph.
+     */
+    float draw(Canvas canvas, char[] text, int length, float x, float baseline, Paint paint) {
+        for (int i = 0; i < length; i++) {
+            x += drawGlyph(canvas, text[i], x, baseline, paint);
+        }
+        return x;
+    }
+
+    int getByteCount() {
+        return mBitmap.getByteCount();
+    }
+
+    void recycle() {
+        mBitmap.recycle();
+    }
+}
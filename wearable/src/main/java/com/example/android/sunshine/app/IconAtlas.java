@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * Every condition's art at one small size, packed side by side into a single bitmap.  Forecast
+ * cells draw their icon as a slice of it, so a strip of days costs one bitmap however many days
+ * it shows.  Built on the pipeline thread and never modified afterwards.
+ */
+final class IconAtlas {
+    private static final int[] ICONS = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    private final Bitmap mBitmap;
+    private final int mSize;
+
+    /**
+     * @param size width and height of each icon, in pixels.
+     */
+    IconAtlas(Resources resources, int size) {
+        mSize = size;
+        mBitmap = Bitmap.createBitmap(size * ICONS.length, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mBitmap);
+        Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+        Rect dst = new Rect();
+        for (int i = 0; i < ICONS.length; i++) {
+            Bitmap icon = decodeSampled(resources, ICONS[i], size);
+            if (icon == null) {
+                continue;
+            }
+            dst.set(i * size, 0, (i + 1) * size, size);
+            canvas.drawBitmap(icon, null, dst, paint);
+            icon.recycle();
+        }
+    }
+
+    Bitmap getBitmap() {
+        return mBitmap;
+    }
+
+    int getSize() {
+        return mSize;
+    }
+
+    /**
+     * Sets {@code out} to the slice holding the art for {@code weatherId}.
+     *
+     * @return false if there is no art for it.
+     */
+    boolean getIconBounds(int weatherId, Rect out) {
+        int iconId = WeatherDataPipeline.getIconResourceForWeatherCondition(weatherId);
+        for (int i = 0; i < ICONS.length; i++) {
+            if (ICONS[i] == iconId) {
+                out.set(i * mSize, 0, (i + 1) * mSize, mSize);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes a resource subsampled to no less than {@code size} pixels high.
+     */
+    static Bitmap decodeSampled(Resources resources, int resId, int size) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, resId, options);
+        int sampleSize = 1;
+        while (options.outHeight / (sampleSize * 2) >= size) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        return BitmapFactory.decodeResource(resources, resId, options);
+    }
+}
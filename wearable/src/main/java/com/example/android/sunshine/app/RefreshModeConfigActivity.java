@@ -0,0 +1,57 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.app.Activity;
+import android.os.Bundle;
+import android.preference.PreferenceManager;
+import android.view.View;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+
+/**
+ * The watch face's settings screen, opened from the face picker: chooses how often the
+ * interactive face redraws.  The choice is saved in the default SharedPreferences, where the
+ * face picks it up; see {@link FrameScheduler} for the modes.
+ */
+public class RefreshModeConfigActivity extends Activity {
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_refresh_mode_config);
+
+        // Listed in the order of the FrameScheduler.MODE_ constants.
+        String[] modes = getResources().getStringArray(R.array.refresh_modes);
+        ListView list = (ListView) findViewById(R.id.refresh_modes);
+        list.setAdapter(new ArrayAdapter<>(this,
+                android.R.layout.simple_list_item_single_choice, modes));
+        list.setChoiceMode(ListView.CHOICE_MODE_SINGLE);
+        list.setItemChecked(PreferenceManager.getDefaultSharedPreferences(this)
+                .getInt(SunshineWatchFace.PREF_REFRESH_MODE, FrameScheduler.MODE_SECOND), true);
+        list.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+                PreferenceManager.getDefaultSharedPreferences(RefreshModeConfigActivity.this)
+                        .edit()
+                        .putInt(SunshineWatchFace.PREF_REFRESH_MODE, position)
+                        .apply();
+                finish();
+            }
+        });
+    }
+}
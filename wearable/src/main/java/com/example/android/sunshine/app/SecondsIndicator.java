@@ -0,0 +1,51 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+/**
+ * A dot that travels once around the edge of the face every minute.  Only worth drawing when
+ * frames come often enough for it to move smoothly.
+ */
+final class SecondsIndicator {
+    private final Paint mPaint;
+    private final float mRadius;
+    private final float mInset;
+
+    /**
+     * @param radius of the dot.
+     * @param inset  distance from the edge of the face to the center of the dot.
+     */
+    SecondsIndicator(int color, float radius, float inset) {
+        mPaint = new Paint();
+        mPaint.setColor(color);
+        mPaint.setAntiAlias(true);
+        mRadius = radius;
+        mInset = inset;
+    }
+
+    void draw(Canvas canvas, Rect bounds, long millisIntoMinute) {
+        double angle = 2 * Math.PI * millisIntoMinute / 60000.0;
+        float track = Math.min(bounds.width(), bounds.height()) / 2f - mInset;
+        float x = bounds.exactCenterX() + (float) (Math.sin(angle) * track);
+        float y = bounds.exactCenterY() - (float) (Math.cos(angle) * track);
+        canvas.drawCircle(x, y, mRadius, mPaint);
+    }
+}
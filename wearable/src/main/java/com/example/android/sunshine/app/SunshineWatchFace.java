@@ -20,17 +20,17 @@ import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.SharedPreferences;
 import android.content.res.Resources;
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.Typeface;
+import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.Message;
+import android.preference.PreferenceManager;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.DateFormat;
@@ -40,20 +40,25 @@ import android.view.WindowInsets;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.ResultCallback;
 import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataItem;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.DataItemBuffer;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.MessageEvent;
+import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.NodeApi;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
 import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
 import java.text.SimpleDateFormat;
 import java.util.Calendar;
 import java.util.Locale;
 import java.util.TimeZone;
-import java.util.concurrent.TimeUnit;
 
 /**
  * Analog watch face with a ticking second hand. In ambient mode, the second hand isn't shown. On
@@ -68,10 +73,23 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
 
     /**
-     * Update rate in milliseconds for interactive mode. We update once a second to advance the
-     * second hand.
+     * Frame rate of the smooth refresh mode, see {@link FrameScheduler#MODE_SMOOTH}.
      */
-    private static final long INTERACTIVE_UPDATE_RATE_MS = TimeUnit.SECONDS.toMillis(1);
+    private static final int SMOOTH_FPS = 24;
+
+    /**
+     * The {@link FrameScheduler} mode, chosen in {@link RefreshModeConfigActivity}.
+     */
+    static final String PREF_REFRESH_MODE = "refresh_mode";
+
+    /**
+     * Debug builds only: turns the frame profiler on or off with the boolean extra
+     * {@link #EXTRA_PROFILE_ENABLED}, or without it logs what the profiler has recorded, e.g.
+     * adb shell am broadcast -a &lt;action&gt; --ez enabled true
+     */
+    private static final String ACTION_PROFILE =
+            "com.example.android.sunshine.app.action.PROFILE_WATCH_FACE";
+    private static final String EXTRA_PROFILE_ENABLED = "enabled";
 
     /**
      * Handler message id for updating the time periodically in interactive mode.
@@ -105,61 +123,120 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     }
 
     private class Engine extends CanvasWatchFaceService.Engine implements DataApi.DataListener,
-            GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-
-        private static final String WEATHER_PATH = "/weather";
-        private static final String KEY_HIGH = "high";
-        private static final String KEY_LOW = "low";
-        private static final String KEY_WEATHER_ID = "weatherId";
+            MessageApi.MessageListener, GoogleApiClient.ConnectionCallbacks,
+            GoogleApiClient.OnConnectionFailedListener,
+            SharedPreferences.OnSharedPreferenceChangeListener {
 
         Calendar mCalendar;
         SimpleDateFormat mDayOfWeekFormat;
         java.text.DateFormat mDateFormat;
+        SimpleDateFormat mFaceDateFormat;
+        // The date line only changes at midnight, so it is formatted once per day.
+        String mDateString;
+        int mDateStringDay = -1;
+        final char[] mTimeChars = new char[TimeFormatter.MAX_LENGTH];
         GoogleApiClient mGoogleApiClient;
 
         final Handler mUpdateTimeHandler = new EngineHandler(this);
+        FrameScheduler mFrameScheduler;
+        final FrameProfiler mProfiler = new FrameProfiler();
+        SecondsIndicator mSecondsIndicator;
         boolean mRegisteredTimeZoneReceiver = false;
         Paint mBackgroundPaint;
         Paint mTimePaint;
         Paint mTimeAmbientPaint;
+        // The interactive time, rasterized from mTimePaint whenever its size changes.
+        GlyphAtlas mTimeGlyphs;
         Paint mDatePaint;
         Paint mDateAmbientPaint;
         Paint mHiPaint;
         Paint mHiAmbientPaint;
         Paint mLowPaint;
         Paint mLowAmbientPaint;
+        Paint mStripPaint;
 
         boolean mAmbient;
+        AmbientRenderer mAmbientRenderer;
 
-        Bitmap mWeatherIcon;
-        String mHigh;
-        String mLow;
+        WeatherDataPipeline mDataPipeline;
+        // What we showed last time, until the first layout has used it.
+        WatchForecast mCachedWeather;
+        // When to ask the phone for weather rather than wait for its next sync.
+        WeatherFreshness mFreshness;
+        // Replaced wholesale by the pipeline thread; onDraw reads it once per frame.
+        volatile WeatherRenderModel mWeatherModel;
 
         float mTimeYOffset;
         float mDateYOffset;
         float mDividerYOffset;
         float mWeatherYOffset;
+        float mStripYOffset;
 
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
          */
         boolean mLowBitAmbient;
+        boolean mBurnInProtection;
 
         final BroadcastReceiver mTimeZoneReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
                 mCalendar.setTimeZone(TimeZone.getDefault());
                 initFormats();
-                invalidate();
+                invalidate(FrameProfiler.SOURCE_TIMEZONE);
+            }
+        };
+
+        final BroadcastReceiver mProfileReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (intent.hasExtra(EXTRA_PROFILE_ENABLED)) {
+                    mProfiler.setEnabled(intent.getBooleanExtra(EXTRA_PROFILE_ENABLED, false));
+                    Log.i(LOG_TAG, "Frame profiler " + (mProfiler.isEnabled() ? "on" : "off"));
+                } else {
+                    Log.i(LOG_TAG, mProfiler.dump(getBitmapBytes()));
+                }
             }
         };
 
+        /**
+         * Redraws, noting why for the profiler.
+         */
+        private void invalidate(int source) {
+            mProfiler.recordInvalidate(source);
+            invalidate();
+        }
+
+        private long getBitmapBytes() {
+            long bytes = mAmbientRenderer.getBitmapBytes();
+            if (mTimeGlyphs != null) {
+                bytes += mTimeGlyphs.getByteCount();
+            }
+            WeatherRenderModel weather = mWeatherModel;
+            if (weather != null) {
+                bytes += weather.getBitmapBytes();
+            }
+            return bytes;
+        }
+
         private void initFormats() {
             mDayOfWeekFormat = new SimpleDateFormat("EEEE", Locale.getDefault());
             mDayOfWeekFormat.setCalendar(mCalendar);
             mDateFormat = DateFormat.getDateFormat(SunshineWatchFace.this);
             mDateFormat.setCalendar(mCalendar);
+            mFaceDateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.US);
+            mFaceDateFormat.setCalendar(mCalendar);
+            mDateStringDay = -1;
+        }
+
+        private String getDateString() {
+            int day = mCalendar.get(Calendar.YEAR) * 1000 + mCalendar.get(Calendar.DAY_OF_YEAR);
+            if (day != mDateStringDay) {
+                mDateString = mFaceDateFormat.format(mCalendar.getTime()).toUpperCase(Locale.US);
+                mDateStringDay = day;
+            }
+            return mDateString;
         }
 
 
@@ -184,6 +261,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mDateYOffset = resources.getDimension(R.dimen.date_y_offset);
             mDividerYOffset = resources.getDimension(R.dimen.divider_y_offset);
             mWeatherYOffset = resources.getDimension(R.dimen.weather_y_offset);
+            mStripYOffset = resources.getDimension(R.dimen.strip_y_offset);
 
             mBackgroundPaint = new Paint();
             mBackgroundPaint.setColor(resources.getColor(R.color.primary));
@@ -195,13 +273,84 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mLowAmbientPaint = createTextPaint(getResources().getColor(R.color.white));
             mHiPaint = createTextPaint(getResources().getColor(R.color.white), BOLD_TYPEFACE);
             mHiAmbientPaint = createTextPaint(getResources().getColor(R.color.white), NORMAL_TYPEFACE);
+            mStripPaint = createTextPaint(getResources().getColor(R.color.secondary_text_light));
 
             mCalendar = Calendar.getInstance();
+            initFormats();
+
+            SharedPreferences prefs =
+                    PreferenceManager.getDefaultSharedPreferences(SunshineWatchFace.this);
+            mFrameScheduler = new FrameScheduler(
+                    prefs.getInt(PREF_REFRESH_MODE, FrameScheduler.MODE_SECOND), SMOOTH_FPS);
+            prefs.registerOnSharedPreferenceChangeListener(this);
+            mSecondsIndicator = new SecondsIndicator(resources.getColor(R.color.white),
+                    resources.getDimension(R.dimen.seconds_indicator_radius),
+                    resources.getDimension(R.dimen.seconds_indicator_inset));
+
+            mAmbientRenderer = new AmbientRenderer(
+                    resources.getDimensionPixelSize(R.dimen.burn_in_shift));
+            mAmbientRenderer.setOffsets(mTimeYOffset, mDateYOffset, mDividerYOffset,
+                    mWeatherYOffset);
+
+            WeatherCache cache = new WeatherCache(SunshineWatchFace.this);
+            mCachedWeather = cache.load();
+            long weatherAt = 0;
+            if (mCachedWeather != null) {
+                weatherAt = mCachedWeather.fetchedAt > 0
+                        ? mCachedWeather.fetchedAt : cache.getSavedAt();
+            }
+            mFreshness = new WeatherFreshness(weatherAt);
+            mDataPipeline = new WeatherDataPipeline(resources, cache, mProfiler,
+                    new WeatherDataPipeline.Listener() {
+                        @Override
+                        public void onModelReady(WeatherRenderModel model) {
+                            mWeatherModel = model;
+                            mProfiler.recordInvalidate(FrameProfiler.SOURCE_DATA);
+                            postInvalidate();
+                        }
+
+                        @Override
+                        public void onPayloadReceived(String nodeId, long revision,
+                                                      long weatherAtMillis, boolean stored) {
+                            if (weatherAtMillis > 0) {
+                                mFreshness.onWeather(weatherAtMillis,
+                                        System.currentTimeMillis());
+                            }
+                            // The read-back on connect is our own copy, not the phone's answer.
+                            if (!stored) {
+                                long latency = mFreshness.onAnswer(System.nanoTime());
+                                if (latency >= 0) {
+                                    mProfiler.recordRefresh(latency);
+                                }
+                            }
+                            if (revision > 0) {
+                                sendAck(nodeId, revision);
+                            }
+                        }
+                    });
+            if (mCachedWeather != null) {
+                mDataPipeline.restore(mCachedWeather);
+            }
+
+            if (BuildConfig.DEBUG) {
+                SunshineWatchFace.this.registerReceiver(mProfileReceiver,
+                        new IntentFilter(ACTION_PROFILE));
+            }
         }
 
         @Override
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
+            PreferenceManager.getDefaultSharedPreferences(SunshineWatchFace.this)
+                    .unregisterOnSharedPreferenceChangeListener(this);
+            if (BuildConfig.DEBUG) {
+                SunshineWatchFace.this.unregisterReceiver(mProfileReceiver);
+            }
+            mDataPipeline.quit();
+            mAmbientRenderer.release();
+            if (mTimeGlyphs != null) {
+                mTimeGlyphs.recycle();
+            }
             super.onDestroy();
         }
 
@@ -222,13 +371,33 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onPropertiesChanged(Bundle properties) {
             super.onPropertiesChanged(properties);
             mLowBitAmbient = properties.getBoolean(PROPERTY_LOW_BIT_AMBIENT, false);
+            mBurnInProtection = properties.getBoolean(PROPERTY_BURN_IN_PROTECTION, false);
+            mAmbientRenderer.setLowBitAmbient(mLowBitAmbient);
+            mAmbientRenderer.setBurnInProtection(mBurnInProtection);
+        }
+
+        /**
+         * Picks up the refresh mode chosen in {@link RefreshModeConfigActivity}.
+         */
+        @Override
+        public void onSharedPreferenceChanged(SharedPreferences prefs, String key) {
+            if (!PREF_REFRESH_MODE.equals(key)) {
+                return;
+            }
+            int mode = mFrameScheduler.getMode();
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "Leaving refresh mode " + mode + ": "
+                        + mFrameScheduler.getStats(mode));
+            }
+            mFrameScheduler.setMode(prefs.getInt(PREF_REFRESH_MODE, FrameScheduler.MODE_SECOND));
+            updateTimer();
         }
 
         //onTimeTick is called in ambient mode every minute
         @Override
         public void onTimeTick() {
             super.onTimeTick();
-            invalidate();
+            invalidate(FrameProfiler.SOURCE_TICK);
         }
 
         //get called whenever a switch is made between modes
@@ -243,7 +412,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     mHiPaint.setAntiAlias(!inAmbientMode);
                     mLowPaint.setAntiAlias(!inAmbientMode);
                 }
-                invalidate();
+                if (!inAmbientMode) {
+                    // The ambient frame is only worth its memory while we're in ambient mode.
+                    mAmbientRenderer.release();
+                }
+                invalidate(FrameProfiler.SOURCE_MODE_CHANGE);
             }
 
             // Whether the timer should be running depends on whether we're visible (as well as
@@ -262,6 +435,10 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                     R.dimen.time_text_size_round : R.dimen.time_text_size);
             mTimePaint.setTextSize(timeTextSize);
             mTimeAmbientPaint.setTextSize(timeTextSize);
+            if (mTimeGlyphs != null) {
+                mTimeGlyphs.recycle();
+            }
+            mTimeGlyphs = new GlyphAtlas(mTimePaint);
 
             float dateTextSize = resources.getDimension(isRound ?
                     R.dimen.date_text_size_round : R.dimen.date_text_size);
@@ -274,75 +451,81 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mLowPaint.setTextSize(tempTextSize);
             mHiAmbientPaint.setTextSize(tempTextSize);
             mLowAmbientPaint.setTextSize(tempTextSize);
+            mStripPaint.setTextSize(resources.getDimension(isRound ?
+                    R.dimen.strip_text_size_round : R.dimen.strip_text_size));
+            mAmbientRenderer.setPaints(mTimeAmbientPaint, mDateAmbientPaint, mHiAmbientPaint,
+                    mLowAmbientPaint);
+
+            if (mCachedWeather != null && mWeatherModel == null) {
+                // Measuring two short strings is cheap enough to do here, and it puts the cached
+                // temperatures on the very first frame.  The pipeline follows up with the icon.
+                mWeatherModel = WeatherRenderModel.layout(mCachedWeather.high, mCachedWeather.low,
+                        mCachedWeather.weatherId, null,
+                        mHiPaint, mLowPaint, mHiAmbientPaint, mLowAmbientPaint);
+            }
+            mCachedWeather = null;
+            mDataPipeline.setPaints(new Paint(mHiPaint), new Paint(mLowPaint),
+                    new Paint(mHiAmbientPaint), new Paint(mLowAmbientPaint),
+                    new Paint(mStripPaint));
         }
 
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
-            // Draw the background.
-            if (isInAmbientMode()) {
-                canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
-            }
-
-            mCalendar.setTimeInMillis(System.currentTimeMillis());
+            long frameStart = System.nanoTime();
+            long now = System.currentTimeMillis();
+            mCalendar.setTimeInMillis(now);
             boolean format24Hour = DateFormat.is24HourFormat(SunshineWatchFace.this);
+            int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
             int minute = mCalendar.get(Calendar.MINUTE);
-            int amPm = mCalendar.get(Calendar.AM_PM);
-
-            String timeString;
-            if (format24Hour) {
-                int hour = mCalendar.get(Calendar.HOUR_OF_DAY);
-                timeString = String.format("%02d:%02d", hour, minute);
-            } else {
-                int hour = mCalendar.get(Calendar.HOUR);
-                if (hour == 0) hour = 12;
+            int timeLength = TimeFormatter.formatTime(mTimeChars, hour, minute, format24Hour);
+            WeatherRenderModel weather = mWeatherModel;
+            // An active weather alert takes the date's place.
+            String dateString = weather != null ? weather.getActiveAlert(now) : null;
+            if (dateString == null) {
+                dateString = getDateString();
+            }
 
-                String amPMString = amPm == Calendar.AM ? "am" : "pm";
-                timeString = String.format("%d:%02d %s", hour, minute, amPMString);
+            if (isInAmbientMode()) {
+                mAmbientRenderer.draw(canvas, bounds, mTimeChars, timeLength, dateString, weather,
+                        hour * 60 + minute);
+                mProfiler.recordFrame(true, System.nanoTime() - frameStart);
+                return;
             }
 
-            SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, MMM dd yyyy", Locale.US);
-            String dateString = dateFormat.format(mCalendar.getTime()).toUpperCase(Locale.US);
+            // Draw the background.
+            canvas.drawRect(0, 0, canvas.getWidth(), canvas.getHeight(), mBackgroundPaint);
 
             canvas.drawLine(bounds.centerX() - 20, mDividerYOffset, bounds.centerX() + 20, mDividerYOffset, mDateAmbientPaint);
 
-            if (mLow != null && mHigh != null) {
-                if (isInAmbientMode()) {
-                    float xOffsetTime = mTimeAmbientPaint.measureText(timeString) / 2;
-                    canvas.drawText(timeString, bounds.centerX() - xOffsetTime, mTimeYOffset, mTimeAmbientPaint);
+            float centerX = bounds.centerX();
+            if (weather != null) {
+                float xOffsetTime = mTimeGlyphs.measure(mTimeChars, timeLength) / 2;
+                mTimeGlyphs.draw(canvas, mTimeChars, timeLength, centerX - xOffsetTime,
+                        mTimeYOffset, mTimePaint);
 
-                    float xOffsetDate = mDateAmbientPaint.measureText(dateString) / 2;
-                    canvas.drawText(dateString, bounds.centerX() - xOffsetDate, mDateYOffset, mDateAmbientPaint);
+                float xOffsetDate = mDatePaint.measureText(dateString) / 2;
+                canvas.drawText(dateString, centerX - xOffsetDate, mDateYOffset, mDatePaint);
 
-                    float highWidth = mHiAmbientPaint.measureText(mHigh);
-                    float lowWidth = mLowAmbientPaint.measureText(mLow);
-                    float xOffsetHigh = bounds.centerX() - ((highWidth + lowWidth) / 2);
-                    float xOffsetLow = xOffsetHigh + highWidth;
-                    canvas.drawText(mHigh, xOffsetHigh, mWeatherYOffset, mHiAmbientPaint);
-                    canvas.drawText(mLow, xOffsetLow, mWeatherYOffset, mLowAmbientPaint);
-                } else {
-                    float xOffsetTime = mTimePaint.measureText(timeString) / 2;
-                    canvas.drawText(timeString, bounds.centerX() - xOffsetTime, mTimeYOffset, mTimePaint);
-
-                    float xOffsetDate = mDatePaint.measureText(dateString) / 2;
-                    canvas.drawText(dateString, bounds.centerX() - xOffsetDate, mDateYOffset, mDatePaint);
-
-                    float highWidth = mHiPaint.measureText(mHigh);
-                    float lowWidth = mLowPaint.measureText(mLow);
-                    float iconWidth = mHiPaint.getTextSize() / mWeatherIcon.getHeight() * mWeatherIcon.getWidth();
-                    mWeatherIcon = Bitmap.createScaledBitmap(
-                            mWeatherIcon, (int)iconWidth, (int)mHiPaint.getTextSize(), true);
-                    float xOffsetWeather = bounds.centerX() - ((highWidth + lowWidth + 10 + iconWidth) / 2);
-                    float xOffsetHigh = xOffsetWeather + 10 + iconWidth;
-                    float xOffsetLow = xOffsetHigh + highWidth;
-                    canvas.drawBitmap(mWeatherIcon, xOffsetWeather, mWeatherYOffset - mWeatherIcon.getHeight(), null);
-                    canvas.drawText(mHigh, xOffsetHigh, mWeatherYOffset, mHiPaint);
-                    canvas.drawText(mLow, xOffsetLow, mWeatherYOffset, mLowPaint);
+                if (weather.icon != null) {
+                    canvas.drawBitmap(weather.icon, centerX + weather.iconLeft,
+                            mWeatherYOffset + weather.iconTop, null);
+                }
+                canvas.drawText(weather.high, centerX + weather.highLeft, mWeatherYOffset, mHiPaint);
+                canvas.drawText(weather.low, centerX + weather.lowLeft, mWeatherYOffset, mLowPaint);
+                if (weather.strip != null) {
+                    weather.strip.draw(canvas, centerX, mStripYOffset, mStripPaint);
                 }
             }
 
+            if (mFrameScheduler.getMode() == FrameScheduler.MODE_SMOOTH) {
+                long millisIntoMinute = mCalendar.get(Calendar.SECOND) * 1000L
+                        + mCalendar.get(Calendar.MILLISECOND);
+                mSecondsIndicator.draw(canvas, bounds, millisIntoMinute);
+            }
+            long frameNanos = System.nanoTime() - frameStart;
+            mFrameScheduler.recordFrame(frameNanos);
+            mProfiler.recordFrame(false, frameNanos);
         }
 
         @Override
@@ -360,6 +543,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
                 if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
                     Wearable.DataApi.removeListener(mGoogleApiClient, this);
+                    Wearable.MessageApi.removeListener(mGoogleApiClient, this);
                     mGoogleApiClient.disconnect();
                 }
             }
@@ -409,11 +593,9 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
          * Handle updating the time periodically in interactive mode.
          */
         private void handleUpdateTimeMessage() {
-            invalidate();
+            invalidate(FrameProfiler.SOURCE_TICK);
             if (shouldTimerBeRunning()) {
-                long timeMs = System.currentTimeMillis();
-                long delayMs = INTERACTIVE_UPDATE_RATE_MS
-                        - (timeMs % INTERACTIVE_UPDATE_RATE_MS);
+                long delayMs = mFrameScheduler.getDelayMillis(System.currentTimeMillis());
                 mUpdateTimeHandler.sendEmptyMessageDelayed(MSG_UPDATE_TIME, delayMs);
             }
         }
@@ -422,6 +604,32 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onConnected(Bundle bundle) {
             Log.d(LOG_TAG, "onConnected");
             Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
+            Wearable.MessageApi.addListener(mGoogleApiClient, Engine.this);
+
+            // The read below only brings the weather's age up to date if the phone fetched
+            // since; asking now saves a round trip when it hasn't.
+            if (mFreshness.shouldRequest(System.currentTimeMillis())) {
+                requestRefresh();
+            }
+
+            // Changes made while we weren't listening won't be delivered as events, so read the
+            // current item rather than waiting for the next sync.
+            Uri weatherUri = new Uri.Builder()
+                    .scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(WeatherDataPipeline.WEATHER_PATH)
+                    .build();
+            Wearable.DataApi.getDataItems(mGoogleApiClient, weatherUri)
+                    .setResultCallback(new ResultCallback<DataItemBuffer>() {
+                        @Override
+                        public void onResult(DataItemBuffer dataItems) {
+                            if (dataItems.getStatus().isSuccess()) {
+                                for (DataItem dataItem : dataItems) {
+                                    mDataPipeline.submitStored(dataItem.freeze());
+                                }
+                            }
+                            dataItems.release();
+                        }
+                    });
         }
 
         @Override
@@ -437,59 +645,63 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             for (DataEvent dataEvent : dataEventBuffer) {
                 if (dataEvent.getType() == DataEvent.TYPE_CHANGED) {
                     DataItem dataItem = dataEvent.getDataItem();
-                    if (dataItem.getUri().getPath().compareTo(WEATHER_PATH) == 0) {
-                        DataMap dataMap = DataMapItem.fromDataItem(dataItem).getDataMap();
-                        syncWeatherData(dataMap.getString(KEY_HIGH),
-                                dataMap.getString(KEY_LOW), dataMap.getInt(KEY_WEATHER_ID));
-                        invalidate();
+                    if (WeatherDataPipeline.WEATHER_PATH.equals(dataItem.getUri().getPath())) {
+                        // The buffer is released when we return, so hand over a frozen copy and
+                        // leave the decoding to the pipeline thread.
+                        mDataPipeline.submit(dataItem.freeze());
                     }
                 }
             }
         }
 
         @Override
-        public void onConnectionFailed(ConnectionResult connectionResult) {
-            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
-                Log.d(LOG_TAG, "onConnectionFailed: " + connectionResult);
+        public void onMessageReceived(MessageEvent messageEvent) {
+            if (WeatherDataPipeline.PATH_PUSH.equals(messageEvent.getPath())) {
+                // A resend from a phone that hasn't heard our ack yet.
+                mDataPipeline.submitPush(messageEvent.getSourceNodeId(), messageEvent.getData());
             }
         }
 
-        private void syncWeatherData(String high, String low, int weatherId) {
-            this.mHigh = high;
-            this.mLow = low;
-            int iconId = getIconResourceForWeatherCondition(weatherId);
-            mWeatherIcon = BitmapFactory.decodeResource(
-                    SunshineWatchFace.this.getResources(), iconId);
+        /**
+         * Asks the phones in reach for their latest weather.  They answer with a push on
+         * {@link WeatherDataPipeline#PATH_PUSH}, syncing first if theirs is stale too.
+         */
+        private void requestRefresh() {
+            mFreshness.onRequested(System.currentTimeMillis(), System.nanoTime());
+            final GoogleApiClient client = mGoogleApiClient;
+            Wearable.NodeApi.getConnectedNodes(client)
+                    .setResultCallback(new ResultCallback<NodeApi.GetConnectedNodesResult>() {
+                        @Override
+                        public void onResult(NodeApi.GetConnectedNodesResult result) {
+                            if (!result.getStatus().isSuccess() || !client.isConnected()) {
+                                return;
+                            }
+                            for (Node node : result.getNodes()) {
+                                Wearable.MessageApi.sendMessage(client, node.getId(),
+                                        WeatherDataPipeline.PATH_REFRESH, null);
+                            }
+                        }
+                    });
+        }
 
+        /**
+         * Tells the phone that sent a payload that we have it, so it stops resending.  Called on
+         * the pipeline's thread; if we're disconnected the phone simply tries again later.
+         */
+        private void sendAck(String nodeId, long revision) {
+            GoogleApiClient client = mGoogleApiClient;
+            if (client == null || !client.isConnected()) {
+                return;
+            }
+            byte[] data = ByteBuffer.allocate(8).putLong(revision).array();
+            Wearable.MessageApi.sendMessage(client, nodeId, WeatherDataPipeline.PATH_ACK, data);
         }
 
-        public int getIconResourceForWeatherCondition(int weatherId) {
-            // Based on weather code data found at:
-            // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
-            if (weatherId >= 200 && weatherId <= 232) {
-                return R.drawable.art_storm;
-            } else if (weatherId >= 300 && weatherId <= 321) {
-                return R.drawable.art_light_rain;
-            } else if (weatherId >= 500 && weatherId <= 504) {
-                return R.drawable.art_rain;
-            } else if (weatherId == 511) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 520 && weatherId <= 531) {
-                return R.drawable.art_rain;
-            } else if (weatherId >= 600 && weatherId <= 622) {
-                return R.drawable.art_snow;
-            } else if (weatherId >= 701 && weatherId <= 761) {
-                return R.drawable.art_fog;
-            } else if (weatherId == 761 || weatherId == 781) {
-                return R.drawable.art_storm;
-            } else if (weatherId == 800) {
-                return R.drawable.art_clear;
-            } else if (weatherId == 801) {
-                return R.drawable.art_light_clouds;
-            } else if (weatherId >= 802 && weatherId <= 804) {
-                return R.drawable.art_clouds;
+        @Override
+        public void onConnectionFailed(ConnectionResult connectionResult) {
+            if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+                Log.d(LOG_TAG, "onConnectionFailed: " + connectionResult);
             }
-            return -1;
         }
     }
 }
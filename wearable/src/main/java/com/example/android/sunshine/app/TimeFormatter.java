@@ -0,0 +1,67 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+/**
+ * Builds the time shown on the watch face, e.g. "09:05" or "9:05 am", without going through
+ * String.format on every frame.  Plain Java so it can be benchmarked off the watch.
+ */
+public final class TimeFormatter {
+    /**
+     * Longest possible output, "12:00 pm".
+     */
+    public static final int MAX_LENGTH = 8;
+
+    private TimeFormatter() {
+    }
+
+    /**
+     * Writes the time into {@code out}, which must hold at least {@link #MAX_LENGTH} chars.
+     *
+     * @param hourOfDay 0-23
+     * @return the number of chars written.
+     */
+    public static int formatTime(char[] out, int hourOfDay, int minute, boolean format24Hour) {
+        int length = 0;
+        if (format24Hour) {
+            out[length++] = (char) ('0' + hourOfDay / 10);
+            out[length++] = (char) ('0' + hourOfDay % 10);
+        } else {
+            int hour = hourOfDay % 12;
+            if (hour == 0) hour = 12;
+            if (hour >= 10) {
+                out[length++] = '1';
+            }
+            out[length++] = (char) ('0' + hour % 10);
+        }
+        out[length++] = ':';
+        out[length++] = (char) ('0' + minute / 10);
+        out[length++] = (char) ('0' + minute % 10);
+        if (!format24Hour) {
+            out[length++] = ' ';
+            out[length++] = hourOfDay < 12 ? 'a' : 'p';
+            out[length++] = 'm';
+        }
+        return length;
+    }
+
+    public static String formatTime(int hourOfDay, int minute, boolean format24Hour) {
+        char[] out = new char[MAX_LENGTH];
+        int length = formatTime(out, hourOfDay, minute, format24Hour);
+        return new String(out, 0, length);
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import com.google.android.gms.wearable.DataMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The weather the phone last sent: today's temperatures, already formatted in the user's units,
+ * and optionally the days that follow, kept as parallel arrays the way the phone's
+ * ForecastStore keeps them, and the latest weather alert.  Immutable.
+ */
+final class WatchForecast {
+    static final String KEY_HIGH = "high";
+    static final String KEY_LOW = "low";
+    static final String KEY_WEATHER_ID = "weatherId";
+    // Upcoming days, today excluded.  Older phones don't send them.
+    static final String KEY_DAY_DATES = "dayDates";
+    static final String KEY_DAY_HIGHS = "dayHighs";
+    static final String KEY_DAY_LOWS = "dayLows";
+    static final String KEY_DAY_WEATHER_IDS = "dayWeatherIds";
+    // When the phone sent the payload, by its clock; only used for profiling.
+    static final String KEY_SENT_AT = "sentAt";
+    // Revision the phone stamps on each payload; acknowledged on WeatherDataPipeline.PATH_ACK.
+    static final String KEY_REVISION = "revision";
+    // A severe weather alert for the user's location, and when it stops applying.
+    static final String KEY_ALERT = "alert";
+    static final String KEY_ALERT_EXPIRES = "alertExpires";
+    // When the phone fetched the forecast, by its clock.  Older phones don't send it.
+    static final String KEY_FETCHED_AT = "fetchedAt";
+
+    private static final long[] NO_DATES = new long[0];
+    private static final String[] NO_STRINGS = new String[0];
+    private static final int[] NO_IDS = new int[0];
+
+    final String high;
+    final String low;
+    final int weatherId;
+
+    final long[] dayDates;
+    final String[] dayHighs;
+    final String[] dayLows;
+    final int[] dayWeatherIds;
+
+    // Null if the phone hasn't sent one.
+    final String alert;
+    final long alertExpiresAt;
+
+    // 0 if the phone didn't say.  Not part of sameAs(): a refetch of the same weather is the
+    // same forecast, only younger.
+    final long fetchedAt;
+
+    WatchForecast(String high, String low, int weatherId) {
+        this(high, low, weatherId, NO_DATES, NO_STRINGS, NO_STRINGS, NO_IDS);
+    }
+
+    WatchForecast(String high, String low, int weatherId, long[] dayDates, String[] dayHighs,
+                  String[] dayLows, int[] dayWeatherIds) {
+        this(high, low, weatherId, dayDates, dayHighs, dayLows, dayWeatherIds, null, 0);
+    }
+
+    WatchForecast(String high, String low, int weatherId, long[] dayDates, String[] dayHighs,
+                  String[] dayLows, int[] dayWeatherIds, String alert, long alertExpiresAt) {
+        this(high, low, weatherId, dayDates, dayHighs, dayLows, dayWeatherIds, alert,
+                alertExpiresAt, 0);
+    }
+
+    WatchForecast(String high, String low, int weatherId, long[] dayDates, String[] dayHighs,
+                  String[] dayLows, int[] dayWeatherIds, String alert, long alertExpiresAt,
+                  long fetchedAt) {
+        this.high = high;
+        this.low = low;
+        this.weatherId = weatherId;
+        this.dayDates = dayDates;
+        this.dayHighs = dayHighs;
+        this.dayLows = dayLows;
+        this.dayWeatherIds = dayWeatherIds;
+        this.alert = alert;
+        this.alertExpiresAt = alertExpiresAt;
+        this.fetchedAt = fetchedAt;
+    }
+
+    /**
+     * @return the forecast in {@code dataMap}, or null if it lacks today's temperatures.
+     */
+    static WatchForecast fromDataMap(DataMap dataMap) {
+        String high = dataMap.getString(KEY_HIGH);
+        String low = dataMap.getString(KEY_LOW);
+        if (high == null || low == null) {
+            return null;
+        }
+        int weatherId = dataMap.getInt(KEY_WEATHER_ID);
+        String alert = dataMap.getString(KEY_ALERT);
+        long alertExpiresAt = dataMap.getLong(KEY_ALERT_EXPIRES);
+        long fetchedAt = dataMap.getLong(KEY_FETCHED_AT);
+
+        long[] dates = dataMap.getLongArray(KEY_DAY_DATES);
+        String[] highs = dataMap.getStringArray(KEY_DAY_HIGHS);
+        String[] lows = dataMap.getStringArray(KEY_DAY_LOWS);
+        ArrayList<Integer> ids = dataMap.getIntegerArrayList(KEY_DAY_WEATHER_IDS);
+        if (dates == null || highs == null || lows == null || ids == null) {
+            return new WatchForecast(high, low, weatherId, NO_DATES, NO_STRINGS, NO_STRINGS,
+                    NO_IDS, alert, alertExpiresAt, fetchedAt);
+        }
+        int count = Math.min(Math.min(dates.length, highs.length),
+                Math.min(lows.length, ids.size()));
+        int[] weatherIds = new int[count];
+        for (int i = 0; i < count; i++) {
+            weatherIds[i] = ids.get(i);
+        }
+        return new WatchForecast(high, low, weatherId, Arrays.copyOf(dates, count),
+                Arrays.copyOf(highs, count), Arrays.copyOf(lows, count), weatherIds,
+                alert, alertExpiresAt, fetchedAt);
+    }
+
+    int getDayCount() {
+        return dayDates.length;
+    }
+
+    boolean sameAs(WatchForecast other) {
+        return other != null && weatherId == other.weatherId && high.equals(other.high)
+                && low.equals(other.low) && Arrays.equals(dayDates, other.dayDates)
+                && Arrays.equals(dayHighs, other.dayHighs) && Arrays.equals(dayLows, other.dayLows)
+                && Arrays.equals(dayWeatherIds, other.dayWeatherIds)
+                && (alert == null ? other.alert == null : alert.equals(other.alert))
+                && alertExpiresAt == other.alertExpiresAt;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Keeps the last weather the watch received in a tiny binary file, so a freshly created engine
+ * can show it on its first frame instead of waiting for the phone.  The file is a version,
+ * today's weather id and temperature strings, the upcoming days, the alert if there is one,
+ * then when the phone fetched it; a few hundred bytes.
+ */
+class WeatherCache {
+    private static final String LOG_TAG = WeatherCache.class.getSimpleName();
+    private static final String FILE_NAME = "weather.bin";
+    private static final int VERSION = 4;
+    // Far more days than the phone sends; anything larger means the file is damaged.
+    private static final int MAX_DAYS = 16;
+
+    private final AtomicFile mFile;
+
+    WeatherCache(Context context) {
+        mFile = new AtomicFile(new File(context.getFilesDir(), FILE_NAME));
+    }
+
+    /**
+     * @return the saved weather, or null if there is none or it can't be read.
+     */
+    WatchForecast load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(mFile.openRead());
+            if (in.readInt() != VERSION) {
+                return null;
+            }
+            int weatherId = in.readInt();
+            String high = in.readUTF();
+            String low = in.readUTF();
+            int dayCount = in.readInt();
+            if (dayCount < 0 || dayCount > MAX_DAYS) {
+                return null;
+            }
+            long[] dayDates = new long[dayCount];
+            String[] dayHighs = new String[dayCount];
+            String[] dayLows = new String[dayCount];
+            int[] dayWeatherIds = new int[dayCount];
+            for (int i = 0; i < dayCount; i++) {
+                dayDates[i] = in.readLong();
+                dayHighs[i] = in.readUTF();
+                dayLows[i] = in.readUTF();
+                dayWeatherIds[i] = in.readInt();
+            }
+            String alert = in.readBoolean() ? in.readUTF() : null;
+            long alertExpiresAt = in.readLong();
+            long fetchedAt = in.readLong();
+            return new WatchForecast(high, low, weatherId, dayDates, dayHighs, dayLows,
+                    dayWeatherIds, alert, alertExpiresAt, fetchedAt);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Ignoring unreadable weather cache", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // Nothing more to read.
+                }
+            }
+        }
+    }
+
+    /**
+     * @return when the cache was last written, 0 if never.  The cache is only rewritten when the
+     * weather changes, so this errs on the old side.
+     */
+    long getSavedAt() {
+        return mFile.getBaseFile().lastModified();
+    }
+
+    void save(WatchForecast forecast) {
+        FileOutputStream stream = null;
+        try {
+            stream = mFile.startWrite();
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(VERSION);
+            out.writeInt(forecast.weatherId);
+            out.writeUTF(forecast.high);
+            out.writeUTF(forecast.low);
+            out.writeInt(forecast.getDayCount());
+            for (int i = 0; i < forecast.getDayCount(); i++) {
+                out.writeLong(forecast.dayDates[i]);
+                out.writeUTF(forecast.dayHighs[i]);
+                out.writeUTF(forecast.dayLows[i]);
+                out.writeInt(forecast.dayWeatherIds[i]);
+            }
+            out.writeBoolean(forecast.alert != null);
+            if (forecast.alert != null) {
+                out.writeUTF(forecast.alert);
+            }
+            out.writeLong(forecast.alertExpiresAt);
+            out.writeLong(forecast.fetchedAt);
+            out.flush();
+            mFile.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Couldn't save weather cache", e);
+            if (stream != null) {
+                mFile.failWrite(stream);
+            }
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Message;
+import android.os.Process;
+
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+
+import java.util.Locale;
+
+/**
+ * Turns weather DataItems into {@link WeatherRenderModel}s on a background thread, so the watch
+ * face never decodes a DataMap or a bitmap on the thread that draws it.  Finished models are
+ * handed to a {@link Listener} on that background thread; the engine keeps the latest one in a
+ * single volatile field that onDraw reads once per frame.  Every new reading is also written to
+ * the {@link WeatherCache} so the next engine can start with it.
+ * <p>
+ * The phone also pushes the same payload as a message on {@link #PATH_PUSH} to watches that
+ * haven't acknowledged it; either way the payload's revision is reported back through
+ * {@link Listener#onPayloadReceived} so the engine can ack it on {@link #PATH_ACK}.
+ */
+class WeatherDataPipeline {
+    static final String WEATHER_PATH = "/weather";
+    // Must match WearDelivery on the phone.
+    static final String PATH_PUSH = "/weather/push";
+    static final String PATH_ACK = "/weather/ack";
+    static final String PATH_REFRESH = "/weather/refresh";
+
+    private static final int MSG_DATA_ITEM = 0;
+    private static final int MSG_PAINTS = 1;
+    private static final int MSG_RESTORE = 2;
+    private static final int MSG_PUSH = 3;
+    private static final int MSG_STORED_ITEM = 4;
+
+    interface Listener {
+        /**
+         * Called on the pipeline's thread.
+         */
+        void onModelReady(WeatherRenderModel model);
+
+        /**
+         * Called on the pipeline's thread for every payload from {@code nodeId}, even one that
+         * changed nothing, since the phone is waiting to hear it arrived.  A payload that did
+         * change has been laid out and handed to {@link #onModelReady} first.
+         *
+         * @param revision      0 if the phone didn't stamp one.
+         * @param weatherAtMillis when the phone fetched the weather, or, for phones that don't
+         *                      say, now if the payload changed it; 0 if its age is unknown.
+         * @param stored        true for the item read back on connect, which the phone didn't
+         *                      just send.
+         */
+        void onPayloadReceived(String nodeId, long revision, long weatherAtMillis,
+                               boolean stored);
+    }
+
+    private final Resources mResources;
+    private final WeatherCache mCache;
+    private final FrameProfiler mProfiler;
+    private final Listener mListener;
+    private final HandlerThread mThread;
+    private final Handler mHandler;
+
+    // Only touched on mThread.
+    private Paint[] mPaints;
+    private WatchForecast mForecast;
+    private Bitmap mIcon;
+    private int mIconHeight;
+    private IconAtlas mStripIcons;
+
+    WeatherDataPipeline(Resources resources, WeatherCache cache, FrameProfiler profiler,
+                        Listener listener) {
+        mResources = resources;
+        mCache = cache;
+        mProfiler = profiler;
+        mListener = listener;
+        mThread = new HandlerThread("WeatherDataPipeline", Process.THREAD_PRIORITY_BACKGROUND);
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+                switch (msg.what) {
+                    case MSG_DATA_ITEM:
+                        decode((DataItem) msg.obj, false);
+                        break;
+                    case MSG_STORED_ITEM:
+                        decode((DataItem) msg.obj, true);
+                        break;
+                    case MSG_PUSH:
+                        Push push = (Push) msg.obj;
+                        decode(push.nodeId, DataMap.fromByteArray(push.data), false);
+                        break;
+                    case MSG_RESTORE:
+                        restore((WatchForecast) msg.obj);
+                        break;
+                    case MSG_PAINTS:
+                        mPaints = (Paint[]) msg.obj;
+                        layout();
+                        break;
+                }
+            }
+        };
+    }
+
+    /**
+     * Queues a weather DataItem for decoding.  Items from a DataEventBuffer are only valid until
+     * the buffer is released, so pass a frozen copy.
+     */
+    void submit(DataItem frozenItem) {
+        mHandler.obtainMessage(MSG_DATA_ITEM, frozenItem).sendToTarget();
+    }
+
+    /**
+     * Like {@link #submit}, for the item read back from the Data Layer on connect rather than
+     * delivered as a change.
+     */
+    void submitStored(DataItem frozenItem) {
+        mHandler.obtainMessage(MSG_STORED_ITEM, frozenItem).sendToTarget();
+    }
+
+    /**
+     * Queues the data of a {@link #PATH_PUSH} message from {@code nodeId} for decoding.
+     */
+    void submitPush(String nodeId, byte[] data) {
+        mHandler.obtainMessage(MSG_PUSH, new Push(nodeId, data)).sendToTarget();
+    }
+
+    /**
+     * Starts from weather loaded from the cache.  Ignored if a DataItem has been decoded already.
+     */
+    void restore(WatchForecast cached) {
+        mHandler.obtainMessage(MSG_RESTORE, cached).sendToTarget();
+    }
+
+    /**
+     * Lays the weather out with these paints from now on: high, low, ambient high, ambient low
+     * and the forecast strip.  Pass copies; the pipeline measures with them on its own thread.
+     */
+    void setPaints(Paint high, Paint low, Paint highAmbient, Paint lowAmbient, Paint strip) {
+        mHandler.obtainMessage(MSG_PAINTS, new Paint[]{high, low, highAmbient, lowAmbient, strip})
+                .sendToTarget();
+    }
+
+    void quit() {
+        mThread.quitSafely();
+    }
+
+    private void decode(DataItem item, boolean stored) {
+        if (!WEATHER_PATH.equals(item.getUri().getPath())) {
+            return;
+        }
+        // A DataItem's host is the node that put it.
+        decode(item.getUri().getHost(), DataMapItem.fromDataItem(item).getDataMap(), stored);
+    }
+
+    private void decode(String nodeId, DataMap dataMap, boolean stored) {
+        boolean changed = apply(dataMap);
+        if (nodeId != null) {
+            long fetchedAt = dataMap.getLong(WatchForecast.KEY_FETCHED_AT, 0);
+            long weatherAt = fetchedAt > 0 ? fetchedAt
+                    : changed ? System.currentTimeMillis() : 0;
+            mListener.onPayloadReceived(nodeId, dataMap.getLong(WatchForecast.KEY_REVISION, 0),
+                    weatherAt, stored);
+        }
+    }
+
+    /**
+     * @return true if the payload changed the weather shown.
+     */
+    private boolean apply(DataMap dataMap) {
+        long start = System.nanoTime();
+        WatchForecast forecast = WatchForecast.fromDataMap(dataMap);
+        if (forecast == null) {
+            return false;
+        }
+        if (forecast.sameAs(mForecast)) {
+            // Typically the item read back on connect, which we already show.  A refetch of the
+            // same weather only needs its fetch time kept for the next engine.
+            if (forecast.fetchedAt > mForecast.fetchedAt) {
+                mForecast = forecast;
+                mCache.save(forecast);
+            }
+            return false;
+        }
+        if (mForecast == null || forecast.weatherId != mForecast.weatherId) {
+            mIcon = null;
+            mIconHeight = 0;
+        }
+        mForecast = forecast;
+        layout();
+        if (mProfiler.isEnabled()) {
+            long sentAt = dataMap.getLong(WatchForecast.KEY_SENT_AT, -1);
+            mProfiler.recordDataItem(sentAt < 0 ? -1 : System.currentTimeMillis() - sentAt,
+                    System.nanoTime() - start);
+        }
+        mCache.save(forecast);
+        return true;
+    }
+
+    private void restore(WatchForecast cached) {
+        if (mForecast != null) {
+            return;
+        }
+        mForecast = cached;
+        layout();
+    }
+
+    private void layout() {
+        if (mForecast == null || mPaints == null) {
+            return;
+        }
+        int iconHeight = (int) mPaints[0].getTextSize();
+        if (mIcon == null || mIconHeight != iconHeight) {
+            mIcon = decodeIcon(mForecast.weatherId, iconHeight);
+            mIconHeight = iconHeight;
+        }
+        ForecastStrip strip = null;
+        if (mForecast.getDayCount() > 0) {
+            // Strip icons are a little taller than its text.
+            int stripIconSize = Math.round(mPaints[4].getTextSize() * 1.5f);
+            if (mStripIcons == null || mStripIcons.getSize() != stripIconSize) {
+                mStripIcons = new IconAtlas(mResources, stripIconSize);
+            }
+            strip = ForecastStrip.layout(mForecast, mStripIcons, mPaints[4], Locale.getDefault());
+        }
+        mListener.onModelReady(WeatherRenderModel.layout(mForecast.high, mForecast.low,
+                mForecast.weatherId, mIcon, strip, mForecast.alert, mForecast.alertExpiresAt,
+                mPaints[0], mPaints[1], mPaints[2], mPaints[3]));
+    }
+
+    /**
+     * Decodes the condition's art at roughly {@code height} pixels.  The art is much larger than
+     * the text it sits next to, so it is subsampled while decoding and only the small result is
+     * scaled to size.
+     */
+    private Bitmap decodeIcon(int weatherId, int height) {
+        int iconId = getIconResourceForWeatherCondition(weatherId);
+        if (iconId == -1 || height <= 0) {
+            return null;
+        }
+        Bitmap sampled = IconAtlas.decodeSampled(mResources, iconId, height);
+        if (sampled == null) {
+            return null;
+        }
+        int width = Math.round((float) height / sampled.getHeight() * sampled.getWidth());
+        Bitmap scaled = Bitmap.createScaledBitmap(sampled, width, height, true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    private static final class Push {
+        final String nodeId;
+        final byte[] data;
+
+        Push(String nodeId, byte[] data) {
+            this.nodeId = nodeId;
+            this.data = data;
+        }
+    }
+
+    static int getIconResourceForWeatherCondition(int weatherId) {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        if (weatherId >= 200 && weatherId <= 232) {
+            return R.drawable.art_storm;
+        } else if (weatherId >= 300 && weatherId <= 321) {
+            return R.drawable.art_light_rain;
+        } else if (weatherId >= 500 && weatherId <= 504) {
+            return R.drawable.art_rain;
+        } else if (weatherId == 511) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 520 && weatherId <= 531) {
+            return R.drawable.art_rain;
+        } else if (weatherId >= 600 && weatherId <= 622) {
+            return R.drawable.art_snow;
+        } else if (weatherId >= 701 && weatherId <= 761) {
+            return R.drawable.art_fog;
+        } else if (weatherId == 761 || weatherId == 781) {
+            return R.drawable.art_storm;
+        } else if (weatherId == 800) {
+            return R.drawable.art_clear;
+        } else if (weatherId == 801) {
+            return R.drawable.art_light_clouds;
+        } else if (weatherId >= 802 && weatherId <= 804) {
+            return R.drawable.art_clouds;
+        }
+        return -1;
+    }
+}
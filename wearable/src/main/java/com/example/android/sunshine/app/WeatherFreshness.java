@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when the watch face should ask the phone for weather instead of waiting for the next
+ * sync, and times how long the answer takes.  Requests are rate limited: the face becomes
+ * visible every time the wrist is raised, and a phone that is out of range or has nothing newer
+ * should not be asked each time.  Called from the main thread and the data pipeline's thread.
+ * Plain Java so it can be tested off the watch.
+ */
+final class WeatherFreshness {
+    /**
+     * Weather older than this is worth asking for.
+     */
+    static final long STALE_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Minimum time between two requests.
+     */
+    static final long MIN_REQUEST_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(15);
+
+    /**
+     * An answer arriving later than this is counted as a regular update, not as the response.
+     */
+    static final long RESPONSE_TIMEOUT_NANOS = TimeUnit.MINUTES.toNanos(2);
+
+    private long mWeatherAtMillis;
+    private long mRequestedAtMillis;
+    private long mPendingSinceNanos = -1;
+
+    /**
+     * @param weatherAtMillis when the phone fetched the weather being shown, 0 if there is none.
+     */
+    WeatherFreshness(long weatherAtMillis) {
+        mWeatherAtMillis = weatherAtMillis;
+    }
+
+    synchronized boolean shouldRequest(long nowMillis) {
+        return nowMillis - mWeatherAtMillis >= STALE_MILLIS
+                && (mRequestedAtMillis == 0
+                || nowMillis - mRequestedAtMillis >= MIN_REQUEST_INTERVAL_MILLIS
+                // The wall clock went backwards; don't let that block requests for good.
+                || nowMillis < mRequestedAtMillis);
+    }
+
+    synchronized void onRequested(long nowMillis, long nowNanos) {
+        mRequestedAtMillis = nowMillis;
+        mPendingSinceNanos = nowNanos;
+    }
+
+    /**
+     * Records the age of weather we received.  Weather older than what we have, such as a
+     * payload read back on connect, leaves the age alone.
+     *
+     * @param weatherAtMillis when the phone fetched it.  Clamped to now, so a phone clock that
+     *                        runs ahead can't hold off requests.
+     */
+    synchronized void onWeather(long weatherAtMillis, long nowMillis) {
+        mWeatherAtMillis = Math.max(mWeatherAtMillis, Math.min(weatherAtMillis, nowMillis));
+    }
+
+    /**
+     * Records a payload the phone sent, whether or not it was asked for.
+     *
+     * @return the time since the outstanding request in nanoseconds, or -1 if there was none.
+     */
+    synchronized long onAnswer(long nowNanos) {
+        long latency = -1;
+        if (mPendingSinceNanos >= 0 && nowNanos - mPendingSinceNanos < RESPONSE_TIMEOUT_NANOS) {
+            latency = nowNanos - mPendingSinceNanos;
+        }
+        mPendingSinceNanos = -1;
+        return latency;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+import java.util.Locale;
+
+/**
+ * Everything onDraw needs to show the weather, decoded and laid out ahead of time.  Instances
+ * are immutable once built, so the drawing thread can use one while the next is being prepared.
+ * Horizontal offsets are relative to the center of the face, vertical ones to the weather
+ * baseline.
+ */
+final class WeatherRenderModel {
+    // Space between the icon and the high temperature.
+    static final float ICON_GAP = 10;
+
+    final String high;
+    final String low;
+    final int weatherId;
+
+    // Scaled to the temperature text height; null if the condition has no art.
+    final Bitmap icon;
+    final float iconLeft;
+    final float iconTop;
+    final float highLeft;
+    final float lowLeft;
+
+    final float ambientHighLeft;
+    final float ambientLowLeft;
+
+    // The days after today; null if the phone didn't send any.
+    final ForecastStrip strip;
+
+    // Upper-cased for the date line; null if there is none.
+    private final String alert;
+    private final long alertExpiresAt;
+
+    private WeatherRenderModel(String high, String low, int weatherId, Bitmap icon,
+                               float iconLeft, float iconTop, float highLeft, float lowLeft,
+                               float ambientHighLeft, float ambientLowLeft, ForecastStrip strip,
+                               String alert, long alertExpiresAt) {
+        this.high = high;
+        this.low = low;
+        this.weatherId = weatherId;
+        this.icon = icon;
+        this.iconLeft = iconLeft;
+        this.iconTop = iconTop;
+        this.highLeft = highLeft;
+        this.lowLeft = lowLeft;
+        this.ambientHighLeft = ambientHighLeft;
+        this.ambientLowLeft = ambientLowLeft;
+        this.strip = strip;
+        this.alert = alert;
+        this.alertExpiresAt = alertExpiresAt;
+    }
+
+    /**
+     * @return the alert to show in place of the date, or null if none applies at {@code now}.
+     */
+    String getActiveAlert(long nowMillis) {
+        return alert != null && nowMillis < alertExpiresAt ? alert : null;
+    }
+
+    /**
+     * @return memory held by the model's bitmaps, for profiling.
+     */
+    long getBitmapBytes() {
+        long bytes = icon != null ? icon.getByteCount() : 0;
+        if (strip != null) {
+            bytes += strip.getBitmapBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Measures the temperatures with the given paints and centers them, with the icon to their
+     * left in interactive mode.  The paints are only read.
+     */
+    static WeatherRenderModel layout(String high, String low, int weatherId, Bitmap icon,
+                                     Paint highPaint, Paint lowPaint,
+                                     Paint highAmbientPaint, Paint lowAmbientPaint) {
+        return layout(high, low, weatherId, icon, null,
+                highPaint, lowPaint, highAmbientPaint, lowAmbientPaint);
+    }
+
+    static WeatherRenderModel layout(String high, String low, int weatherId, Bitmap icon,
+                                     ForecastStrip strip, Paint highPaint, Paint lowPaint,
+                                     Paint highAmbientPaint, Paint lowAmbientPaint) {
+        return layout(high, low, weatherId, icon, strip, null, 0,
+                highPaint, lowPaint, highAmbientPaint, lowAmbientPaint);
+    }
+
+    static WeatherRenderModel layout(String high, String low, int weatherId, Bitmap icon,
+                                     ForecastStrip strip, String alert, long alertExpiresAt,
+                                     Paint highPaint, Paint lowPaint,
+                                     Paint highAmbientPaint, Paint lowAmbientPaint) {
+        float highWidth = highPaint.measureText(high);
+        float lowWidth = lowPaint.measureText(low);
+        float iconWidth = icon != null ? icon.getWidth() + ICON_GAP : 0;
+        float iconLeft = -(iconWidth + highWidth + lowWidth) / 2;
+        float highLeft = iconLeft + iconWidth;
+        float iconTop = icon != null ? -icon.getHeight() : 0;
+
+        float ambientHighWidth = highAmbientPaint.measureText(high);
+        float ambientLowWidth = lowAmbientPaint.measureText(low);
+        float ambientHighLeft = -(ambientHighWidth + ambientLowWidth) / 2;
+
+        return new WeatherRenderModel(high, low, weatherId, icon, iconLeft, iconTop,
+                highLeft, highLeft + highWidth, ambientHighLeft, ambientHighLeft + ambientHighWidth,
+                strip, alert != null ? alert.toUpperCase(Locale.getDefault()) : null,
+                alertExpiresAt);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Renders the ambient face into an off-screen canvas and checks that a tick only repaints what
+ * changed.  Frame cost is held to counted work, regions repainted and draws on the screen,
+ * which catches a frame that went back to laying out everything; see {@link CountingCanvas}.
+ *
+ * Run with ./gradlew :wearable:testDebugUnitTest
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class AmbientRendererTest {
+    private static final int SIZE = 320;
+    private static final String DATE = "SUN, OCT 18 2026";
+
+    private final Rect mBounds = new Rect(0, 0, SIZE, SIZE);
+    private final char[] mTime = new char[TimeFormatter.MAX_LENGTH];
+    private Canvas mCanvas;
+    private AmbientRenderer mRenderer;
+    private Paint mHighPaint;
+    private Paint mLowPaint;
+
+    @Before
+    public void setUp() {
+        mCanvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+        Paint timePaint = textPaint(30);
+        Paint datePaint = textPaint(15);
+        mHighPaint = textPaint(20);
+        mLowPaint = textPaint(20);
+
+        mRenderer = new AmbientRenderer(4);
+        mRenderer.setPaints(timePaint, datePaint, mHighPaint, mLowPaint);
+        mRenderer.setOffsets(70, 92, 105, 135);
+        mRenderer.setBurnInProtection(true);
+    }
+
+    @Test
+    public void tickRepaintsOnlyTheChangedDigit() {
+        WeatherRenderModel weather = weather("25°", "16°");
+        draw(10, 41, weather);
+        assertTrue(mRenderer.getLastDirtyRegions() > 0);
+
+        draw(10, 42, weather);
+        assertEquals(1, mRenderer.getLastDirtyRegions());
+
+        draw(10, 42, weather);
+        assertEquals(0, mRenderer.getLastDirtyRegions());
+    }
+
+    @Test
+    public void newWeatherRepaintsOnlyTheWeather() {
+        draw(10, 41, weather("25°", "16°"));
+        draw(10, 41, weather("24°", "15°"));
+        assertEquals(1, mRenderer.getLastDirtyRegions());
+    }
+
+    @Test
+    public void ambientTicksCostOneBlitAndTheChangedDigits() {
+        WeatherRenderModel weather = weather("25°", "16°");
+        CountingCanvas screen = new CountingCanvas(SIZE);
+        char[] previous = new char[TimeFormatter.MAX_LENGTH];
+        int previousLength = 0;
+        for (int i = 0; i < 240; i++) {
+            screen.reset();
+            int length = draw(screen, i / 60 + 8, i % 60, weather);
+
+            // The screen only ever gets the finished frame, in one copy.
+            assertEquals(1, screen.bitmaps);
+            assertEquals(0, screen.texts);
+            if (i > 0) {
+                int changed = countChanged(previous, previousLength, mTime, length);
+                int dirty = mRenderer.getLastDirtyRegions();
+                assertTrue("minute " + i + " repainted " + dirty + " regions for " + changed
+                        + " changed characters", dirty >= 1 && dirty <= changed);
+            }
+            System.arraycopy(mTime, 0, previous, 0, length);
+            previousLength = length;
+        }
+    }
+
+    private int draw(int hour, int minute, WeatherRenderModel weather) {
+        return draw(mCanvas, hour, minute, weather);
+    }
+
+    private int draw(Canvas canvas, int hour, int minute, WeatherRenderModel weather) {
+        int length = TimeFormatter.formatTime(mTime, hour, minute, false);
+        mRenderer.draw(canvas, mBounds, mTime, length, DATE, weather, hour * 60 + minute);
+        return length;
+    }
+
+    private static int countChanged(char[] a, int aLength, char[] b, int bLength) {
+        int changed = 0;
+        for (int i = 0; i < Math.max(aLength, bLength); i++) {
+            if (i >= aLength || i >= bLength || a[i] != b[i]) {
+                changed++;
+            }
+        }
+        return changed;
+    }
+
+    private WeatherRenderModel weather(String high, String low) {
+        return WeatherRenderModel.layout(high, low, 800, null, mHighPaint, mLowPaint,
+                mHighPaint, mLowPaint);
+    }
+
+    private static Paint textPaint(float size) {
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setTextSize(size);
+        return paint;
+    }
+}
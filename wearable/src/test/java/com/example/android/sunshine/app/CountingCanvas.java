@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Counts the text and bitmap draws made on it.  Robolectric's canvas doesn't rasterize, so
+ * timing draws under it measures nothing real; tests hold drawing to counted work instead.
+ * Real frame times are what the face's {@link FrameScheduler} records on a watch.
+ */
+class CountingCanvas extends Canvas {
+    int texts;
+    int bitmaps;
+    // The distinct bitmaps copied from, by identity.
+    final Set<Bitmap> sources = Collections.newSetFromMap(new IdentityHashMap<Bitmap, Boolean>());
+
+    CountingCanvas(int size) {
+        super(Bitmap.createBitmap(size, size, Bitmap.Config.ARGB_8888));
+    }
+
+    void reset() {
+        texts = 0;
+        bitmaps = 0;
+        sources.clear();
+    }
+
+    @Override
+    public void drawText(String text, float x, float y, Paint paint) {
+        texts++;
+        super.drawText(text, x, y, paint);
+    }
+
+    @Override
+    public void drawText(char[] text, int index, int count, float x, float y, Paint paint) {
+        texts++;
+        super.drawText(text, index, count, x, y, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, float left, float top, Paint paint) {
+        bitmaps++;
+        sources.add(bitmap);
+        super.drawBitmap(bitmap, left, top, paint);
+    }
+
+    @Override
+    public void drawBitmap(Bitmap bitmap, Rect src, Rect dst, Paint paint) {
+        bitmaps++;
+        sources.add(bitmap);
+        super.drawBitmap(bitmap, src, dst, paint);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Bitmap;
+import android.graphics.Paint;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Lays out the multi-day strip and checks that drawing it is a fixed, small number of text draws
+ * and atlas copies, with no measuring; see {@link CountingCanvas}.
+ *
+ * Run with ./gradlew :wearable:testDebugUnitTest
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class ForecastStripTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+    // 2015-10-25, a Sunday.
+    private static final long TOMORROW = 1445731200000L;
+
+    @Test
+    public void showsAtMostMaxDays() {
+        Paint paint = textPaint();
+        IconAtlas icons = new IconAtlas(RuntimeEnvironment.application.getResources(), 16);
+
+        assertNull(ForecastStrip.layout(forecast(0), icons, paint, Locale.US));
+        assertEquals(2, ForecastStrip.layout(forecast(2), icons, paint, Locale.US).getDayCount());
+        assertEquals(ForecastStrip.MAX_DAYS,
+                ForecastStrip.layout(forecast(7), icons, paint, Locale.US).getDayCount());
+    }
+
+    @Test
+    public void drawingOnlyReplaysTheLayout() {
+        CountingPaint paint = new CountingPaint();
+        IconAtlas icons = new IconAtlas(RuntimeEnvironment.application.getResources(), 16);
+        ForecastStrip strip = ForecastStrip.layout(forecast(ForecastStrip.MAX_DAYS), icons, paint,
+                Locale.US);
+        int measured = paint.measures;
+        assertTrue(measured > 0);
+        CountingCanvas canvas = new CountingCanvas(320);
+
+        for (int frame = 0; frame < 300; frame++) {
+            canvas.reset();
+            strip.draw(canvas, 160, 145, paint);
+
+            // A label and a "high/low" per day, and at most one icon copy from the shared atlas.
+            assertEquals(2 * ForecastStrip.MAX_DAYS, canvas.texts);
+            assertTrue(canvas.bitmaps <= ForecastStrip.MAX_DAYS);
+            for (Bitmap source : canvas.sources) {
+                assertSame(icons.getBitmap(), source);
+            }
+        }
+        // Everything was measured when the strip was laid out.
+        assertEquals(measured, paint.measures);
+    }
+
+    private static WatchForecast forecast(int days) {
+        long[] dates = new long[days];
+        String[] highs = new String[days];
+        String[] lows = new String[days];
+        int[] weatherIds = new int[days];
+        for (int i = 0; i < days; i++) {
+            dates[i] = TOMORROW + i * DAY;
+            highs[i] = (20 + i) + "°";
+            lows[i] = (10 + i) + "°";
+            weatherIds[i] = i % 2 == 0 ? 800 : 500;
+        }
+        return new WatchForecast("21°", "12°", 801, dates, highs, lows, weatherIds);
+    }
+
+    private static Paint textPaint() {
+        Paint paint = new Paint();
+        paint.setAntiAlias(true);
+        paint.setTextSize(11);
+        return paint;
+    }
+
+    /**
+     * Counts measuring, the work a strip should only do when it is laid out.
+     */
+    private static class CountingPaint extends Paint {
+        int measures;
+
+        CountingPaint() {
+            setAntiAlias(true);
+            setTextSize(11);
+        }
+
+        @Override
+        public float measureText(String text) {
+            measures++;
+            return super.measureText(text);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameProfilerTest {
+
+    @Test
+    public void recordsNothingUntilEnabled() {
+        FrameProfiler profiler = new FrameProfiler();
+        profiler.recordFrame(false, TimeUnit.MICROSECONDS.toNanos(100));
+        profiler.recordInvalidate(FrameProfiler.SOURCE_TICK);
+        assertEquals(0, profiler.getFrameCount(false, 0));
+        assertEquals(0, profiler.getInvalidateCount(FrameProfiler.SOURCE_TICK));
+    }
+
+    @Test
+    public void bucketsFramesByModeAndDuration() {
+        FrameProfiler profiler = new FrameProfiler();
+        profiler.setEnabled(true);
+        profiler.recordFrame(false, TimeUnit.MICROSECONDS.toNanos(100));
+        profiler.recordFrame(false, TimeUnit.MICROSECONDS.toNanos(500));
+        profiler.recordFrame(true, TimeUnit.MILLISECONDS.toNanos(50));
+
+        assertEquals(1, profiler.getFrameCount(false, 0));
+        assertEquals(1, profiler.getFrameCount(false, 1));
+        assertEquals(0, profiler.getFrameCount(true, 0));
+        assertEquals(1, profiler.getFrameCount(true, FrameProfiler.BUCKET_MICROS.length));
+    }
+
+    @Test
+    public void dumpReportsInvalidatesAndDelivery() {
+        FrameProfiler profiler = new FrameProfiler();
+        profiler.setEnabled(true);
+        profiler.recordInvalidate(FrameProfiler.SOURCE_DATA);
+        profiler.recordInvalidate(FrameProfiler.SOURCE_DATA);
+        profiler.recordDataItem(300, TimeUnit.MILLISECONDS.toNanos(2));
+        profiler.recordDataItem(100, TimeUnit.MILLISECONDS.toNanos(4));
+
+        String dump = profiler.dump(64 * 1024);
+        assertTrue(dump, dump.contains("data=2"));
+        assertTrue(dump, dump.contains("avg delivery 200ms, max delivery 300ms, avg decode 3000us"));
+        assertTrue(dump, dump.contains("bitmaps: 64KB"));
+
+        // Turning it back on starts a fresh profile.
+        profiler.setEnabled(false);
+        profiler.setEnabled(true);
+        assertEquals(0, profiler.getInvalidateCount(FrameProfiler.SOURCE_DATA));
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that every refresh mode lands its frames on wall clock boundaries however late the
+ * handler wakes up, and counts the frames and draws each mode costs a minute.  Frame times are
+ * only fed in to check the bookkeeping; see {@link CountingCanvas} for why they aren't measured.
+ *
+ * Run with ./gradlew :wearable:testDebugUnitTest
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 21)
+public class FrameSchedulerTest {
+    private static final int SIZE = 320;
+    // 2015-10-24 20:00:00 UTC; any start works, this one is not on a second boundary.
+    private static final long START = 1445716800000L + 123;
+
+    @Test
+    public void framesStayOnWallClockBoundaries() {
+        FrameScheduler scheduler = new FrameScheduler(FrameScheduler.MODE_SECOND, 30);
+        assertEquals(877, scheduler.getDelayMillis(START));
+
+        scheduler.setMode(FrameScheduler.MODE_MINUTE);
+        assertEquals(TimeUnit.MINUTES.toMillis(1) - 123, scheduler.getDelayMillis(START));
+
+        scheduler.setMode(FrameScheduler.MODE_SMOOTH);
+        // 30 fps frames fall at ceil(n * 1000 / 30): 34, 67, 100, ...
+        assertEquals(34, scheduler.getDelayMillis(START - 123));
+        assertEquals(33, scheduler.getDelayMillis(START - 123 + 34));
+        assertEquals(1, scheduler.getDelayMillis(START - 123 + 999));
+
+        for (int mode = 0; mode < FrameScheduler.MODE_COUNT; mode++) {
+            scheduler.setMode(mode);
+            long onTime = START;
+            long late = START;
+            for (int frame = 0; frame < 500; frame++) {
+                onTime += scheduler.getDelayMillis(onTime);
+                long boundary = late + scheduler.getDelayMillis(late);
+                assertEquals("mode " + mode + " drifted at frame " + frame, onTime, boundary);
+                // The handler runs a few milliseconds late, as it does on a busy watch.
+                late = boundary + frame % 7;
+            }
+        }
+    }
+
+    @Test
+    public void everyModeDrawsItsFramesFromTheAtlas() {
+        CountingCanvas canvas = new CountingCanvas(SIZE);
+        Rect bounds = new Rect(0, 0, SIZE, SIZE);
+        Paint timePaint = new Paint();
+        timePaint.setAntiAlias(true);
+        timePaint.setTextSize(30);
+        GlyphAtlas glyphs = new GlyphAtlas(timePaint);
+        SecondsIndicator indicator = new SecondsIndicator(Color.WHITE, 3, 8);
+        char[] time = new char[TimeFormatter.MAX_LENGTH];
+        int[] framesPerMinute = {1, 60, 24 * 60};
+
+        FrameScheduler scheduler = new FrameScheduler(FrameScheduler.MODE_SECOND, 24);
+        for (int mode = 0; mode < FrameScheduler.MODE_COUNT; mode++) {
+            scheduler.setMode(mode);
+            canvas.reset();
+            // One minute from the top of one, which belongs to the previous minute's frames.
+            long minuteStart = START - START % TimeUnit.MINUTES.toMillis(1);
+            long now = minuteStart;
+            int frames = 0;
+            int glyphCopies = 0;
+            while ((now += scheduler.getDelayMillis(now))
+                    <= minuteStart + TimeUnit.MINUTES.toMillis(1)) {
+                long minutes = TimeUnit.MILLISECONDS.toMinutes(now);
+                int length = TimeFormatter.formatTime(time, (int) (minutes / 60 % 24),
+                        (int) (minutes % 60), false);
+                float width = glyphs.measure(time, length);
+                glyphs.draw(canvas, time, length, (SIZE - width) / 2, 70, timePaint);
+                if (mode == FrameScheduler.MODE_SMOOTH) {
+                    indicator.draw(canvas, bounds, now % TimeUnit.MINUTES.toMillis(1));
+                }
+                frames++;
+                glyphCopies += length;
+            }
+
+            assertEquals("mode " + mode, framesPerMinute[mode], frames);
+            // Every frame is glyph copies from the one atlas; none shapes text.
+            assertEquals("mode " + mode, glyphCopies, canvas.bitmaps);
+            assertEquals("mode " + mode, 0, canvas.texts);
+            assertEquals("mode " + mode, 1, canvas.sources.size());
+        }
+    }
+
+    @Test
+    public void statsCountFramesOverTheModesBudget() {
+        FrameScheduler scheduler = new FrameScheduler(FrameScheduler.MODE_SECOND, 24);
+        for (int mode = 0; mode < FrameScheduler.MODE_COUNT; mode++) {
+            scheduler.setMode(mode);
+            long budget = scheduler.getFrameBudgetNanos(mode);
+            assertTrue("mode " + mode, budget <= FrameScheduler.VSYNC_NANOS);
+            scheduler.recordFrame(budget);
+            scheduler.recordFrame(budget + 1);
+
+            FrameScheduler.Stats stats = scheduler.getStats(mode);
+            assertEquals(2, stats.frames);
+            assertEquals(1, stats.overBudget);
+            assertEquals(budget + 1, stats.maxNanos);
+            assertEquals(budget, stats.getAverageNanos());
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2014 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.example.android.sunshine.app;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WeatherFreshnessTest {
+    private static final long NOW = TimeUnit.DAYS.toMillis(10000);
+
+    @Test
+    public void requestsOnlyWhenStale() {
+        assertFalse(new WeatherFreshness(NOW - TimeUnit.MINUTES.toMillis(5)).shouldRequest(NOW));
+        assertTrue(new WeatherFreshness(NOW - WeatherFreshness.STALE_MILLIS).shouldRequest(NOW));
+        assertTrue(new WeatherFreshness(0).shouldRequest(NOW));
+    }
+
+    @Test
+    public void rateLimitsRequestsWhileNoAnswerComes() {
+        WeatherFreshness freshness = new WeatherFreshness(0);
+        freshness.onRequested(NOW, 0);
+
+        assertFalse(freshness.shouldRequest(NOW + TimeUnit.MINUTES.toMillis(1)));
+        assertTrue(freshness.shouldRequest(
+                NOW + WeatherFreshness.MIN_REQUEST_INTERVAL_MILLIS));
+    }
+
+    @Test
+    public void measuresTheAnswerToARequest() {
+        WeatherFreshness freshness = new WeatherFreshness(0);
+        long requestedAt = TimeUnit.SECONDS.toNanos(50);
+        freshness.onRequested(NOW, requestedAt);
+
+        long latency = freshness.onAnswer(requestedAt + TimeUnit.MILLISECONDS.toNanos(300));
+        freshness.onWeather(NOW + 200, NOW + 300);
+
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(300), latency);
+        assertFalse(freshness.shouldRequest(NOW + WeatherFreshness.MIN_REQUEST_INTERVAL_MILLIS));
+        // Later updates are ordinary syncs, not answers.
+        assertEquals(-1, freshness.onAnswer(requestedAt + 1));
+    }
+
+    @Test
+    public void lateAnswerIsNotCounted() {
+        WeatherFreshness freshness = new WeatherFreshness(0);
+        freshness.onRequested(NOW, 0);
+
+        assertEquals(-1, freshness.onAnswer(WeatherFreshness.RESPONSE_TIMEOUT_NANOS));
+    }
+
+    @Test
+    public void oldWeatherStaysStale() {
+        long fetchedAt = NOW - TimeUnit.HOURS.toMillis(5);
+        WeatherFreshness freshness = new WeatherFreshness(fetchedAt);
+
+        // The same hours-old weather arriving again, e.g. read back on connect.
+        freshness.onWeather(fetchedAt, NOW);
+        assertTrue(freshness.shouldRequest(NOW));
+        // An older payload doesn't move the age backwards either.
+        freshness.onWeather(fetchedAt - 1, NOW);
+        assertTrue(freshness.shouldRequest(NOW));
+
+        freshness.onWeather(NOW - 1000, NOW);
+        assertFalse(freshness.shouldRequest(NOW));
+    }
+
+    @Test
+    public void phoneClockAheadDoesNotHoldOffRequests() {
+        WeatherFreshness freshness = new WeatherFreshness(0);
+        freshness.onWeather(NOW + TimeUnit.DAYS.toMillis(1), NOW);
+
+        assertTrue(freshness.shouldRequest(NOW + WeatherFreshness.STALE_MILLIS));
+    }
+}